@@ -0,0 +1,113 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.BuildAgent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Limit on the capacity of a resource used by builds running on the agents of one agent pool or
+ * on the agents whose name matches a pattern.
+ */
+public class AgentLimit {
+
+    public static final int NO_POOL = -1;
+
+    private final int poolId;
+
+    private final Pattern agentPattern;
+
+    private final int buildLimit;
+
+    /**
+     * Whether each agent name seen so far matches the pattern, so the pattern runs once per agent
+     * rather than on every check.
+     */
+    private final ConcurrentMap<String, Boolean> nameMatches = new ConcurrentHashMap<String, Boolean>();
+
+    private AgentLimit(int poolId, Pattern agentPattern, int buildLimit) {
+        if (buildLimit < 0) {
+            throw new InvalidLimitException("invalid limit number");
+        }
+        this.poolId = poolId;
+        this.agentPattern = agentPattern;
+        this.buildLimit = buildLimit;
+    }
+
+    public static AgentLimit forPool(int poolId, int buildLimit) {
+        if (poolId < 0) {
+            throw new IllegalArgumentException("invalid agent pool id");
+        }
+        return new AgentLimit(poolId, null, buildLimit);
+    }
+
+    public static AgentLimit forAgents(String agentPattern, int buildLimit) {
+        if (agentPattern == null || "".equals(agentPattern)) {
+            throw new IllegalArgumentException("agent pattern cannot be null or empty");
+        }
+        return new AgentLimit(NO_POOL, Pattern.compile(agentPattern), buildLimit);
+    }
+
+    public boolean isPool() {
+        return agentPattern == null;
+    }
+
+    public int getPoolId() {
+        return poolId;
+    }
+
+    public String getAgentPattern() {
+        return agentPattern == null ? null : agentPattern.pattern();
+    }
+
+    public int getBuildLimit() {
+        return buildLimit;
+    }
+
+    public boolean matches(BuildAgent agent) {
+        if (isPool()) {
+            return getPoolId(agent) == poolId;
+        }
+        return matchesAgentName(agent.getName());
+    }
+
+    boolean matchesAgentName(String agentName) {
+        if (agentPattern == null || agentName == null) {
+            return false;
+        }
+        Boolean matches = nameMatches.get(agentName);
+        if (matches == null) {
+            matches = agentPattern.matcher(agentName).matches();
+            nameMatches.put(agentName, matches);
+        }
+        return matches;
+    }
+
+    static int getPoolId(BuildAgent agent) {
+        return AgentPoolAdapter.getPoolId(agent);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AgentLimit)) {
+            return false;
+        }
+        AgentLimit other = (AgentLimit) o;
+        return poolId == other.poolId && buildLimit == other.buildLimit
+                && (isPool() ? other.isPool() : !other.isPool() && getAgentPattern().equals(other.getAgentPattern()));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * poolId + (isPool() ? 0 : getAgentPattern().hashCode())) + buildLimit;
+    }
+
+    @Override
+    public String toString() {
+        return (isPool() ? "pool " + poolId : "agents " + getAgentPattern()) + " limit " + buildLimit;
+    }
+}
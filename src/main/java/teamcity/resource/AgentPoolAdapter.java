@@ -0,0 +1,43 @@
+package teamcity.resource;
+
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
+import jetbrains.buildServer.BuildAgent;
+import jetbrains.buildServer.serverSide.SBuildAgent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reads the agent pool of an agent. Agent pools were added in TeamCity 8, so the pool id is read
+ * reflectively and the agents of earlier versions are in no pool.
+ */
+final class AgentPoolAdapter {
+
+    private static final Method GET_AGENT_POOL_ID = findMethod();
+
+    private AgentPoolAdapter() {
+    }
+
+    static int getPoolId(BuildAgent agent) {
+        if (GET_AGENT_POOL_ID == null || !(agent instanceof SBuildAgent)) {
+            return AgentLimit.NO_POOL;
+        }
+        try {
+            return (Integer) GET_AGENT_POOL_ID.invoke(agent);
+        } catch (InvocationTargetException e) {
+            log.warn("Failed to get agent pool of " + agent.getName(), e.getCause());
+        } catch (IllegalAccessException e) {
+            log.warn("Failed to get agent pool of " + agent.getName(), e);
+        }
+        return AgentLimit.NO_POOL;
+    }
+
+    private static Method findMethod() {
+        try {
+            return SBuildAgent.class.getMethod("getAgentPoolId");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
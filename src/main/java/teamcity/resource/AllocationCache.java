@@ -0,0 +1,194 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.BuildAgent;
+import jetbrains.buildServer.serverSide.buildDistribution.QueuedBuildInfo;
+import jetbrains.buildServer.serverSide.buildDistribution.WaitReason;
+
+import java.util.*;
+
+/**
+ * Per-resource counts of the builds allocated to agents during one distribution cycle. The build
+ * distributor passes the same map to every precondition call in a cycle and only adds the builds
+ * that were allowed to start, so the counts are updated from the builds admitted by the previous
+ * calls instead of walking the whole map. Builds using no resource are admitted too, so adding
+ * them to the map does not force a walk. Wait reasons are memoized per build type until the
+ * usage of a resource changes. The counters and memo entries are reset in place rather than
+ * cleared, and the builds on each agent are only counted for resources with agent limits, so a
+ * cycle in which no build type or resource is seen for the first time allocates nothing apart
+ * from the iterator of a walk over the whole map.
+ */
+class AllocationCache {
+
+    private final ResourceManager manager;
+
+    private Map<QueuedBuildInfo, ? extends BuildAgent> canBeStarted;
+
+    private int counted;
+
+    private long usageVersion;
+
+    private long memoStamp;
+
+    private final Map<String, Allocation> allocations = new HashMap<String, Allocation>();
+
+    private final List<Allocation> allocationList = new ArrayList<Allocation>();
+
+    private final List<QueuedBuildInfo> admitted = new ArrayList<QueuedBuildInfo>();
+
+    private final Map<String, Memo> waitReasons = new HashMap<String, Memo>();
+
+    AllocationCache(ResourceManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Starts a new cycle when the distributor passes a different canBeStarted map, relying on the
+     * distributor creating a new map for each cycle. A map reused across cycles is still counted
+     * correctly when its size differs from the builds counted so far, as the counts are then
+     * rebuilt from the whole map; only a reused map refilled to the same size would go unnoticed.
+     */
+    void update(Map<QueuedBuildInfo, ? extends BuildAgent> canBeStarted, long usageVersion) {
+        if (this.canBeStarted != canBeStarted) {
+            this.canBeStarted = canBeStarted;
+            this.usageVersion = usageVersion;
+            reset();
+        }
+        if (this.usageVersion != usageVersion) {
+            this.usageVersion = usageVersion;
+            memoStamp++;
+        }
+        if (!admitted.isEmpty()) {
+            for (int i = 0; i < admitted.size(); i++) {
+                QueuedBuildInfo queuedBuildInfo = admitted.get(i);
+                if (canBeStarted.containsKey(queuedBuildInfo)) {
+                    count(queuedBuildInfo);
+                }
+            }
+            admitted.clear();
+        }
+        if (counted != canBeStarted.size()) {
+            reset();
+            for (QueuedBuildInfo queuedBuildInfo : canBeStarted.keySet()) {
+                count(queuedBuildInfo);
+            }
+        }
+    }
+
+    int getAllocatedBuilds(String resourceId) {
+        Allocation allocation = allocations.get(resourceId);
+        return allocation == null ? 0 : allocation.builds;
+    }
+
+    int getAllocatedUnits(String resourceId) {
+        Allocation allocation = allocations.get(resourceId);
+        return allocation == null ? 0 : allocation.units;
+    }
+
+    int getAllocatedUnits(String resourceId, AgentLimit agentLimit) {
+        Allocation allocation = allocations.get(resourceId);
+        return allocation == null ? 0 : allocation.getAgentUnits(agentLimit);
+    }
+
+    WaitReason getWaitReason(String buildTypeId) {
+        Memo memo = waitReasons.get(buildTypeId);
+        return memo == null || memo.stamp != memoStamp ? null : memo.waitReason;
+    }
+
+    void setWaitReason(String buildTypeId, WaitReason waitReason) {
+        Memo memo = waitReasons.get(buildTypeId);
+        if (memo == null) {
+            memo = new Memo();
+            waitReasons.put(buildTypeId, memo);
+        }
+        memo.waitReason = waitReason;
+        memo.stamp = memoStamp;
+    }
+
+    void admitted(QueuedBuildInfo queuedBuildInfo) {
+        admitted.add(queuedBuildInfo);
+    }
+
+    private void reset() {
+        counted = 0;
+        for (int i = 0; i < allocationList.size(); i++) {
+            allocationList.get(i).reset();
+        }
+        admitted.clear();
+        memoStamp++;
+    }
+
+    private void count(QueuedBuildInfo queuedBuildInfo) {
+        counted++;
+        String buildTypeId = queuedBuildInfo.getBuildConfiguration().getId();
+        Resource resource = manager.findResourceByBuildTypeId(buildTypeId);
+        if (resource != null) {
+            Allocation allocation = allocations.get(resource.getId());
+            if (allocation == null) {
+                allocation = new Allocation();
+                allocations.put(resource.getId(), allocation);
+                allocationList.add(allocation);
+            }
+            int weight = resource.getBuildTypeWeight(buildTypeId);
+            allocation.builds++;
+            allocation.units += weight;
+            if (resource.hasAgentLimits()) {
+                BuildAgent agent = canBeStarted.get(queuedBuildInfo);
+                if (agent != null) {
+                    allocation.addAgentUnits(agent, weight);
+                }
+            }
+        }
+    }
+
+    private static class Memo {
+        private WaitReason waitReason;
+        private long stamp;
+    }
+
+    private static class Allocation {
+        private int builds;
+        private int units;
+        private Map<Integer, Integer> unitsByPool;
+        private Map<String, Integer> unitsByAgent;
+
+        void reset() {
+            builds = 0;
+            units = 0;
+            if (unitsByPool != null) {
+                unitsByPool.clear();
+                unitsByAgent.clear();
+            }
+        }
+
+        void addAgentUnits(BuildAgent agent, int weight) {
+            if (unitsByPool == null) {
+                unitsByPool = new HashMap<Integer, Integer>();
+                unitsByAgent = new HashMap<String, Integer>();
+            }
+            int poolId = AgentLimit.getPoolId(agent);
+            Integer poolUnits = unitsByPool.get(poolId);
+            unitsByPool.put(poolId, poolUnits == null ? weight : poolUnits + weight);
+            if (agent.getName() != null) {
+                Integer agentUnits = unitsByAgent.get(agent.getName());
+                unitsByAgent.put(agent.getName(), agentUnits == null ? weight : agentUnits + weight);
+            }
+        }
+
+        int getAgentUnits(AgentLimit agentLimit) {
+            if (unitsByPool == null) {
+                return 0;
+            }
+            if (agentLimit.isPool()) {
+                Integer units = unitsByPool.get(agentLimit.getPoolId());
+                return units == null ? 0 : units;
+            }
+            int total = 0;
+            for (Map.Entry<String, Integer> entry : unitsByAgent.entrySet()) {
+                if (agentLimit.matchesAgentName(entry.getKey())) {
+                    total += entry.getValue();
+                }
+            }
+            return total;
+        }
+    }
+}
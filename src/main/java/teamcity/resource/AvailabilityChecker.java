@@ -11,24 +11,32 @@ import java.net.UnknownHostException;
 public class AvailabilityChecker {
 
     public boolean isAvailable(Resource resource) {
+        return isAvailable(resource.getHost(), resource.getPort());
+    }
+
+    public boolean isAvailable(PoolMember member) {
+        return isAvailable(member.getHost(), member.getPort());
+    }
+
+    private boolean isAvailable(String host, int port) {
         boolean result = false;
         try {
-            Socket socket = new Socket(resource.getHost(), resource.getPort());
+            Socket socket = new Socket(host, port);
             socket.close();
             result = true;
-            log.debug("Successfully connected to " + resource.getHost() + ":" + resource.getPort());
+            log.debug("Successfully connected to " + host + ":" + port);
         }
         catch (NoRouteToHostException e) {
-            log.warn("Error connecting to " + resource.getHost() + ":" + resource.getPort(), e);
+            log.warn("Error connecting to " + host + ":" + port, e);
         }
         catch (UnknownHostException e) {
-            log.warn("Error connecting to " + resource.getHost() + ":" + resource.getPort(), e);
+            log.warn("Error connecting to " + host + ":" + port, e);
         }
         catch (ConnectException e) {
-            log.debug("Failed to connect to " + resource.getHost() + ":" + resource.getPort());
+            log.debug("Failed to connect to " + host + ":" + port);
         }
         catch (IOException e) {
-            log.warn("Error connecting to " + resource.getHost() + ":" + resource.getPort(), e);
+            log.warn("Error connecting to " + host + ":" + port, e);
         }
         return result;
     }
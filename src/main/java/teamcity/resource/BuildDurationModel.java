@@ -0,0 +1,44 @@
+package teamcity.resource;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rolling estimate of the duration of the builds of each build type, an exponentially weighted
+ * moving average giving each finished build an eighth of the weight, as TCP does for round trip
+ * times. Recording a duration and reading an estimate take constant time.
+ */
+class BuildDurationModel {
+
+    private static final int WEIGHT_SHIFT = 3;
+
+    static final long UNKNOWN = -1;
+
+    private final ConcurrentMap<String, AtomicLong> averages = new ConcurrentHashMap<String, AtomicLong>();
+
+    void record(String buildTypeId, long duration) {
+        AtomicLong average = averages.get(buildTypeId);
+        if (average == null) {
+            average = averages.putIfAbsent(buildTypeId, new AtomicLong(Math.max(1, duration)));
+            if (average == null) {
+                return;
+            }
+        }
+        long current;
+        long updated;
+        do {
+            current = average.get();
+            updated = Math.max(1, current + ((duration - current) >> WEIGHT_SHIFT));
+        } while (!average.compareAndSet(current, updated));
+    }
+
+    long getEstimate(String buildTypeId) {
+        AtomicLong average = averages.get(buildTypeId);
+        return average == null ? UNKNOWN : average.get();
+    }
+
+    void remove(String buildTypeId) {
+        averages.remove(buildTypeId);
+    }
+}
@@ -0,0 +1,99 @@
+package teamcity.resource;
+
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renews the leases of the builds still running on the server and releases the builds whose
+ * leases have expired, so builds lost with their agent or in a server failover stop holding
+ * resource capacity.
+ */
+public class BuildLeaseRenewer extends BuildServerAdapter implements Runnable {
+
+    static final int RENEW_INTERVAL = 60;
+
+    private SBuildServer server;
+
+    private ResourceManager manager;
+
+    private ResourceBuildLimitStartPrecondition precondition;
+
+    private ScheduledFuture<?> future;
+
+    private AtomicLong expiredLeases = new AtomicLong();
+
+    public BuildLeaseRenewer(SBuildServer server, ResourceManager manager,
+                             ResourceBuildLimitStartPrecondition precondition)
+    {
+        this.server = server;
+        this.manager = manager;
+        this.precondition = precondition;
+        server.addListener(this);
+    }
+
+    @Override
+    public void serverStartup() {
+        future = server.getExecutor().scheduleAtFixedRate(this, RENEW_INTERVAL, RENEW_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void serverShutdown() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    public void run() {
+        try {
+            long now = System.currentTimeMillis();
+            renew(now);
+            expire(now);
+        } catch (RuntimeException e) {
+            log.error("Failed to renew leases of builds using resources", e);
+        }
+    }
+
+    void renew(long now) {
+        for (SRunningBuild build : server.getRunningBuilds()) {
+            Resource resource = manager.findResourceByBuildTypeId(build.getBuildTypeId());
+            ResourceBuildCount count = resource == null ? null : precondition.findResourceBuildCount(resource.getId());
+            if (count != null) {
+                count.renew(build.getBuildPromotion().getId(), now);
+            }
+        }
+    }
+
+    void expire(long now) {
+        List<LeaseWheel.Lease> expired = precondition.getLeaseWheel().expire(now);
+        for (LeaseWheel.Lease lease : expired) {
+            log.warn("Lease of build " + lease.getBuildId() + " on resource " + findResourceName(lease)
+                    + " expired, build released");
+        }
+        if (!expired.isEmpty()) {
+            expiredLeases.addAndGet(expired.size());
+            log.info("Released " + expired.size() + " builds with expired leases");
+        }
+    }
+
+    public long getExpiredLeases() {
+        return expiredLeases.get();
+    }
+
+    private String findResourceName(LeaseWheel.Lease lease) {
+        for (Resource resource : manager.getResources()) {
+            if (precondition.findResourceBuildCount(resource.getId()) == lease.getCount()) {
+                return resource.getName();
+            }
+        }
+        return "(removed)";
+    }
+}
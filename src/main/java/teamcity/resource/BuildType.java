@@ -1,7 +1,11 @@
 package teamcity.resource;
 
+import java.util.List;
+
 public interface BuildType {
     String getBuildTypeId();
     String getExternalId();
     String getFullName();
+    List<String> getProjectPath();
+    String getParameterValue(String name);
 }
@@ -2,10 +2,14 @@ package teamcity.resource;
 
 import jetbrains.buildServer.serverSide.SBuildType;
 
+import java.util.Map;
+
 public abstract class BuildTypeAdapter implements BuildType {
 
     private SBuildType buildType;
 
+    private Map<String, String> parameters;
+
     public BuildTypeAdapter(SBuildType buildType) {
         this.buildType = buildType;
     }
@@ -21,4 +25,15 @@ public abstract class BuildTypeAdapter implements BuildType {
     public String getFullName() {
         return buildType.getFullName();
     }
+
+    /**
+     * The server builds a new map of the build type's parameters on every call, so the map is
+     * fetched once and reused for the other parameters matched in the same pass.
+     */
+    public String getParameterValue(String name) {
+        if (parameters == null) {
+            parameters = buildType.getParameters();
+        }
+        return parameters.get(name);
+    }
 }
@@ -0,0 +1,63 @@
+package teamcity.resource;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+class BuildTypeLinkValidator extends RecursiveTask<Map<Resource, List<String>>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int THRESHOLD = 64;
+
+    private final List<Resource> resources;
+
+    private final Set<String> buildTypeIds;
+
+    BuildTypeLinkValidator(List<Resource> resources, Set<String> buildTypeIds) {
+        this.resources = resources;
+        this.buildTypeIds = buildTypeIds;
+    }
+
+    static Map<Resource, List<String>> findInvalidLinks(ForkJoinPool pool, List<Resource> resources, Set<String> buildTypeIds) {
+        BuildTypeLinkValidator validator = new BuildTypeLinkValidator(resources, buildTypeIds);
+        if (pool == null || resources.size() <= THRESHOLD) {
+            return validator.compute();
+        }
+        return pool.invoke(validator);
+    }
+
+    @Override
+    protected Map<Resource, List<String>> compute() {
+        if (resources.size() <= THRESHOLD) {
+            return validate();
+        }
+        int middle = resources.size() / 2;
+        BuildTypeLinkValidator left = new BuildTypeLinkValidator(resources.subList(0, middle), buildTypeIds);
+        BuildTypeLinkValidator right = new BuildTypeLinkValidator(resources.subList(middle, resources.size()), buildTypeIds);
+        left.fork();
+        Map<Resource, List<String>> rightLinks = right.compute();
+        Map<Resource, List<String>> result = left.join();
+        result.putAll(rightLinks);
+        return result;
+    }
+
+    private Map<Resource, List<String>> validate() {
+        Map<Resource, List<String>> invalidLinks = new LinkedHashMap<Resource, List<String>>();
+        for (Resource resource : resources) {
+            List<String> invalidBuildTypeIds = null;
+            for (String buildTypeId : resource.getBuildTypes()) {
+                if (!buildTypeIds.contains(buildTypeId)) {
+                    if (invalidBuildTypeIds == null) {
+                        invalidBuildTypeIds = new ArrayList<String>();
+                    }
+                    invalidBuildTypeIds.add(buildTypeId);
+                }
+            }
+            if (invalidBuildTypeIds != null) {
+                invalidLinks.put(resource, invalidBuildTypeIds);
+            }
+        }
+        return invalidLinks;
+    }
+}
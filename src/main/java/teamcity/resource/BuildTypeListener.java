@@ -17,6 +17,11 @@ public class BuildTypeListener extends BuildServerAdapter {
         server.addListener(this);
     }
 
+    @Override
+    public void serverStartup() {
+        resourceManager.matchAllBuildTypes();
+    }
+
     @Override
     public void buildTypeRegistered(@NotNull SBuildType buildType) {
         resourceManager.buildTypeRegistered(projectManager.toBuildType(buildType));
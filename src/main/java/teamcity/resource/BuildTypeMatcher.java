@@ -0,0 +1,217 @@
+package teamcity.resource;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a build type against the matchers of many resources in one pass. Each name pattern is
+ * stored in a trie under its literal prefix, so only patterns whose prefix is a prefix of the name
+ * are evaluated. Project and parameter matchers are looked up in hash indexes.
+ */
+class BuildTypeMatcher {
+
+    static final BuildTypeMatcher EMPTY = new BuildTypeMatcher(Collections.<Resource>emptyList());
+
+    private static final String METACHARACTERS = "\\.[]{}()*+?^$|";
+
+    private static final String OPTIONAL_QUANTIFIERS = "?*{";
+
+    private final List<Resource> resources;
+
+    private final Node root;
+
+    private final Map<String, BitSet> resourcesByProject;
+
+    private final Map<String, Map<String, BitSet>> resourcesByParameter;
+
+    BuildTypeMatcher(Collection<Resource> resources) {
+        root = new Node();
+        resourcesByProject = new HashMap<String, BitSet>();
+        resourcesByParameter = new HashMap<String, Map<String, BitSet>>();
+        List<Resource> resourcesWithMatchers = new ArrayList<Resource>();
+        for (Resource resource : resources) {
+            if (resource.hasMatchers()) {
+                int index = resourcesWithMatchers.size();
+                resourcesWithMatchers.add(resource);
+                for (Pattern pattern : resource.getMatchers()) {
+                    root.insert(literalPrefix(pattern.pattern()), 0, new Entry(index, pattern));
+                }
+                for (String projectId : resource.getProjectMatchers()) {
+                    indexResource(resourcesByProject, projectId, index);
+                }
+                for (ParameterMatcher matcher : resource.getParameterMatchers()) {
+                    Map<String, BitSet> resourcesByValue = resourcesByParameter.get(matcher.getName());
+                    if (resourcesByValue == null) {
+                        resourcesByValue = new HashMap<String, BitSet>();
+                        resourcesByParameter.put(matcher.getName(), resourcesByValue);
+                    }
+                    indexResource(resourcesByValue, matcher.getValue(), index);
+                }
+            }
+        }
+        this.resources = Collections.unmodifiableList(resourcesWithMatchers);
+    }
+
+    private BuildTypeMatcher(BuildTypeMatcher matcher, List<Resource> resources) {
+        this.root = matcher.root;
+        this.resourcesByProject = matcher.resourcesByProject;
+        this.resourcesByParameter = matcher.resourcesByParameter;
+        this.resources = Collections.unmodifiableList(resources);
+    }
+
+    /**
+     * Returns a matcher sharing this matcher's indexes that returns the given copies in place of
+     * the resources with the same ids. The copies must have the same matchers as the resources
+     * they replace.
+     */
+    BuildTypeMatcher withResources(Map<String, Resource> replacements) {
+        List<Resource> copy = new ArrayList<Resource>(resources.size());
+        for (Resource resource : resources) {
+            Resource replacement = replacements.get(resource.getId());
+            copy.add(replacement != null ? replacement : resource);
+        }
+        return new BuildTypeMatcher(this, copy);
+    }
+
+    List<Resource> getResources() {
+        return resources;
+    }
+
+    boolean isEmpty() {
+        return resources.isEmpty();
+    }
+
+    List<Resource> findMatchingResources(BuildType buildType) {
+        if (resources.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return toResources(findMatches(buildType));
+    }
+
+    List<Resource> findMatchingResources(String name) {
+        if (name == null || resources.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return toResources(findMatches(name));
+    }
+
+    BitSet findMatches(BuildType buildType) {
+        BitSet matched = findMatches(buildType.getFullName());
+        if (!resourcesByProject.isEmpty()) {
+            List<String> projectPath = buildType.getProjectPath();
+            if (projectPath != null) {
+                for (String projectId : projectPath) {
+                    BitSet indexes = resourcesByProject.get(projectId);
+                    if (indexes != null) {
+                        matched.or(indexes);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, BitSet>> entry : resourcesByParameter.entrySet()) {
+            String value = buildType.getParameterValue(entry.getKey());
+            if (value != null) {
+                BitSet indexes = entry.getValue().get(value);
+                if (indexes != null) {
+                    matched.or(indexes);
+                }
+            }
+        }
+        return matched;
+    }
+
+    private List<Resource> toResources(BitSet matched) {
+        List<Resource> result = new ArrayList<Resource>(matched.cardinality());
+        for (int index = matched.nextSetBit(0); index >= 0; index = matched.nextSetBit(index + 1)) {
+            result.add(resources.get(index));
+        }
+        return result;
+    }
+
+    BitSet findMatches(String name) {
+        BitSet matched = new BitSet(resources.size());
+        if (name == null) {
+            return matched;
+        }
+        Node node = root;
+        int i = 0;
+        while (node != null) {
+            node.match(name, matched);
+            node = i < name.length() ? node.getChild(name.charAt(i++)) : null;
+        }
+        return matched;
+    }
+
+    private static void indexResource(Map<String, BitSet> index, String key, int resourceIndex) {
+        BitSet indexes = index.get(key);
+        if (indexes == null) {
+            indexes = new BitSet();
+            index.put(key, indexes);
+        }
+        indexes.set(resourceIndex);
+    }
+
+    static String literalPrefix(String regex) {
+        if (regex.indexOf('|') >= 0) {
+            return "";
+        }
+        int end = 0;
+        while (end < regex.length() && METACHARACTERS.indexOf(regex.charAt(end)) < 0) {
+            end++;
+        }
+        if (end > 0 && end < regex.length() && OPTIONAL_QUANTIFIERS.indexOf(regex.charAt(end)) >= 0) {
+            end--;
+        }
+        return regex.substring(0, end);
+    }
+
+    private static class Node {
+        private Map<Character, Node> children;
+        private List<Entry> entries;
+
+        void insert(String prefix, int offset, Entry entry) {
+            if (offset == prefix.length()) {
+                if (entries == null) {
+                    entries = new ArrayList<Entry>();
+                }
+                entries.add(entry);
+                return;
+            }
+            if (children == null) {
+                children = new HashMap<Character, Node>();
+            }
+            Character c = prefix.charAt(offset);
+            Node child = children.get(c);
+            if (child == null) {
+                child = new Node();
+                children.put(c, child);
+            }
+            child.insert(prefix, offset + 1, entry);
+        }
+
+        Node getChild(char c) {
+            return children == null ? null : children.get(c);
+        }
+
+        void match(String name, BitSet matched) {
+            if (entries == null) {
+                return;
+            }
+            for (Entry entry : entries) {
+                if (!matched.get(entry.resourceIndex) && entry.pattern.matcher(name).matches()) {
+                    matched.set(entry.resourceIndex);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        private final int resourceIndex;
+        private final Pattern pattern;
+
+        Entry(int resourceIndex, Pattern pattern) {
+            this.resourceIndex = resourceIndex;
+            this.pattern = pattern;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package teamcity.resource;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+class BuildTypeMatchingTask extends RecursiveTask<List<List<String>>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int THRESHOLD = 1024;
+
+    private final BuildTypeMatcher matcher;
+
+    private final List<BuildType> buildTypes;
+
+    BuildTypeMatchingTask(BuildTypeMatcher matcher, List<BuildType> buildTypes) {
+        this.matcher = matcher;
+        this.buildTypes = buildTypes;
+    }
+
+    static Map<Resource, List<String>> matchAll(ForkJoinPool pool, BuildTypeMatcher matcher, List<BuildType> buildTypes) {
+        BuildTypeMatchingTask task = new BuildTypeMatchingTask(matcher, buildTypes);
+        List<List<String>> matches = pool == null || buildTypes.size() <= THRESHOLD ? task.compute() : pool.invoke(task);
+        Map<Resource, List<String>> result = new LinkedHashMap<Resource, List<String>>();
+        List<Resource> resources = matcher.getResources();
+        for (int i = 0; i < resources.size(); i++) {
+            result.put(resources.get(i), matches.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    protected List<List<String>> compute() {
+        if (buildTypes.size() <= THRESHOLD) {
+            return match();
+        }
+        int middle = buildTypes.size() / 2;
+        BuildTypeMatchingTask left = new BuildTypeMatchingTask(matcher, buildTypes.subList(0, middle));
+        BuildTypeMatchingTask right = new BuildTypeMatchingTask(matcher, buildTypes.subList(middle, buildTypes.size()));
+        left.fork();
+        List<List<String>> rightMatches = right.compute();
+        List<List<String>> result = left.join();
+        for (int i = 0; i < result.size(); i++) {
+            result.get(i).addAll(rightMatches.get(i));
+        }
+        return result;
+    }
+
+    private List<List<String>> match() {
+        int size = matcher.getResources().size();
+        List<List<String>> result = new ArrayList<List<String>>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new ArrayList<String>());
+        }
+        for (BuildType buildType : buildTypes) {
+            BitSet matched = matcher.findMatches(buildType);
+            for (int index = matched.nextSetBit(0); index >= 0; index = matched.nextSetBit(index + 1)) {
+                result.get(index).add(buildType.getBuildTypeId());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,259 @@
+package teamcity.resource;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Set of build promotion ids with a weight per build, backed by an open addressing table of
+ * primitive longs updated with compare-and-set. The table grows by copying slots into a larger
+ * table, each slot is frozen as it is copied so concurrent updates retry against the new table.
+ */
+class ConcurrentBuildSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -1;
+    private static final long MOVED = -2;
+
+    private static final int INSERTED = 0;
+    private static final int PRESENT = 1;
+    private static final int FULL = 2;
+
+    private final AtomicReference<Table> table = new AtomicReference<Table>(new Table(MIN_CAPACITY));
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger units = new AtomicInteger();
+
+    int size() {
+        return size.get();
+    }
+
+    int getUnits() {
+        return units.get();
+    }
+
+    boolean add(long buildId, int weight) {
+        long key = encode(buildId);
+        while (true) {
+            Table current = table.get();
+            int result = current.insert(key, weight);
+            if (result == INSERTED) {
+                size.incrementAndGet();
+                units.addAndGet(weight);
+                return true;
+            }
+            if (result == PRESENT) {
+                return false;
+            }
+            resize(current);
+        }
+    }
+
+    int remove(long buildId) {
+        long key = encode(buildId);
+        while (true) {
+            Table current = table.get();
+            int weight = current.remove(key);
+            if (weight > 0) {
+                size.decrementAndGet();
+                units.addAndGet(-weight);
+                return weight;
+            }
+            if (weight == 0) {
+                return 0;
+            }
+            resize(current);
+        }
+    }
+
+    boolean contains(long buildId) {
+        long key = encode(buildId);
+        while (true) {
+            Table current = table.get();
+            int result = current.find(key);
+            if (result != FULL) {
+                return result == PRESENT;
+            }
+            resize(current);
+        }
+    }
+
+    long[] toArray() {
+        while (true) {
+            Table current = table.get();
+            long[] buildIds = current.toArray();
+            if (buildIds != null) {
+                return buildIds;
+            }
+            resize(current);
+        }
+    }
+
+    private void resize(Table current) {
+        Table next = current.next.get();
+        if (next == null) {
+            int capacity = current.capacity();
+            if (size.get() * 2 >= capacity) {
+                capacity *= 2;
+            }
+            current.next.compareAndSet(null, new Table(capacity));
+            next = current.next.get();
+        }
+        for (int i = 0; i < current.capacity(); i++) {
+            current.moveSlot(i, next);
+        }
+        while (current.moved.get() < current.capacity()) {
+            Thread.yield();
+        }
+        table.compareAndSet(current, next);
+    }
+
+    private static long encode(long buildId) {
+        if (buildId < 0 || buildId == Long.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid build id " + buildId);
+        }
+        return buildId + 1;
+    }
+
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private static class Table {
+        private final AtomicLongArray keys;
+        private final AtomicIntegerArray weights;
+        private final AtomicInteger used = new AtomicInteger();
+        private final AtomicInteger moved = new AtomicInteger();
+        private final AtomicReference<Table> next = new AtomicReference<Table>();
+        private final int mask;
+
+        Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.weights = new AtomicIntegerArray(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+
+        int insert(long key, int weight) {
+            if (used.get() * 4 >= capacity() * 3) {
+                return FULL;
+            }
+            return put(key, weight);
+        }
+
+        int put(long key, int weight) {
+            int index = hash(key) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long current = keys.get(index);
+                if (current == key) {
+                    return PRESENT;
+                }
+                if (current == MOVED) {
+                    return FULL;
+                }
+                if (current == EMPTY) {
+                    if (keys.compareAndSet(index, EMPTY, key)) {
+                        weights.set(index, weight);
+                        used.incrementAndGet();
+                        return INSERTED;
+                    }
+                    probes--;
+                    continue;
+                }
+                index = (index + 1) & mask;
+            }
+            return FULL;
+        }
+
+        int remove(long key) {
+            int index = hash(key) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long current = keys.get(index);
+                if (current == EMPTY) {
+                    return 0;
+                }
+                if (current == MOVED) {
+                    return -1;
+                }
+                if (current == key) {
+                    if (keys.compareAndSet(index, key, TOMBSTONE)) {
+                        return awaitWeight(index);
+                    }
+                    probes--;
+                    continue;
+                }
+                index = (index + 1) & mask;
+            }
+            return 0;
+        }
+
+        int find(long key) {
+            int index = hash(key) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long current = keys.get(index);
+                if (current == key) {
+                    return PRESENT;
+                }
+                if (current == EMPTY) {
+                    return INSERTED;
+                }
+                if (current == MOVED) {
+                    return FULL;
+                }
+                index = (index + 1) & mask;
+            }
+            return INSERTED;
+        }
+
+        long[] toArray() {
+            long[] buildIds = new long[capacity()];
+            int count = 0;
+            for (int i = 0; i < capacity(); i++) {
+                long key = keys.get(i);
+                if (key == MOVED) {
+                    return null;
+                }
+                if (key > 0) {
+                    buildIds[count++] = key - 1;
+                }
+            }
+            return Arrays.copyOf(buildIds, count);
+        }
+
+        void moveSlot(int index, Table target) {
+            while (true) {
+                long current = keys.get(index);
+                if (current == MOVED) {
+                    return;
+                }
+                if (keys.compareAndSet(index, current, MOVED)) {
+                    if (current > 0) {
+                        target.put(current, awaitWeight(index));
+                    }
+                    moved.incrementAndGet();
+                    return;
+                }
+            }
+        }
+
+        private int awaitWeight(int index) {
+            int weight = weights.get(index);
+            while (weight == 0) {
+                Thread.yield();
+                weight = weights.get(index);
+            }
+            return weight;
+        }
+    }
+}
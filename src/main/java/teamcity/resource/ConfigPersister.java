@@ -0,0 +1,95 @@
+package teamcity.resource;
+
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Saves the configuration in the background. A change hands over a snapshot of the configuration
+ * and schedules a save after a short delay, changes made before the save runs replace the snapshot
+ * so they are written by the same save, and a change made while it is writing schedules another.
+ * A failed save keeps its snapshot unless a newer one has arrived and is retried after
+ * {@link #RETRY_DELAY} seconds.
+ */
+class ConfigPersister implements Runnable {
+
+    static final int SAVE_DELAY = 1;
+
+    static final int RETRY_DELAY = 30;
+
+    private final ScheduledExecutorService executor;
+
+    private final ResourceMonitorPlugin plugin;
+
+    private final AtomicReference<ConfigSnapshot> pending = new AtomicReference<ConfigSnapshot>();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    ConfigPersister(ScheduledExecutorService executor, ResourceMonitorPlugin plugin) {
+        this.executor = executor;
+        this.plugin = plugin;
+    }
+
+    void changed(ConfigSnapshot snapshot) {
+        pending.set(snapshot);
+        if (!schedule(SAVE_DELAY)) {
+            flush();
+        }
+    }
+
+    public void run() {
+        scheduled.set(false);
+        flush();
+    }
+
+    /**
+     * Saves the configuration now if it has changed since it was last saved.
+     */
+    synchronized void flush() {
+        ConfigSnapshot snapshot = pending.getAndSet(null);
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            plugin.saveConfiguration(snapshot);
+        }
+        catch (IOException e) {
+            failed(snapshot, e);
+        }
+        catch (RuntimeException e) {
+            failed(snapshot, e);
+        }
+    }
+
+    boolean isDirty() {
+        return pending.get() != null;
+    }
+
+    private void failed(ConfigSnapshot snapshot, Exception e) {
+        log.error("Failed to save resources configuration, retrying in " + RETRY_DELAY + " seconds", e);
+        pending.compareAndSet(null, snapshot);
+        schedule(RETRY_DELAY);
+    }
+
+    /**
+     * Schedules a save unless one is already scheduled. Returns false if the executor has been
+     * shut down.
+     */
+    private boolean schedule(int delay) {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this, delay, TimeUnit.SECONDS);
+            }
+            catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package teamcity.resource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The configuration as it was when it changed. Published resources are never modified, so holding
+ * the resources of the registry is enough to write them later from another thread.
+ */
+class ConfigSnapshot {
+
+    private final int interval;
+
+    private final List<Resource> resources;
+
+    ConfigSnapshot(int interval, Collection<Resource> resources) {
+        this.interval = interval;
+        this.resources = Collections.unmodifiableList(new ArrayList<Resource>(resources));
+    }
+
+    static ConfigSnapshot of(ResourceManager resourceManager) {
+        return new ConfigSnapshot(resourceManager.getInterval(), resourceManager.getResources());
+    }
+
+    int getInterval() {
+        return interval;
+    }
+
+    List<Resource> getResources() {
+        return resources;
+    }
+}
@@ -0,0 +1,37 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.SBuildServer;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Owns the fork/join pool used to match and validate large catalogues of build types. The pool is
+ * created on first use and shut down with the server, so no worker threads outlive the plugin.
+ */
+public class ForkJoinSupport extends BuildServerAdapter {
+
+    private ForkJoinPool pool;
+
+    public ForkJoinSupport(SBuildServer server) {
+        server.addListener(this);
+    }
+
+    ForkJoinSupport() {
+    }
+
+    synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    @Override
+    public synchronized void serverShutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package teamcity.resource;
+
+public class InvalidPriorityException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidPriorityException(String message) {
+        super(message);
+    }
+}
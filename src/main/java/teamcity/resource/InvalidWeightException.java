@@ -0,0 +1,10 @@
+package teamcity.resource;
+
+public class InvalidWeightException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public InvalidWeightException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,109 @@
+package teamcity.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel of the leases held by running builds. Leases are added to the bucket of
+ * their deadline without locking and renewing a lease only moves its deadline, a lease found in
+ * a bucket before its deadline is put back in the bucket of its new deadline. Expiry is driven by
+ * a single thread calling {@link #expire(long)}.
+ */
+class LeaseWheel {
+
+    static final int WHEEL_SIZE = 64;
+
+    private final long ttl;
+
+    private final long tick;
+
+    private final List<ConcurrentLinkedQueue<Lease>> buckets = new ArrayList<ConcurrentLinkedQueue<Lease>>();
+
+    private volatile long currentTick;
+
+    LeaseWheel(long ttl, long tick) {
+        this.ttl = ttl;
+        this.tick = tick;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets.add(new ConcurrentLinkedQueue<Lease>());
+        }
+        this.currentTick = System.currentTimeMillis() / tick;
+    }
+
+    long getTtl() {
+        return ttl;
+    }
+
+    Lease grant(ResourceBuildCount count, long buildId) {
+        Lease lease = new Lease(count, buildId, System.currentTimeMillis() + ttl);
+        schedule(lease);
+        return lease;
+    }
+
+    void renew(Lease lease, long now) {
+        lease.deadline = Math.max(lease.deadline, now + ttl);
+    }
+
+    /**
+     * Advances the wheel to the given time and releases the builds whose leases have expired.
+     */
+    synchronized List<Lease> expire(long now) {
+        List<Lease> expired = new ArrayList<Lease>();
+        long nowTick = now / tick;
+        long lastTick = Math.min(nowTick, currentTick + WHEEL_SIZE - 1);
+        for (long t = currentTick; t <= lastTick; t++) {
+            ConcurrentLinkedQueue<Lease> bucket = buckets.get((int) (t % WHEEL_SIZE));
+            List<Lease> pending = new ArrayList<Lease>();
+            Lease lease;
+            while ((lease = bucket.poll()) != null) {
+                if (lease.cancelled) {
+                    continue;
+                }
+                if (lease.deadline <= now) {
+                    if (lease.count.expire(lease)) {
+                        expired.add(lease);
+                    }
+                } else {
+                    pending.add(lease);
+                }
+            }
+            currentTick = t + 1;
+            for (Lease renewed : pending) {
+                schedule(renewed);
+            }
+        }
+        currentTick = Math.max(currentTick, nowTick);
+        return expired;
+    }
+
+    private void schedule(Lease lease) {
+        long deadlineTick = Math.max(lease.deadline / tick, currentTick);
+        buckets.get((int) (deadlineTick % WHEEL_SIZE)).add(lease);
+    }
+
+    static class Lease {
+        private final ResourceBuildCount count;
+        private final long buildId;
+        private volatile long deadline;
+        private volatile boolean cancelled;
+
+        Lease(ResourceBuildCount count, long buildId, long deadline) {
+            this.count = count;
+            this.buildId = buildId;
+            this.deadline = deadline;
+        }
+
+        ResourceBuildCount getCount() {
+            return count;
+        }
+
+        long getBuildId() {
+            return buildId;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package teamcity.resource;
+
+public class ParameterMatcher {
+
+    private final String name;
+
+    private final String value;
+
+    public ParameterMatcher(String name, String value) {
+        if (name == null || "".equals(name)) {
+            throw new IllegalArgumentException("parameter name cannot be null or empty");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("parameter value cannot be null");
+        }
+        this.name = name;
+        this.value = value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ParameterMatcher)) {
+            return false;
+        }
+        ParameterMatcher other = (ParameterMatcher) o;
+        return name.equals(other.name) && value.equals(other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name + "=" + value;
+    }
+}
@@ -0,0 +1,63 @@
+package teamcity.resource;
+
+public class PoolMember {
+
+    private final String host;
+
+    private final int port;
+
+    private final int buildLimit;
+
+    public PoolMember(String host, int port, int buildLimit) {
+        if (host == null || "".equals(host)) {
+            throw new InvalidHostException("host cannot be null or empty");
+        }
+        if (port < 1 || port > 65535) {
+            throw new InvalidPortException("invalid port number");
+        }
+        if (buildLimit < 0) {
+            throw new InvalidLimitException("invalid limit number");
+        }
+        this.host = host;
+        this.port = port;
+        this.buildLimit = buildLimit;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getBuildLimit() {
+        return buildLimit;
+    }
+
+    public String getHostAndPort() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PoolMember)) {
+            return false;
+        }
+        PoolMember other = (PoolMember) o;
+        return port == other.port && buildLimit == other.buildLimit && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * host.hashCode() + port) + buildLimit;
+    }
+
+    @Override
+    public String toString() {
+        return getHostAndPort();
+    }
+}
@@ -0,0 +1,7 @@
+package teamcity.resource;
+
+public interface PoolMemberListener {
+    void memberAvailable(Resource resource, PoolMember member);
+
+    void memberUnavailable(Resource resource, PoolMember member);
+}
@@ -3,9 +3,11 @@ package teamcity.resource;
 import jetbrains.buildServer.serverSide.SBuildType;
 
 import java.util.List;
+import java.util.Set;
 
 public interface ProjectManager {
     BuildType findBuildTypeById(String id);
     List<BuildType> getAllBuildTypes();
+    Set<String> getAllBuildTypeIds();
     BuildType toBuildType(SBuildType buildType);
 }
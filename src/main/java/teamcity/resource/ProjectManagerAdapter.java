@@ -4,7 +4,9 @@ import jetbrains.buildServer.serverSide.SBuildServer;
 import jetbrains.buildServer.serverSide.SBuildType;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ProjectManagerAdapter implements ProjectManager {
 
@@ -30,6 +32,14 @@ public class ProjectManagerAdapter implements ProjectManager {
         return buildTypes;
     }
 
+    public Set<String> getAllBuildTypeIds() {
+        Set<String> buildTypeIds = new HashSet<String>();
+        for (SBuildType buildType : projectManager.getAllBuildTypes()) {
+            buildTypeIds.add(buildType.getBuildTypeId());
+        }
+        return buildTypeIds;
+    }
+
     @Override
     public BuildType toBuildType(SBuildType buildType) {
         return createBuildTypeAdapter(buildType);
@@ -0,0 +1,35 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.buildDistribution.WaitReason;
+
+/**
+ * Wait reason of a build holding a ticket, adding the build's position in the ticket queue to the
+ * reason the build is held back. One instance is kept per ticket and the position is only worked
+ * out when the description is read, from the snapshot last published by the queue so reading it
+ * never waits for the start checks.
+ */
+class QueuedWaitReason implements WaitReason {
+
+    private final TicketQueue tickets;
+
+    private final TicketQueue.Ticket ticket;
+
+    private volatile WaitReason waitReason;
+
+    QueuedWaitReason(TicketQueue tickets, TicketQueue.Ticket ticket) {
+        this.tickets = tickets;
+        this.ticket = ticket;
+    }
+
+    QueuedWaitReason update(WaitReason waitReason) {
+        this.waitReason = waitReason;
+        return this;
+    }
+
+    public String getDescription() {
+        TicketQueue.Ticket[] snapshot = tickets.getSnapshot();
+        int position = TicketQueue.position(snapshot, ticket);
+        String description = waitReason.getDescription();
+        return position == 0 ? description : description + " (position " + position + " of " + snapshot.length + " in the queue)";
+    }
+}
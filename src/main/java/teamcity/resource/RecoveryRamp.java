@@ -0,0 +1,79 @@
+package teamcity.resource;
+
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ramps the build limit of a resource back up after it recovers. The effective limit starts at one
+ * build and doubles at even steps over the resource's ramp-up time until it reaches the configured
+ * limit, so the builds queued while the resource was unavailable do not all start at once.
+ */
+public class RecoveryRamp implements ResourceMonitorListener {
+
+    private ConcurrentMap<String, Long> recoveryTimes = new ConcurrentHashMap<String, Long>();
+
+    public RecoveryRamp(ResourceMonitor monitor) {
+        monitor.addListener(this);
+    }
+
+    public int getBuildLimit(Resource resource) {
+        return getBuildLimit(resource, System.currentTimeMillis());
+    }
+
+    int getBuildLimit(Resource resource, long now) {
+        int buildLimit = resource.getBuildLimit();
+        Long recoveryTime = recoveryTimes.get(resource.getId());
+        if (recoveryTime == null) {
+            return buildLimit;
+        }
+        long rampUp = TimeUnit.SECONDS.toMillis(resource.getRampUp());
+        int steps = getSteps(buildLimit);
+        long elapsed = now - recoveryTime;
+        if (steps == 0 || elapsed >= rampUp) {
+            recoveryTimes.remove(resource.getId(), recoveryTime);
+            return buildLimit;
+        }
+        long step = elapsed / Math.max(1, rampUp / steps);
+        return step >= steps ? buildLimit : Math.min(buildLimit, 1 << step);
+    }
+
+    /**
+     * Returns the effective build limit while the resource is ramping up, or 0 once the ramp is over.
+     */
+    public int getRampLimit(Resource resource) {
+        if (!recoveryTimes.containsKey(resource.getId())) {
+            return 0;
+        }
+        int buildLimit = getBuildLimit(resource);
+        return recoveryTimes.containsKey(resource.getId()) ? buildLimit : 0;
+    }
+
+    private static int getSteps(int buildLimit) {
+        return buildLimit > 1 ? 32 - Integer.numberOfLeadingZeros(buildLimit - 1) : 0;
+    }
+
+    public void resourceAvailable(Resource resource) {
+        resourceRecovered(resource, System.currentTimeMillis());
+    }
+
+    void resourceRecovered(Resource resource, long now) {
+        if (resource.getRampUp() > 0 && resource.getBuildLimit() > 1) {
+            recoveryTimes.put(resource.getId(), now);
+            log.info("Ramping up the build limit of resource " + resource.getName() + " over "
+                    + resource.getRampUp() + " seconds");
+        }
+    }
+
+    public void resourceUnavailable(Resource resource) {
+        recoveryTimes.remove(resource.getId());
+    }
+
+    public void resourceEnabled(Resource resource) {
+    }
+
+    public void resourceDisabled(Resource resource) {
+    }
+}
@@ -1,13 +1,27 @@
 package teamcity.resource;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 
+/**
+ * A resource and the build types that use it. A resource published by the {@link ResourceManager}
+ * is never changed, so the mutators are package private and only used on new resources and on
+ * copies made with {@link #copy()} before they are published.
+ */
 public class Resource {
 
+    public static final int DEFAULT_WEIGHT = 1;
+
+    public static final int DEFAULT_PRIORITY = 1;
+
     private String id = "";
 
     private String name = "";
@@ -18,11 +32,31 @@ public class Resource {
 
     private int buildLimit = 0;
 
+    private int startRate = 0;
+
+    private int rampUp = 0;
+
+    private boolean shadow = false;
+
     private List<Pattern> patterns = new ArrayList<Pattern>();
 
-    private List<String> buildTypes = new ArrayList<String>();
+    private List<String> projectMatchers = new ArrayList<String>();
+
+    private List<ParameterMatcher> parameterMatchers = new ArrayList<ParameterMatcher>();
+
+    private Set<String> buildTypes = new LinkedHashSet<String>();
 
-    private List<String> matchedBuildTypes = new ArrayList<String>();
+    private Map<String, Integer> buildTypeWeights = new HashMap<String, Integer>();
+
+    private Map<String, Integer> buildTypePriorities = new HashMap<String, Integer>();
+
+    private Set<String> matchedBuildTypes = new LinkedHashSet<String>();
+
+    private volatile BuildTypeViews views;
+
+    private List<PoolMember> members = new ArrayList<PoolMember>();
+
+    private List<AgentLimit> agentLimits = new ArrayList<AgentLimit>();
 
     public Resource(String id, String name, String host, int port) {
         this(id, name, host, port, 0);
@@ -41,6 +75,28 @@ public class Resource {
         this.buildLimit = limit;
     }
 
+    /**
+     * Returns a copy of this resource. The resources of the {@link ResourceManager} are shared
+     * with other threads and are only changed through copies.
+     */
+    Resource copy() {
+        Resource copy = new Resource(id, name, host, port, buildLimit);
+        copy.startRate = startRate;
+        copy.rampUp = rampUp;
+        copy.shadow = shadow;
+        copy.patterns.addAll(patterns);
+        copy.projectMatchers.addAll(projectMatchers);
+        copy.parameterMatchers.addAll(parameterMatchers);
+        copy.buildTypes.addAll(buildTypes);
+        copy.buildTypeWeights.putAll(buildTypeWeights);
+        copy.buildTypePriorities.putAll(buildTypePriorities);
+        copy.matchedBuildTypes.addAll(matchedBuildTypes);
+        copy.members.addAll(members);
+        copy.agentLimits.addAll(agentLimits);
+        copy.views = views;
+        return copy;
+    }
+
     public String getId() {
         return id;
     }
@@ -49,7 +105,7 @@ public class Resource {
         return name;
     }
 
-    public void setName(String name) {
+    void setName(String name) {
         checkName(name);
         this.name = name;
     }
@@ -58,7 +114,7 @@ public class Resource {
         return host;
     }
 
-    public void setHost(String host) {
+    void setHost(String host) {
         checkHost(host);
         this.host = host;
     }
@@ -67,7 +123,7 @@ public class Resource {
         return port;
     }
 
-    public void setPort(int port) {
+    void setPort(int port) {
         checkPort(port);
         this.port = port;
     }
@@ -76,21 +132,125 @@ public class Resource {
         return buildLimit;
     }
 
-    public void setBuildLimit(int buildLimit) {
+    void setBuildLimit(int buildLimit) {
         checkBuildLimit(buildLimit);
         this.buildLimit = buildLimit;
     }
 
+    public int getStartRate() {
+        return startRate;
+    }
+
+    void setStartRate(int startRate) {
+        if (startRate < 0) {
+            throw new InvalidLimitException("invalid start rate");
+        }
+        this.startRate = startRate;
+    }
+
+    public boolean isShadow() {
+        return shadow;
+    }
+
+    void setShadow(boolean shadow) {
+        this.shadow = shadow;
+    }
+
+    public int getRampUp() {
+        return rampUp;
+    }
+
+    void setRampUp(int rampUp) {
+        if (rampUp < 0) {
+            throw new InvalidLimitException("invalid ramp-up time");
+        }
+        this.rampUp = rampUp;
+    }
+
     public List<String> getBuildTypes() {
-        return Collections.unmodifiableList(buildTypes);
+        return getViews().linked;
+    }
+
+    void addBuildType(String buildTypeId) {
+        if (buildTypes.add(buildTypeId)) {
+            views = null;
+        }
+    }
+
+    void removeBuildType(String buildTypeId) {
+        buildTypeWeights.remove(buildTypeId);
+        buildTypePriorities.remove(buildTypeId);
+        if (buildTypes.remove(buildTypeId)) {
+            views = null;
+        }
+    }
+
+    public int getBuildTypeWeight(String buildTypeId) {
+        Integer weight = buildTypeWeights.get(buildTypeId);
+        return weight == null ? DEFAULT_WEIGHT : weight;
+    }
+
+    void setBuildTypeWeight(String buildTypeId, int weight) {
+        checkWeight(weight);
+        if (weight == DEFAULT_WEIGHT) {
+            buildTypeWeights.remove(buildTypeId);
+        } else {
+            buildTypeWeights.put(buildTypeId, weight);
+        }
+    }
+
+    public Map<String, Integer> getBuildTypeWeights() {
+        return Collections.unmodifiableMap(buildTypeWeights);
+    }
+
+    public int getBuildTypePriority(String buildTypeId) {
+        Integer priority = buildTypePriorities.get(buildTypeId);
+        return priority == null ? DEFAULT_PRIORITY : priority;
+    }
+
+    void setBuildTypePriority(String buildTypeId, int priority) {
+        checkPriority(priority);
+        if (priority == DEFAULT_PRIORITY) {
+            buildTypePriorities.remove(buildTypeId);
+        } else {
+            buildTypePriorities.put(buildTypeId, priority);
+        }
+    }
+
+    public Map<String, Integer> getBuildTypePriorities() {
+        return Collections.unmodifiableMap(buildTypePriorities);
     }
 
-    public void addBuildType(String buildTypeId) {
-        buildTypes.add(buildTypeId);
+    public List<PoolMember> getMembers() {
+        return Collections.unmodifiableList(members);
     }
 
-    public void removeBuildType(String buildTypeId) {
-        buildTypes.remove(buildTypeId);
+    void addMember(PoolMember member) {
+        members.add(member);
+    }
+
+    void clearMembers() {
+        members.clear();
+    }
+
+    public List<AgentLimit> getAgentLimits() {
+        return Collections.unmodifiableList(agentLimits);
+    }
+
+    public boolean hasAgentLimits() {
+        return !agentLimits.isEmpty();
+    }
+
+    void addAgentLimit(AgentLimit agentLimit) {
+        agentLimits.add(agentLimit);
+    }
+
+    void clearAgentLimits() {
+        agentLimits.clear();
+    }
+
+    public boolean isPool() {
+        return !members.isEmpty();
     }
 
     private void checkId(String value) {
@@ -123,54 +283,140 @@ public class Resource {
         }
     }
 
+    private void checkWeight(int weight) {
+        if (weight < 1) {
+            throw new InvalidWeightException("invalid weight");
+        }
+    }
+
+    private void checkPriority(int priority) {
+        if (priority < 1) {
+            throw new InvalidPriorityException("invalid priority");
+        }
+    }
+
     public List<Pattern> getMatchers() {
         return Collections.unmodifiableList(patterns);
     }
 
-    public void addBuildTypeMatcher(String pattern) {
+    void addBuildTypeMatcher(String pattern) {
         patterns.add(Pattern.compile(pattern));
     }
 
-    public void buildTypeRegistered(BuildType buildType) {
-        if (nameMatches(buildType.getFullName())) {
-            matchedBuildTypes.add(buildType.getBuildTypeId());
+    public List<String> getProjectMatchers() {
+        return Collections.unmodifiableList(projectMatchers);
+    }
+
+    void addProjectMatcher(String projectId) {
+        if (projectId == null || "".equals(projectId)) {
+            throw new IllegalArgumentException("project id cannot be null or empty");
         }
+        projectMatchers.add(projectId);
+    }
+
+    public List<ParameterMatcher> getParameterMatchers() {
+        return Collections.unmodifiableList(parameterMatchers);
     }
 
-    public void buildTypeUnregistered(BuildType buildType) {
-        if (nameMatches(buildType.getFullName())) {
-            matchedBuildTypes.remove(buildType.getBuildTypeId());
+    void addParameterMatcher(String name, String value) {
+        parameterMatchers.add(new ParameterMatcher(name, value));
+    }
+
+    public boolean hasMatchers() {
+        return !patterns.isEmpty() || !projectMatchers.isEmpty() || !parameterMatchers.isEmpty();
+    }
+
+    void clearBuildTypeMatchers() {
+        patterns.clear();
+        projectMatchers.clear();
+        parameterMatchers.clear();
+    }
+
+    boolean hasSameMatchers(Resource other) {
+        if (!projectMatchers.equals(other.projectMatchers) || !parameterMatchers.equals(other.parameterMatchers)
+                || patterns.size() != other.patterns.size()) {
+            return false;
         }
+        for (int i = 0; i < patterns.size(); i++) {
+            if (!patterns.get(i).pattern().equals(other.patterns.get(i).pattern())) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public void buildTypePersisted(BuildType buildType) {
-        if (nameMatches(buildType.getFullName())) {
-            matchedBuildTypes.add(buildType.getBuildTypeId());
-        } else {
-            matchedBuildTypes.remove(buildType.getBuildTypeId());
+    void clearMatchedBuildTypes() {
+        if (!matchedBuildTypes.isEmpty()) {
+            matchedBuildTypes.clear();
+            views = null;
         }
     }
 
-    private boolean nameMatches(String name) {
-        for (Pattern pattern : patterns) {
-            Matcher matcher = pattern.matcher(name);
-            if (matcher.matches()) {
-                return true;
-            }
+    void setMatchedBuildTypes(Collection<String> buildTypeIds) {
+        Set<String> matched = new LinkedHashSet<String>(buildTypeIds);
+        matchedBuildTypes = matched;
+        views = new BuildTypeViews(buildTypes, matched);
+    }
+
+    boolean hasMatchedBuildTypes(Collection<String> buildTypeIds) {
+        return matchedBuildTypes.equals(new HashSet<String>(buildTypeIds));
+    }
+
+    boolean hasMatchedBuildType(String buildTypeId) {
+        return matchedBuildTypes.contains(buildTypeId);
+    }
+
+    boolean addMatchedBuildType(String buildTypeId) {
+        if (matchedBuildTypes.add(buildTypeId)) {
+            views = null;
+            return true;
+        }
+        return false;
+    }
+
+    boolean removeMatchedBuildType(String buildTypeId) {
+        if (matchedBuildTypes.remove(buildTypeId)) {
+            views = null;
+            return true;
         }
         return false;
     }
 
     public List<String> getMatchedBuildTypes() {
-        List<String> result = new ArrayList<String>(matchedBuildTypes);
-        result.removeAll(buildTypes);
-        return Collections.unmodifiableList(result);
+        return getViews().matched;
     }
 
     public List<String> getAllBuildTypes() {
-        List<String> allBuildTypes = new ArrayList<String>();
-        allBuildTypes.addAll(getBuildTypes());
-        allBuildTypes.addAll(getMatchedBuildTypes());
-        return allBuildTypes;
+        return getViews().all;
+    }
+
+    private BuildTypeViews getViews() {
+        BuildTypeViews current = views;
+        if (current == null) {
+            current = new BuildTypeViews(buildTypes, matchedBuildTypes);
+            views = current;
+        }
+        return current;
+    }
+
+    private static class BuildTypeViews {
+        private final List<String> linked;
+        private final List<String> matched;
+        private final List<String> all;
+
+        BuildTypeViews(Set<String> buildTypes, Set<String> matchedBuildTypes) {
+            List<String> matchedOnly = new ArrayList<String>(matchedBuildTypes.size());
+            for (String buildTypeId : matchedBuildTypes) {
+                if (!buildTypes.contains(buildTypeId)) {
+                    matchedOnly.add(buildTypeId);
+                }
+            }
+            List<String> allBuildTypes = new ArrayList<String>(buildTypes.size() + matchedOnly.size());
+            allBuildTypes.addAll(buildTypes);
+            allBuildTypes.addAll(matchedOnly);
+            this.linked = Collections.unmodifiableList(new ArrayList<String>(buildTypes));
+            this.matched = Collections.unmodifiableList(matchedOnly);
+            this.all = Collections.unmodifiableList(allBuildTypes);
+        }
     }
 }
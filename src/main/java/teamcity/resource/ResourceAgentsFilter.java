@@ -0,0 +1,71 @@
+package teamcity.resource;
+
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
+import jetbrains.buildServer.serverSide.SBuildAgent;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.buildDistribution.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps builds off the agents whose agent pool or agent name limit on the build's resource has
+ * been reached. The usage of every agent limit is read once and each candidate agent is then
+ * checked against the limits covering it.
+ */
+public class ResourceAgentsFilter implements StartingBuildAgentsFilter {
+
+    private ResourceManager manager;
+
+    private ResourceBuildLimitStartPrecondition precondition;
+
+    public ResourceAgentsFilter(SBuildServer buildServer, ResourceManager manager,
+                                ResourceBuildLimitStartPrecondition precondition)
+    {
+        this.manager = manager;
+        this.precondition = precondition;
+        buildServer.registerExtension(StartingBuildAgentsFilter.class, getClass().getName(), this);
+    }
+
+    @NotNull
+    public AgentsFilterResult filterAgents(@NotNull AgentsFilterContext context) {
+        AgentsFilterResult result = new AgentsFilterResult();
+        String buildTypeId = context.getStartingBuild().getBuildConfiguration().getId();
+        Resource resource = manager.findResourceByBuildTypeId(buildTypeId);
+        if (resource == null || resource.getAgentLimits().isEmpty()) {
+            return result;
+        }
+
+        List<AgentLimit> agentLimits = resource.getAgentLimits();
+        int[] usedUnits = precondition.getAgentLimitUnits(resource, context.getDistributedBuilds());
+        int weight = resource.getBuildTypeWeight(buildTypeId);
+        List<SBuildAgent> agents = new ArrayList<SBuildAgent>();
+        for (SBuildAgent agent : context.getAgentsForStartingBuild()) {
+            if (isBelowLimits(agent, agentLimits, usedUnits, weight)) {
+                agents.add(agent);
+            }
+        }
+        result.setFilteredConnectedAgents(agents);
+        if (agents.isEmpty()) {
+            WaitReason waitReason = precondition.getAgentLimitWaitReason(resource);
+            if (log.isTraceEnabled()) {
+                log.trace(waitReason.getDescription());
+            }
+            result.setWaitReason(waitReason);
+        }
+        return result;
+    }
+
+    private static boolean isBelowLimits(SBuildAgent agent, List<AgentLimit> agentLimits, int[] usedUnits, int weight) {
+        for (int i = 0; i < usedUnits.length; i++) {
+            AgentLimit agentLimit = agentLimits.get(i);
+            int buildLimit = agentLimit.getBuildLimit();
+            if (buildLimit > 0 && usedUnits[i] > 0 && usedUnits[i] + weight > buildLimit && agentLimit.matches(agent)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
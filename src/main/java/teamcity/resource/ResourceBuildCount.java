@@ -0,0 +1,255 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.BuildAgent;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds running with a resource. The build ids and units are read without locking, the agent,
+ * start and lease of each build are kept in a map guarded by the same lock that adds and removes
+ * the build, so a build is never visible without them.
+ */
+class ResourceBuildCount {
+
+    static final long NOT_STARTED = -1;
+
+    private final ConcurrentBuildSet builds = new ConcurrentBuildSet();
+
+    private final LongObjectMap<Build> entries = new LongObjectMap<Build>();
+
+    private final AtomicLong version;
+
+    private final LeaseWheel leaseWheel;
+
+    private final ConcurrentMap<Integer, AtomicInteger> unitsByPool = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+    private final ConcurrentMap<String, AtomicInteger> unitsByAgent = new ConcurrentHashMap<String, AtomicInteger>();
+
+    ResourceBuildCount() {
+        this(new AtomicLong());
+    }
+
+    ResourceBuildCount(AtomicLong version) {
+        this(version, null);
+    }
+
+    ResourceBuildCount(AtomicLong version, LeaseWheel leaseWheel) {
+        this.version = version;
+        this.leaseWheel = leaseWheel;
+    }
+
+    public int size() {
+        return builds.size();
+    }
+
+    public int getUnits() {
+        return builds.getUnits();
+    }
+
+    public boolean contains(long buildId) {
+        return builds.contains(buildId);
+    }
+
+    public boolean allocate(long buildId) {
+        return allocate(buildId, Resource.DEFAULT_WEIGHT);
+    }
+
+    public boolean allocate(long buildId, int weight) {
+        return allocate(buildId, weight, null);
+    }
+
+    public boolean allocate(long buildId, int weight, BuildAgent agent) {
+        synchronized (entries) {
+            if (entries.get(buildId) != null) {
+                return false;
+            }
+            Build build = new Build(agent);
+            if (agent != null) {
+                addAgentUnits(agent, weight);
+            }
+            if (leaseWheel != null) {
+                build.lease = leaseWheel.grant(this, buildId);
+            }
+            entries.put(buildId, build);
+            builds.add(buildId, weight);
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the build type and start time of a running build, used to estimate when it finishes.
+     */
+    public void started(SRunningBuild runningBuild) {
+        long buildId = runningBuild.getBuildPromotion().getId();
+        Date startDate = runningBuild.getStartDate();
+        long startTime = startDate == null ? System.currentTimeMillis() : startDate.getTime();
+        synchronized (entries) {
+            Build build = entries.get(buildId);
+            if (build != null) {
+                build.buildTypeId = runningBuild.getBuildTypeId();
+                build.startTime = startTime;
+            }
+        }
+    }
+
+    public long getStartTime(long buildId) {
+        synchronized (entries) {
+            Build build = entries.get(buildId);
+            return build == null ? NOT_STARTED : build.startTime;
+        }
+    }
+
+    /**
+     * Returns the earliest time a running build is expected to finish, not before the given time,
+     * or {@link BuildDurationModel#UNKNOWN} if no running build has a duration estimate.
+     */
+    public long getNextFinish(BuildDurationModel durationModel, long now) {
+        long nextFinish = BuildDurationModel.UNKNOWN;
+        synchronized (entries) {
+            for (long buildId : entries.keys()) {
+                Build build = entries.get(buildId);
+                if (build.startTime == NOT_STARTED) {
+                    continue;
+                }
+                long estimate = durationModel.getEstimate(build.buildTypeId);
+                if (estimate != BuildDurationModel.UNKNOWN) {
+                    long finish = Math.max(now, build.startTime + estimate);
+                    if (nextFinish == BuildDurationModel.UNKNOWN || finish < nextFinish) {
+                        nextFinish = finish;
+                    }
+                }
+            }
+        }
+        return nextFinish;
+    }
+
+    public long[] getBuildIds() {
+        return builds.toArray();
+    }
+
+    public boolean release(long buildId) {
+        synchronized (entries) {
+            Build build = entries.remove(buildId);
+            if (build == null) {
+                return false;
+            }
+            remove(buildId, build);
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Cancels the leases of all builds, used when the resource is removed so the lease renewer
+     * does not expire builds of a count that is no longer tracked.
+     */
+    void cancelLeases() {
+        if (leaseWheel == null) {
+            return;
+        }
+        synchronized (entries) {
+            for (long buildId : entries.keys()) {
+                Build build = entries.get(buildId);
+                if (build.lease != null) {
+                    build.lease.cancel();
+                    build.lease = null;
+                }
+            }
+        }
+    }
+
+    public boolean renew(long buildId, long now) {
+        if (leaseWheel == null) {
+            return false;
+        }
+        LeaseWheel.Lease lease;
+        synchronized (entries) {
+            Build build = entries.get(buildId);
+            lease = build == null ? null : build.lease;
+        }
+        if (lease == null) {
+            return false;
+        }
+        leaseWheel.renew(lease, now);
+        return true;
+    }
+
+    boolean expire(LeaseWheel.Lease lease) {
+        synchronized (entries) {
+            Build build = entries.get(lease.getBuildId());
+            if (build == null || build.lease != lease) {
+                return false;
+            }
+            entries.remove(lease.getBuildId());
+            build.lease = null;
+            remove(lease.getBuildId(), build);
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the units used by running builds on the agents covered by the agent limit. Pool
+     * limits read the pool counter, agent name limits add up the counters of the matching agents.
+     */
+    public int getAgentUnits(AgentLimit agentLimit) {
+        if (agentLimit.isPool()) {
+            AtomicInteger units = unitsByPool.get(agentLimit.getPoolId());
+            return units == null ? 0 : units.get();
+        }
+        int total = 0;
+        for (Map.Entry<String, AtomicInteger> entry : unitsByAgent.entrySet()) {
+            if (agentLimit.matchesAgentName(entry.getKey())) {
+                total += entry.getValue().get();
+            }
+        }
+        return total;
+    }
+
+    private void remove(long buildId, Build build) {
+        int weight = builds.remove(buildId);
+        if (build.agent != null) {
+            addAgentUnits(build.agent, -weight);
+        }
+        if (build.lease != null) {
+            build.lease.cancel();
+        }
+    }
+
+    private void addAgentUnits(BuildAgent agent, int units) {
+        addUnits(unitsByPool, AgentLimit.getPoolId(agent), units);
+        if (agent.getName() != null) {
+            addUnits(unitsByAgent, agent.getName(), units);
+        }
+    }
+
+    private static <K> void addUnits(ConcurrentMap<K, AtomicInteger> counters, K key, int units) {
+        AtomicInteger counter = counters.get(key);
+        if (counter == null) {
+            AtomicInteger created = new AtomicInteger();
+            counter = counters.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.addAndGet(units);
+    }
+
+    private static class Build {
+        private final BuildAgent agent;
+        private LeaseWheel.Lease lease;
+        private String buildTypeId;
+        private long startTime = NOT_STARTED;
+
+        Build(BuildAgent agent) {
+            this.agent = agent;
+        }
+    }
+}
@@ -5,23 +5,96 @@ import static teamcity.resource.ResourceMonitorPlugin.log;
 import jetbrains.buildServer.BuildAgent;
 import jetbrains.buildServer.serverSide.*;
 import jetbrains.buildServer.serverSide.buildDistribution.*;
+import jetbrains.buildServer.users.User;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks in one pass that the resource used by a queued build is enabled and available and that
+ * starting the build keeps the resource within its limits.
+ */
 public class ResourceBuildLimitStartPrecondition extends BuildServerAdapter
         implements StartBuildPrecondition, ResourceManagerListener
 {
 
+    static final long LEASE_TTL = TimeUnit.MINUTES.toMillis(5);
+
+    static final long LEASE_TICK = TimeUnit.SECONDS.toMillis(10);
+
+    static final long TICKET_TTL = TimeUnit.MINUTES.toMillis(1);
+
     private ResourceManager manager;
 
-    private Map<String, ResourceBuildCount> resourceBuildCounts = new HashMap<String, ResourceBuildCount>();
+    private ResourceMonitor monitor;
+
+    private ResourcePoolAllocator poolAllocator;
+
+    private RecoveryRamp recoveryRamp;
+
+    private WaitTimeTracker waitTimeTracker;
+
+    private AllocationCache allocationCache;
+
+    /**
+     * Counts the builds of emulated distributions, which pass maps of their own, so they never
+     * start a new cycle of the real distribution. Guarded by the allocation cache lock.
+     */
+    private AllocationCache emulationCache;
+
+    private AtomicLong usageVersion = new AtomicLong();
+
+    private LeaseWheel leaseWheel = new LeaseWheel(LEASE_TTL, LEASE_TICK);
+
+    private BuildDurationModel durationModel = new BuildDurationModel();
+
+    private ConcurrentMap<String, ResourceBuildCount> resourceBuildCounts =
+            new ConcurrentHashMap<String, ResourceBuildCount>();
+
+    private ConcurrentMap<String, ResourceWaitReasons> resourceWaitReasons =
+            new ConcurrentHashMap<String, ResourceWaitReasons>();
+
+    private ConcurrentMap<String, ShadowLog> shadowLogs = new ConcurrentHashMap<String, ShadowLog>();
+
+    private Map<String, TicketQueue> ticketQueues = new HashMap<String, TicketQueue>();
+
+    private Map<String, TokenBucket> startBuckets = new HashMap<String, TokenBucket>();
 
     private List<ResourceUsageListener> listeners = new ArrayList<ResourceUsageListener>();
 
     public ResourceBuildLimitStartPrecondition(SBuildServer buildServer, final ResourceManager manager) {
+        this(buildServer, manager, null);
+    }
+
+    public ResourceBuildLimitStartPrecondition(SBuildServer buildServer, final ResourceManager manager,
+                                               ResourcePoolAllocator poolAllocator)
+    {
+        this(buildServer, manager, poolAllocator, null);
+    }
+
+    public ResourceBuildLimitStartPrecondition(SBuildServer buildServer, final ResourceManager manager,
+                                               ResourcePoolAllocator poolAllocator, RecoveryRamp recoveryRamp)
+    {
+        this(buildServer, manager, null, poolAllocator, recoveryRamp, null);
+    }
+
+    public ResourceBuildLimitStartPrecondition(SBuildServer buildServer, final ResourceManager manager,
+                                               ResourceMonitor monitor, ResourcePoolAllocator poolAllocator,
+                                               RecoveryRamp recoveryRamp, WaitTimeTracker waitTimeTracker)
+    {
         this.manager = manager;
+        this.monitor = monitor;
+        this.poolAllocator = poolAllocator;
+        this.recoveryRamp = recoveryRamp;
+        this.waitTimeTracker = waitTimeTracker;
+        this.allocationCache = new AllocationCache(manager);
+        this.emulationCache = new AllocationCache(manager);
         buildServer.addListener(this);
+        manager.addListener(this);
     }
 
     public void addListener(ResourceUsageListener listener) {
@@ -34,38 +107,317 @@ public class ResourceBuildLimitStartPrecondition extends BuildServerAdapter
                                boolean emulationMode)
     {
         String buildTypeId = queuedBuildInfo.getBuildConfiguration().getId();
+        Resource resource = manager.findResourceByBuildTypeId(buildTypeId);
+        if (resource == null) {
+            synchronized (allocationCache) {
+                (emulationMode ? emulationCache : allocationCache).admitted(queuedBuildInfo);
+            }
+            return null;
+        }
 
+        WaitTimes.Reason state = getUnavailableState(resource);
+        if (state != null) {
+            WaitReason waitReason = getWaitReasons(resource).getStateWaitReason(state);
+            traceWaitReason(waitReason);
+            if (resource.isShadow()) {
+                if (!emulationMode) {
+                    recordShadowDecision(resource, buildTypeId, queuedBuildInfo, state, waitReason);
+                }
+                return null;
+            }
+            if (waitTimeTracker != null && !emulationMode) {
+                waitTimeTracker.blocked(queuedBuildInfo.getBuildPromotionInfo().getId(), resource, buildTypeId, state);
+            }
+            return waitReason;
+        }
+
+        synchronized (allocationCache) {
+            AllocationCache cache = emulationMode ? emulationCache : allocationCache;
+            cache.update(canBeStarted, usageVersion.get());
+            WaitTimes.Reason reason = WaitTimes.Reason.AT_LIMIT;
+            WaitReason waitReason = cache.getWaitReason(buildTypeId);
+            if (waitReason == null) {
+                waitReason = checkBuildLimit(resource, buildTypeId, cache);
+                if (waitReason != null) {
+                    cache.setWaitReason(buildTypeId, waitReason);
+                }
+            }
+            if (waitReason == null && resource.isPool() && poolAllocator != null) {
+                waitReason = checkPoolCapacity(resource, buildTypeId, queuedBuildInfo);
+                reason = WaitTimes.Reason.POOL_CAPACITY;
+            }
+            TokenBucket startBucket = getStartBucket(resource);
+            if (waitReason == null && startBucket != null) {
+                waitReason = checkStartRate(resource, startBucket);
+                reason = WaitTimes.Reason.START_RATE;
+            }
+            if (resource.isShadow()) {
+                if (!emulationMode) {
+                    recordShadowDecision(resource, buildTypeId, queuedBuildInfo, reason, waitReason);
+                }
+                waitReason = null;
+            } else if (resource.getBuildLimit() > 0 && !emulationMode) {
+                if (waitReason == null) {
+                    reason = WaitTimes.Reason.QUEUED;
+                }
+                waitReason = checkTicket(resource, buildTypeId, queuedBuildInfo, waitReason);
+            }
+            if (waitReason == null && resource.isPool() && poolAllocator != null) {
+                waitReason = reservePoolMember(resource, buildTypeId, queuedBuildInfo, emulationMode);
+                reason = WaitTimes.Reason.POOL_CAPACITY;
+            }
+            if (waitReason == null) {
+                if (startBucket != null && !emulationMode) {
+                    startBucket.tryAcquire(System.nanoTime());
+                }
+                cache.admitted(queuedBuildInfo);
+            }
+            if (waitTimeTracker != null && !emulationMode) {
+                trackWaitTime(queuedBuildInfo, resource, buildTypeId, reason, waitReason);
+            }
+            return waitReason;
+        }
+    }
+
+    private void trackWaitTime(QueuedBuildInfo queuedBuildInfo, Resource resource, String buildTypeId,
+                               WaitTimes.Reason reason, WaitReason waitReason)
+    {
+        long buildId = queuedBuildInfo.getBuildPromotionInfo().getId();
+        if (waitReason == null) {
+            waitTimeTracker.released(buildId);
+        } else {
+            waitTimeTracker.blocked(buildId, resource, buildTypeId, reason);
+        }
+    }
+
+    /**
+     * Records what the rules decided for a build using a resource in shadow mode, where the
+     * build is let through whatever the decision.
+     */
+    private void recordShadowDecision(Resource resource, String buildTypeId, QueuedBuildInfo queuedBuildInfo,
+                                      WaitTimes.Reason reason, WaitReason waitReason)
+    {
+        ShadowLog shadowLog = getShadowLog(resource.getId());
+        long now = System.currentTimeMillis();
+        if (waitReason == null) {
+            shadowLog.admitted(queuedBuildInfo.getBuildPromotionInfo().getId(), now);
+        } else {
+            shadowLog.wouldBlock(queuedBuildInfo.getBuildPromotionInfo().getId(), buildTypeId, reason,
+                    waitReason.getDescription(), now);
+        }
+    }
+
+    ShadowLog getShadowLog(String id) {
+        ShadowLog shadowLog = shadowLogs.get(id);
+        if (shadowLog == null) {
+            ShadowLog created = new ShadowLog();
+            shadowLog = shadowLogs.putIfAbsent(id, created);
+            if (shadowLog == null) {
+                shadowLog = created;
+            }
+        }
+        return shadowLog;
+    }
+
+    public Map<String, ShadowLog> getShadowLogs() {
+        return Collections.unmodifiableMap(shadowLogs);
+    }
+
+    private WaitTimes.Reason getUnavailableState(Resource resource) {
+        if (monitor == null) {
+            return null;
+        }
+        if (!monitor.isEnabled(resource)) {
+            return WaitTimes.Reason.DISABLED;
+        }
+        if (!monitor.isAvailable(resource)) {
+            return WaitTimes.Reason.UNAVAILABLE;
+        }
+        return null;
+    }
+
+    private ResourceWaitReasons getWaitReasons(Resource resource) {
+        ResourceWaitReasons waitReasons = resourceWaitReasons.get(resource.getId());
+        if (waitReasons == null || !waitReasons.getName().equals(resource.getName())) {
+            waitReasons = new ResourceWaitReasons(resource.getName());
+            resourceWaitReasons.put(resource.getId(), waitReasons);
+        }
+        return waitReasons;
+    }
+
+    private WaitReason checkBuildLimit(Resource resource, String buildTypeId, AllocationCache cache) {
         WaitReason waitReason = null;
-        Resource resource = manager.findResourceByBuildTypeId(buildTypeId);
-        if (resource != null) {
-            int allocatedBuilds = calculateAllocatedBuilds(resource.getId(), canBeStarted);
-            ResourceBuildCount resourceBuildCount = getResourceBuildCount(resource.getId());
+        ResourceBuildCount resourceBuildCount = getResourceBuildCount(resource.getId());
+
+        int buildLimit = getBuildLimit(resource);
+        if (buildLimit > 0) {
+            int weight = resource.getBuildTypeWeight(buildTypeId);
+            int usedUnits = resourceBuildCount.getUnits() + cache.getAllocatedUnits(resource.getId());
+
+            if (usedUnits > 0 && usedUnits + weight > buildLimit) {
+                waitReason = getWaitReasons(resource).getLimitWaitReason(buildTypeId, buildLimit,
+                        buildLimit != resource.getBuildLimit(), weight, resourceBuildCount, durationModel);
+                traceWaitReason(waitReason);
+            }
+        }
+        return waitReason;
+    }
+
+    private static void traceWaitReason(WaitReason waitReason) {
+        if (log.isTraceEnabled()) {
+            log.trace(waitReason.getDescription());
+        }
+    }
 
-            int buildLimit = resource.getBuildLimit();
-            if (buildLimit > 0) {
-                int currentBuilds = resourceBuildCount.size();
+    private int getBuildLimit(Resource resource) {
+        return recoveryRamp == null ? resource.getBuildLimit() : recoveryRamp.getBuildLimit(resource);
+    }
 
-                if (currentBuilds + allocatedBuilds >= buildLimit) {
-                    waitReason = new SimpleWaitReason("Build cannot start until the number of builds using or "
-                            + "allocated to the resource " + resource.getName()
-                            + " is below the limit of " + buildLimit);
-                    log.trace(waitReason.getDescription());
+    private WaitReason checkStartRate(Resource resource, TokenBucket startBucket) {
+        WaitReason waitReason = null;
+        if (!startBucket.isAvailable(System.nanoTime())) {
+            waitReason = getWaitReasons(resource).getStartRateWaitReason(startBucket.getRate());
+            traceWaitReason(waitReason);
+        }
+        return waitReason;
+    }
+
+    private TokenBucket getStartBucket(Resource resource) {
+        int startRate = resource.getStartRate();
+        if (startRate == 0) {
+            startBuckets.remove(resource.getId());
+            return null;
+        }
+        TokenBucket startBucket = startBuckets.get(resource.getId());
+        if (startBucket == null || startBucket.getRate() != startRate) {
+            startBucket = new TokenBucket(startRate, System.nanoTime());
+            startBuckets.put(resource.getId(), startBucket);
+        }
+        return startBucket;
+    }
+
+    /**
+     * Waiting builds hold a ticket so a free slot goes to the oldest ticket rather than to the
+     * first build checked. A build without the first ticket only starts if the resource has room
+     * for both itself and the build holding the first ticket. A ticket is dropped when its build
+     * leaves the queue, or when the build has not been checked for {@link #TICKET_TTL}.
+     */
+    private WaitReason checkTicket(Resource resource, String buildTypeId, QueuedBuildInfo queuedBuildInfo,
+                                   WaitReason waitReason)
+    {
+        long buildId = queuedBuildInfo.getBuildPromotionInfo().getId();
+        int weight = resource.getBuildTypeWeight(buildTypeId);
+        TicketQueue tickets = getTicketQueue(resource.getId());
+        long now = System.currentTimeMillis();
+        if (waitReason == null) {
+            TicketQueue.Ticket head = tickets.head(now - TICKET_TTL);
+            if (head != null && head.getBuildId() != buildId) {
+                int usedUnits = getResourceBuildCount(resource.getId()).getUnits()
+                        + allocationCache.getAllocatedUnits(resource.getId());
+                if (usedUnits + weight + head.getUnits() > getBuildLimit(resource)) {
+                    waitReason = getWaitReasons(resource).getQueuedEarlierWaitReason();
+                    traceWaitReason(waitReason);
                 }
             }
         }
+        if (waitReason == null) {
+            tickets.grant(buildId);
+        } else {
+            TicketQueue.Ticket ticket = tickets.issue(buildId, weight, resource.getBuildTypePriority(buildTypeId), now);
+            QueuedWaitReason queuedWaitReason = ticket.getWaitReason();
+            if (queuedWaitReason == null) {
+                queuedWaitReason = new QueuedWaitReason(tickets, ticket);
+                ticket.setWaitReason(queuedWaitReason);
+            }
+            waitReason = queuedWaitReason.update(waitReason);
+        }
         return waitReason;
     }
 
-    int calculateAllocatedBuilds(String resourceId, Map<QueuedBuildInfo, BuildAgent> canBeStarted) {
-        int allocated = 0;
-        for (Map.Entry<QueuedBuildInfo, BuildAgent> entry : canBeStarted.entrySet()) {
-            String buildTypeId = entry.getKey().getBuildConfiguration().getId();
-            Resource resource = manager.findResourceByBuildTypeId(buildTypeId);
-            if (resource != null && resourceId.equals(resource.getId())) {
-                allocated++;
+    private TicketQueue getTicketQueue(String id) {
+        TicketQueue tickets = ticketQueues.get(id);
+        if (tickets == null) {
+            tickets = new TicketQueue();
+            ticketQueues.put(id, tickets);
+        }
+        return tickets;
+    }
+
+    /**
+     * Returns the units used on the agents covered by each agent limit of the resource, counting
+     * the running builds and the builds allocated to agents in the current distribution cycle.
+     * The allocation cache is first brought up to date with the builds the distributor has
+     * allocated, under the same lock as the start checks.
+     */
+    int[] getAgentLimitUnits(Resource resource, Map<QueuedBuildInfo, ? extends BuildAgent> distributedBuilds) {
+        List<AgentLimit> agentLimits = resource.getAgentLimits();
+        ResourceBuildCount resourceBuildCount = getResourceBuildCount(resource.getId());
+        int[] units = new int[agentLimits.size()];
+        synchronized (allocationCache) {
+            if (distributedBuilds != null) {
+                allocationCache.update(distributedBuilds, usageVersion.get());
+            }
+            for (int i = 0; i < units.length; i++) {
+                AgentLimit agentLimit = agentLimits.get(i);
+                units[i] = resourceBuildCount.getAgentUnits(agentLimit)
+                        + allocationCache.getAllocatedUnits(resource.getId(), agentLimit);
             }
         }
-        return allocated;
+        return units;
+    }
+
+    WaitReason getAgentLimitWaitReason(Resource resource) {
+        return getWaitReasons(resource).getAgentLimitWaitReason();
+    }
+
+    BuildDurationModel getDurationModel() {
+        return durationModel;
+    }
+
+    LeaseWheel getLeaseWheel() {
+        return leaseWheel;
+    }
+
+    int getTicketCount(String id) {
+        synchronized (allocationCache) {
+            TicketQueue tickets = ticketQueues.get(id);
+            return tickets == null ? 0 : tickets.size();
+        }
+    }
+
+    /**
+     * A pool build waits unless one of the available members has enough free units for its
+     * weight. The member is reserved when the build is admitted, so builds admitted in the same
+     * cycle are not all given the member that had room for one of them.
+     */
+    /**
+     * Reserves a member for a pool build about to be admitted, holding the build back if no
+     * member has room. This applies in shadow mode too, as a build started without a member
+     * would run without the host and port of a member.
+     */
+    private WaitReason reservePoolMember(Resource resource, String buildTypeId, QueuedBuildInfo queuedBuildInfo,
+                                         boolean emulationMode)
+    {
+        if (emulationMode) {
+            return checkPoolCapacity(resource, buildTypeId, queuedBuildInfo);
+        }
+        WaitReason waitReason = null;
+        long buildId = queuedBuildInfo.getBuildPromotionInfo().getId();
+        if (poolAllocator.reserve(resource, buildId, resource.getBuildTypeWeight(buildTypeId)) == null) {
+            waitReason = getWaitReasons(resource).getPoolCapacityWaitReason();
+            traceWaitReason(waitReason);
+        }
+        return waitReason;
+    }
+
+    private WaitReason checkPoolCapacity(Resource resource, String buildTypeId, QueuedBuildInfo queuedBuildInfo) {
+        WaitReason waitReason = null;
+        long buildId = queuedBuildInfo.getBuildPromotionInfo().getId();
+        if (!poolAllocator.hasRoom(resource, buildId, resource.getBuildTypeWeight(buildTypeId))) {
+            waitReason = getWaitReasons(resource).getPoolCapacityWaitReason();
+            traceWaitReason(waitReason);
+        }
+        return waitReason;
     }
 
     @Override
@@ -75,7 +427,8 @@ public class ResourceBuildLimitStartPrecondition extends BuildServerAdapter
             Resource resource = manager.findResourceByBuildTypeId(build.getBuildTypeId());
             if (resource != null) {
                 ResourceBuildCount resourceBuildCount = getResourceBuildCount(resource.getId());
-                resourceBuildCount.allocate(build.getBuildPromotion().getId());
+                resourceBuildCount.allocate(build.getBuildPromotion().getId(), resource.getBuildTypeWeight(build.getBuildTypeId()), agent);
+                resourceBuildCount.started(build);
                 log.info("Running builds using resource " + resource.getName() + ": " + resourceBuildCount.size());
             }
         }
@@ -100,7 +453,9 @@ public class ResourceBuildLimitStartPrecondition extends BuildServerAdapter
         if (resource != null) {
             long buildPromotionId = build.getBuildPromotion().getId();
             ResourceBuildCount resourceBuildCount = getResourceBuildCount(resource.getId());
-            resourceBuildCount.allocate(buildPromotionId);
+            resourceBuildCount.allocate(buildPromotionId, resource.getBuildTypeWeight(build.getBuildTypeId()), build.getAgent());
+            resourceBuildCount.started(build);
+            removeFromShadowLog(resource, buildPromotionId);
             notifyListeners(resource, resourceBuildCount.size());
             log.info("Running builds using resource " + resource.getName() + ": " + resourceBuildCount.size());
             log.debug("Build " + build.getFullName() + " #" + build.getBuildNumber()
@@ -108,22 +463,47 @@ public class ResourceBuildLimitStartPrecondition extends BuildServerAdapter
         }
     }
 
+    @Override
+    public void buildRemovedFromQueue(SQueuedBuild queued, User user, String comment) {
+        Resource resource = manager.findResourceByBuildTypeId(queued.getBuildTypeId());
+        if (resource != null) {
+            synchronized (allocationCache) {
+                TicketQueue tickets = ticketQueues.get(resource.getId());
+                if (tickets != null) {
+                    tickets.remove(queued.getBuildPromotion().getId());
+                }
+            }
+            removeFromShadowLog(resource, queued.getBuildPromotion().getId());
+        }
+    }
+
+    private void removeFromShadowLog(Resource resource, long buildId) {
+        ShadowLog shadowLog = shadowLogs.get(resource.getId());
+        if (shadowLog != null) {
+            shadowLog.removed(buildId, System.currentTimeMillis());
+        }
+    }
+
     @Override
     public void buildFinished(SRunningBuild build) {
-        buildCompleted(build);
+        buildCompleted(build, true);
     }
 
     @Override
     public void buildInterrupted(SRunningBuild build) {
-        buildCompleted(build);
+        buildCompleted(build, false);
     }
 
-    private void buildCompleted(SRunningBuild build) {
+    private void buildCompleted(SRunningBuild build, boolean finished) {
         String buildTypeId = build.getBuildTypeId();
         Resource resource = manager.findResourceByBuildTypeId(buildTypeId);
         if (resource != null) {
             long buildPromotionId = build.getBuildPromotion().getId();
             ResourceBuildCount resourceBuildCount = getResourceBuildCount(resource.getId());
+            long startTime = resourceBuildCount.getStartTime(buildPromotionId);
+            if (finished && startTime != ResourceBuildCount.NOT_STARTED) {
+                durationModel.record(buildTypeId, System.currentTimeMillis() - startTime);
+            }
             boolean removed = resourceBuildCount.release(buildPromotionId);
             if (!removed) {
                 log.warn("Failed to release build " + buildPromotionId + " from using resource " + resource.getName());
@@ -139,11 +519,27 @@ public class ResourceBuildLimitStartPrecondition extends BuildServerAdapter
     }
 
     public void resourceUpdated(Resource resource) {
+        usageVersion.incrementAndGet();
     }
 
     public void resourceRemoved(Resource resource) {
-        synchronized (resourceBuildCounts) {
-            resourceBuildCounts.remove(resource.getId());
+        usageVersion.incrementAndGet();
+        ResourceBuildCount buildCount = resourceBuildCounts.remove(resource.getId());
+        if (buildCount != null) {
+            buildCount.cancelLeases();
+        }
+        resourceWaitReasons.remove(resource.getId());
+        shadowLogs.remove(resource.getId());
+        synchronized (allocationCache) {
+            ticketQueues.remove(resource.getId());
+            startBuckets.remove(resource.getId());
+        }
+    }
+
+    public void resourcesChanged(ResourceChanges changes) {
+        usageVersion.incrementAndGet();
+        for (Resource resource : changes.getRemoved()) {
+            resourceRemoved(resource);
         }
     }
 
@@ -151,15 +547,27 @@ public class ResourceBuildLimitStartPrecondition extends BuildServerAdapter
         return getResourceBuildCount(id).size();
     }
 
+    public int getBuildUnits(String id) {
+        return getResourceBuildCount(id).getUnits();
+    }
+
+    /**
+     * Returns the build count of the resource, or null if no build of the resource has been counted.
+     */
+    ResourceBuildCount findResourceBuildCount(String id) {
+        return resourceBuildCounts.get(id);
+    }
+
     ResourceBuildCount getResourceBuildCount(String id) {
-        synchronized (resourceBuildCounts) {
-            ResourceBuildCount buildCount = resourceBuildCounts.get(id);
+        ResourceBuildCount buildCount = resourceBuildCounts.get(id);
+        if (buildCount == null) {
+            ResourceBuildCount created = new ResourceBuildCount(usageVersion, leaseWheel);
+            buildCount = resourceBuildCounts.putIfAbsent(id, created);
             if (buildCount == null) {
-                buildCount = new ResourceBuildCount();
-                resourceBuildCounts.put(id, buildCount);
+                buildCount = created;
             }
-            return buildCount;
         }
+        return buildCount;
     }
 
     private void notifyListeners(Resource resource, int count) {
@@ -168,24 +576,3 @@ public class ResourceBuildLimitStartPrecondition extends BuildServerAdapter
         }
     }
 }
-
-class ResourceBuildCount {
-
-    private Set<Long> builds = new HashSet<Long>();
-
-    public int size() {
-        return builds.size();
-    }
-
-    public boolean contains(long buildId) {
-        return builds.contains(buildId);
-    }
-
-    public void allocate(long buildId) {
-        builds.add(buildId);
-    }
-
-    public boolean release(long buildId) {
-        return builds.remove(buildId);
-    }
-}
@@ -0,0 +1,44 @@
+package teamcity.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ResourceChanges {
+
+    private List<Resource> added = new ArrayList<Resource>();
+
+    private List<Resource> updated = new ArrayList<Resource>();
+
+    private List<Resource> removed = new ArrayList<Resource>();
+
+    void resourceAdded(Resource resource) {
+        added.add(resource);
+    }
+
+    void resourceUpdated(Resource resource) {
+        if (!updated.contains(resource)) {
+            updated.add(resource);
+        }
+    }
+
+    void resourceRemoved(Resource resource) {
+        removed.add(resource);
+    }
+
+    public List<Resource> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    public List<Resource> getUpdated() {
+        return Collections.unmodifiableList(updated);
+    }
+
+    public List<Resource> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+}
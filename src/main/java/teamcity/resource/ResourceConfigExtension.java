@@ -21,7 +21,11 @@ public class ResourceConfigExtension extends AdminPage {
 
     private ResourceMonitor resourceMonitor;
 
-    public ResourceConfigExtension(PagePlaces pagePlaces, ProjectManager projectManager, ResourceManager resourceManager, ResourceMonitor resourceMonitor) {
+    private RecoveryRamp recoveryRamp;
+
+    private WaitTimeTracker waitTimeTracker;
+
+    public ResourceConfigExtension(PagePlaces pagePlaces, ProjectManager projectManager, ResourceManager resourceManager, ResourceMonitor resourceMonitor, RecoveryRamp recoveryRamp, WaitTimeTracker waitTimeTracker) {
         super(pagePlaces);
         setPluginName(PLUGIN_NAME);
         setIncludeUrl(INCLUDE_URL);
@@ -30,6 +34,8 @@ public class ResourceConfigExtension extends AdminPage {
         this.projectManager = projectManager;
         this.resourceManager = resourceManager;
         this.resourceMonitor = resourceMonitor;
+        this.recoveryRamp = recoveryRamp;
+        this.waitTimeTracker = waitTimeTracker;
     }
 
     @NotNull
@@ -66,7 +72,9 @@ public class ResourceConfigExtension extends AdminPage {
         for (Resource resource : resourceManager.getResources()) {
             boolean available = isAvailable(resource);
             boolean enabled = isEnabled(resource);
-            resources.add(new ResourceState(resource, available, enabled));
+            WaitTimes waitTimes = waitTimeTracker.getResourceWaitTimes(resource.getId());
+            resources.add(new ResourceState(resource, available, enabled, recoveryRamp.getRampLimit(resource),
+                    waitTimes, waitTimeTracker.getBuildTypeWaitTimes()));
         }
         Collections.sort(resources, new Comparator<ResourceState>() {
             public int compare(ResourceState o1, ResourceState o2) {
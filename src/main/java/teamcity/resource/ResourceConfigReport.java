@@ -0,0 +1,26 @@
+package teamcity.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Entries of a resources configuration file that were skipped, or replaced by their default, when
+ * the file was read.
+ */
+public class ResourceConfigReport {
+
+    private final List<String> errors = new ArrayList<String>();
+
+    void addError(int line, String message) {
+        errors.add("line " + line + ": " + message);
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+}
@@ -31,6 +31,7 @@ public class ResourceController extends BaseController {
     private static final String UNLINK_BUILD_ACTION = "unlinkBuildType";
     private static final String ENABLE_ACTION = "enableResource";
     private static final String DISABLE_ACTION = "disableResource";
+    private static final String BATCH_ACTION = "batch";
 
     private final WebControllerManager webControllerManager;
 
@@ -79,7 +80,7 @@ public class ResourceController extends BaseController {
         return null;
     }
 
-    private void doAction(final HttpServletRequest request) throws Exception {
+    private void doAction(final HttpServletRequest request) {
         log.debug("       method: [" + request.getMethod() + "]");
         log.debug("submit action: [" + request.getParameter(ACTION_PARAMETER) + "]");
         log.debug("  resource id: [" + request.getParameter(ID_PARAMETER) + "]");
@@ -95,7 +96,7 @@ public class ResourceController extends BaseController {
             String port = request.getParameter(PORT_PARAMETER);
             String limit = request.getParameter(LIMIT_PARAMETER);
             resourceManager.addResource(name, host, port, limit);
-            plugin.saveConfiguration();
+            plugin.configurationChanged();
         } else if (UPDATE_ACTION.equals(action)) {
             String id = request.getParameter(ID_PARAMETER);
             String name = request.getParameter(NAME_PARAMETER);
@@ -103,21 +104,28 @@ public class ResourceController extends BaseController {
             String port = request.getParameter(PORT_PARAMETER);
             String limit = request.getParameter(LIMIT_PARAMETER);
             resourceManager.updateResource(id, name, host, port, limit);
-            plugin.saveConfiguration();
+            plugin.configurationChanged();
         } else if (REMOVE_ACTION.equals(action)) {
             String id = request.getParameter(ID_PARAMETER);
             resourceManager.removeResource(id);
-            plugin.saveConfiguration();
+            plugin.configurationChanged();
         } else if (LINK_BUILD_ACTION.equals(action)) {
             String id = request.getParameter(ID_PARAMETER);
             String buildTypeId = request.getParameter(BUILD_TYPE_ID_PARAMETER);
             resourceManager.linkBuildToResource(id, buildTypeId);
-            plugin.saveConfiguration();
+            plugin.configurationChanged();
         } else if (UNLINK_BUILD_ACTION.equals(action)) {
             String id = request.getParameter(ID_PARAMETER);
             String buildTypeId = request.getParameter(BUILD_TYPE_ID_PARAMETER);
             resourceManager.unlinkBuildFromResource(id, buildTypeId);
-            plugin.saveConfiguration();
+            plugin.configurationChanged();
+        } else if (BATCH_ACTION.equals(action)) {
+            ResourceTransaction transaction = new ResourceTransaction();
+            for (int index = 0; getParameter(request, ACTION_PARAMETER, index) != null; index++) {
+                addOperation(transaction, request, index);
+            }
+            resourceManager.commit(transaction);
+            plugin.configurationChanged();
         } else if (ENABLE_ACTION.equals(action)) {
             String id = request.getParameter(ID_PARAMETER);
             monitor.enableResource(resourceManager.getResourceById(id));
@@ -129,6 +137,33 @@ public class ResourceController extends BaseController {
         }
     }
 
+    private void addOperation(ResourceTransaction transaction, HttpServletRequest request, int index) {
+        String action = getParameter(request, ACTION_PARAMETER, index);
+        String id = getParameter(request, ID_PARAMETER, index);
+        String name = getParameter(request, NAME_PARAMETER, index);
+        String host = getParameter(request, HOST_PARAMETER, index);
+        String port = getParameter(request, PORT_PARAMETER, index);
+        String limit = getParameter(request, LIMIT_PARAMETER, index);
+        String buildTypeId = getParameter(request, BUILD_TYPE_ID_PARAMETER, index);
+        if (ADD_ACTION.equals(action)) {
+            transaction.addResource(name, host, port, limit);
+        } else if (UPDATE_ACTION.equals(action)) {
+            transaction.updateResource(id, name, host, port, limit);
+        } else if (REMOVE_ACTION.equals(action)) {
+            transaction.removeResource(id);
+        } else if (LINK_BUILD_ACTION.equals(action)) {
+            transaction.linkBuildToResource(id, buildTypeId);
+        } else if (UNLINK_BUILD_ACTION.equals(action)) {
+            transaction.unlinkBuildFromResource(id, buildTypeId);
+        } else {
+            throw new IllegalArgumentException("Invalid action: " + action);
+        }
+    }
+
+    private String getParameter(HttpServletRequest request, String name, int index) {
+        return request.getParameter(name + "." + index);
+    }
+
     private void buildExceptionResponse(String name, Exception e, Element xmlResponse) {
         ActionErrors errors = new ActionErrors();
         errors.addError(name, getMessageWithNested(e));
@@ -1,27 +1,37 @@
 package teamcity.resource;
 
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
 public class ResourceManager {
 
     private static final int DEFAULT_INTERVAL = 30;
 
-    private Map<String, Resource> resources = new HashMap<String, Resource>();
-
-    private Set<String> names = new HashSet<String>();
+    private final AtomicReference<ResourceRegistry> registry = new AtomicReference<ResourceRegistry>(ResourceRegistry.EMPTY);
 
-    private Set<String> hostsAndPorts = new HashSet<String>();
+    private final Object lock = new Object();
 
     private int interval = DEFAULT_INTERVAL;
 
     private ProjectManager projectManager;
 
+    private ForkJoinSupport forkJoinSupport;
+
     private List<ResourceManagerListener> listeners = new ArrayList<ResourceManagerListener>();
 
     private enum ResourceEvent { Added, Updated, Removed }
 
     public ResourceManager(ProjectManager projectManager) {
+        this(projectManager, null);
+    }
+
+    public ResourceManager(ProjectManager projectManager, ForkJoinSupport forkJoinSupport) {
         this.projectManager = projectManager;
+        this.forkJoinSupport = forkJoinSupport;
     }
 
     public void setInterval(int interval) {
@@ -43,19 +53,19 @@ public class ResourceManager {
     }
 
     public void addResource(Resource resource) {
-        if (resources.containsKey(resource.getId())) {
-            throw new IllegalArgumentException("resource with id " + resource.getId() + " already exists");
-        }
-        if (names.contains(resource.getName())) {
-            throw new IllegalArgumentException("resource with name " + resource.getName() + " already exists");
-        }
-        String hostAndPort = makeHostAndPortKey(resource);
-        if (hostsAndPorts.contains(hostAndPort)) {
-            throw new IllegalArgumentException("resource with host " + resource.getHost() + " and port " + resource.getPort() + " already exists");
+        synchronized (lock) {
+            ResourceRegistry current = registry.get();
+            if (current.containsId(resource.getId())) {
+                throw new IllegalArgumentException("resource with id " + resource.getId() + " already exists");
+            }
+            if (current.containsName(resource.getName())) {
+                throw new IllegalArgumentException("resource with name " + resource.getName() + " already exists");
+            }
+            if (current.containsHostAndPort(ResourceRegistry.makeHostAndPortKey(resource))) {
+                throw new IllegalArgumentException("resource with host " + resource.getHost() + " and port " + resource.getPort() + " already exists");
+            }
+            registry.set(current.withResource(resource));
         }
-        names.add(resource.getName());
-        hostsAndPorts.add(hostAndPort);
-        resources.put(resource.getId(), resource);
         notifyListeners(ResourceEvent.Added, resource);
     }
 
@@ -64,114 +74,253 @@ public class ResourceManager {
     }
 
     public void updateResource(String id, String name, String host, String port, String buildLimit) {
-        Resource resource = getResource(id);
-
-        String oldName = resource.getName();
-        if (!name.equals(oldName) && names.contains(name)) {
-            throw new IllegalArgumentException("resource with name " + name + " already exists");
-        }
-
-        String oldHostAndPort = makeHostAndPortKey(resource);
-        String hostAndPort = host + ":" + port;
-        if (!hostAndPort.equals(oldHostAndPort) && hostsAndPorts.contains(hostAndPort)) {
-            throw new IllegalArgumentException("resource with host " + host + " and port " + port + " already exists");
-        }
+        Resource resource;
+        synchronized (lock) {
+            ResourceRegistry current = registry.get();
+            resource = getResource(id).copy();
+
+            String oldName = resource.getName();
+            if (!name.equals(oldName) && current.containsName(name)) {
+                throw new IllegalArgumentException("resource with name " + name + " already exists");
+            }
 
-        Integer portNumber = parsePort(port);
-        int limitNumber = parseBuildLimit(buildLimit);
-        validResource(id, name, host, portNumber, limitNumber);
+            Integer portNumber = parsePort(port);
+            String oldHostAndPort = ResourceRegistry.makeHostAndPortKey(resource);
+            String hostAndPort = ResourceRegistry.makeHostAndPortKey(host, portNumber);
+            if (!hostAndPort.equals(oldHostAndPort) && current.containsHostAndPort(hostAndPort)) {
+                throw new IllegalArgumentException("resource with host " + host + " and port " + port + " already exists");
+            }
 
-        resource.setName(name);
-        resource.setHost(host);
-        resource.setPort(portNumber);
-        resource.setBuildLimit(limitNumber);
+            int limitNumber = parseBuildLimit(buildLimit);
+            validResource(id, name, host, portNumber, limitNumber);
 
-        names.remove(oldName);
-        names.add(name);
-        hostsAndPorts.remove(oldHostAndPort);
-        hostsAndPorts.add(hostAndPort);
+            resource.setName(name);
+            resource.setHost(host);
+            resource.setPort(portNumber);
+            resource.setBuildLimit(limitNumber);
+            publish(resource);
+        }
         notifyListeners(ResourceEvent.Updated, resource);
     }
 
     public void removeResource(String id) {
-        Resource resource = getResource(id);
-        names.remove(resource.getName());
-        hostsAndPorts.remove(makeHostAndPortKey(resource));
-        resources.remove(resource.getId());
+        Resource resource;
+        synchronized (lock) {
+            resource = getResource(id);
+            registry.set(registry.get().withoutResource(resource));
+        }
         notifyListeners(ResourceEvent.Removed, resource);
     }
 
     public Resource getResourceById(String id) {
-        for (Resource resource : resources.values()) {
-            if (resource.getId().equals(id)) {
-                return resource;
-            }
-        }
-        return null;
+        return registry.get().getResourceById(id);
     }
 
     public Resource findResourceByBuildTypeId(String buildTypeId) {
-        for (Resource resource : getResources()) {
-            if (resource.getAllBuildTypes().contains(buildTypeId)) {
-                    return resource;
-            }
-        }
-        return null;
+        return registry.get().findResourceByBuildTypeId(buildTypeId);
     }
 
     public void setResources(Collection<Resource> resources) {
-        this.names.clear();
-        this.hostsAndPorts.clear();
-        this.resources.clear();
+        Set<String> ids = new HashSet<String>();
+        Set<String> names = new HashSet<String>();
+        Set<String> hostsAndPorts = new HashSet<String>();
+        List<Resource> newResources = new ArrayList<Resource>();
         for (Resource resource : resources) {
-            if (this.resources.containsKey(resource.getId())) {
+            if (ids.contains(resource.getId())) {
                 continue;
             }
-            if (this.names.contains(resource.getName())) {
+            if (names.contains(resource.getName())) {
                 continue;
             }
-            String hostAndPort = makeHostAndPortKey(resource);
-            if (this.hostsAndPorts.contains(hostAndPort)) {
+            String hostAndPort = ResourceRegistry.makeHostAndPortKey(resource);
+            if (hostsAndPorts.contains(hostAndPort)) {
                 continue;
             }
-            this.names.add(resource.getName());
-            this.hostsAndPorts.add(hostAndPort);
-            this.resources.put(resource.getId(), resource);
-            removeInvalidBuildTypes(resource);
+            ids.add(resource.getId());
+            names.add(resource.getName());
+            hostsAndPorts.add(hostAndPort);
+            newResources.add(resource);
+        }
+        removeInvalidBuildTypes(newResources);
+
+        ResourceChanges changes = new ResourceChanges();
+        synchronized (lock) {
+            ResourceRegistry current = registry.get();
+            List<Resource> mergedResources = new ArrayList<Resource>();
+            List<String> added = new ArrayList<String>();
+            List<String> updated = new ArrayList<String>();
+            for (Resource resource : newResources) {
+                Resource existing = current.getResourceById(resource.getId());
+                if (existing == null) {
+                    added.add(resource.getId());
+                    mergedResources.add(resource);
+                } else {
+                    Resource copy = existing.copy();
+                    if (mergeResource(copy, resource)) {
+                        updated.add(copy.getId());
+                        mergedResources.add(copy);
+                    } else {
+                        mergedResources.add(existing);
+                    }
+                }
+            }
+            for (Resource resource : current.getResources()) {
+                if (!ids.contains(resource.getId())) {
+                    changes.resourceRemoved(resource);
+                }
+            }
+            ResourceRegistry merged = new ResourceRegistry(mergedResources);
+            merged = merged.withResources(matchBuildTypes(merged.getMatcher()));
+            registry.set(merged);
+            for (String id : added) {
+                changes.resourceAdded(merged.getResourceById(id));
+            }
+            for (String id : updated) {
+                changes.resourceUpdated(merged.getResourceById(id));
+            }
+        }
+        log.info("Resources reloaded, added: " + changes.getAdded().size() + ", updated: " + changes.getUpdated().size()
+                + ", removed: " + changes.getRemoved().size());
+        for (Resource resource : changes.getAdded()) {
+            notifyListeners(ResourceEvent.Added, resource);
+        }
+        for (Resource resource : changes.getUpdated()) {
+            notifyListeners(ResourceEvent.Updated, resource);
+        }
+        for (Resource resource : changes.getRemoved()) {
+            notifyListeners(ResourceEvent.Removed, resource);
+        }
+    }
+
+    public ResourceChanges commit(ResourceTransaction transaction) {
+        ResourceChanges changes = new ResourceChanges();
+        synchronized (lock) {
+            ResourceRegistry current = registry.get();
+            Map<String, StagedResource> staged = new LinkedHashMap<String, StagedResource>();
+            Map<String, String> names = new HashMap<String, String>();
+            Map<String, String> hostsAndPorts = new HashMap<String, String>();
+            for (Resource resource : current.getResources()) {
+                StagedResource stagedResource = new StagedResource(resource);
+                staged.put(stagedResource.id, stagedResource);
+                names.put(stagedResource.name, stagedResource.id);
+                hostsAndPorts.put(stagedResource.getHostAndPort(), stagedResource.id);
+            }
+
+            int nextId = current.nextId();
+            for (ResourceTransaction.Operation operation : transaction.getOperations()) {
+                switch (operation.type) {
+                    case Add: {
+                        String id = Integer.toString(nextId++);
+                        if (names.containsKey(operation.name)) {
+                            throw new IllegalArgumentException("resource with name " + operation.name + " already exists");
+                        }
+                        Integer portNumber = parsePort(operation.port);
+                        int limitNumber = parseBuildLimit(operation.buildLimit);
+                        validResource(id, operation.name, operation.host, portNumber, limitNumber);
+                        StagedResource resource = new StagedResource(id, operation.name, operation.host, portNumber, limitNumber);
+                        if (hostsAndPorts.containsKey(resource.getHostAndPort())) {
+                            throw new IllegalArgumentException("resource with host " + operation.host + " and port " + operation.port + " already exists");
+                        }
+                        staged.put(id, resource);
+                        names.put(resource.name, id);
+                        hostsAndPorts.put(resource.getHostAndPort(), id);
+                        break;
+                    }
+                    case Update: {
+                        StagedResource resource = getStagedResource(staged, operation.id);
+                        if (!operation.name.equals(resource.name) && names.containsKey(operation.name)) {
+                            throw new IllegalArgumentException("resource with name " + operation.name + " already exists");
+                        }
+                        Integer portNumber = parsePort(operation.port);
+                        String hostAndPort = ResourceRegistry.makeHostAndPortKey(operation.host, portNumber);
+                        if (!hostAndPort.equals(resource.getHostAndPort()) && hostsAndPorts.containsKey(hostAndPort)) {
+                            throw new IllegalArgumentException("resource with host " + operation.host + " and port " + operation.port + " already exists");
+                        }
+                        int limitNumber = parseBuildLimit(operation.buildLimit);
+                        validResource(operation.id, operation.name, operation.host, portNumber, limitNumber);
+                        names.remove(resource.name);
+                        hostsAndPorts.remove(resource.getHostAndPort());
+                        resource.name = operation.name;
+                        resource.host = operation.host;
+                        resource.port = portNumber;
+                        resource.buildLimit = limitNumber;
+                        names.put(resource.name, resource.id);
+                        hostsAndPorts.put(resource.getHostAndPort(), resource.id);
+                        break;
+                    }
+                    case Remove: {
+                        StagedResource resource = getStagedResource(staged, operation.id);
+                        staged.remove(resource.id);
+                        names.remove(resource.name);
+                        hostsAndPorts.remove(resource.getHostAndPort());
+                        break;
+                    }
+                    case Link: {
+                        validBuildType(operation.buildTypeId);
+                        getStagedResource(staged, operation.id).buildTypes.add(operation.buildTypeId);
+                        break;
+                    }
+                    case Unlink: {
+                        validBuildType(operation.buildTypeId);
+                        getStagedResource(staged, operation.id).buildTypes.remove(operation.buildTypeId);
+                        break;
+                    }
+                }
+            }
+
+            for (Resource resource : current.getResources()) {
+                if (!staged.containsKey(resource.getId())) {
+                    changes.resourceRemoved(resource);
+                }
+            }
+            List<Resource> resources = new ArrayList<Resource>();
+            for (StagedResource stagedResource : staged.values()) {
+                resources.add(stagedResource.apply(changes));
+            }
+            registry.set(new ResourceRegistry(resources));
         }
+        notifyListeners(changes);
+        return changes;
     }
 
     public Collection<Resource> getResources() {
-        return Collections.unmodifiableCollection(resources.values());
+        return registry.get().getResources();
     }
 
     public void linkBuildToResource(String id, String buildTypeId) {
         validBuildType(buildTypeId);
-        Resource resource = getResource(id);
-        resource.addBuildType(buildTypeId);
+        synchronized (lock) {
+            Resource resource = getResource(id).copy();
+            resource.addBuildType(buildTypeId);
+            publish(resource);
+        }
     }
 
     public void unlinkBuildFromResource(String id, String buildTypeId) {
         validBuildType(buildTypeId);
-        Resource resource = getResource(id);
-        resource.removeBuildType(buildTypeId);
+        synchronized (lock) {
+            Resource resource = getResource(id).copy();
+            resource.removeBuildType(buildTypeId);
+            publish(resource);
+        }
     }
 
     public void unregisterBuild(String buildTypeId) {
-        for (Resource resource : getResources()) {
-            resource.removeBuildType(buildTypeId);
+        synchronized (lock) {
+            List<Resource> updated = new ArrayList<Resource>();
+            for (Resource resource : getResources()) {
+                if (resource.getBuildTypes().contains(buildTypeId)) {
+                    Resource copy = resource.copy();
+                    copy.removeBuildType(buildTypeId);
+                    updated.add(copy);
+                }
+            }
+            publish(updated);
         }
     }
 
     public int nextId() {
-        int highestId = 0;
-        for (Resource resource : resources.values()) {
-            int id = Integer.parseInt(resource.getId());
-            if (id > highestId) {
-                highestId = id;
-            }
-        }
-        return highestId + 1;
+        return registry.get().nextId();
     }
 
     public void addListener(ResourceManagerListener listener) {
@@ -179,20 +328,55 @@ public class ResourceManager {
     }
 
     public void buildTypeRegistered(BuildType buildType) {
-        for (Resource resource : resources.values()) {
-            resource.buildTypeRegistered(buildType);
+        synchronized (lock) {
+            List<Resource> updated = new ArrayList<Resource>();
+            for (Resource resource : registry.get().getMatcher().findMatchingResources(buildType)) {
+                if (!resource.hasMatchedBuildType(buildType.getBuildTypeId())) {
+                    Resource copy = resource.copy();
+                    copy.addMatchedBuildType(buildType.getBuildTypeId());
+                    updated.add(copy);
+                }
+            }
+            publish(updated);
         }
     }
 
     public void buildTypeUnregistered(BuildType buildType) {
-        for (Resource resource : resources.values()) {
-            resource.buildTypeUnregistered(buildType);
+        synchronized (lock) {
+            List<Resource> updated = new ArrayList<Resource>();
+            for (Resource resource : registry.get().getMatcher().getResources()) {
+                if (resource.hasMatchedBuildType(buildType.getBuildTypeId())) {
+                    Resource copy = resource.copy();
+                    copy.removeMatchedBuildType(buildType.getBuildTypeId());
+                    updated.add(copy);
+                }
+            }
+            publish(updated);
         }
     }
 
     public void buildTypePersisted(BuildType buildType) {
-        for (Resource resource : resources.values()) {
-            resource.buildTypePersisted(buildType);
+        synchronized (lock) {
+            BuildTypeMatcher matcher = registry.get().getMatcher();
+            if (matcher.isEmpty()) {
+                return;
+            }
+            String buildTypeId = buildType.getBuildTypeId();
+            Set<Resource> matching = new HashSet<Resource>(matcher.findMatchingResources(buildType));
+            List<Resource> updated = new ArrayList<Resource>();
+            for (Resource resource : matcher.getResources()) {
+                boolean matches = matching.contains(resource);
+                if (matches != resource.hasMatchedBuildType(buildTypeId)) {
+                    Resource copy = resource.copy();
+                    if (matches) {
+                        copy.addMatchedBuildType(buildTypeId);
+                    } else {
+                        copy.removeMatchedBuildType(buildTypeId);
+                    }
+                    updated.add(copy);
+                }
+            }
+            publish(updated);
         }
     }
 
@@ -202,11 +386,23 @@ public class ResourceManager {
     }
 
     private void validResource(String id) {
-        if (!resources.containsKey(id)) {
+        if (!registry.get().containsId(id)) {
             throw new IllegalArgumentException("resource with id " + id + " does not exist");
         }
     }
 
+    /**
+     * Publishes copies of resources changed under the lock in place of the resources they were
+     * copied from.
+     */
+    private void publish(Resource resource) {
+        publish(Collections.singletonList(resource));
+    }
+
+    private void publish(Collection<Resource> updated) {
+        registry.set(registry.get().withResources(updated));
+    }
+
     private Integer parsePort(String value) {
         if (value == null || "".equals(value)) {
             throw new InvalidPortException("invalid port number");
@@ -257,19 +453,244 @@ public class ResourceManager {
         }
     }
 
-    private void removeInvalidBuildTypes(Resource resource) {
-        List<String> invalidBuildTypeIds = new ArrayList<String>();
-        for (String buildTypeId : resource.getBuildTypes()) {
-            if (projectManager.findBuildTypeById(buildTypeId) == null) {
-                invalidBuildTypeIds.add(buildTypeId);
+    private void notifyListeners(ResourceChanges changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (ResourceManagerListener listener : listeners) {
+            listener.resourcesChanged(changes);
+        }
+    }
+
+    private StagedResource getStagedResource(Map<String, StagedResource> staged, String id) {
+        StagedResource resource = staged.get(id);
+        if (resource == null) {
+            throw new IllegalArgumentException("resource with id " + id + " does not exist");
+        }
+        return resource;
+    }
+
+    /**
+     * Merges the loaded resource into an unpublished copy of the existing resource, returns true
+     * if the copy was modified.
+     */
+    private boolean mergeResource(Resource existing, Resource resource) {
+        boolean modified = false;
+        if (!existing.getName().equals(resource.getName())) {
+            existing.setName(resource.getName());
+            modified = true;
+        }
+        if (!existing.getHost().equals(resource.getHost())) {
+            existing.setHost(resource.getHost());
+            modified = true;
+        }
+        if (existing.getPort() != resource.getPort()) {
+            existing.setPort(resource.getPort());
+            modified = true;
+        }
+        if (existing.getBuildLimit() != resource.getBuildLimit()) {
+            existing.setBuildLimit(resource.getBuildLimit());
+            modified = true;
+        }
+        if (existing.getStartRate() != resource.getStartRate()) {
+            existing.setStartRate(resource.getStartRate());
+            modified = true;
+        }
+        if (existing.getRampUp() != resource.getRampUp()) {
+            existing.setRampUp(resource.getRampUp());
+            modified = true;
+        }
+        if (existing.isShadow() != resource.isShadow()) {
+            existing.setShadow(resource.isShadow());
+            modified = true;
+        }
+        if (!existing.getBuildTypes().equals(resource.getBuildTypes())) {
+            for (String buildTypeId : new ArrayList<String>(existing.getBuildTypes())) {
+                existing.removeBuildType(buildTypeId);
+            }
+            for (String buildTypeId : resource.getBuildTypes()) {
+                existing.addBuildType(buildTypeId);
+            }
+            modified = true;
+        }
+        if (!existing.getBuildTypeWeights().equals(resource.getBuildTypeWeights())) {
+            for (String buildTypeId : existing.getBuildTypes()) {
+                existing.setBuildTypeWeight(buildTypeId, resource.getBuildTypeWeight(buildTypeId));
+            }
+            modified = true;
+        }
+        if (!existing.getBuildTypePriorities().equals(resource.getBuildTypePriorities())) {
+            for (String buildTypeId : existing.getBuildTypes()) {
+                existing.setBuildTypePriority(buildTypeId, resource.getBuildTypePriority(buildTypeId));
+            }
+            modified = true;
+        }
+        if (!existing.getMembers().equals(resource.getMembers())) {
+            existing.clearMembers();
+            for (PoolMember member : resource.getMembers()) {
+                existing.addMember(member);
+            }
+            modified = true;
+        }
+        if (!existing.getAgentLimits().equals(resource.getAgentLimits())) {
+            existing.clearAgentLimits();
+            for (AgentLimit agentLimit : resource.getAgentLimits()) {
+                existing.addAgentLimit(agentLimit);
+            }
+            modified = true;
+        }
+        if (!existing.hasSameMatchers(resource)) {
+            existing.clearBuildTypeMatchers();
+            existing.clearMatchedBuildTypes();
+            for (Pattern pattern : resource.getMatchers()) {
+                existing.addBuildTypeMatcher(pattern.pattern());
+            }
+            for (String projectId : resource.getProjectMatchers()) {
+                existing.addProjectMatcher(projectId);
+            }
+            for (ParameterMatcher matcher : resource.getParameterMatchers()) {
+                existing.addParameterMatcher(matcher.getName(), matcher.getValue());
+            }
+            modified = true;
+        }
+        return modified;
+    }
+
+    public void matchAllBuildTypes() {
+        synchronized (lock) {
+            publish(matchBuildTypes(registry.get().getMatcher()));
+        }
+    }
+
+    /**
+     * Matches all build types against the resources of the matcher and returns copies of the
+     * resources with their matched build types replaced.
+     */
+    private List<Resource> matchBuildTypes(BuildTypeMatcher matcher) {
+        if (matcher.isEmpty() || projectManager == null) {
+            return Collections.emptyList();
+        }
+        long start = System.currentTimeMillis();
+        List<BuildType> buildTypes = projectManager.getAllBuildTypes();
+        Map<Resource, List<String>> matches = BuildTypeMatchingTask.matchAll(getForkJoinPool(), matcher, buildTypes);
+        List<Resource> updated = new ArrayList<Resource>(matches.size());
+        for (Map.Entry<Resource, List<String>> entry : matches.entrySet()) {
+            if (entry.getKey().hasMatchedBuildTypes(entry.getValue())) {
+                continue;
+            }
+            Resource copy = entry.getKey().copy();
+            copy.setMatchedBuildTypes(entry.getValue());
+            updated.add(copy);
+        }
+        log.debug("Matched " + buildTypes.size() + " build types against " + matches.size() + " resources in "
+                + (System.currentTimeMillis() - start) + "ms");
+        return updated;
+    }
+
+    private ForkJoinPool getForkJoinPool() {
+        return forkJoinSupport == null ? null : forkJoinSupport.getPool();
+    }
+
+    private void removeInvalidBuildTypes(List<Resource> resources) {
+        boolean linked = false;
+        for (Resource resource : resources) {
+            if (!resource.getBuildTypes().isEmpty()) {
+                linked = true;
+                break;
             }
         }
-        for (String buildTypeId : invalidBuildTypeIds) {
-            resource.removeBuildType(buildTypeId);
+        if (!linked) {
+            return;
+        }
+
+        Set<String> buildTypeIds = projectManager.getAllBuildTypeIds();
+        Map<Resource, List<String>> invalidLinks = BuildTypeLinkValidator.findInvalidLinks(getForkJoinPool(), resources, buildTypeIds);
+        if (invalidLinks.isEmpty()) {
+            return;
+        }
+
+        int removed = 0;
+        StringBuilder summary = new StringBuilder();
+        for (Map.Entry<Resource, List<String>> entry : invalidLinks.entrySet()) {
+            Resource resource = entry.getKey();
+            for (String buildTypeId : entry.getValue()) {
+                resource.removeBuildType(buildTypeId);
+                removed++;
+            }
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(resource.getName()).append(" ").append(entry.getValue());
         }
+        log.info("Removed " + removed + " links to build types that no longer exist: " + summary);
     }
 
-    private String makeHostAndPortKey(Resource resource) {
-        return resource.getHost() + ":" + resource.getPort();
+    private static class StagedResource {
+        private final Resource original;
+        private final String id;
+        private String name;
+        private String host;
+        private int port;
+        private int buildLimit;
+        private final Set<String> buildTypes = new LinkedHashSet<String>();
+
+        StagedResource(Resource resource) {
+            this.original = resource;
+            this.id = resource.getId();
+            this.name = resource.getName();
+            this.host = resource.getHost();
+            this.port = resource.getPort();
+            this.buildLimit = resource.getBuildLimit();
+            this.buildTypes.addAll(resource.getBuildTypes());
+        }
+
+        StagedResource(String id, String name, String host, int port, int buildLimit) {
+            this.original = null;
+            this.id = id;
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.buildLimit = buildLimit;
+        }
+
+        String getHostAndPort() {
+            return ResourceRegistry.makeHostAndPortKey(host, port);
+        }
+
+        Resource apply(ResourceChanges changes) {
+            if (original == null) {
+                Resource resource = new Resource(id, name, host, port, buildLimit);
+                for (String buildTypeId : buildTypes) {
+                    resource.addBuildType(buildTypeId);
+                }
+                changes.resourceAdded(resource);
+                return resource;
+            }
+
+            boolean modified = !name.equals(original.getName()) || !host.equals(original.getHost())
+                    || port != original.getPort() || buildLimit != original.getBuildLimit()
+                    || !buildTypes.equals(new HashSet<String>(original.getBuildTypes()));
+            if (!modified) {
+                return original;
+            }
+            Resource resource = original.copy();
+            resource.setName(name);
+            resource.setHost(host);
+            resource.setPort(port);
+            resource.setBuildLimit(buildLimit);
+            Set<String> existing = new HashSet<String>(resource.getBuildTypes());
+            for (String buildTypeId : existing) {
+                if (!buildTypes.contains(buildTypeId)) {
+                    resource.removeBuildType(buildTypeId);
+                }
+            }
+            for (String buildTypeId : buildTypes) {
+                if (!existing.contains(buildTypeId)) {
+                    resource.addBuildType(buildTypeId);
+                }
+            }
+            changes.resourceUpdated(resource);
+            return resource;
+        }
     }
 }
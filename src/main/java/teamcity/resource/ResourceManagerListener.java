@@ -6,4 +6,6 @@ public interface ResourceManagerListener {
     void resourceUpdated(Resource resource);
 
     void resourceRemoved(Resource resource);
+
+    void resourcesChanged(ResourceChanges changes);
 }
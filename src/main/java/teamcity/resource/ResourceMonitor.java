@@ -6,11 +6,12 @@ import jetbrains.buildServer.serverSide.SBuildServer;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
-public class ResourceMonitor implements Runnable {
+public class ResourceMonitor implements Runnable, ResourceManagerListener {
 
     private static final String PLUGIN_NAME = "ResourceMonitorPlugin";
 
@@ -24,11 +25,17 @@ public class ResourceMonitor implements Runnable {
 
     private ScheduledFuture<?> future;
 
+    private int scheduledInterval;
+
     private List<ResourceMonitorListener> listeners = new ArrayList<ResourceMonitorListener>();
 
-    private Set<String> unavailableResources = new HashSet<String>();
+    private Set<String> unavailableResources = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private Set<String> disabledResources = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private List<PoolMemberListener> memberListeners = new ArrayList<PoolMemberListener>();
 
-    private Set<String> disabledResources = new HashSet<String>();
+    private Set<String> unavailableMembers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     private enum ResourceEvent { Available, Unavailable, Enabled, Disabled }
 
@@ -36,22 +43,34 @@ public class ResourceMonitor implements Runnable {
         this.server = server;
         this.resourceManager = resourceManager;
         this.checker = checker;
+        if (resourceManager != null) {
+            resourceManager.addListener(this);
+        }
     }
 
     public void scheduleMonitor() {
         int interval = resourceManager.getInterval();
+        if (future != null && interval == scheduledInterval) {
+            log.debug(PLUGIN_NAME + ": monitor check interval unchanged, keeping current schedule");
+            return;
+        }
         log.info(PLUGIN_NAME + ": monitor check interval set to " + interval + "seconds");
         if (future != null) {
             future.cancel(false);
         }
         ScheduledExecutorService executor = server.getExecutor();
         future = executor.scheduleAtFixedRate(this, INITIAL_DELAY, interval, TimeUnit.SECONDS);
+        scheduledInterval = interval;
     }
 
     public void addListener(ResourceMonitorListener listener) {
         listeners.add(listener);
     }
 
+    public void addPoolMemberListener(PoolMemberListener listener) {
+        memberListeners.add(listener);
+    }
+
     public void enableResource(Resource resource) {
         if (disabledResources.remove(resource.getId())) {
             notifyListeners(ResourceEvent.Enabled, resource);
@@ -71,7 +90,7 @@ public class ResourceMonitor implements Runnable {
             if (isEnabled(resource)) {
                 enabled++;
             }
-            if (checker.isAvailable(resource)) {
+            if (isAvailable(resource, checker)) {
                 resourceAvailable(resource);
                 available++;
             } else {
@@ -85,6 +104,31 @@ public class ResourceMonitor implements Runnable {
         return !unavailableResources.contains(resource.getId());
     }
 
+    public boolean isAvailable(Resource resource, PoolMember member) {
+        return !unavailableMembers.contains(makeMemberKey(resource, member));
+    }
+
+    private boolean isAvailable(Resource resource, AvailabilityChecker checker) {
+        if (!resource.isPool()) {
+            return checker.isAvailable(resource);
+        }
+        boolean available = false;
+        for (PoolMember member : resource.getMembers()) {
+            String key = makeMemberKey(resource, member);
+            if (checker.isAvailable(member)) {
+                available = true;
+                if (unavailableMembers.remove(key)) {
+                    notifyMemberListeners(true, resource, member);
+                }
+            } else {
+                if (unavailableMembers.add(key)) {
+                    notifyMemberListeners(false, resource, member);
+                }
+            }
+        }
+        return available;
+    }
+
     public boolean isEnabled(Resource resource) {
         return !disabledResources.contains(resource.getId());
     }
@@ -120,6 +164,57 @@ public class ResourceMonitor implements Runnable {
         }
     }
 
+    private void notifyMemberListeners(boolean available, Resource resource, PoolMember member) {
+        for (PoolMemberListener listener : memberListeners) {
+            if (available) {
+                listener.memberAvailable(resource, member);
+            } else {
+                listener.memberUnavailable(resource, member);
+            }
+        }
+    }
+
+    public void resourceAdded(Resource resource) {
+    }
+
+    public void resourceUpdated(Resource resource) {
+        Set<String> members = new HashSet<String>();
+        for (PoolMember member : resource.getMembers()) {
+            members.add(makeMemberKey(resource, member));
+        }
+        String prefix = resource.getId() + "/";
+        for (Iterator<String> keys = unavailableMembers.iterator(); keys.hasNext(); ) {
+            String key = keys.next();
+            if (key.startsWith(prefix) && !members.contains(key)) {
+                keys.remove();
+            }
+        }
+    }
+
+    public void resourceRemoved(Resource resource) {
+        unavailableResources.remove(resource.getId());
+        disabledResources.remove(resource.getId());
+        String prefix = resource.getId() + "/";
+        for (Iterator<String> keys = unavailableMembers.iterator(); keys.hasNext(); ) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
+    public void resourcesChanged(ResourceChanges changes) {
+        for (Resource resource : changes.getUpdated()) {
+            resourceUpdated(resource);
+        }
+        for (Resource resource : changes.getRemoved()) {
+            resourceRemoved(resource);
+        }
+    }
+
+    private String makeMemberKey(Resource resource, PoolMember member) {
+        return resource.getId() + "/" + member.getHostAndPort();
+    }
+
     private Collection<Resource> getResources() {
         return resourceManager.getResources();
     }
@@ -2,13 +2,14 @@ package teamcity.resource;
 
 import static teamcity.resource.ResourceMonitorPlugin.log;
 
-import org.jdom.Document;
 import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
 import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
@@ -25,10 +26,22 @@ public class ResourceMonitorConfigProcessor {
     private static final String CONFIG_HOST = "host";
     private static final String CONFIG_PORT = "port";
     private static final String CONFIG_BUILD_LIMIT = "build-limit";
+    private static final String CONFIG_START_RATE = "start-rate";
+    private static final String CONFIG_RAMP_UP = "ramp-up";
+    private static final String CONFIG_SHADOW = "shadow";
     private static final String CONFIG_BUILD_TYPE = "build-type";
     private static final String CONFIG_BUILD_TYPE_ID = "id";
+    private static final String CONFIG_BUILD_TYPE_WEIGHT = "weight";
+    private static final String CONFIG_BUILD_TYPE_PRIORITY = "priority";
     private static final String CONFIG_MATCHER = "matcher";
     private static final String CONFIG_MATCHER_NAME = "name";
+    private static final String CONFIG_MATCHER_PROJECT = "project";
+    private static final String CONFIG_MATCHER_PARAMETER = "parameter";
+    private static final String CONFIG_MATCHER_VALUE = "value";
+    private static final String CONFIG_MEMBER = "member";
+    private static final String CONFIG_AGENT_LIMIT = "agent-limit";
+    private static final String CONFIG_AGENT_LIMIT_POOL = "pool";
+    private static final String CONFIG_AGENT_LIMIT_AGENT = "agent";
 
     private static final int DEFAULT_CHECK_INTERVAL = 30;
 
@@ -38,100 +51,215 @@ public class ResourceMonitorConfigProcessor {
         this.resourceManager = resourceManager;
     }
 
-    public void readFrom(Reader reader) throws JDOMException, IOException {
+    /**
+     * Reads the configuration with a streaming parser, creating the resources as their elements
+     * are read. Invalid resources and invalid entries of a resource are skipped and reported, the
+     * resources are only replaced once the whole file has been read.
+     */
+    public ResourceConfigReport readFrom(Reader reader) throws XMLStreamException {
         log.info("ResourceMonitor reading config");
-        SAXBuilder builder = new SAXBuilder();
-        Document document = builder.build(reader);
-        Element configRoot = document.getRootElement();
+        ResourceConfigReport report = new ResourceConfigReport();
+        XMLStreamReader xml = createInputFactory().createXMLStreamReader(reader);
+        try {
+            xml.nextTag();
+            int interval = readIntFrom(xml, CONFIG_CHECK_INTERVAL, DEFAULT_CHECK_INTERVAL, 1, report);
+            Collection<Resource> resources = readResourcesFrom(xml, report);
+            while (xml.hasNext()) {
+                xml.next();
+            }
+            resourceManager.setInterval(interval);
+            log.info("ResourceMonitor config loaded, " + resources.size() + " resources, "
+                    + report.getErrors().size() + " invalid entries skipped");
+            resourceManager.setResources(resources);
+        }
+        finally {
+            xml.close();
+        }
+        return report;
+    }
 
-        resourceManager.setInterval(readCheckIntervalFrom(configRoot));
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
 
+    private Collection<Resource> readResourcesFrom(XMLStreamReader xml, ResourceConfigReport report) throws XMLStreamException {
         Collection<Resource> resources = new ArrayList<Resource>();
-        final List list = configRoot.getChildren(CONFIG_RESOURCE);
-        for (Object o : list) {
-            final Element element = (Element) o;
-            Resource resource = readResourceFrom(element);
-            resources.add(resource);
+        Set<String> ids = new HashSet<String>();
+        Set<String> names = new HashSet<String>();
+        Set<String> hostsAndPorts = new HashSet<String>();
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!CONFIG_RESOURCE.equals(xml.getLocalName())) {
+                skipElement(xml);
+                continue;
+            }
+            int line = xml.getLocation().getLineNumber();
+            Resource resource = readResourceFrom(xml, report);
+            if (resource == null) {
+                continue;
+            }
+            if (!ids.add(resource.getId())) {
+                invalid(line, report, "Skipped resource " + resource.getName() + ": duplicate id " + resource.getId());
+            } else if (!names.add(resource.getName())) {
+                invalid(line, report, "Skipped resource " + resource.getId() + ": duplicate name " + resource.getName());
+            } else if (!hostsAndPorts.add(ResourceRegistry.makeHostAndPortKey(resource))) {
+                invalid(line, report, "Skipped resource " + resource.getName() + ": duplicate host and port "
+                        + ResourceRegistry.makeHostAndPortKey(resource));
+            } else {
+                resources.add(resource);
+            }
         }
-        log.info("ResourceMonitor config loaded");
-        resourceManager.setResources(resources);
+        return resources;
     }
 
-    private int readCheckIntervalFrom(Element configRoot) {
-        int interval = DEFAULT_CHECK_INTERVAL;
-        String checkInterval = "";
+    private Resource readResourceFrom(XMLStreamReader xml, ResourceConfigReport report) throws XMLStreamException {
+        final String id = xml.getAttributeValue(null, CONFIG_ID);
+        final String name = xml.getAttributeValue(null, CONFIG_NAME);
+        final String host = xml.getAttributeValue(null, CONFIG_HOST);
+        Resource resource;
         try {
-            checkInterval = configRoot.getAttributeValue(CONFIG_CHECK_INTERVAL);
-            interval = Integer.valueOf(checkInterval);
+            resource = new Resource(id, name, host, readPortFrom(xml));
+            resource.setBuildLimit(readIntFrom(xml, CONFIG_BUILD_LIMIT, 0, 0, report));
+            resource.setStartRate(readIntFrom(xml, CONFIG_START_RATE, 0, 0, report));
+            resource.setRampUp(readIntFrom(xml, CONFIG_RAMP_UP, 0, 0, report));
+            resource.setShadow(Boolean.parseBoolean(xml.getAttributeValue(null, CONFIG_SHADOW)));
         }
-        catch (NumberFormatException e) {
-            log.error("Invalid check interval: " + checkInterval);
+        catch (RuntimeException e) {
+            invalid(xml, report, "Skipped resource " + (name == null ? id : name) + ": " + e.getMessage());
+            skipElement(xml);
+            return null;
         }
-        return interval;
+        while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            final String element = xml.getLocalName();
+            try {
+                if (CONFIG_BUILD_TYPE.equals(element)) {
+                    readBuildTypeFrom(xml, resource, report);
+                } else if (CONFIG_MATCHER.equals(element)) {
+                    readMatcherFrom(xml, resource);
+                } else if (CONFIG_MEMBER.equals(element)) {
+                    readMemberFrom(xml, resource, report);
+                } else if (CONFIG_AGENT_LIMIT.equals(element)) {
+                    readAgentLimitFrom(xml, resource, report);
+                }
+            }
+            catch (RuntimeException e) {
+                invalid(xml, report, "Skipped " + element + " of resource " + resource.getName() + ": " + e.getMessage());
+            }
+            skipElement(xml);
+        }
+        return resource;
     }
 
-    private Resource readResourceFrom(Element element) {
-        final String id = element.getAttributeValue(CONFIG_ID);
-        final String name = element.getAttributeValue(CONFIG_NAME);
-        final String host = element.getAttributeValue(CONFIG_HOST);
-        final int port = readPortFrom(element);
-        final int buildLimit = readBuildLimit(element);
-        Resource resource = new Resource(id, name, host, port);
-        resource.setBuildLimit(buildLimit);
-        readBuildTypesFrom(element, resource);
-        readMatchersFrom(element, resource);
-        return resource;
+    private void readBuildTypeFrom(XMLStreamReader xml, Resource resource, ResourceConfigReport report) {
+        final String buildTypeId = xml.getAttributeValue(null, CONFIG_BUILD_TYPE_ID);
+        if (buildTypeId == null || "".equals(buildTypeId)) {
+            throw new IllegalArgumentException("id cannot be null or empty");
+        }
+        resource.addBuildType(buildTypeId);
+        resource.setBuildTypeWeight(buildTypeId, readIntFrom(xml, CONFIG_BUILD_TYPE_WEIGHT, Resource.DEFAULT_WEIGHT, 1, report));
+        resource.setBuildTypePriority(buildTypeId, readIntFrom(xml, CONFIG_BUILD_TYPE_PRIORITY, Resource.DEFAULT_PRIORITY, 1, report));
     }
 
-    private int readPortFrom(Element element) {
-        int port = -1;
-        String portValue = "";
-        try {
-            portValue = element.getAttributeValue(CONFIG_PORT);
-            port = Integer.valueOf(portValue);
+    private void readMatcherFrom(XMLStreamReader xml, Resource resource) {
+        final String pattern = xml.getAttributeValue(null, CONFIG_MATCHER_NAME);
+        final String projectId = xml.getAttributeValue(null, CONFIG_MATCHER_PROJECT);
+        final String parameter = xml.getAttributeValue(null, CONFIG_MATCHER_PARAMETER);
+        if (pattern != null) {
+            resource.addBuildTypeMatcher(pattern);
+        } else if (projectId != null) {
+            resource.addProjectMatcher(projectId);
+        } else if (parameter != null) {
+            final String value = xml.getAttributeValue(null, CONFIG_MATCHER_VALUE);
+            resource.addParameterMatcher(parameter, value == null ? "" : value);
+        } else {
+            throw new IllegalArgumentException("matcher needs a name, project or parameter");
         }
-        catch (NumberFormatException e) {
-            log.error("Invalid port: " + portValue);
+    }
+
+    private void readMemberFrom(XMLStreamReader xml, Resource resource, ResourceConfigReport report) {
+        final String host = xml.getAttributeValue(null, CONFIG_HOST);
+        final int port = readPortFrom(xml);
+        final int buildLimit = readIntFrom(xml, CONFIG_BUILD_LIMIT, 0, 0, report);
+        resource.addMember(new PoolMember(host, port, buildLimit));
+    }
+
+    private void readAgentLimitFrom(XMLStreamReader xml, Resource resource, ResourceConfigReport report) {
+        final String poolId = xml.getAttributeValue(null, CONFIG_AGENT_LIMIT_POOL);
+        final String agentPattern = xml.getAttributeValue(null, CONFIG_AGENT_LIMIT_AGENT);
+        final int buildLimit = readIntFrom(xml, CONFIG_BUILD_LIMIT, 0, 0, report);
+        if (poolId != null) {
+            resource.addAgentLimit(AgentLimit.forPool(Integer.valueOf(poolId), buildLimit));
+        } else if (agentPattern != null) {
+            resource.addAgentLimit(AgentLimit.forAgents(agentPattern, buildLimit));
+        } else {
+            throw new IllegalArgumentException("agent limit needs a pool or an agent");
         }
-        return port;
     }
 
-    private int readBuildLimit(Element element) {
-        int buildLimit = 0;
-        String buildLimitValue = "";
+    private static int readPortFrom(XMLStreamReader xml) {
         try {
-            buildLimitValue = element.getAttributeValue(CONFIG_BUILD_LIMIT);
-            buildLimit = Integer.valueOf(buildLimitValue);
+            return Integer.valueOf(xml.getAttributeValue(null, CONFIG_PORT));
         }
         catch (NumberFormatException e) {
-            log.warn("Invalid build limit: " + buildLimitValue);
+            return -1;
         }
-        return buildLimit;
     }
 
-    private void readBuildTypesFrom(Element resourceElement, Resource resource) {
-        final List list = resourceElement.getChildren(CONFIG_BUILD_TYPE);
-        for (Object o : list) {
-            final Element element = (Element) o;
-            final String buildTypeId = element.getAttributeValue(CONFIG_BUILD_TYPE_ID);
-            resource.addBuildType(buildTypeId);
+    /**
+     * Reads an optional number, reporting a value that is not a number or is below the minimum
+     * and using the default instead.
+     */
+    private static int readIntFrom(XMLStreamReader xml, String attribute, int defaultValue, int minimum,
+                                   ResourceConfigReport report)
+    {
+        final String value = xml.getAttributeValue(null, attribute);
+        if (value == null) {
+            return defaultValue;
         }
+        try {
+            int number = Integer.valueOf(value);
+            if (number >= minimum) {
+                return number;
+            }
+        }
+        catch (NumberFormatException ignored) {
+        }
+        invalid(xml, report, "Invalid " + attribute + ": " + value);
+        return defaultValue;
     }
 
-    private void readMatchersFrom(Element resourceElement, Resource resource) {
-        final List list = resourceElement.getChildren(CONFIG_MATCHER);
-        for (Object o : list) {
-            final Element element = (Element) o;
-            final String pattern = element.getAttributeValue(CONFIG_MATCHER_NAME);
-            resource.addBuildTypeMatcher(pattern);
+    private static void skipElement(XMLStreamReader xml) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
         }
     }
 
+    private static void invalid(XMLStreamReader xml, ResourceConfigReport report, String message) {
+        invalid(xml.getLocation().getLineNumber(), report, message);
+    }
+
+    private static void invalid(int line, ResourceConfigReport report, String message) {
+        report.addError(line, message);
+        log.warn("Line " + line + " of resources configuration: " + message);
+    }
+
     public void writeTo(Writer writer) throws IOException {
+        writeTo(writer, ConfigSnapshot.of(resourceManager));
+    }
+
+    void writeTo(Writer writer, ConfigSnapshot snapshot) throws IOException {
         log.info("ResourceMonitor writing config");
         Element root = new Element(CONFIG_ROOT);
-        root.setAttribute(CONFIG_CHECK_INTERVAL, Integer.toString(resourceManager.getInterval()));
-        for (Resource resource : resourceManager.getResources()) {
+        root.setAttribute(CONFIG_CHECK_INTERVAL, Integer.toString(snapshot.getInterval()));
+        for (Resource resource : snapshot.getResources()) {
             writeResourceTo(resource, root);
         }
 
@@ -148,23 +276,76 @@ public class ResourceMonitorConfigProcessor {
         element.setAttribute(CONFIG_HOST, resource.getHost());
         element.setAttribute(CONFIG_PORT, Integer.toString(resource.getPort()));
         element.setAttribute(CONFIG_BUILD_LIMIT, Integer.toString(resource.getBuildLimit()));
-        writeBuildTypesTo(resource.getBuildTypes(), element);
-        writeMatchersTo(resource.getMatchers(), element);
+        if (resource.getStartRate() > 0) {
+            element.setAttribute(CONFIG_START_RATE, Integer.toString(resource.getStartRate()));
+        }
+        if (resource.getRampUp() > 0) {
+            element.setAttribute(CONFIG_RAMP_UP, Integer.toString(resource.getRampUp()));
+        }
+        if (resource.isShadow()) {
+            element.setAttribute(CONFIG_SHADOW, Boolean.toString(true));
+        }
+        writeBuildTypesTo(resource, element);
+        writeMatchersTo(resource, element);
+        writeMembersTo(resource.getMembers(), element);
+        writeAgentLimitsTo(resource.getAgentLimits(), element);
     }
 
-    private void writeBuildTypesTo(List<String> buildTypeIds, Element parentElement) {
-        for (String id : buildTypeIds) {
+    private void writeBuildTypesTo(Resource resource, Element parentElement) {
+        for (String id : resource.getBuildTypes()) {
             final Element element = new Element(CONFIG_BUILD_TYPE);
             parentElement.addContent(element);
             element.setAttribute(CONFIG_BUILD_TYPE_ID, id);
+            int weight = resource.getBuildTypeWeight(id);
+            if (weight != Resource.DEFAULT_WEIGHT) {
+                element.setAttribute(CONFIG_BUILD_TYPE_WEIGHT, Integer.toString(weight));
+            }
+            int priority = resource.getBuildTypePriority(id);
+            if (priority != Resource.DEFAULT_PRIORITY) {
+                element.setAttribute(CONFIG_BUILD_TYPE_PRIORITY, Integer.toString(priority));
+            }
         }
     }
 
-    private void writeMatchersTo(List<Pattern> matchers, Element parentElement) {
-        for (Pattern pattern : matchers) {
+    private void writeMatchersTo(Resource resource, Element parentElement) {
+        for (Pattern pattern : resource.getMatchers()) {
             final Element element = new Element(CONFIG_MATCHER);
             element.setAttribute(CONFIG_MATCHER_NAME, pattern.pattern());
             parentElement.addContent(element);
         }
+        for (String projectId : resource.getProjectMatchers()) {
+            final Element element = new Element(CONFIG_MATCHER);
+            element.setAttribute(CONFIG_MATCHER_PROJECT, projectId);
+            parentElement.addContent(element);
+        }
+        for (ParameterMatcher matcher : resource.getParameterMatchers()) {
+            final Element element = new Element(CONFIG_MATCHER);
+            element.setAttribute(CONFIG_MATCHER_PARAMETER, matcher.getName());
+            element.setAttribute(CONFIG_MATCHER_VALUE, matcher.getValue());
+            parentElement.addContent(element);
+        }
+    }
+
+    private void writeMembersTo(List<PoolMember> members, Element parentElement) {
+        for (PoolMember member : members) {
+            final Element element = new Element(CONFIG_MEMBER);
+            element.setAttribute(CONFIG_HOST, member.getHost());
+            element.setAttribute(CONFIG_PORT, Integer.toString(member.getPort()));
+            element.setAttribute(CONFIG_BUILD_LIMIT, Integer.toString(member.getBuildLimit()));
+            parentElement.addContent(element);
+        }
+    }
+
+    private void writeAgentLimitsTo(List<AgentLimit> agentLimits, Element parentElement) {
+        for (AgentLimit agentLimit : agentLimits) {
+            final Element element = new Element(CONFIG_AGENT_LIMIT);
+            if (agentLimit.isPool()) {
+                element.setAttribute(CONFIG_AGENT_LIMIT_POOL, Integer.toString(agentLimit.getPoolId()));
+            } else {
+                element.setAttribute(CONFIG_AGENT_LIMIT_AGENT, agentLimit.getAgentPattern());
+            }
+            element.setAttribute(CONFIG_BUILD_LIMIT, Integer.toString(agentLimit.getBuildLimit()));
+            parentElement.addContent(element);
+        }
     }
 }
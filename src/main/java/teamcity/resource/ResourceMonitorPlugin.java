@@ -6,9 +6,12 @@ import jetbrains.buildServer.serverSide.*;
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Level;
 import org.apache.log4j.PatternLayout;
-import org.jdom.JDOMException;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public class ResourceMonitorPlugin extends BuildServerAdapter implements ChangeListener {
 
@@ -24,10 +27,13 @@ public class ResourceMonitorPlugin extends BuildServerAdapter implements ChangeL
 
     private String configDir;
 
+    private ConfigPersister persister;
+
     public ResourceMonitorPlugin(SBuildServer server, ResourceMonitor monitor, ResourceManager resourceManager, ServerPaths serverPaths) {
         this.resourceManager = resourceManager;
         this.name = this.getClass().getSimpleName();
         this.monitor = monitor;
+        this.persister = new ConfigPersister(server.getExecutor(), this);
         server.addListener(this);
 
         File logDir = serverPaths.getLogsPath();
@@ -55,6 +61,7 @@ public class ResourceMonitorPlugin extends BuildServerAdapter implements ChangeL
 
     @Override
     public void serverShutdown() {
+        persister.flush();
         fileWatcher.stop();
         log.info(name + " stopped");
     }
@@ -73,9 +80,18 @@ public class ResourceMonitorPlugin extends BuildServerAdapter implements ChangeL
         log.info("Loading configuration from location : " + configurationFile.getAbsolutePath());
         try {
             ResourceMonitorConfigProcessor configProcessor = new ResourceMonitorConfigProcessor(resourceManager);
-            configProcessor.readFrom(new FileReader(configurationFile));
+            Reader reader = new BufferedReader(new FileReader(configurationFile));
+            try {
+                ResourceConfigReport report = configProcessor.readFrom(reader);
+                if (report.hasErrors()) {
+                    log.warn("Skipped " + report.getErrors().size() + " invalid entries of resources configuration file");
+                }
+            }
+            finally {
+                reader.close();
+            }
             monitor.scheduleMonitor();
-        } catch (JDOMException e) {
+        } catch (XMLStreamException e) {
             log.error("Error loading resources configuration file", e);
         } catch (FileNotFoundException e) {
             log.warn("Resource configuration file not found");
@@ -84,20 +100,58 @@ public class ResourceMonitorPlugin extends BuildServerAdapter implements ChangeL
         }
     }
 
+    /**
+     * Saves the configuration in the background, shortly after the last of a burst of changes.
+     * The configuration is captured now, on the caller's thread, so the save writes the change
+     * that was made rather than whatever the manager holds when the save runs.
+     */
+    public void configurationChanged() {
+        persister.changed(ConfigSnapshot.of(resourceManager));
+    }
+
     public void saveConfiguration() throws IOException {
+        saveConfiguration(ConfigSnapshot.of(resourceManager));
+    }
+
+    /**
+     * Writes the configuration to a temporary file and renames it over the configuration file, so
+     * the file is never left partly written.
+     */
+    synchronized void saveConfiguration(ConfigSnapshot snapshot) throws IOException {
         File configurationFile = getConfigurationFile();
+        File tempFile = new File(configDir, configurationFile.getName() + ".tmp");
         log.info("Saving configuration to location : " + configurationFile.getAbsolutePath());
         try {
             fileWatcher.setSkipListenersNotification(true);
             ResourceMonitorConfigProcessor configProcessor = new ResourceMonitorConfigProcessor(resourceManager);
-            configProcessor.writeTo(new FileWriter(configurationFile));
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out));
+                configProcessor.writeTo(writer, snapshot);
+                writer.flush();
+                out.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+            replace(tempFile, configurationFile);
         }
         finally {
+            tempFile.delete();
             fileWatcher.resetChanged();
             fileWatcher.setSkipListenersNotification(false);
         }
     }
 
+    private static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     private File getConfigurationFile() {
         return new File(configDir, "resources.xml");
     }
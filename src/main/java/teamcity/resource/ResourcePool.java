@@ -0,0 +1,294 @@
+package teamcity.resource;
+
+import java.util.*;
+
+class ResourcePool {
+
+    static final int UNLIMITED = Integer.MAX_VALUE;
+
+    static final long RESERVATION_TTL = 60 * 1000;
+
+    private final List<PoolMember> members;
+
+    private final Map<String, MemberState> states = new LinkedHashMap<String, MemberState>();
+
+    private final TreeSet<MemberState> available = new TreeSet<MemberState>(new Comparator<MemberState>() {
+        public int compare(MemberState o1, MemberState o2) {
+            int result = compareInts(o2.getHeadroom(), o1.getHeadroom());
+            if (result == 0) {
+                result = compareInts(o1.units, o2.units);
+            }
+            if (result == 0) {
+                result = compareInts(o1.index, o2.index);
+            }
+            return result;
+        }
+    });
+
+    private final Map<Long, Allocation> builds = new HashMap<Long, Allocation>();
+
+    /**
+     * Deadlines of the reservations of builds admitted but not yet started, oldest first.
+     */
+    private final LinkedHashMap<Long, Long> reservations = new LinkedHashMap<Long, Long>();
+
+    private int capacity;
+
+    ResourcePool(List<PoolMember> members) {
+        this(members, null);
+    }
+
+    /**
+     * Creates a pool of the given members carrying over the counts, availability and builds of
+     * the members also in the previous pool, read while holding the previous pool's monitor.
+     */
+    ResourcePool(List<PoolMember> members, ResourcePool previous) {
+        this.members = new ArrayList<PoolMember>(members);
+        if (previous == null) {
+            init(null);
+        } else {
+            synchronized (previous) {
+                init(previous);
+            }
+        }
+    }
+
+    private void init(ResourcePool previous) {
+        int index = 0;
+        for (PoolMember member : members) {
+            MemberState state = new MemberState(member, index++);
+            if (previous != null) {
+                MemberState previousState = previous.states.get(member.getHostAndPort());
+                if (previousState != null) {
+                    state.count = previousState.count;
+                    state.units = previousState.units;
+                    state.available = previousState.available;
+                }
+            }
+            states.put(member.getHostAndPort(), state);
+            if (state.available) {
+                available.add(state);
+            }
+        }
+        if (previous != null) {
+            for (Map.Entry<Long, Allocation> entry : previous.builds.entrySet()) {
+                MemberState state = states.get(entry.getValue().state.member.getHostAndPort());
+                if (state != null) {
+                    builds.put(entry.getKey(), new Allocation(state, entry.getValue().weight));
+                    Long deadline = previous.reservations.get(entry.getKey());
+                    if (deadline != null) {
+                        reservations.put(entry.getKey(), deadline);
+                    }
+                }
+            }
+        }
+        updateCapacity();
+    }
+
+    List<PoolMember> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
+    synchronized PoolMember acquire(long buildId) {
+        return acquire(buildId, Resource.DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Returns the member reserved for the build, or assigns the available member with the most
+     * free units if the build holds no reservation. Returns null if no member has room for the
+     * weight of the build.
+     */
+    synchronized PoolMember acquire(long buildId, int weight) {
+        Allocation allocation = builds.get(buildId);
+        if (allocation == null) {
+            allocation = allocate(buildId, weight);
+            if (allocation == null) {
+                return null;
+            }
+        }
+        reservations.remove(buildId);
+        return allocation.state.member;
+    }
+
+    /**
+     * Reserves a member for a build admitted by the start precondition, so the member chosen when
+     * the build starts is the one that had room when it was admitted. A reservation not renewed
+     * within {@link #RESERVATION_TTL} is dropped, which frees the member of a build that left the
+     * queue without starting.
+     */
+    synchronized PoolMember reserve(long buildId, int weight, long now) {
+        expireReservations(now);
+        Allocation allocation = builds.get(buildId);
+        if (allocation == null) {
+            allocation = allocate(buildId, weight);
+            if (allocation == null) {
+                return null;
+            }
+        } else if (!reservations.containsKey(buildId)) {
+            return allocation.state.member;
+        }
+        reservations.remove(buildId);
+        reservations.put(buildId, now + RESERVATION_TTL);
+        return allocation.state.member;
+    }
+
+    /**
+     * Returns true if the build holds a member or an available member has enough free units for
+     * the weight of the build.
+     */
+    synchronized boolean hasRoom(long buildId, int weight, long now) {
+        expireReservations(now);
+        if (builds.containsKey(buildId)) {
+            return true;
+        }
+        return !available.isEmpty() && available.first().getHeadroom() >= weight;
+    }
+
+    /**
+     * Records the member of a build that was already running, for example when its agent
+     * registers again after a server restart. Returns false if the member is not in the pool.
+     */
+    synchronized boolean restore(long buildId, String hostAndPort, int weight) {
+        if (builds.containsKey(buildId)) {
+            return true;
+        }
+        MemberState state = states.get(hostAndPort);
+        if (state == null) {
+            return false;
+        }
+        add(buildId, state, weight);
+        return true;
+    }
+
+    synchronized PoolMember release(long buildId) {
+        Allocation allocation = builds.remove(buildId);
+        if (allocation == null) {
+            return null;
+        }
+        reservations.remove(buildId);
+        MemberState state = allocation.state;
+        if (state.available) {
+            available.remove(state);
+            state.count--;
+            state.units -= allocation.weight;
+            available.add(state);
+        } else {
+            state.count--;
+            state.units -= allocation.weight;
+        }
+        return state.member;
+    }
+
+    synchronized PoolMember getMember(long buildId) {
+        Allocation allocation = builds.get(buildId);
+        return allocation == null ? null : allocation.state.member;
+    }
+
+    synchronized void setAvailable(PoolMember member, boolean memberAvailable) {
+        MemberState state = states.get(member.getHostAndPort());
+        if (state == null || state.available == memberAvailable) {
+            return;
+        }
+        if (memberAvailable) {
+            state.available = true;
+            available.add(state);
+        } else {
+            available.remove(state);
+            state.available = false;
+        }
+        updateCapacity();
+    }
+
+    synchronized boolean isAvailable(PoolMember member) {
+        MemberState state = states.get(member.getHostAndPort());
+        return state != null && state.available;
+    }
+
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    synchronized int getBuildCount(PoolMember member) {
+        MemberState state = states.get(member.getHostAndPort());
+        return state == null ? 0 : state.count;
+    }
+
+    synchronized int getUnits(PoolMember member) {
+        MemberState state = states.get(member.getHostAndPort());
+        return state == null ? 0 : state.units;
+    }
+
+    private Allocation allocate(long buildId, int weight) {
+        MemberState state = available.isEmpty() ? null : available.first();
+        if (state == null || state.getHeadroom() < weight) {
+            return null;
+        }
+        return add(buildId, state, weight);
+    }
+
+    private Allocation add(long buildId, MemberState state, int weight) {
+        boolean listed = state.available && available.remove(state);
+        state.count++;
+        state.units += weight;
+        if (listed) {
+            available.add(state);
+        }
+        Allocation allocation = new Allocation(state, weight);
+        builds.put(buildId, allocation);
+        return allocation;
+    }
+
+    private void expireReservations(long now) {
+        while (!reservations.isEmpty()) {
+            Map.Entry<Long, Long> oldest = reservations.entrySet().iterator().next();
+            if (oldest.getValue() > now) {
+                break;
+            }
+            release(oldest.getKey());
+        }
+    }
+
+    private void updateCapacity() {
+        long total = 0;
+        for (MemberState state : available) {
+            if (state.member.getBuildLimit() == 0) {
+                capacity = UNLIMITED;
+                return;
+            }
+            total += state.member.getBuildLimit();
+        }
+        capacity = (int) Math.min(total, UNLIMITED - 1);
+    }
+
+    private static int compareInts(int x, int y) {
+        return (x < y) ? -1 : ((x == y) ? 0 : 1);
+    }
+
+    private static class MemberState {
+        private final PoolMember member;
+        private final int index;
+        private int count;
+        private int units;
+        private boolean available = true;
+
+        MemberState(PoolMember member, int index) {
+            this.member = member;
+            this.index = index;
+        }
+
+        int getHeadroom() {
+            int limit = member.getBuildLimit();
+            return limit == 0 ? UNLIMITED - units : limit - units;
+        }
+    }
+
+    private static class Allocation {
+        private final MemberState state;
+        private final int weight;
+
+        Allocation(MemberState state, int weight) {
+            this.state = state;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package teamcity.resource;
+
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
+import jetbrains.buildServer.parameters.ParametersProvider;
+import jetbrains.buildServer.serverSide.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+public class ResourcePoolAllocator extends BuildServerAdapter
+        implements BuildStartContextProcessor, PoolMemberListener, ResourceManagerListener
+{
+
+    static final String HOST_PARAMETER = "resource.pool.host";
+    static final String PORT_PARAMETER = "resource.pool.port";
+
+    private ResourceManager manager;
+
+    private ConcurrentMap<String, ResourcePool> pools = new ConcurrentHashMap<String, ResourcePool>();
+
+    public ResourcePoolAllocator(SBuildServer buildServer, ResourceManager manager, ResourceMonitor monitor) {
+        this.manager = manager;
+        buildServer.addListener(this);
+        buildServer.registerExtension(BuildStartContextProcessor.class, getClass().getName(), this);
+        manager.addListener(this);
+        monitor.addPoolMemberListener(this);
+    }
+
+    public void updateParameters(@NotNull BuildStartContext context) {
+        SRunningBuild build = context.getBuild();
+        Resource resource = manager.findResourceByBuildTypeId(build.getBuildTypeId());
+        if (resource != null && resource.isPool()) {
+            long buildPromotionId = build.getBuildPromotion().getId();
+            PoolMember member = acquire(resource, buildPromotionId, resource.getBuildTypeWeight(build.getBuildTypeId()));
+            if (member == null) {
+                log.error("Build " + buildPromotionId + " started without a reserved member of resource pool "
+                        + resource.getName() + " and no member has capacity for it");
+                return;
+            }
+            context.addSharedParameter(HOST_PARAMETER, member.getHost());
+            context.addSharedParameter(PORT_PARAMETER, Integer.toString(member.getPort()));
+            log.debug("Build " + buildPromotionId + " allocated member " + member + " of resource pool " + resource.getName());
+        }
+    }
+
+    @Override
+    public void agentRegistered(SBuildAgent agent, long currentlyRunningBuildId) {
+        SRunningBuild build = agent.getRunningBuild();
+        if (build != null) {
+            restore(build);
+        }
+    }
+
+    /**
+     * Records the member a running build was given from the parameters passed to the build, so
+     * the member counts survive a server restart.
+     */
+    public boolean restore(SRunningBuild build) {
+        Resource resource = manager.findResourceByBuildTypeId(build.getBuildTypeId());
+        if (resource == null || !resource.isPool()) {
+            return false;
+        }
+        ParametersProvider parameters = build.getParametersProvider();
+        String host = parameters == null ? null : parameters.get(HOST_PARAMETER);
+        String port = parameters == null ? null : parameters.get(PORT_PARAMETER);
+        if (host == null || port == null) {
+            return false;
+        }
+        int portNumber;
+        try {
+            portNumber = Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        long buildPromotionId = build.getBuildPromotion().getId();
+        String hostAndPort = ResourceRegistry.makeHostAndPortKey(host, portNumber);
+        int weight = resource.getBuildTypeWeight(build.getBuildTypeId());
+        boolean restored;
+        while (true) {
+            ResourcePool pool = getPool(resource);
+            synchronized (pool) {
+                if (isCurrent(resource, pool)) {
+                    restored = pool.restore(buildPromotionId, hostAndPort, weight);
+                    break;
+                }
+            }
+        }
+        if (!restored) {
+            log.warn("Build " + buildPromotionId + " was running on member " + hostAndPort
+                    + " no longer in resource pool " + resource.getName());
+            return false;
+        }
+        return true;
+    }
+
+    boolean hasRoom(Resource resource, long buildPromotionId, int weight) {
+        while (true) {
+            ResourcePool pool = getPool(resource);
+            synchronized (pool) {
+                if (isCurrent(resource, pool)) {
+                    return pool.hasRoom(buildPromotionId, weight, System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    PoolMember reserve(Resource resource, long buildPromotionId, int weight) {
+        while (true) {
+            ResourcePool pool = getPool(resource);
+            synchronized (pool) {
+                if (isCurrent(resource, pool)) {
+                    return pool.reserve(buildPromotionId, weight, System.currentTimeMillis());
+                }
+            }
+        }
+    }
+
+    private PoolMember acquire(Resource resource, long buildPromotionId, int weight) {
+        while (true) {
+            ResourcePool pool = getPool(resource);
+            synchronized (pool) {
+                if (isCurrent(resource, pool)) {
+                    return pool.acquire(buildPromotionId, weight);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void buildFinished(SRunningBuild build) {
+        buildCompleted(build);
+    }
+
+    @Override
+    public void buildInterrupted(SRunningBuild build) {
+        buildCompleted(build);
+    }
+
+    private void buildCompleted(SRunningBuild build) {
+        Resource resource = manager.findResourceByBuildTypeId(build.getBuildTypeId());
+        if (resource != null && resource.isPool()) {
+            release(resource, build.getBuildPromotion().getId());
+        }
+    }
+
+    public void release(Resource resource, long buildPromotionId) {
+        PoolMember member;
+        while (true) {
+            ResourcePool pool = getPool(resource);
+            synchronized (pool) {
+                if (isCurrent(resource, pool)) {
+                    member = pool.release(buildPromotionId);
+                    break;
+                }
+            }
+        }
+        if (member != null) {
+            log.debug("Build " + buildPromotionId + " released member " + member
+                    + " of resource pool " + resource.getName());
+        }
+    }
+
+    public int getCapacity(Resource resource) {
+        return getPool(resource).getCapacity();
+    }
+
+    public int getBuildCount(Resource resource, PoolMember member) {
+        return getPool(resource).getBuildCount(member);
+    }
+
+    public PoolMember getMember(Resource resource, long buildPromotionId) {
+        return getPool(resource).getMember(buildPromotionId);
+    }
+
+    public void memberAvailable(Resource resource, PoolMember member) {
+        setAvailable(resource, member, true);
+    }
+
+    public void memberUnavailable(Resource resource, PoolMember member) {
+        setAvailable(resource, member, false);
+    }
+
+    private void setAvailable(Resource resource, PoolMember member, boolean available) {
+        while (true) {
+            ResourcePool pool = getPool(resource);
+            synchronized (pool) {
+                if (isCurrent(resource, pool)) {
+                    pool.setAvailable(member, available);
+                    return;
+                }
+            }
+        }
+    }
+
+    public void resourceAdded(Resource resource) {
+    }
+
+    /**
+     * Replaces the pool of an updated resource, carrying over the builds of the members it keeps.
+     * The pool is swapped while holding the monitor of the previous pool, and the allocations
+     * check under that monitor that their pool is still current, so no allocation made to the
+     * previous pool is lost.
+     */
+    public void resourceUpdated(Resource resource) {
+        if (!resource.isPool()) {
+            pools.remove(resource.getId());
+            return;
+        }
+        while (true) {
+            ResourcePool previous = pools.get(resource.getId());
+            if (previous == null) {
+                if (pools.putIfAbsent(resource.getId(), new ResourcePool(resource.getMembers())) == null) {
+                    return;
+                }
+                continue;
+            }
+            synchronized (previous) {
+                if (pools.replace(resource.getId(), previous, new ResourcePool(resource.getMembers(), previous))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public void resourceRemoved(Resource resource) {
+        pools.remove(resource.getId());
+    }
+
+    public void resourcesChanged(ResourceChanges changes) {
+        for (Resource resource : changes.getUpdated()) {
+            resourceUpdated(resource);
+        }
+        for (Resource resource : changes.getRemoved()) {
+            resourceRemoved(resource);
+        }
+    }
+
+    private boolean isCurrent(Resource resource, ResourcePool pool) {
+        return pools.get(resource.getId()) == pool;
+    }
+
+    ResourcePool getPool(Resource resource) {
+        ResourcePool pool = pools.get(resource.getId());
+        if (pool == null) {
+            pools.putIfAbsent(resource.getId(), new ResourcePool(resource.getMembers()));
+            pool = pools.get(resource.getId());
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,144 @@
+package teamcity.resource;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the resources and their lookup indexes. The {@link ResourceManager}
+ * publishes a new snapshot on every change so readers never need a lock. The resources of a
+ * published snapshot are never changed, a change is made to a copy that replaces the resource in
+ * the next snapshot.
+ */
+class ResourceRegistry {
+
+    static final ResourceRegistry EMPTY = new ResourceRegistry(Collections.<Resource>emptyList());
+
+    private final Map<String, Resource> resourcesById;
+
+    private final Map<String, Resource> resourcesByName;
+
+    private final Map<String, Resource> resourcesByHostAndPort;
+
+    private final Map<String, Resource> resourcesByBuildType;
+
+    private final Collection<Resource> resources;
+
+    private final int highestId;
+
+    private final BuildTypeMatcher matcher;
+
+    ResourceRegistry(Collection<Resource> resources) {
+        this(resources, null);
+    }
+
+    private ResourceRegistry(Collection<Resource> resources, BuildTypeMatcher matcher) {
+        Map<String, Resource> byId = new LinkedHashMap<String, Resource>();
+        Map<String, Resource> byName = new HashMap<String, Resource>();
+        Map<String, Resource> byHostAndPort = new HashMap<String, Resource>();
+        Map<String, Resource> byBuildType = new HashMap<String, Resource>();
+        int highest = 0;
+        for (Resource resource : resources) {
+            byId.put(resource.getId(), resource);
+            byName.put(resource.getName(), resource);
+            byHostAndPort.put(makeHostAndPortKey(resource), resource);
+            for (String buildTypeId : resource.getAllBuildTypes()) {
+                if (!byBuildType.containsKey(buildTypeId)) {
+                    byBuildType.put(buildTypeId, resource);
+                }
+            }
+            highest = Math.max(highest, parseId(resource.getId()));
+        }
+        this.resourcesById = Collections.unmodifiableMap(byId);
+        this.resourcesByName = Collections.unmodifiableMap(byName);
+        this.resourcesByHostAndPort = Collections.unmodifiableMap(byHostAndPort);
+        this.resourcesByBuildType = Collections.unmodifiableMap(byBuildType);
+        this.resources = Collections.unmodifiableCollection(byId.values());
+        this.highestId = highest;
+        this.matcher = matcher != null ? matcher : new BuildTypeMatcher(this.resources);
+    }
+
+    Collection<Resource> getResources() {
+        return resources;
+    }
+
+    Resource getResourceById(String id) {
+        return resourcesById.get(id);
+    }
+
+    Resource findResourceByBuildTypeId(String buildTypeId) {
+        return resourcesByBuildType.get(buildTypeId);
+    }
+
+    boolean containsId(String id) {
+        return resourcesById.containsKey(id);
+    }
+
+    boolean containsName(String name) {
+        return resourcesByName.containsKey(name);
+    }
+
+    boolean containsHostAndPort(String hostAndPort) {
+        return resourcesByHostAndPort.containsKey(hostAndPort);
+    }
+
+    BuildTypeMatcher getMatcher() {
+        return matcher;
+    }
+
+    int nextId() {
+        return highestId + 1;
+    }
+
+    ResourceRegistry withResource(Resource resource) {
+        List<Resource> copy = new ArrayList<Resource>(resources);
+        copy.add(resource);
+        return new ResourceRegistry(copy);
+    }
+
+    ResourceRegistry withoutResource(Resource resource) {
+        List<Resource> copy = new ArrayList<Resource>(resources);
+        copy.remove(resource);
+        return new ResourceRegistry(copy);
+    }
+
+    /**
+     * Returns a registry holding the given copies in place of the resources with the same ids. The
+     * matcher indexes are kept when none of the copies changed their matchers.
+     */
+    ResourceRegistry withResources(Collection<Resource> updated) {
+        if (updated.isEmpty()) {
+            return this;
+        }
+        Map<String, Resource> replacements = new HashMap<String, Resource>();
+        boolean sameMatchers = true;
+        for (Resource resource : updated) {
+            Resource existing = resourcesById.get(resource.getId());
+            if (existing == null) {
+                throw new IllegalArgumentException("resource with id " + resource.getId() + " does not exist");
+            }
+            sameMatchers &= existing.hasSameMatchers(resource);
+            replacements.put(resource.getId(), resource);
+        }
+        List<Resource> copy = new ArrayList<Resource>(resources.size());
+        for (Resource resource : resources) {
+            Resource replacement = replacements.get(resource.getId());
+            copy.add(replacement != null ? replacement : resource);
+        }
+        return new ResourceRegistry(copy, sameMatchers ? matcher.withResources(replacements) : null);
+    }
+
+    static String makeHostAndPortKey(Resource resource) {
+        return makeHostAndPortKey(resource.getHost(), resource.getPort());
+    }
+
+    static String makeHostAndPortKey(String host, int port) {
+        return host + ":" + port;
+    }
+
+    private static int parseId(String id) {
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package teamcity.resource;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class ResourceState {
 
@@ -10,10 +12,29 @@ public class ResourceState {
 
     private boolean enabled;
 
+    private int rampLimit;
+
+    private WaitTimes waitTimes;
+
+    private Map<String, WaitTimes> buildTypeWaitTimes;
+
     public ResourceState(Resource resource, boolean available, boolean enabled) {
+        this(resource, available, enabled, 0);
+    }
+
+    public ResourceState(Resource resource, boolean available, boolean enabled, int rampLimit) {
+        this(resource, available, enabled, rampLimit, new WaitTimes(), Collections.<String, WaitTimes>emptyMap());
+    }
+
+    public ResourceState(Resource resource, boolean available, boolean enabled, int rampLimit,
+                         WaitTimes waitTimes, Map<String, WaitTimes> buildTypeWaitTimes)
+    {
         this.resource = resource;
         this.available = available;
         this.enabled = enabled;
+        this.rampLimit = rampLimit;
+        this.waitTimes = waitTimes;
+        this.buildTypeWaitTimes = buildTypeWaitTimes;
     }
 
     public String getId() {
@@ -36,14 +57,50 @@ public class ResourceState {
         return resource.getBuildLimit();
     }
 
+    public int getStartRate() {
+        return resource.getStartRate();
+    }
+
+    public boolean isShadow() {
+        return resource.isShadow();
+    }
+
+    public int getRampUp() {
+        return resource.getRampUp();
+    }
+
+    public boolean isRamping() {
+        return rampLimit > 0;
+    }
+
+    public int getRampLimit() {
+        return rampLimit;
+    }
+
     public List<String> getBuildTypes() {
         return resource.getBuildTypes();
     }
 
+    public Map<String, Integer> getBuildTypeWeights() {
+        return resource.getBuildTypeWeights();
+    }
+
+    public Map<String, Integer> getBuildTypePriorities() {
+        return resource.getBuildTypePriorities();
+    }
+
     public List<String> getMatchedBuildTypes() {
         return resource.getMatchedBuildTypes();
     }
 
+    public List<PoolMember> getMembers() {
+        return resource.getMembers();
+    }
+
+    public List<AgentLimit> getAgentLimits() {
+        return resource.getAgentLimits();
+    }
+
     public boolean isAvailable() {
         return available;
     }
@@ -51,4 +108,12 @@ public class ResourceState {
     public boolean isEnabled() {
         return enabled;
     }
+
+    public WaitTimes getWaitTimes() {
+        return waitTimes;
+    }
+
+    public Map<String, WaitTimes> getBuildTypeWaitTimes() {
+        return buildTypeWaitTimes;
+    }
 }
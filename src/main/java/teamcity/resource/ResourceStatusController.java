@@ -10,17 +10,31 @@ import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ResourceStatusController extends BaseController
-        implements ResourceMonitorListener, ResourceUsageListener
+        implements ResourceMonitorListener, ResourceUsageListener, ResourceManagerListener
 {
 
-    private Map<String, Status> status = new HashMap<String, Status>();
+    private Map<String, Status> status = new ConcurrentHashMap<String, Status>();
+
+    private WaitTimeTracker waitTimeTracker;
 
     public ResourceStatusController(WebControllerManager controllerManager, ResourceMonitor resourceMonitor, ResourceBuildLimitStartPrecondition precondition) {
+        this(controllerManager, resourceMonitor, precondition, null);
+    }
+
+    public ResourceStatusController(WebControllerManager controllerManager, ResourceMonitor resourceMonitor, ResourceBuildLimitStartPrecondition precondition, WaitTimeTracker waitTimeTracker) {
+        this(controllerManager, null, resourceMonitor, precondition, waitTimeTracker);
+    }
+
+    public ResourceStatusController(WebControllerManager controllerManager, ResourceManager resourceManager, ResourceMonitor resourceMonitor, ResourceBuildLimitStartPrecondition precondition, WaitTimeTracker waitTimeTracker) {
+        this.waitTimeTracker = waitTimeTracker;
         controllerManager.registerController("/resourceStatus.html", this);
+        if (resourceManager != null) {
+            resourceManager.addListener(this);
+        }
         resourceMonitor.addListener(this);
         precondition.addListener(this);
     }
@@ -43,6 +57,22 @@ public class ResourceStatusController extends BaseController
         getStatus(resource.getId()).count = count;
     }
 
+    public void resourceAdded(Resource resource) {
+    }
+
+    public void resourceUpdated(Resource resource) {
+    }
+
+    public void resourceRemoved(Resource resource) {
+        status.remove(resource.getId());
+    }
+
+    public void resourcesChanged(ResourceChanges changes) {
+        for (Resource resource : changes.getRemoved()) {
+            resourceRemoved(resource);
+        }
+    }
+
     @Override
     protected ModelAndView doHandle(HttpServletRequest request, HttpServletResponse response) throws Exception {
         new AjaxRequestProcessor().processRequest(request, response, new AjaxRequestProcessor.RequestHandler() {
@@ -72,6 +102,39 @@ public class ResourceStatusController extends BaseController
             }
             xmlResponse.addContent(resources);
         }
+        if (waitTimeTracker != null) {
+            Element waits = new Element("waits");
+            addWaitTimes(waits, "resource-wait", waitTimeTracker.getResourceWaitTimes());
+            addWaitTimes(waits, "build-type-wait", waitTimeTracker.getBuildTypeWaitTimes());
+            xmlResponse.addContent(waits);
+        }
+    }
+
+    private void addWaitTimes(Element waits, String name, Map<String, WaitTimes> waitTimes) {
+        for (Map.Entry<String, WaitTimes> entry : waitTimes.entrySet()) {
+            Element element = new Element(name);
+            element.setAttribute("id", entry.getKey());
+            element.setAttribute("blocked", Integer.toString(entry.getValue().getBlocked()));
+            for (WaitTimes.Reason reason : WaitTimes.Reason.values()) {
+                WaitTimeHistogram histogram = entry.getValue().getHistogram(reason);
+                Element reasonElement = new Element("reason");
+                reasonElement.setAttribute("name", reason.getName());
+                reasonElement.setAttribute("blocked", Integer.toString(entry.getValue().getBlocked(reason)));
+                reasonElement.setAttribute("count", Long.toString(histogram.getCount()));
+                reasonElement.setAttribute("average", Long.toString(histogram.getAverageSeconds()));
+                long[] buckets = histogram.getBuckets();
+                for (int i = 0; i < buckets.length; i++) {
+                    Element bucket = new Element("bucket");
+                    if (i < WaitTimeHistogram.BOUNDS.length) {
+                        bucket.setAttribute("le", Long.toString(WaitTimeHistogram.BOUNDS[i] / 1000));
+                    }
+                    bucket.setAttribute("count", Long.toString(buckets[i]));
+                    reasonElement.addContent(bucket);
+                }
+                element.addContent(reasonElement);
+            }
+            waits.addContent(element);
+        }
     }
 
     private Status getStatus(String id) {
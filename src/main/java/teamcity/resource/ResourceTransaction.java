@@ -0,0 +1,64 @@
+package teamcity.resource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ResourceTransaction {
+
+    enum OperationType { Add, Update, Remove, Link, Unlink }
+
+    private List<Operation> operations = new ArrayList<Operation>();
+
+    public void addResource(String name, String host, String port, String buildLimit) {
+        operations.add(new Operation(OperationType.Add, null, name, host, port, buildLimit, null));
+    }
+
+    public void updateResource(String id, String name, String host, String port, String buildLimit) {
+        operations.add(new Operation(OperationType.Update, id, name, host, port, buildLimit, null));
+    }
+
+    public void removeResource(String id) {
+        operations.add(new Operation(OperationType.Remove, id, null, null, null, null, null));
+    }
+
+    public void linkBuildToResource(String id, String buildTypeId) {
+        operations.add(new Operation(OperationType.Link, id, null, null, null, null, buildTypeId));
+    }
+
+    public void unlinkBuildFromResource(String id, String buildTypeId) {
+        operations.add(new Operation(OperationType.Unlink, id, null, null, null, null, buildTypeId));
+    }
+
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    public int size() {
+        return operations.size();
+    }
+
+    List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    static class Operation {
+        final OperationType type;
+        final String id;
+        final String name;
+        final String host;
+        final String port;
+        final String buildLimit;
+        final String buildTypeId;
+
+        Operation(OperationType type, String id, String name, String host, String port, String buildLimit, String buildTypeId) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+            this.host = host;
+            this.port = port;
+            this.buildLimit = buildLimit;
+            this.buildTypeId = buildTypeId;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.buildDistribution.SimpleWaitReason;
+import jetbrains.buildServer.serverSide.buildDistribution.WaitReason;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The wait reasons of the builds held back by one resource. Each reason is created once and
+ * shared by the builds it applies to until the resource is renamed or the values in its
+ * description change, so holding back a build allocates nothing.
+ */
+class ResourceWaitReasons {
+
+    private final String name;
+
+    private final WaitReason unavailable;
+
+    private final WaitReason disabled;
+
+    private final WaitReason poolCapacity;
+
+    private final WaitReason queuedEarlier;
+
+    private final WaitReason agentLimit;
+
+    private WaitReason startRate;
+
+    private int rate;
+
+    private final Map<String, LimitWaitReason> limitReasons = new HashMap<String, LimitWaitReason>();
+
+    ResourceWaitReasons(String name) {
+        this.name = name;
+        this.unavailable = new SimpleWaitReason("Build cannot start until the required resource " + name + " is available");
+        this.disabled = new SimpleWaitReason("Build cannot start until the required resource " + name + " is enabled");
+        this.poolCapacity = new SimpleWaitReason("Build cannot start until a member of the resource pool "
+                + name + " is available and below its limit");
+        this.queuedEarlier = new SimpleWaitReason("Build is waiting for builds queued earlier to start using "
+                + "the resource " + name);
+        this.agentLimit = new SimpleWaitReason("Build cannot start until the builds using the resource "
+                + name + " on its agents are below the agent limits");
+    }
+
+    String getName() {
+        return name;
+    }
+
+    WaitReason getStateWaitReason(WaitTimes.Reason state) {
+        return state == WaitTimes.Reason.DISABLED ? disabled : unavailable;
+    }
+
+    WaitReason getPoolCapacityWaitReason() {
+        return poolCapacity;
+    }
+
+    WaitReason getQueuedEarlierWaitReason() {
+        return queuedEarlier;
+    }
+
+    WaitReason getAgentLimitWaitReason() {
+        return agentLimit;
+    }
+
+    WaitReason getStartRateWaitReason(int rate) {
+        if (startRate == null || this.rate != rate) {
+            startRate = new SimpleWaitReason("Build cannot start until the start rate of the resource "
+                    + name + " allows another build (" + rate + " per minute)");
+            this.rate = rate;
+        }
+        return startRate;
+    }
+
+    WaitReason getLimitWaitReason(String buildTypeId, int buildLimit, boolean ramping, int weight,
+                                  ResourceBuildCount resourceBuildCount, BuildDurationModel durationModel)
+    {
+        LimitWaitReason waitReason = limitReasons.get(buildTypeId);
+        if (waitReason == null || waitReason.buildLimit != buildLimit || waitReason.ramping != ramping
+                || waitReason.weight != weight || waitReason.resourceBuildCount != resourceBuildCount)
+        {
+            waitReason = new LimitWaitReason(name, buildLimit, ramping, weight, resourceBuildCount, durationModel);
+            limitReasons.put(buildTypeId, waitReason);
+        }
+        return waitReason;
+    }
+
+    /**
+     * Wait reason of a build held back by the build limit. The time the next running build is
+     * expected to finish changes while the build waits and is worked out when the description is
+     * read.
+     */
+    private static class LimitWaitReason implements WaitReason {
+        private final String description;
+        private final int buildLimit;
+        private final boolean ramping;
+        private final int weight;
+        private final ResourceBuildCount resourceBuildCount;
+        private final BuildDurationModel durationModel;
+
+        LimitWaitReason(String name, int buildLimit, boolean ramping, int weight,
+                        ResourceBuildCount resourceBuildCount, BuildDurationModel durationModel)
+        {
+            this.description = "Build cannot start until the number of builds using or "
+                    + "allocated to the resource " + name
+                    + " is below the limit of " + buildLimit
+                    + (ramping ? " while the resource ramps up" : "")
+                    + (weight == Resource.DEFAULT_WEIGHT ? "" : " (build weight " + weight + ")");
+            this.buildLimit = buildLimit;
+            this.ramping = ramping;
+            this.weight = weight;
+            this.resourceBuildCount = resourceBuildCount;
+            this.durationModel = durationModel;
+        }
+
+        public String getDescription() {
+            long now = System.currentTimeMillis();
+            long nextFinish = resourceBuildCount.getNextFinish(durationModel, now);
+            if (nextFinish == BuildDurationModel.UNKNOWN) {
+                return description;
+            }
+            long minutes = TimeUnit.MILLISECONDS.toMinutes(nextFinish - now + TimeUnit.MINUTES.toMillis(1) - 1);
+            return description + (minutes <= 1 ? ", a running build is expected to finish within a minute"
+                    : ", a running build is expected to finish in about " + minutes + " minutes");
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package teamcity.resource;
+
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebuilds the running build counts from the server's running builds on startup and then
+ * periodically repairs drift, releasing builds that were never reported as finished and
+ * allocating running builds that were never reported as started. Pool builds also get back the
+ * member they were started with.
+ */
+public class RunningBuildReconciler extends BuildServerAdapter implements Runnable {
+
+    static final int RECONCILE_INTERVAL = 300;
+
+    private SBuildServer server;
+
+    private ResourceManager manager;
+
+    private ResourceBuildLimitStartPrecondition precondition;
+
+    private ResourcePoolAllocator poolAllocator;
+
+    private ScheduledFuture<?> future;
+
+    private AtomicLong reclaimedBuilds = new AtomicLong();
+
+    private AtomicLong missedBuilds = new AtomicLong();
+
+    public RunningBuildReconciler(SBuildServer server, ResourceManager manager,
+                                  ResourceBuildLimitStartPrecondition precondition)
+    {
+        this(server, manager, precondition, null);
+    }
+
+    public RunningBuildReconciler(SBuildServer server, ResourceManager manager,
+                                  ResourceBuildLimitStartPrecondition precondition,
+                                  ResourcePoolAllocator poolAllocator)
+    {
+        this.server = server;
+        this.manager = manager;
+        this.precondition = precondition;
+        this.poolAllocator = poolAllocator;
+        server.addListener(this);
+    }
+
+    @Override
+    public void serverStartup() {
+        reconcile();
+        future = server.getExecutor().scheduleAtFixedRate(this, RECONCILE_INTERVAL, RECONCILE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void serverShutdown() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    public void run() {
+        try {
+            reconcile();
+        } catch (RuntimeException e) {
+            log.error("Failed to reconcile running builds using resources", e);
+        }
+    }
+
+    /**
+     * The tracked builds are read before the running builds so a build starting during a pass is
+     * never released. A build finishing during a pass may be allocated again and is released by
+     * the next pass.
+     */
+    void reconcile() {
+        Map<String, Resource> resources = new HashMap<String, Resource>();
+        Map<String, Set<Long>> tracked = new HashMap<String, Set<Long>>();
+        for (Resource resource : manager.getResources()) {
+            resources.put(resource.getId(), resource);
+            Set<Long> buildIds = new HashSet<Long>();
+            for (long buildId : precondition.getResourceBuildCount(resource.getId()).getBuildIds()) {
+                buildIds.add(buildId);
+            }
+            tracked.put(resource.getId(), buildIds);
+        }
+
+        int missed = 0;
+        for (SRunningBuild build : server.getRunningBuilds()) {
+            Resource resource = manager.findResourceByBuildTypeId(build.getBuildTypeId());
+            if (resource == null) {
+                continue;
+            }
+            long buildPromotionId = build.getBuildPromotion().getId();
+            if (resource.isPool() && poolAllocator != null) {
+                poolAllocator.restore(build);
+            }
+            Set<Long> buildIds = tracked.get(resource.getId());
+            if (buildIds != null && buildIds.remove(buildPromotionId)) {
+                continue;
+            }
+            ResourceBuildCount resourceBuildCount = precondition.getResourceBuildCount(resource.getId());
+            if (resourceBuildCount.allocate(buildPromotionId, resource.getBuildTypeWeight(build.getBuildTypeId()),
+                    build.getAgent())) {
+                resourceBuildCount.started(build);
+                log.warn("Build " + buildPromotionId + " was running without being counted against resource "
+                        + resource.getName());
+                missed++;
+            }
+        }
+
+        int reclaimed = 0;
+        for (Map.Entry<String, Set<Long>> entry : tracked.entrySet()) {
+            ResourceBuildCount resourceBuildCount = precondition.getResourceBuildCount(entry.getKey());
+            Resource resource = resources.get(entry.getKey());
+            for (Long buildId : entry.getValue()) {
+                if (resource.isPool() && poolAllocator != null) {
+                    poolAllocator.release(resource, buildId);
+                }
+                if (resourceBuildCount.release(buildId)) {
+                    log.warn("Build " + buildId + " was no longer running, released from resource "
+                            + resource.getName());
+                    reclaimed++;
+                }
+            }
+        }
+
+        missedBuilds.addAndGet(missed);
+        reclaimedBuilds.addAndGet(reclaimed);
+        if (missed > 0 || reclaimed > 0) {
+            log.info("Reconciled running builds using resources: " + reclaimed + " leaked builds released, "
+                    + missed + " missed builds allocated");
+        } else {
+            log.debug("Reconciled running builds using resources: no drift");
+        }
+    }
+
+    public long getReclaimedBuilds() {
+        return reclaimedBuilds.get();
+    }
+
+    public long getMissedBuilds() {
+        return missedBuilds.get();
+    }
+}
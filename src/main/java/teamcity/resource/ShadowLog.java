@@ -0,0 +1,202 @@
+package teamcity.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decisions of the precondition for a resource in shadow mode. Counts the queued builds checked
+ * and the builds that would have been held back by reason, each build once however many times it
+ * is checked, keeps the most recent would-block decisions in a ring buffer, and measures how long
+ * each build would have been held back, from its first would-block decision until the rules let it
+ * through or it leaves the queue. Builds not checked for {@link WaitTimeTracker#WAIT_TTL} are
+ * forgotten, as they left the queue without an event reaching the log.
+ */
+public class ShadowLog {
+
+    static final int CAPACITY = 100;
+
+    private final Decision[] decisions = new Decision[CAPACITY];
+
+    private int next;
+
+    private long checked;
+
+    private final long[] wouldBlock = new long[WaitTimes.Reason.values().length];
+
+    private final LongObjectMap<Build> builds = new LongObjectMap<Build>();
+
+    private long nextExpiry;
+
+    private long blockedTime;
+
+    private long longestBlock;
+
+    synchronized void admitted(long buildId, long now) {
+        Build build = getBuild(buildId, now);
+        if (build.blockedSince >= 0) {
+            endBlock(build, now);
+        }
+    }
+
+    synchronized void wouldBlock(long buildId, String buildTypeId, WaitTimes.Reason reason, String description, long now) {
+        Build build = getBuild(buildId, now);
+        if (!build.counted) {
+            build.counted = true;
+            wouldBlock[reason.ordinal()]++;
+        }
+        if (build.blockedSince < 0) {
+            build.blockedSince = now;
+        } else if (build.reason == reason) {
+            return;
+        }
+        build.reason = reason;
+        decisions[next] = new Decision(now, buildId, buildTypeId, reason, description);
+        next = (next + 1) % CAPACITY;
+    }
+
+    /**
+     * Forgets a build that started or was removed from the queue, ending the time it would have
+     * been held back.
+     */
+    synchronized void removed(long buildId, long now) {
+        Build build = builds.remove(buildId);
+        if (build != null && build.blockedSince >= 0) {
+            endBlock(build, now);
+        }
+    }
+
+    public synchronized long getChecked() {
+        return checked;
+    }
+
+    public synchronized long getWouldBlock() {
+        long total = 0;
+        for (long count : wouldBlock) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized long getWouldBlock(WaitTimes.Reason reason) {
+        return wouldBlock[reason.ordinal()];
+    }
+
+    /**
+     * Returns the total time builds would have been held back, including the builds that would
+     * be held back now.
+     */
+    public synchronized long getBlockedTime(long now) {
+        long total = blockedTime;
+        for (long buildId : builds.keys()) {
+            Build build = builds.get(buildId);
+            if (build.blockedSince >= 0) {
+                total += now - build.blockedSince;
+            }
+        }
+        return total;
+    }
+
+    public synchronized long getLongestBlock(long now) {
+        long longest = longestBlock;
+        for (long buildId : builds.keys()) {
+            Build build = builds.get(buildId);
+            if (build.blockedSince >= 0) {
+                longest = Math.max(longest, now - build.blockedSince);
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Returns the recent would-block decisions, oldest first.
+     */
+    public synchronized List<Decision> getDecisions() {
+        List<Decision> recent = new ArrayList<Decision>();
+        for (int i = 0; i < CAPACITY; i++) {
+            Decision decision = decisions[(next + i) % CAPACITY];
+            if (decision != null) {
+                recent.add(decision);
+            }
+        }
+        return recent;
+    }
+
+    private Build getBuild(long buildId, long now) {
+        Build build = builds.get(buildId);
+        if (build == null) {
+            expireBuilds(now);
+            build = new Build();
+            builds.put(buildId, build);
+            checked++;
+        }
+        build.lastSeen = now;
+        return build;
+    }
+
+    private void expireBuilds(long now) {
+        if (now < nextExpiry) {
+            return;
+        }
+        nextExpiry = now + WaitTimeTracker.WAIT_TTL;
+        for (long buildId : builds.keys()) {
+            Build build = builds.get(buildId);
+            if (now - build.lastSeen > WaitTimeTracker.WAIT_TTL) {
+                builds.remove(buildId);
+                if (build.blockedSince >= 0) {
+                    endBlock(build, build.lastSeen);
+                }
+            }
+        }
+    }
+
+    private void endBlock(Build build, long now) {
+        long blocked = Math.max(0, now - build.blockedSince);
+        blockedTime += blocked;
+        longestBlock = Math.max(longestBlock, blocked);
+        build.blockedSince = -1;
+        build.reason = null;
+    }
+
+    private static class Build {
+        private long blockedSince = -1;
+        private long lastSeen;
+        private boolean counted;
+        private WaitTimes.Reason reason;
+    }
+
+    public static class Decision {
+        private final long time;
+        private final long buildId;
+        private final String buildTypeId;
+        private final WaitTimes.Reason reason;
+        private final String description;
+
+        Decision(long time, long buildId, String buildTypeId, WaitTimes.Reason reason, String description) {
+            this.time = time;
+            this.buildId = buildId;
+            this.buildTypeId = buildTypeId;
+            this.reason = reason;
+            this.description = description;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getBuildId() {
+            return buildId;
+        }
+
+        public String getBuildTypeId() {
+            return buildTypeId;
+        }
+
+        public WaitTimes.Reason getReason() {
+            return reason;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+}
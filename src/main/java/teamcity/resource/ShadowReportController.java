@@ -0,0 +1,84 @@
+package teamcity.resource;
+
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
+import jetbrains.buildServer.controllers.AjaxRequestProcessor;
+import jetbrains.buildServer.controllers.BaseController;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.jdom.Element;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the builds that resources in shadow mode would have held back.
+ */
+public class ShadowReportController extends BaseController {
+
+    private ResourceManager manager;
+
+    private ResourceBuildLimitStartPrecondition precondition;
+
+    public ShadowReportController(WebControllerManager controllerManager, ResourceManager manager,
+                                  ResourceBuildLimitStartPrecondition precondition)
+    {
+        this.manager = manager;
+        this.precondition = precondition;
+        controllerManager.registerController("/resourceShadow.html", this);
+    }
+
+    @Override
+    protected ModelAndView doHandle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        new AjaxRequestProcessor().processRequest(request, response, new AjaxRequestProcessor.RequestHandler() {
+            public void handleRequest(@NotNull final HttpServletRequest request,
+                                      @NotNull final HttpServletResponse response,
+                                      @NotNull final Element xmlResponse)
+            {
+                try {
+                    doAction(xmlResponse);
+                }
+                catch (Exception e) {
+                    log.warn("Failed to report shadow mode decisions", e);
+                }
+            }
+        });
+        return null;
+    }
+
+    private void doAction(Element xmlResponse) {
+        long now = System.currentTimeMillis();
+        Element shadow = new Element("shadow");
+        for (Map.Entry<String, ShadowLog> entry : precondition.getShadowLogs().entrySet()) {
+            Resource resource = manager.getResourceById(entry.getKey());
+            ShadowLog shadowLog = entry.getValue();
+            Element element = new Element("resource-shadow");
+            element.setAttribute("id", entry.getKey());
+            if (resource != null) {
+                element.setAttribute("name", resource.getName());
+                element.setAttribute("shadow", Boolean.toString(resource.isShadow()));
+            }
+            element.setAttribute("checked", Long.toString(shadowLog.getChecked()));
+            element.setAttribute("would-block", Long.toString(shadowLog.getWouldBlock()));
+            for (WaitTimes.Reason reason : WaitTimes.Reason.values()) {
+                element.setAttribute(reason.getName(), Long.toString(shadowLog.getWouldBlock(reason)));
+            }
+            element.setAttribute("blocked-time", Long.toString(TimeUnit.MILLISECONDS.toSeconds(shadowLog.getBlockedTime(now))));
+            element.setAttribute("longest-block", Long.toString(TimeUnit.MILLISECONDS.toSeconds(shadowLog.getLongestBlock(now))));
+            for (ShadowLog.Decision decision : shadowLog.getDecisions()) {
+                Element decisionElement = new Element("decision");
+                decisionElement.setAttribute("time", Long.toString(decision.getTime()));
+                decisionElement.setAttribute("build-id", Long.toString(decision.getBuildId()));
+                decisionElement.setAttribute("build-type", decision.getBuildTypeId());
+                decisionElement.setAttribute("reason", decision.getReason().getName());
+                decisionElement.setText(decision.getDescription());
+                element.addContent(decisionElement);
+            }
+            shadow.addContent(element);
+        }
+        xmlResponse.addContent(shadow);
+    }
+}
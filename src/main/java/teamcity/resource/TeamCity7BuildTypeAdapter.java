@@ -2,6 +2,9 @@ package teamcity.resource;
 
 import jetbrains.buildServer.serverSide.SBuildType;
 
+import java.util.Collections;
+import java.util.List;
+
 public class TeamCity7BuildTypeAdapter extends BuildTypeAdapter {
 
     TeamCity7BuildTypeAdapter(SBuildType buildType) {
@@ -12,4 +15,7 @@ public class TeamCity7BuildTypeAdapter extends BuildTypeAdapter {
         return getBuildType().getBuildTypeId();
     }
 
+    public List<String> getProjectPath() {
+        return Collections.singletonList(getBuildType().getProjectId());
+    }
 }
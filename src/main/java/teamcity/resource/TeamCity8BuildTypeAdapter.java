@@ -1,14 +1,22 @@
 package teamcity.resource;
 
+import static teamcity.resource.ResourceMonitorPlugin.log;
+
 import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class TeamCity8BuildTypeAdapter extends BuildTypeAdapter {
 
     private String externalId;
 
+    private List<String> projectPath;
+
     TeamCity8BuildTypeAdapter(SBuildType buildType) {
         super(buildType);
     }
@@ -29,4 +37,31 @@ public class TeamCity8BuildTypeAdapter extends BuildTypeAdapter {
         }
         return externalId;
     }
+
+    public List<String> getProjectPath() {
+        if (projectPath == null) {
+            List<String> path = new ArrayList<String>();
+            SProject project = getBuildType().getProject();
+            while (project != null) {
+                path.add(0, project.getProjectId());
+                project = getParentProject(project);
+            }
+            projectPath = Collections.unmodifiableList(path);
+        }
+        return projectPath;
+    }
+
+    private SProject getParentProject(SProject project) {
+        try {
+            Method method = project.getClass().getMethod("getParentProject", new Class<?>[0]);
+            return (SProject) method.invoke(project, (Object[]) null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            log.warn("Failed to get parent project of " + project.getProjectId(), e.getCause());
+        } catch (IllegalAccessException e) {
+            log.warn("Failed to get parent project of " + project.getProjectId(), e);
+        }
+        return null;
+    }
 }
@@ -0,0 +1,155 @@
+package teamcity.resource;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Tickets of the builds waiting for a limited resource, ordered by stride scheduling. A ticket's
+ * key is the virtual time when it was issued plus a stride divided by the build type priority, and
+ * the virtual time advances to the key of each ticket that is granted. With equal priorities the
+ * tickets are served in the order they were issued, a higher priority moves a ticket ahead of at
+ * most a stride of earlier tickets. Each change publishes a sorted snapshot of the tickets, so the
+ * positions shown in wait reasons are read without the lock guarding the queue.
+ */
+class TicketQueue {
+
+    static final long STRIDE = 1 << 16;
+
+    private final TreeSet<Ticket> tickets = new TreeSet<Ticket>();
+
+    private final LongObjectMap<Ticket> ticketsByBuild = new LongObjectMap<Ticket>();
+
+    private long sequence;
+
+    private long virtualTime;
+
+    private volatile Ticket[] snapshot = new Ticket[0];
+
+    Ticket issue(long buildId, int units, int priority, long now) {
+        Ticket ticket = ticketsByBuild.get(buildId);
+        if (ticket == null) {
+            ticket = new Ticket(buildId, virtualTime + STRIDE / priority, sequence++, units);
+            tickets.add(ticket);
+            ticketsByBuild.put(buildId, ticket);
+            publish();
+        }
+        ticket.lastSeen = now;
+        return ticket;
+    }
+
+    /**
+     * Returns the first ticket, dropping tickets of builds that have not been checked since the
+     * given time as they have left the queue or can no longer start.
+     */
+    Ticket head(long oldestSeen) {
+        Ticket head = null;
+        boolean dropped = false;
+        while (!tickets.isEmpty()) {
+            Ticket ticket = tickets.first();
+            if (ticket.lastSeen >= oldestSeen) {
+                head = ticket;
+                break;
+            }
+            tickets.pollFirst();
+            ticketsByBuild.remove(ticket.buildId);
+            dropped = true;
+        }
+        if (dropped) {
+            publish();
+        }
+        return head;
+    }
+
+    boolean grant(long buildId) {
+        Ticket ticket = ticketsByBuild.remove(buildId);
+        if (ticket == null) {
+            return false;
+        }
+        tickets.remove(ticket);
+        virtualTime = Math.max(virtualTime, ticket.key);
+        publish();
+        return true;
+    }
+
+    boolean remove(long buildId) {
+        Ticket ticket = ticketsByBuild.remove(buildId);
+        if (ticket == null || !tickets.remove(ticket)) {
+            return false;
+        }
+        publish();
+        return true;
+    }
+
+    /**
+     * Returns the position of the build's ticket in the queue counting from 1, or 0 if the build
+     * has no ticket.
+     */
+    int position(long buildId) {
+        Ticket ticket = ticketsByBuild.get(buildId);
+        return ticket == null ? 0 : position(snapshot, ticket);
+    }
+
+    int size() {
+        return tickets.size();
+    }
+
+    /**
+     * Returns the tickets in queue order as of the last change. The array is never modified and
+     * may be read without holding the lock guarding the queue.
+     */
+    Ticket[] getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the position of the ticket in the snapshot counting from 1, or 0 if the ticket is
+     * not in it.
+     */
+    static int position(Ticket[] snapshot, Ticket ticket) {
+        int index = Arrays.binarySearch(snapshot, ticket);
+        return index < 0 ? 0 : index + 1;
+    }
+
+    private void publish() {
+        snapshot = tickets.toArray(new Ticket[tickets.size()]);
+    }
+
+    static class Ticket implements Comparable<Ticket> {
+        private final long buildId;
+        private final long key;
+        private final long sequence;
+        private final int units;
+        private long lastSeen;
+        private QueuedWaitReason waitReason;
+
+        Ticket(long buildId, long key, long sequence, int units) {
+            this.buildId = buildId;
+            this.key = key;
+            this.sequence = sequence;
+            this.units = units;
+        }
+
+        long getBuildId() {
+            return buildId;
+        }
+
+        int getUnits() {
+            return units;
+        }
+
+        QueuedWaitReason getWaitReason() {
+            return waitReason;
+        }
+
+        void setWaitReason(QueuedWaitReason waitReason) {
+            this.waitReason = waitReason;
+        }
+
+        public int compareTo(Ticket other) {
+            if (key != other.key) {
+                return key < other.key ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
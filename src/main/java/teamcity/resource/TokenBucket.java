@@ -0,0 +1,73 @@
+package teamcity.resource;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket allowing a number of build starts per minute. The bucket holds up to burst tokens,
+ * one unless configured otherwise, so after an idle period only that many builds start at once
+ * and the following builds are spaced by the rate.
+ */
+class TokenBucket {
+
+    private static final long PERIOD = TimeUnit.MINUTES.toNanos(1);
+
+    static final int DEFAULT_BURST = 1;
+
+    private final int rate;
+
+    private final int burst;
+
+    private final long nanosPerToken;
+
+    private long tokens;
+
+    private long lastRefill;
+
+    TokenBucket(int rate, long now) {
+        this(rate, DEFAULT_BURST, now);
+    }
+
+    TokenBucket(int rate, int burst, long now) {
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.nanosPerToken = PERIOD / rate;
+        this.tokens = burst;
+        this.lastRefill = now;
+    }
+
+    int getRate() {
+        return rate;
+    }
+
+    boolean isAvailable(long now) {
+        refill(now);
+        return tokens > 0;
+    }
+
+    boolean tryAcquire(long now) {
+        refill(now);
+        if (tokens == 0) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    long getAvailableTokens(long now) {
+        refill(now);
+        return tokens;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed < nanosPerToken) {
+            return;
+        }
+        long added = elapsed / nanosPerToken;
+        tokens = Math.min(burst, tokens + added);
+        lastRefill = tokens == burst ? now : lastRefill + added * nanosPerToken;
+    }
+}
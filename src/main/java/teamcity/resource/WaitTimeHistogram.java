@@ -0,0 +1,62 @@
+package teamcity.resource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the times builds waited, with fixed buckets from 10 seconds to an hour. Recording
+ * a wait updates three counters without locking.
+ */
+public class WaitTimeHistogram {
+
+    static final long[] BOUNDS = {
+            TimeUnit.SECONDS.toMillis(10),
+            TimeUnit.SECONDS.toMillis(30),
+            TimeUnit.MINUTES.toMillis(1),
+            TimeUnit.MINUTES.toMillis(5),
+            TimeUnit.MINUTES.toMillis(15),
+            TimeUnit.HOURS.toMillis(1)
+    };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    void record(long millis) {
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        total.addAndGet(millis);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getAverageSeconds() {
+        long waits = count.get();
+        return waits == 0 ? 0 : TimeUnit.MILLISECONDS.toSeconds(total.get() / waits);
+    }
+
+    /**
+     * Returns the number of waits in each bucket, the last bucket counting the waits longer than
+     * the last bound.
+     */
+    public long[] getBuckets() {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,192 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.BuildServerAdapter;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SQueuedBuild;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.users.User;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks when each queued build was first held back by a resource and why. A wait ends when the
+ * precondition lets the build through or the build starts, and its length is recorded in the
+ * histograms of the resource and the build type. Builds removed from the queue are dropped
+ * without recording a wait, as are builds that have not been checked for {@link #WAIT_TTL} and
+ * so left the queue without an event reaching the tracker. The waits are split into segments
+ * locked on their own, so the start checks do not contend with the server events of other builds.
+ */
+public class WaitTimeTracker extends BuildServerAdapter {
+
+    static final long WAIT_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int SEGMENTS = 16;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final LongObjectMap<Wait>[] waits = new LongObjectMap[SEGMENTS];
+
+    private final AtomicLong nextExpiry = new AtomicLong();
+
+    private final ConcurrentMap<String, WaitTimes> resourceWaitTimes = new ConcurrentHashMap<String, WaitTimes>();
+
+    private final ConcurrentMap<String, WaitTimes> buildTypeWaitTimes = new ConcurrentHashMap<String, WaitTimes>();
+
+    public WaitTimeTracker(SBuildServer server) {
+        for (int i = 0; i < waits.length; i++) {
+            waits[i] = new LongObjectMap<Wait>();
+        }
+        server.addListener(this);
+    }
+
+    public void blocked(long buildId, Resource resource, String buildTypeId, WaitTimes.Reason reason) {
+        blocked(buildId, resource.getId(), buildTypeId, reason, System.currentTimeMillis());
+    }
+
+    void blocked(long buildId, String resourceId, String buildTypeId, WaitTimes.Reason reason, long now) {
+        LongObjectMap<Wait> segment = segment(buildId);
+        boolean created = false;
+        synchronized (segment) {
+            Wait wait = segment.get(buildId);
+            if (wait == null) {
+                wait = new Wait(resourceId, buildTypeId, reason, now);
+                segment.put(buildId, wait);
+                updateBlocked(wait, 1);
+                created = true;
+            } else {
+                wait.lastSeen = now;
+                if (wait.reason != reason) {
+                    updateBlocked(wait, -1);
+                    wait.reason = reason;
+                    updateBlocked(wait, 1);
+                }
+            }
+        }
+        if (created) {
+            expireWaits(now);
+        }
+    }
+
+    public void released(long buildId) {
+        released(buildId, System.currentTimeMillis());
+    }
+
+    void released(long buildId, long now) {
+        finished(buildId, now, true);
+    }
+
+    @Override
+    public void buildStarted(SRunningBuild build) {
+        finished(build.getBuildPromotion().getId(), System.currentTimeMillis(), true);
+    }
+
+    @Override
+    public void buildRemovedFromQueue(SQueuedBuild queued, User user, String comment) {
+        finished(queued.getBuildPromotion().getId(), System.currentTimeMillis(), false);
+    }
+
+    void finished(long buildId, long now, boolean record) {
+        LongObjectMap<Wait> segment = segment(buildId);
+        synchronized (segment) {
+            Wait wait = segment.remove(buildId);
+            if (wait != null) {
+                end(wait, now, record);
+            }
+        }
+    }
+
+    /**
+     * Drops the waits of builds that have not been checked for {@link #WAIT_TTL}. Runs at most
+     * once per TTL, when a new build is held back.
+     */
+    void expireWaits(long now) {
+        long next = nextExpiry.get();
+        if (now < next || !nextExpiry.compareAndSet(next, now + WAIT_TTL)) {
+            return;
+        }
+        for (LongObjectMap<Wait> segment : waits) {
+            synchronized (segment) {
+                for (long buildId : segment.keys()) {
+                    if (now - segment.get(buildId).lastSeen > WAIT_TTL) {
+                        end(segment.remove(buildId), now, false);
+                    }
+                }
+            }
+        }
+    }
+
+    int getWaitingBuilds() {
+        int size = 0;
+        for (LongObjectMap<Wait> segment : waits) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public WaitTimes getResourceWaitTimes(String resourceId) {
+        return getWaitTimes(resourceWaitTimes, resourceId);
+    }
+
+    public WaitTimes getBuildTypeWaitTimes(String buildTypeId) {
+        return getWaitTimes(buildTypeWaitTimes, buildTypeId);
+    }
+
+    public Map<String, WaitTimes> getResourceWaitTimes() {
+        return resourceWaitTimes;
+    }
+
+    public Map<String, WaitTimes> getBuildTypeWaitTimes() {
+        return buildTypeWaitTimes;
+    }
+
+    private void end(Wait wait, long now, boolean record) {
+        updateBlocked(wait, -1);
+        if (record) {
+            long waited = Math.max(0, now - wait.since);
+            getResourceWaitTimes(wait.resourceId).record(wait.reason, waited);
+            getBuildTypeWaitTimes(wait.buildTypeId).record(wait.reason, waited);
+        }
+    }
+
+    private LongObjectMap<Wait> segment(long buildId) {
+        return waits[(int) (buildId ^ (buildId >>> 32)) & (SEGMENTS - 1)];
+    }
+
+    private void updateBlocked(Wait wait, int delta) {
+        getResourceWaitTimes(wait.resourceId).blocked(wait.reason, delta);
+        getBuildTypeWaitTimes(wait.buildTypeId).blocked(wait.reason, delta);
+    }
+
+    private static WaitTimes getWaitTimes(ConcurrentMap<String, WaitTimes> waitTimes, String id) {
+        WaitTimes times = waitTimes.get(id);
+        if (times == null) {
+            WaitTimes created = new WaitTimes();
+            times = waitTimes.putIfAbsent(id, created);
+            if (times == null) {
+                times = created;
+            }
+        }
+        return times;
+    }
+
+    private static class Wait {
+        private final String resourceId;
+        private final String buildTypeId;
+        private final long since;
+        private WaitTimes.Reason reason;
+        private long lastSeen;
+
+        Wait(String resourceId, String buildTypeId, WaitTimes.Reason reason, long since) {
+            this.resourceId = resourceId;
+            this.buildTypeId = buildTypeId;
+            this.reason = reason;
+            this.since = since;
+            this.lastSeen = since;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package teamcity.resource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The number of builds currently held back and the histograms of past waits of a resource or a
+ * build type, by the reason the builds were held back.
+ */
+public class WaitTimes {
+
+    public enum Reason {
+        UNAVAILABLE("unavailable"), DISABLED("disabled"), AT_LIMIT("at-limit"), START_RATE("start-rate"),
+        QUEUED("queued"), POOL_CAPACITY("pool-capacity");
+
+        private final String name;
+
+        Reason(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final AtomicIntegerArray blocked = new AtomicIntegerArray(Reason.values().length);
+
+    private final WaitTimeHistogram[] histograms = new WaitTimeHistogram[Reason.values().length];
+
+    WaitTimes() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new WaitTimeHistogram();
+        }
+    }
+
+    void blocked(Reason reason, int delta) {
+        blocked.addAndGet(reason.ordinal(), delta);
+    }
+
+    void record(Reason reason, long millis) {
+        histograms[reason.ordinal()].record(millis);
+    }
+
+    public int getBlocked(Reason reason) {
+        return blocked.get(reason.ordinal());
+    }
+
+    public WaitTimeHistogram getHistogram(Reason reason) {
+        return histograms[reason.ordinal()];
+    }
+
+    public int getBlocked() {
+        int total = 0;
+        for (int i = 0; i < blocked.length(); i++) {
+            total += blocked.get(i);
+        }
+        return total;
+    }
+
+    public int getBlockedUnavailable() {
+        return getBlocked(Reason.UNAVAILABLE);
+    }
+
+    public int getBlockedDisabled() {
+        return getBlocked(Reason.DISABLED);
+    }
+
+    public int getBlockedAtLimit() {
+        return getBlocked(Reason.AT_LIMIT);
+    }
+
+    public int getBlockedStartRate() {
+        return getBlocked(Reason.START_RATE);
+    }
+
+    public int getBlockedQueued() {
+        return getBlocked(Reason.QUEUED);
+    }
+
+    public int getBlockedPoolCapacity() {
+        return getBlocked(Reason.POOL_CAPACITY);
+    }
+
+    public long getWaitCount() {
+        long count = 0;
+        for (WaitTimeHistogram histogram : histograms) {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    public long getAverageWaitSeconds() {
+        long count = 0;
+        long total = 0;
+        for (WaitTimeHistogram histogram : histograms) {
+            count += histogram.getCount();
+            total += histogram.getTotal();
+        }
+        return count == 0 ? 0 : TimeUnit.MILLISECONDS.toSeconds(total / count);
+    }
+}
@@ -105,6 +105,24 @@ BS.Resource = {
         });
     },
 
+    linkBuildTypes: function(id, buildTypeIds) {
+        if (buildTypeIds.length == 0) return;
+
+        var url = base_uri + "/resource.html?submitAction=batch";
+        for (var i = 0; i < buildTypeIds.length; i++) {
+            url = url + "&submitAction." + i + "=linkBuildType&resourceId." + i + "=" + encodeURIComponent(id)
+                    + "&buildTypeId." + i + "=" + encodeURIComponent(buildTypeIds[i]);
+        }
+        BS.ajaxRequest(url, {
+            onSuccess: function(transport) {
+                document.location.reload();
+            },
+            onFailure: function() {
+                alert('Unable to link dependencies');
+            }
+        });
+    },
+
     unlinkBuildType : function(id, buildTypeId) {
         if (!confirm("Are you sure you want to remove this build configuration?")) return;
 
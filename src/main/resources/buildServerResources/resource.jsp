@@ -20,6 +20,18 @@
         BS.Resource.linkBuildType(id, buildTypeId);
     }
 </script>
+<script type="text/javascript">
+    function addDependencies(selectorId, id) {
+        var selector = $(selectorId);
+        var buildTypeIds = [];
+        for (var i = 0; i < selector.options.length; i++) {
+            if (selector.options[i].selected && selector.options[i].value != "") {
+                buildTypeIds.push(selector.options[i].value);
+            }
+        }
+        BS.Resource.linkBuildTypes(id, buildTypeIds);
+    }
+</script>
 <script type="text/javascript">
     function toggleResourceBuildTypes(id) {
         jQuery('.buildConfigurationRow.resource_' + id).toggle();
@@ -45,6 +57,17 @@
                                 onclick="toggleResourceBuildTypes('${resource.id}')"
                                 title="Click to collapse or expand build types">
                                 ${resource.name}
+                                <c:if test="${resource.startRate > 0}">(${resource.startRate} starts per minute)</c:if>
+                                <c:if test="${resource.shadow}">(shadow mode)</c:if>
+                                <c:if test="${resource.ramping}">(ramping up, limit ${resource.rampLimit} of ${resource.buildLimit})</c:if>
+                                <c:set var="waitTimes" value="${resource.waitTimes}"/>
+                                <c:if test="${waitTimes.blocked > 0}">
+                                    (${waitTimes.blocked} waiting: ${waitTimes.blockedUnavailable} unavailable,
+                                    ${waitTimes.blockedDisabled} disabled, ${waitTimes.blockedAtLimit} at limit,
+                                    ${waitTimes.blockedStartRate} at start rate, ${waitTimes.blockedQueued} queued,
+                                    ${waitTimes.blockedPoolCapacity} at pool capacity)
+                                </c:if>
+                                <c:if test="${waitTimes.waitCount > 0}">(average wait ${waitTimes.averageWaitSeconds}s)</c:if>
                             </td>
                             <td class="edit highlight">
                                 <a href="javascript://"
@@ -76,6 +99,35 @@
                                 <a href="javascript://" onclick="BS.EditResourceForm.removeResource('${resource.id}');">delete</a>
                             </td>
                         </tr>
+                        <c:forEach items="${resource.members}" var="member">
+                            <tr class="buildConfigurationRow resource_${resource.id}">
+                                <td class="buildConfiguration" colspan="4">Pool member</td>
+                                <td class="host">${member.host}</td>
+                                <td class="port">${member.port}</td>
+                                <td class="edit" colspan="2">
+                                    <c:choose>
+                                        <c:when test="${member.buildLimit > 0}">limit ${member.buildLimit}</c:when>
+                                        <c:otherwise>unlimited</c:otherwise>
+                                    </c:choose>
+                                </td>
+                            </tr>
+                        </c:forEach>
+                        <c:forEach items="${resource.agentLimits}" var="agentLimit">
+                            <tr class="buildConfigurationRow resource_${resource.id}">
+                                <td class="buildConfiguration" colspan="6">
+                                    <c:choose>
+                                        <c:when test="${agentLimit.pool}">Agent pool ${agentLimit.poolId}</c:when>
+                                        <c:otherwise>Agents matching <c:out value="${agentLimit.agentPattern}"/></c:otherwise>
+                                    </c:choose>
+                                </td>
+                                <td class="edit" colspan="2">
+                                    <c:choose>
+                                        <c:when test="${agentLimit.buildLimit > 0}">limit ${agentLimit.buildLimit}</c:when>
+                                        <c:otherwise>unlimited</c:otherwise>
+                                    </c:choose>
+                                </td>
+                            </tr>
+                        </c:forEach>
                         <c:forEach items="${resource.buildTypes}" var="buildType">
                             <c:if test="${not empty buildTypes[buildType]}">
                                 <tr class="buildConfigurationRow resource_${resource.id}">
@@ -83,6 +135,17 @@
                                         <a href="<c:url value='/viewType.html?buildTypeId=${buildTypes[buildType].externalId}&tab=buildTypeStatusDiv'/>">
                                             <c:out value="${buildTypes[buildType].fullName}"/>
                                         </a>
+                                        <c:if test="${not empty resource.buildTypeWeights[buildType]}">
+                                            (weight ${resource.buildTypeWeights[buildType]})
+                                        </c:if>
+                                        <c:if test="${not empty resource.buildTypePriorities[buildType]}">
+                                            (priority ${resource.buildTypePriorities[buildType]})
+                                        </c:if>
+                                        <c:set var="buildTypeWaitTimes" value="${resource.buildTypeWaitTimes[buildType]}"/>
+                                        <c:if test="${buildTypeWaitTimes.blocked > 0}">(${buildTypeWaitTimes.blocked} waiting)</c:if>
+                                        <c:if test="${buildTypeWaitTimes.waitCount > 0}">
+                                            (average wait ${buildTypeWaitTimes.averageWaitSeconds}s)
+                                        </c:if>
                                     </td>
                                     <td class="edit">
                                         <a href="javascript://" onclick="BS.Resource.unlinkBuildType('${resource.id}', '${buildType}');">delete</a>
@@ -113,6 +176,14 @@
                         </c:forEach>
                     </select>
                 </p>
+                <p class="addNew">Add multiple dependencies:
+                    <select id="buildTypes_${resource.id}" name="buildTypes" multiple="multiple" size="5">
+                        <c:forEach items="${availableBuildTypes}" var="buildType">
+                            <option value="${buildType}"><c:out value="${buildTypes[buildType].fullName}"/></option>
+                        </c:forEach>
+                    </select>
+                    <a class="btn" href="javascript://" onclick="addDependencies('buildTypes_${resource.id}', '${resource.id}')">Add selected</a>
+                </p>
                 <br/>
             </c:forEach>
         </c:if>
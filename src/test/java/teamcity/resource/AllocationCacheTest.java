@@ -0,0 +1,229 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.BuildAgent;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.buildDistribution.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AllocationCacheTest {
+
+    private static final String RESOURCE_ID = "1";
+
+    private ResourceManager manager;
+    private Resource resource;
+    private AllocationCache cache;
+    private Map<QueuedBuildInfo, BuildAgent> canBeStarted;
+
+    @Before
+    public void setup() {
+        manager = new ResourceManager(null);
+        resource = new Resource(RESOURCE_ID, "test", "localhost", 1234);
+        resource.addBuildType("bt123");
+        resource.addBuildType("bt124");
+        manager.addResource(resource);
+        cache = new AllocationCache(manager);
+        canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+    }
+
+    @Test
+    public void allocatedBuildsIsZeroForEmptyCanStartMap() {
+        cache.update(canBeStarted, 0);
+
+        assertEquals(0, cache.getAllocatedBuilds(RESOURCE_ID));
+    }
+
+    @Test
+    public void shouldCountBuildsAllocatedToResource() {
+        canBeStarted.put(createQueuedBuildInfo("bt123"), null);
+        canBeStarted.put(createQueuedBuildInfo("bt124"), null);
+        canBeStarted.put(createQueuedBuildInfo("bt125"), null);
+
+        cache.update(canBeStarted, 0);
+
+        assertEquals(2, cache.getAllocatedBuilds(RESOURCE_ID));
+    }
+
+    @Test
+    public void allocatedBuildsShouldCountTheirWeight() {
+        resource.setBuildTypeWeight("bt124", 3);
+        canBeStarted.put(createQueuedBuildInfo("bt123"), null);
+        canBeStarted.put(createQueuedBuildInfo("bt124"), null);
+
+        cache.update(canBeStarted, 0);
+
+        assertEquals(4, cache.getAllocatedUnits(RESOURCE_ID));
+    }
+
+    @Test
+    public void shouldCountAdmittedBuildsAddedToTheMap() {
+        cache.update(canBeStarted, 0);
+        QueuedBuildInfo queuedBuildInfo = createQueuedBuildInfo("bt123");
+        cache.admitted(queuedBuildInfo);
+        canBeStarted.put(queuedBuildInfo, null);
+
+        cache.update(canBeStarted, 0);
+
+        assertEquals(1, cache.getAllocatedBuilds(RESOURCE_ID));
+    }
+
+    @Test
+    public void shouldIgnoreAdmittedBuildsNotAddedToTheMap() {
+        cache.update(canBeStarted, 0);
+        cache.admitted(createQueuedBuildInfo("bt123"));
+
+        cache.update(canBeStarted, 0);
+
+        assertEquals(0, cache.getAllocatedBuilds(RESOURCE_ID));
+    }
+
+    @Test
+    public void shouldRecountWhenMapChangesOutsideAdmittedBuilds() {
+        cache.update(canBeStarted, 0);
+        canBeStarted.put(createQueuedBuildInfo("bt123"), null);
+
+        cache.update(canBeStarted, 0);
+
+        assertEquals(1, cache.getAllocatedBuilds(RESOURCE_ID));
+    }
+
+    @Test
+    public void newCycleShouldResetCounts() {
+        canBeStarted.put(createQueuedBuildInfo("bt123"), null);
+        cache.update(canBeStarted, 0);
+
+        cache.update(new HashMap<QueuedBuildInfo, BuildAgent>(), 0);
+
+        assertEquals(0, cache.getAllocatedBuilds(RESOURCE_ID));
+    }
+
+    @Test
+    public void waitReasonShouldBeMemoizedUntilUsageChanges() {
+        cache.update(canBeStarted, 0);
+        WaitReason waitReason = new SimpleWaitReason("waiting");
+        cache.setWaitReason("bt123", waitReason);
+
+        cache.update(canBeStarted, 0);
+        assertSame(waitReason, cache.getWaitReason("bt123"));
+
+        cache.update(canBeStarted, 1);
+        assertNull(cache.getWaitReason("bt123"));
+    }
+
+    @Test
+    public void distributionCycleWith2000QueuedBuildsShouldNotWalkTheMap() {
+        List<Resource> resources = createResources();
+        List<QueuedBuildInfo> queue = new ArrayList<QueuedBuildInfo>();
+        for (int i = 0; i < 2000; i++) {
+            queue.add(createQueuedBuildInfo("bt" + (i % 20) + "_" + (i % 10), i));
+        }
+
+        CountingResourceManager manager = createManager(resources);
+        int started = runCachedCycle(manager, queue);
+
+        assertEquals(runNaiveCycle(createManager(resources), queue), started);
+        assertEquals(1000, started);
+        assertTrue("resource lookups: " + manager.lookups, manager.lookups <= 2 * queue.size());
+    }
+
+    @Test
+    public void buildsWithoutResourceShouldNotForceWalkOfTheMap() {
+        List<Resource> resources = createResources();
+        List<QueuedBuildInfo> queue = new ArrayList<QueuedBuildInfo>();
+        for (int i = 0; i < 2000; i++) {
+            String buildTypeId = i % 2 == 0 ? "bt" + (i % 20) + "_" + (i % 10) : "unlinked" + i;
+            queue.add(createQueuedBuildInfo(buildTypeId, i));
+        }
+
+        CountingResourceManager manager = createManager(resources);
+        int started = runCachedCycle(manager, queue);
+
+        assertEquals(runNaiveCycle(createManager(resources), queue), started);
+        assertTrue("resource lookups: " + manager.lookups, manager.lookups <= 2 * queue.size());
+    }
+
+    private List<Resource> createResources() {
+        List<Resource> resources = new ArrayList<Resource>();
+        for (int i = 0; i < 20; i++) {
+            Resource resource = new Resource("r" + i, "resource" + i, "host" + i, 1234, 50);
+            for (int j = 0; j < 10; j++) {
+                resource.addBuildType("bt" + i + "_" + j);
+            }
+            resources.add(resource);
+        }
+        return resources;
+    }
+
+    private int runNaiveCycle(ResourceManager manager, List<QueuedBuildInfo> queue) {
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        for (QueuedBuildInfo queuedBuildInfo : queue) {
+            Resource resource = manager.findResourceByBuildTypeId(queuedBuildInfo.getBuildConfiguration().getId());
+            if (resource == null) {
+                canBeStarted.put(queuedBuildInfo, null);
+                continue;
+            }
+            int allocated = 0;
+            for (QueuedBuildInfo allocatedBuild : canBeStarted.keySet()) {
+                Resource allocatedResource = manager.findResourceByBuildTypeId(allocatedBuild.getBuildConfiguration().getId());
+                if (allocatedResource != null && resource.getId().equals(allocatedResource.getId())) {
+                    allocated++;
+                }
+            }
+            if (allocated < resource.getBuildLimit()) {
+                canBeStarted.put(queuedBuildInfo, null);
+            }
+        }
+        return canBeStarted.size();
+    }
+
+    private int runCachedCycle(ResourceManager manager, List<QueuedBuildInfo> queue) {
+        ResourceBuildLimitStartPrecondition precondition = new ResourceBuildLimitStartPrecondition(mock(SBuildServer.class), manager);
+        BuildDistributorInput input = mock(BuildDistributorInput.class);
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        for (QueuedBuildInfo queuedBuildInfo : queue) {
+            if (precondition.canStart(queuedBuildInfo, canBeStarted, input, false) == null) {
+                canBeStarted.put(queuedBuildInfo, null);
+            }
+        }
+        return canBeStarted.size();
+    }
+
+    private CountingResourceManager createManager(List<Resource> resources) {
+        CountingResourceManager manager = new CountingResourceManager();
+        for (Resource resource : resources) {
+            Resource copy = new Resource(resource.getId(), resource.getName(), resource.getHost(), resource.getPort(), resource.getBuildLimit());
+            for (String buildTypeId : resource.getBuildTypes()) {
+                copy.addBuildType(buildTypeId);
+            }
+            manager.addResource(copy);
+        }
+        return manager;
+    }
+
+    private static class CountingResourceManager extends ResourceManager {
+        private int lookups;
+
+        CountingResourceManager() {
+            super(null);
+        }
+
+        @Override
+        public Resource findResourceByBuildTypeId(String buildTypeId) {
+            lookups++;
+            return super.findResourceByBuildTypeId(buildTypeId);
+        }
+    }
+
+    private QueuedBuildInfo createQueuedBuildInfo(String buildTypeId) {
+        return createQueuedBuildInfo(buildTypeId, 0);
+    }
+
+    private QueuedBuildInfo createQueuedBuildInfo(String buildTypeId, long id) {
+        return new FakeQueuedBuildInfo(buildTypeId, id);
+    }
+}
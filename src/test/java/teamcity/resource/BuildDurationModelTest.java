@@ -0,0 +1,44 @@
+package teamcity.resource;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BuildDurationModelTest {
+
+    private BuildDurationModel model = new BuildDurationModel();
+
+    @Test
+    public void shouldHaveNoEstimateForUnknownBuildType() {
+        assertEquals(BuildDurationModel.UNKNOWN, model.getEstimate("bt1"));
+    }
+
+    @Test
+    public void firstDurationShouldBeTheEstimate() {
+        model.record("bt1", 8000);
+
+        assertEquals(8000, model.getEstimate("bt1"));
+    }
+
+    @Test
+    public void laterDurationsShouldMoveEstimateByAnEighth() {
+        model.record("bt1", 8000);
+        model.record("bt1", 16000);
+
+        assertEquals(9000, model.getEstimate("bt1"));
+
+        model.record("bt1", 1000);
+
+        assertEquals(8000, model.getEstimate("bt1"));
+    }
+
+    @Test
+    public void estimatesShouldBeKeptPerBuildType() {
+        model.record("bt1", 1000);
+        model.record("bt2", 2000);
+        model.remove("bt1");
+
+        assertEquals(BuildDurationModel.UNKNOWN, model.getEstimate("bt1"));
+        assertEquals(2000, model.getEstimate("bt2"));
+    }
+}
@@ -0,0 +1,116 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class BuildLeaseRenewerTest {
+
+    private static final String RESOURCE_ID = "1";
+    private static final String BUILD_TYPE_ID = "bt1";
+    private static final long TTL = ResourceBuildLimitStartPrecondition.LEASE_TTL;
+
+    private SBuildServer buildServer;
+    private ResourceManager manager;
+    private ResourceBuildLimitStartPrecondition precondition;
+    private BuildLeaseRenewer renewer;
+
+    private List<SRunningBuild> runningBuilds = new ArrayList<SRunningBuild>();
+
+    @Before
+    public void setup() {
+        buildServer = mock(SBuildServer.class);
+        when(buildServer.getRunningBuilds()).thenReturn(runningBuilds);
+        manager = new ResourceManager(null);
+        Resource resource = new Resource(RESOURCE_ID, "resource", "localhost", 1234);
+        resource.addBuildType(BUILD_TYPE_ID);
+        manager.addResource(resource);
+        precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager);
+        renewer = new BuildLeaseRenewer(buildServer, manager, precondition);
+    }
+
+    @Test
+    public void startupShouldScheduleRenewal() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(buildServer.getExecutor()).thenReturn(executor);
+
+        renewer.serverStartup();
+
+        verify(executor).scheduleAtFixedRate(renewer, BuildLeaseRenewer.RENEW_INTERVAL,
+                BuildLeaseRenewer.RENEW_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void runningBuildShouldKeepItsLease() {
+        long now = System.currentTimeMillis();
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(101);
+        runningBuilds.add(createBuild(101));
+
+        for (long time = now; time < now + TTL * 3; time += TimeUnit.SECONDS.toMillis(BuildLeaseRenewer.RENEW_INTERVAL)) {
+            renewer.renew(time);
+            renewer.expire(time);
+        }
+
+        assertEquals(1, precondition.getBuildCount(RESOURCE_ID));
+        assertEquals(0, renewer.getExpiredLeases());
+    }
+
+    @Test
+    public void lostBuildShouldBeReleasedWhenLeaseExpires() {
+        long now = System.currentTimeMillis();
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(101);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(102);
+        runningBuilds.add(createBuild(102));
+
+        long later = now + TTL + ResourceBuildLimitStartPrecondition.LEASE_TICK * 2;
+        renewer.renew(later);
+        renewer.expire(later);
+
+        ResourceBuildCount count = precondition.getResourceBuildCount(RESOURCE_ID);
+        assertFalse(count.contains(101));
+        assertTrue(count.contains(102));
+        assertEquals(1, renewer.getExpiredLeases());
+    }
+
+    @Test
+    public void expiringLeaseShouldNotCreateCountsOfOtherResources() {
+        manager.addResource(new Resource("2", "idle", "localhost", 1235));
+        long now = System.currentTimeMillis();
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(101);
+
+        long later = now + TTL + ResourceBuildLimitStartPrecondition.LEASE_TICK * 2;
+        renewer.renew(later);
+        renewer.expire(later);
+
+        assertEquals(1, renewer.getExpiredLeases());
+        assertNull(precondition.findResourceBuildCount("2"));
+    }
+
+    @Test
+    public void renewShouldNotCreateCountOfResourceWithoutBuilds() {
+        runningBuilds.add(createBuild(101));
+
+        renewer.renew(System.currentTimeMillis());
+
+        assertNull(precondition.findResourceBuildCount(RESOURCE_ID));
+    }
+
+    private SRunningBuild createBuild(long promotionId) {
+        SRunningBuild build = mock(SRunningBuild.class);
+        BuildPromotion promotion = mock(BuildPromotion.class);
+        when(promotion.getId()).thenReturn(promotionId);
+        when(build.getBuildPromotion()).thenReturn(promotion);
+        when(build.getBuildTypeId()).thenReturn(BUILD_TYPE_ID);
+        return build;
+    }
+}
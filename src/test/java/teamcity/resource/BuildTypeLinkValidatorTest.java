@@ -0,0 +1,66 @@
+package teamcity.resource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class BuildTypeLinkValidatorTest {
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setup() {
+        pool = new ForkJoinPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldReturnNoInvalidLinksWhenAllBuildTypesExist() {
+        Resource resource = new Resource("1", "test", "localhost", 1234);
+        resource.addBuildType("bt1");
+        Set<String> buildTypeIds = new HashSet<String>(Arrays.asList("bt1", "bt2"));
+
+        Map<Resource, List<String>> invalidLinks = BuildTypeLinkValidator.findInvalidLinks(pool, Collections.singletonList(resource), buildTypeIds);
+        assertTrue(invalidLinks.isEmpty());
+    }
+
+    @Test
+    public void shouldReturnLinksToMissingBuildTypes() {
+        Resource resource = new Resource("1", "test", "localhost", 1234);
+        resource.addBuildType("bt1");
+        resource.addBuildType("bt3");
+        Set<String> buildTypeIds = new HashSet<String>(Arrays.asList("bt1", "bt2"));
+
+        Map<Resource, List<String>> invalidLinks = BuildTypeLinkValidator.findInvalidLinks(pool, Collections.singletonList(resource), buildTypeIds);
+        assertEquals(Collections.singletonList("bt3"), invalidLinks.get(resource));
+    }
+
+    @Test
+    public void shouldFindInvalidLinksAcrossManyResources() {
+        List<Resource> resources = new ArrayList<Resource>();
+        Set<String> buildTypeIds = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            Resource resource = new Resource(Integer.toString(i), "resource" + i, "localhost", i + 1);
+            resource.addBuildType("bt" + i);
+            resource.addBuildType("missing" + i);
+            buildTypeIds.add("bt" + i);
+            resources.add(resource);
+        }
+
+        Map<Resource, List<String>> invalidLinks = BuildTypeLinkValidator.findInvalidLinks(pool, resources, buildTypeIds);
+        assertEquals(1000, invalidLinks.size());
+        assertEquals(resources, new ArrayList<Resource>(invalidLinks.keySet()));
+        for (Resource resource : resources) {
+            assertEquals(Collections.singletonList("missing" + resource.getId()), invalidLinks.get(resource));
+        }
+    }
+}
@@ -58,4 +58,11 @@ public class BuildTypeListenerTest {
         verify(resourceManager).buildTypePersisted(argument.capture());
         assertEquals("bt1", argument.getValue().getBuildTypeId());
     }
+
+    @Test
+    public void matchAllBuildTypesOnServerStartup() {
+        listener.serverStartup();
+
+        verify(resourceManager).matchAllBuildTypes();
+    }
 }
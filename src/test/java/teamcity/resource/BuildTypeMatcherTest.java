@@ -0,0 +1,135 @@
+package teamcity.resource;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BuildTypeMatcherTest {
+
+    @Test
+    public void literalPrefixOfPlainPatternIsWholePattern() {
+        assertEquals("Project :: Build", BuildTypeMatcher.literalPrefix("Project :: Build"));
+    }
+
+    @Test
+    public void literalPrefixStopsAtMetacharacter() {
+        assertEquals("Project ", BuildTypeMatcher.literalPrefix("Project .*"));
+        assertEquals("Project", BuildTypeMatcher.literalPrefix("Project\\d+"));
+        assertEquals("", BuildTypeMatcher.literalPrefix(".*test.*"));
+    }
+
+    @Test
+    public void literalPrefixExcludesOptionalCharacter() {
+        assertEquals("Project", BuildTypeMatcher.literalPrefix("Projects?.*"));
+        assertEquals("Project", BuildTypeMatcher.literalPrefix("Projects*"));
+        assertEquals("Projects", BuildTypeMatcher.literalPrefix("Projects+"));
+    }
+
+    @Test
+    public void literalPrefixOfAlternationIsEmpty() {
+        assertEquals("", BuildTypeMatcher.literalPrefix("Project A|Project B"));
+    }
+
+    @Test
+    public void shouldFindNoResourcesWhenThereAreNoMatchers() {
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Collections.singletonList(createResource("1")));
+
+        assertTrue(matcher.isEmpty());
+        assertTrue(matcher.findMatchingResources("Build").isEmpty());
+    }
+
+    @Test
+    public void shouldFindAllMatchingResourcesInOrder() {
+        Resource resource1 = createResource("1", "Project A.*");
+        Resource resource2 = createResource("2", "Project B.*");
+        Resource resource3 = createResource("3", ".*Deploy");
+        Resource resource4 = createResource("4", "Project.*", "Other");
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Arrays.asList(resource1, resource2, resource3, resource4));
+
+        List<Resource> matching = matcher.findMatchingResources("Project A :: Deploy");
+
+        assertEquals(Arrays.asList(resource1, resource3, resource4), matching);
+    }
+
+    @Test
+    public void shouldRequireWholeNameToMatch() {
+        Resource resource = createResource("1", "Project");
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Collections.singletonList(resource));
+
+        assertTrue(matcher.findMatchingResources("Project A").isEmpty());
+        assertEquals(1, matcher.findMatchingResources("Project").size());
+    }
+
+    @Test
+    public void shouldMatchPatternsWithOptionalPrefixCharacter() {
+        Resource resource = createResource("1", "ab?c.*");
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Collections.singletonList(resource));
+
+        assertEquals(1, matcher.findMatchingResources("ac build").size());
+        assertEquals(1, matcher.findMatchingResources("abc build").size());
+    }
+
+    @Test
+    public void shouldIgnoreNullName() {
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Collections.singletonList(createResource("1", ".*")));
+
+        assertTrue(matcher.findMatchingResources((String) null).isEmpty());
+    }
+
+    private Resource createResource(String id, String... patterns) {
+        Resource resource = new Resource(id, "resource" + id, "localhost", 1000 + Integer.parseInt(id));
+        for (String pattern : patterns) {
+            resource.addBuildTypeMatcher(pattern);
+        }
+        return resource;
+    }
+
+    @Test
+    public void shouldMatchBuildTypesInProjectAndSubprojects() {
+        Resource resource = createResource("1");
+        resource.addProjectMatcher("project1");
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Collections.singletonList(resource));
+
+        BuildType inProject = new FakeBuildType("bt1", "Build", Arrays.asList("_Root", "project1"));
+        BuildType inSubproject = new FakeBuildType("bt2", "Build", Arrays.asList("_Root", "project1", "project2"));
+        BuildType elsewhere = new FakeBuildType("bt3", "Build", Arrays.asList("_Root", "project3"));
+
+        assertEquals(1, matcher.findMatchingResources(inProject).size());
+        assertEquals(1, matcher.findMatchingResources(inSubproject).size());
+        assertTrue(matcher.findMatchingResources(elsewhere).isEmpty());
+    }
+
+    @Test
+    public void shouldMatchBuildTypesByParameterValue() {
+        Resource oracle = createResource("1");
+        oracle.addParameterMatcher("env.DB", "oracle");
+        Resource postgres = createResource("2");
+        postgres.addParameterMatcher("env.DB", "postgres");
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Arrays.asList(oracle, postgres));
+
+        FakeBuildType buildType = new FakeBuildType("bt1", "Build");
+        buildType.addParameter("env.DB", "postgres");
+
+        assertEquals(Collections.singletonList(postgres), matcher.findMatchingResources(buildType));
+        assertTrue(matcher.findMatchingResources(new FakeBuildType("bt2", "Build")).isEmpty());
+    }
+
+    @Test
+    public void shouldCombineNameProjectAndParameterMatches() {
+        Resource byName = createResource("1", "Build.*");
+        Resource byProject = createResource("2");
+        byProject.addProjectMatcher("project1");
+        Resource byParameter = createResource("3");
+        byParameter.addParameterMatcher("env.DB", "oracle");
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Arrays.asList(byName, byProject, byParameter));
+
+        FakeBuildType buildType = new FakeBuildType("bt1", "Build", Arrays.asList("_Root", "project1"));
+        buildType.addParameter("env.DB", "oracle");
+
+        assertEquals(Arrays.asList(byName, byProject, byParameter), matcher.findMatchingResources(buildType));
+    }
+}
@@ -0,0 +1,68 @@
+package teamcity.resource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class BuildTypeMatchingTaskTest {
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setup() {
+        pool = new ForkJoinPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void shouldMatchBuildTypesToResourcesInCatalogueOrder() {
+        Resource resource1 = new Resource("1", "resource1", "localhost", 1001);
+        resource1.addBuildTypeMatcher("Project A.*");
+        Resource resource2 = new Resource("2", "resource2", "localhost", 1002);
+        resource2.addBuildTypeMatcher(".*Deploy");
+        BuildTypeMatcher matcher = new BuildTypeMatcher(Arrays.asList(resource1, resource2));
+        List<BuildType> buildTypes = new ArrayList<BuildType>();
+        buildTypes.add(new FakeBuildType("bt1", "Project A :: Build"));
+        buildTypes.add(new FakeBuildType("bt2", "Project B :: Deploy"));
+        buildTypes.add(new FakeBuildType("bt3", "Project A :: Deploy"));
+
+        Map<Resource, List<String>> matches = BuildTypeMatchingTask.matchAll(pool, matcher, buildTypes);
+
+        assertEquals(Arrays.asList("bt1", "bt3"), matches.get(resource1));
+        assertEquals(Arrays.asList("bt2", "bt3"), matches.get(resource2));
+    }
+
+    @Test
+    public void shouldSplitLargeCatalogueAcrossPool() {
+        List<Resource> resources = new ArrayList<Resource>();
+        for (int i = 0; i < 100; i++) {
+            Resource resource = new Resource(Integer.toString(i), "resource" + i, "localhost", 1000 + i);
+            resource.addBuildTypeMatcher("Project " + i + " :: .*");
+            resources.add(resource);
+        }
+        Resource catchAll = new Resource("100", "resource100", "localhost", 2000);
+        catchAll.addBuildTypeMatcher(".*:: Deploy");
+        resources.add(catchAll);
+        List<BuildType> buildTypes = new ArrayList<BuildType>();
+        for (int i = 0; i < 50000; i++) {
+            String suffix = i % 10 == 0 ? "Deploy" : "Build " + i;
+            buildTypes.add(new FakeBuildType("bt" + i, "Project " + (i % 200) + " :: " + suffix));
+        }
+
+        Map<Resource, List<String>> matches = BuildTypeMatchingTask.matchAll(pool, new BuildTypeMatcher(resources), buildTypes);
+
+        assertEquals(101, matches.size());
+        assertEquals(250, matches.get(resources.get(7)).size());
+        assertEquals("bt7", matches.get(resources.get(7)).get(0));
+        assertEquals(5000, matches.get(catchAll).size());
+    }
+}
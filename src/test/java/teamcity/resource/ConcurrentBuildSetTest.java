@@ -0,0 +1,173 @@
+package teamcity.resource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentBuildSetTest {
+
+    private static final int THREADS = 8;
+    private static final int BUILDS_PER_THREAD = 20000;
+
+    private ConcurrentBuildSet builds;
+
+    @Before
+    public void setup() {
+        builds = new ConcurrentBuildSet();
+    }
+
+    @Test
+    public void addAndRemove() {
+        assertTrue(builds.add(12345, 2));
+        assertFalse(builds.add(12345, 2));
+        assertTrue(builds.contains(12345));
+        assertEquals(1, builds.size());
+        assertEquals(2, builds.getUnits());
+
+        assertEquals(2, builds.remove(12345));
+        assertEquals(0, builds.remove(12345));
+        assertFalse(builds.contains(12345));
+        assertEquals(0, builds.size());
+        assertEquals(0, builds.getUnits());
+    }
+
+    @Test
+    public void buildIdZeroIsValid() {
+        assertTrue(builds.add(0, 1));
+        assertTrue(builds.contains(0));
+        assertEquals(1, builds.remove(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeBuildIdIsRejected() {
+        builds.add(-1, 1);
+    }
+
+    @Test
+    public void shouldGrowAndKeepAllBuilds() {
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(builds.add(id, 1));
+        }
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(builds.contains(id));
+        }
+        assertEquals(1000, builds.size());
+    }
+
+    @Test
+    public void removedSlotsShouldBeReclaimed() {
+        for (long id = 1; id <= 100000; id++) {
+            builds.add(id, 1);
+            builds.remove(id);
+        }
+        assertEquals(0, builds.size());
+        assertEquals(0, builds.getUnits());
+    }
+
+    @Test
+    public void concurrentAllocationsAndReleasesShouldNotLoseBuilds() throws Exception {
+        List<Future<Void>> results = runConcurrently(new Worker() {
+            public void run(int thread) {
+                long first = (long) thread * BUILDS_PER_THREAD;
+                for (long id = first; id < first + BUILDS_PER_THREAD; id++) {
+                    assertTrue(builds.add(id, weight(id)));
+                }
+                for (long id = first; id < first + BUILDS_PER_THREAD; id += 2) {
+                    assertEquals(weight(id), builds.remove(id));
+                }
+            }
+        });
+        waitFor(results);
+
+        int expectedUnits = 0;
+        for (long id = 0; id < THREADS * BUILDS_PER_THREAD; id++) {
+            boolean released = id % 2 == 0;
+            assertEquals(!released, builds.contains(id));
+            if (!released) {
+                expectedUnits += weight(id);
+            }
+        }
+        assertEquals(THREADS * BUILDS_PER_THREAD / 2, builds.size());
+        assertEquals(expectedUnits, builds.getUnits());
+    }
+
+    @Test
+    public void competingAllocationsOfTheSameBuildShouldSucceedOnce() throws Exception {
+        final int[] added = new int[THREADS];
+        final int[] removed = new int[THREADS];
+        final CyclicBarrier allocated = new CyclicBarrier(THREADS);
+        List<Future<Void>> results = runConcurrently(new Worker() {
+            public void run(int thread) throws Exception {
+                for (long id = 0; id < BUILDS_PER_THREAD; id++) {
+                    if (builds.add(id, 1)) {
+                        added[thread]++;
+                    }
+                }
+                allocated.await();
+                for (long id = 0; id < BUILDS_PER_THREAD; id += 2) {
+                    if (builds.remove(id) > 0) {
+                        removed[thread]++;
+                    }
+                }
+            }
+        });
+        waitFor(results);
+
+        assertEquals(BUILDS_PER_THREAD, sum(added));
+        assertEquals(BUILDS_PER_THREAD / 2, sum(removed));
+        assertEquals(BUILDS_PER_THREAD / 2, builds.size());
+        assertEquals(BUILDS_PER_THREAD / 2, builds.getUnits());
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    private List<Future<Void>> runConcurrently(final Worker worker) {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            results.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    worker.run(thread);
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        executor.shutdown();
+        return results;
+    }
+
+    private static void waitFor(List<Future<Void>> results) throws Exception {
+        for (Future<Void> result : results) {
+            result.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private static int weight(long id) {
+        return (int) (id % 3) + 1;
+    }
+
+    private static int sum(int[] values) {
+        int total = 0;
+        for (int value : values) {
+            total += value;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,161 @@
+package teamcity.resource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class ConfigPersisterTest {
+
+    private ScheduledExecutorService executor;
+    private ResourceMonitorPlugin plugin;
+    private ConfigPersister persister;
+    private ConfigSnapshot snapshot = new ConfigSnapshot(30, Collections.<Resource>emptyList());
+
+    @Before
+    public void setup() {
+        executor = mock(ScheduledExecutorService.class);
+        plugin = mock(ResourceMonitorPlugin.class);
+        persister = new ConfigPersister(executor, plugin);
+    }
+
+    @Test
+    public void changeShouldScheduleSaveWithoutSaving() throws Exception {
+        persister.changed(snapshot);
+
+        verify(executor).schedule(persister, ConfigPersister.SAVE_DELAY, TimeUnit.SECONDS);
+        verify(plugin, never()).saveConfiguration(any(ConfigSnapshot.class));
+        assertTrue(persister.isDirty());
+    }
+
+    @Test
+    public void burstOfChangesShouldBeSavedOnce() throws Exception {
+        persister.changed(snapshot);
+        persister.changed(snapshot);
+        persister.changed(snapshot);
+
+        verify(executor, times(1)).schedule(persister, ConfigPersister.SAVE_DELAY, TimeUnit.SECONDS);
+        persister.run();
+        verify(plugin, times(1)).saveConfiguration(any(ConfigSnapshot.class));
+        assertFalse(persister.isDirty());
+    }
+
+    @Test
+    public void changeAfterSaveShouldScheduleAnotherSave() throws Exception {
+        persister.changed(snapshot);
+        persister.run();
+        persister.changed(snapshot);
+
+        verify(executor, times(2)).schedule(persister, ConfigPersister.SAVE_DELAY, TimeUnit.SECONDS);
+        persister.run();
+        verify(plugin, times(2)).saveConfiguration(any(ConfigSnapshot.class));
+    }
+
+    @Test
+    public void flushShouldOnlySaveChangedConfiguration() throws Exception {
+        persister.flush();
+        verify(plugin, never()).saveConfiguration(any(ConfigSnapshot.class));
+
+        persister.changed(snapshot);
+        persister.flush();
+        persister.run();
+        verify(plugin, times(1)).saveConfiguration(any(ConfigSnapshot.class));
+    }
+
+    @Test
+    public void failedSaveShouldKeepConfigurationDirty() throws Exception {
+        doThrow(new IOException("disk full")).doNothing().when(plugin).saveConfiguration(any(ConfigSnapshot.class));
+
+        persister.changed(snapshot);
+        persister.run();
+        assertTrue(persister.isDirty());
+
+        persister.flush();
+        verify(plugin, times(2)).saveConfiguration(snapshot);
+        assertFalse(persister.isDirty());
+    }
+
+    @Test
+    public void failedSaveShouldBeRetried() throws Exception {
+        doThrow(new IllegalStateException("broken")).doNothing().when(plugin).saveConfiguration(any(ConfigSnapshot.class));
+
+        persister.changed(snapshot);
+        persister.run();
+
+        verify(executor).schedule(persister, ConfigPersister.RETRY_DELAY, TimeUnit.SECONDS);
+        persister.run();
+        verify(plugin, times(2)).saveConfiguration(snapshot);
+        assertFalse(persister.isDirty());
+    }
+
+    @Test
+    public void failedSaveShouldNotReplaceNewerSnapshot() throws Exception {
+        final ConfigSnapshot newer = new ConfigSnapshot(60, Collections.<Resource>emptyList());
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws IOException {
+                persister.changed(newer);
+                throw new IOException("disk full");
+            }
+        }).doNothing().when(plugin).saveConfiguration(any(ConfigSnapshot.class));
+
+        persister.changed(snapshot);
+        persister.run();
+        persister.run();
+
+        verify(plugin).saveConfiguration(snapshot);
+        verify(plugin).saveConfiguration(newer);
+        assertFalse(persister.isDirty());
+    }
+
+    @Test
+    public void shouldSaveSnapshotTakenWhenConfigurationChanged() throws Exception {
+        ResourceManager manager = new ResourceManager(null);
+        manager.addResource(new Resource("1", "Resource1", "localhost", 1234));
+        ConfigSnapshot changed = ConfigSnapshot.of(manager);
+
+        manager.removeResource("1");
+
+        assertEquals(1, changed.getResources().size());
+        assertEquals("Resource1", changed.getResources().get(0).getName());
+    }
+
+    @Test
+    public void changeShouldBeSavedImmediatelyWhenExecutorIsShutDown() throws Exception {
+        when(executor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+                .thenThrow(new RejectedExecutionException());
+
+        persister.changed(snapshot);
+
+        verify(plugin).saveConfiguration(any(ConfigSnapshot.class));
+        assertFalse(persister.isDirty());
+    }
+
+    @Test
+    public void changeDuringSaveShouldScheduleAnotherSave() throws Exception {
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                persister.changed(snapshot);
+                return null;
+            }
+        }).doNothing().when(plugin).saveConfiguration(any(ConfigSnapshot.class));
+
+        persister.changed(snapshot);
+        persister.run();
+
+        verify(executor, times(2)).schedule(persister, ConfigPersister.SAVE_DELAY, TimeUnit.SECONDS);
+        assertTrue(persister.isDirty());
+        persister.run();
+        verify(plugin, times(2)).saveConfiguration(any(ConfigSnapshot.class));
+    }
+}
@@ -1,16 +1,30 @@
 package teamcity.resource;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class FakeBuildType implements BuildType {
 
     private String buildTypeId;
 
     private String name;
 
+    private List<String> projectPath = Collections.emptyList();
+
+    private Map<String, String> parameters = new HashMap<String, String>();
+
     FakeBuildType(String buildTypeId, String name) {
         this.buildTypeId = buildTypeId;
         this.name = name;
     }
 
+    FakeBuildType(String buildTypeId, String name, List<String> projectPath) {
+        this(buildTypeId, name);
+        this.projectPath = projectPath;
+    }
+
     @Override
     public String getBuildTypeId() {
         return buildTypeId;
@@ -25,4 +39,18 @@ public class FakeBuildType implements BuildType {
     public String getFullName() {
         return name;
     }
+
+    @Override
+    public List<String> getProjectPath() {
+        return projectPath;
+    }
+
+    @Override
+    public String getParameterValue(String name) {
+        return parameters.get(name);
+    }
+
+    void addParameter(String name, String value) {
+        parameters.put(name, value);
+    }
 }
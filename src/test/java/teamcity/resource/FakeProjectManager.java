@@ -4,8 +4,10 @@ import jetbrains.buildServer.serverSide.SBuildType;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class FakeProjectManager implements ProjectManager {
 
@@ -19,6 +21,10 @@ public class FakeProjectManager implements ProjectManager {
         return new ArrayList<BuildType>(buildTypes.values());
     }
 
+    public Set<String> getAllBuildTypeIds() {
+        return new HashSet<String>(buildTypes.keySet());
+    }
+
     public BuildType toBuildType(SBuildType buildType) {
         return new TeamCity7BuildTypeAdapter(buildType);
     }
@@ -26,4 +32,8 @@ public class FakeProjectManager implements ProjectManager {
     public void addBuildType(String id, SBuildType buildType) {
         buildTypes.put(id, new TeamCity7BuildTypeAdapter(buildType));
     }
+
+    public void addBuildType(String id, BuildType buildType) {
+        buildTypes.put(id, buildType);
+    }
 }
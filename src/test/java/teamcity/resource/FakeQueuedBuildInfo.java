@@ -0,0 +1,44 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.buildDistribution.BuildConfigurationInfo;
+import jetbrains.buildServer.serverSide.buildDistribution.BuildPromotionInfo;
+import jetbrains.buildServer.serverSide.buildDistribution.QueuedBuildInfo;
+
+public class FakeQueuedBuildInfo implements QueuedBuildInfo {
+
+    private final BuildConfigurationInfo buildConfiguration;
+
+    private final BuildPromotionInfo buildPromotion;
+
+    private final long id;
+
+    FakeQueuedBuildInfo(final String buildTypeId, final long id) {
+        this.buildConfiguration = new BuildConfigurationInfo() {
+            public String getId() {
+                return buildTypeId;
+            }
+
+            public String getName() {
+                return buildTypeId;
+            }
+        };
+        this.buildPromotion = new BuildPromotionInfo() {
+            public long getId() {
+                return id;
+            }
+        };
+        this.id = id;
+    }
+
+    public BuildConfigurationInfo getBuildConfiguration() {
+        return buildConfiguration;
+    }
+
+    public BuildPromotionInfo getBuildPromotionInfo() {
+        return buildPromotion;
+    }
+
+    public String getItemId() {
+        return Long.toString(id);
+    }
+}
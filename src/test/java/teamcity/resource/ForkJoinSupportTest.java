@@ -0,0 +1,32 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.SBuildServer;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ForkJoinSupportTest {
+
+    @Test
+    public void shouldRegisterWithBuildServer() {
+        SBuildServer server = mock(SBuildServer.class);
+        ForkJoinSupport support = new ForkJoinSupport(server);
+
+        verify(server).addListener(support);
+    }
+
+    @Test
+    public void shouldReuseSamePoolUntilShutdown() {
+        ForkJoinSupport support = new ForkJoinSupport();
+        ForkJoinPool pool = support.getPool();
+
+        assertSame(pool, support.getPool());
+        support.serverShutdown();
+        assertTrue(pool.isShutdown());
+        assertNotSame(pool, support.getPool());
+        support.serverShutdown();
+    }
+}
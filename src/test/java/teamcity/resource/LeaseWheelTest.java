@@ -0,0 +1,99 @@
+package teamcity.resource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class LeaseWheelTest {
+
+    private static final long TTL = 1000;
+    private static final long TICK = 100;
+
+    private LeaseWheel wheel;
+    private ResourceBuildCount count;
+    private long start;
+
+    @Before
+    public void setup() {
+        start = System.currentTimeMillis();
+        wheel = new LeaseWheel(TTL, TICK);
+        count = new ResourceBuildCount(new AtomicLong(), wheel);
+    }
+
+    @Test
+    public void leaseShouldNotExpireBeforeTtl() {
+        count.allocate(1);
+
+        assertTrue(wheel.expire(start + TTL / 2).isEmpty());
+        assertTrue(count.contains(1));
+    }
+
+    @Test
+    public void expiredLeaseShouldReleaseBuild() {
+        count.allocate(1, 3);
+
+        List<LeaseWheel.Lease> expired = wheel.expire(start + TTL + TICK * 2);
+
+        assertEquals(1, expired.size());
+        assertEquals(1, expired.get(0).getBuildId());
+        assertSame(count, expired.get(0).getCount());
+        assertFalse(count.contains(1));
+        assertEquals(0, count.getUnits());
+    }
+
+    @Test
+    public void renewedLeaseShouldOutliveItsFirstDeadline() {
+        count.allocate(1);
+        assertTrue(count.renew(1, start + TTL / 2));
+
+        assertTrue(wheel.expire(start + TTL + TICK * 2).isEmpty());
+        assertTrue(count.contains(1));
+        assertEquals(1, wheel.expire(start + TTL * 2 + TICK * 2).size());
+    }
+
+    @Test
+    public void releasedBuildShouldNotBeReportedAsExpired() {
+        count.allocate(1);
+        count.release(1);
+
+        assertTrue(wheel.expire(start + TTL + TICK * 2).isEmpty());
+        assertFalse(count.renew(1, start));
+    }
+
+    @Test
+    public void cancelledLeasesShouldNotBeReportedAsExpired() {
+        count.allocate(1);
+        count.allocate(2);
+        count.cancelLeases();
+
+        assertTrue(wheel.expire(start + TTL + TICK * 2).isEmpty());
+        assertFalse(count.renew(1, start));
+    }
+
+    @Test
+    public void leaseBeyondOneRotationShouldExpireAtItsDeadline() {
+        long ttl = TICK * LeaseWheel.WHEEL_SIZE * 3;
+        wheel = new LeaseWheel(ttl, TICK);
+        count = new ResourceBuildCount(new AtomicLong(), wheel);
+        count.allocate(1);
+
+        for (long now = start; now < start + ttl - TICK; now += TICK) {
+            assertTrue(wheel.expire(now).isEmpty());
+        }
+        assertEquals(1, wheel.expire(start + ttl + TICK * 2).size());
+    }
+
+    @Test
+    public void clockJumpShouldExpireAllOverdueLeases() {
+        for (long id = 1; id <= 100; id++) {
+            count.allocate(id);
+        }
+
+        assertEquals(100, wheel.expire(start + TTL * 100).size());
+        assertEquals(0, count.size());
+    }
+}
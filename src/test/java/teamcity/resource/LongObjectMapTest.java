@@ -0,0 +1,66 @@
+package teamcity.resource;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongObjectMapTest {
+
+    private LongObjectMap<String> map = new LongObjectMap<String>();
+
+    @Test
+    public void shouldPutGetAndRemoveValues() {
+        assertNull(map.put(1, "one"));
+        assertNull(map.put(-5, "minus five"));
+
+        assertEquals("one", map.get(1));
+        assertEquals("minus five", map.get(-5));
+        assertNull(map.get(2));
+        assertEquals(2, map.size());
+
+        assertEquals("one", map.put(1, "uno"));
+        assertEquals("uno", map.remove(1));
+        assertNull(map.remove(1));
+        assertNull(map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void zeroShouldBeAValidKey() {
+        map.put(0, "zero");
+
+        assertEquals("zero", map.get(0));
+    }
+
+    @Test
+    public void clearShouldRemoveAllValues() {
+        map.put(1, "one");
+        map.put(2, "two");
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertNull(map.get(1));
+    }
+
+    @Test
+    public void shouldMatchHashMapUnderRandomOperations() {
+        Map<Long, String> expected = new HashMap<Long, String>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(500);
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 500; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -8,6 +8,11 @@ import org.hamcrest.core.IsInstanceOf;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -63,6 +68,18 @@ public class ProjectManagerAdapterTest {
         assertThat(buildTypeAdapter, isInstanceOf(TeamCity8BuildTypeAdapter.class));
     }
 
+    @Test
+    public void shouldReturnAllBuildTypeIds() {
+        SBuildType buildType1 = mock(SBuildType.class);
+        when(buildType1.getBuildTypeId()).thenReturn("bt1");
+        SBuildType buildType2 = mock(SBuildType.class);
+        when(buildType2.getBuildTypeId()).thenReturn("bt2");
+        when(projectManager.getAllBuildTypes()).thenReturn(Arrays.asList(buildType1, buildType2));
+
+        Set<String> buildTypeIds = projectManagerAdapter.getAllBuildTypeIds();
+        assertEquals(new HashSet<String>(Arrays.asList("bt1", "bt2")), buildTypeIds);
+    }
+
     private Matcher isInstanceOf(Class clazz) {
         return new IsInstanceOf(clazz);
     }
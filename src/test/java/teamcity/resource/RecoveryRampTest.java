@@ -0,0 +1,81 @@
+package teamcity.resource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class RecoveryRampTest {
+
+    private static final long SECOND = 1000;
+
+    private ResourceMonitor monitor = mock(ResourceMonitor.class);
+
+    private RecoveryRamp ramp;
+
+    private Resource resource;
+
+    @Before
+    public void setup() {
+        ramp = new RecoveryRamp(monitor);
+        resource = new Resource("1", "resource", "localhost", 1234, 8);
+        resource.setRampUp(60);
+    }
+
+    @Test
+    public void shouldRegisterAsMonitorListener() {
+        verify(monitor).addListener(ramp);
+    }
+
+    @Test
+    public void shouldUseConfiguredLimitWhenNotRecovering() {
+        assertEquals(8, ramp.getBuildLimit(resource, 0));
+        assertEquals(0, ramp.getRampLimit(resource));
+    }
+
+    @Test
+    public void shouldDoubleLimitAtEvenStepsAfterRecovery() {
+        ramp.resourceRecovered(resource, 0);
+
+        assertEquals(1, ramp.getBuildLimit(resource, 0));
+        assertEquals(1, ramp.getBuildLimit(resource, 19 * SECOND));
+        assertEquals(2, ramp.getBuildLimit(resource, 20 * SECOND));
+        assertEquals(4, ramp.getBuildLimit(resource, 45 * SECOND));
+        assertEquals(8, ramp.getBuildLimit(resource, 60 * SECOND));
+        assertEquals(8, ramp.getBuildLimit(resource, 0));
+    }
+
+    @Test
+    public void shouldNotExceedLimitThatIsNotAPowerOfTwo() {
+        resource.setBuildLimit(6);
+        ramp.resourceRecovered(resource, 0);
+
+        assertEquals(4, ramp.getBuildLimit(resource, 40 * SECOND));
+        assertEquals(4, ramp.getBuildLimit(resource, 59 * SECOND));
+        assertEquals(6, ramp.getBuildLimit(resource, 60 * SECOND));
+    }
+
+    @Test
+    public void shouldNotRampWithoutRampUpTime() {
+        resource.setRampUp(0);
+        ramp.resourceRecovered(resource, 0);
+
+        assertEquals(8, ramp.getBuildLimit(resource, 0));
+    }
+
+    @Test
+    public void shouldStopRampWhenResourceBecomesUnavailable() {
+        ramp.resourceRecovered(resource, 0);
+        ramp.resourceUnavailable(resource);
+
+        assertEquals(8, ramp.getBuildLimit(resource, 0));
+    }
+
+    @Test
+    public void shouldReportRampLimitWhileRamping() {
+        ramp.resourceAvailable(resource);
+
+        assertEquals(1, ramp.getRampLimit(resource));
+    }
+}
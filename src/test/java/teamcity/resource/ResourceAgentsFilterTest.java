@@ -0,0 +1,189 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.BuildAgent;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuildAgent;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import jetbrains.buildServer.serverSide.buildDistribution.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ResourceAgentsFilterTest {
+
+    private static final String RESOURCE_ID = "1";
+    private static final String BUILD_TYPE_ID = "bt1";
+    private static final int ON_PREM_POOL = 0;
+    private static final int CLOUD_POOL = 1;
+
+    private SBuildServer buildServer;
+    private ResourceManager manager;
+    private ResourceBuildLimitStartPrecondition precondition;
+    private ResourceAgentsFilter filter;
+    private Resource resource;
+
+    private SBuildAgent onPrem = createAgent("onprem-1", ON_PREM_POOL);
+    private SBuildAgent cloud1 = createAgent("cloud-1", CLOUD_POOL);
+    private SBuildAgent cloud2 = createAgent("cloud-2", CLOUD_POOL);
+
+    @Before
+    public void setup() {
+        buildServer = mock(SBuildServer.class);
+        manager = new ResourceManager(null);
+        resource = new Resource(RESOURCE_ID, "resource", "localhost", 1234, 6);
+        resource.addBuildType(BUILD_TYPE_ID);
+        manager.addResource(resource);
+        precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager);
+        filter = new ResourceAgentsFilter(buildServer, manager, precondition);
+    }
+
+    @Test
+    public void shouldRegisterAsExtension() {
+        verify(buildServer).registerExtension(StartingBuildAgentsFilter.class, ResourceAgentsFilter.class.getName(), filter);
+    }
+
+    @Test
+    public void shouldNotFilterAgentsWithoutAgentLimits() {
+        AgentsFilterResult result = filter.filterAgents(createContext(101));
+
+        assertNull(result.getFilteredConnectedAgents());
+        assertNull(result.getWaitReason());
+    }
+
+    @Test
+    public void shouldKeepBuildsOffPoolAtItsLimit() {
+        resource.addAgentLimit(AgentLimit.forPool(CLOUD_POOL, 2));
+        startBuild(201, cloud1);
+        startBuild(202, cloud2);
+
+        AgentsFilterResult result = filter.filterAgents(createContext(101));
+
+        assertEquals(Arrays.asList(onPrem), result.getFilteredConnectedAgents());
+        assertNull(result.getWaitReason());
+    }
+
+    @Test
+    public void shouldAllowPoolBelowItsLimit() {
+        resource.addAgentLimit(AgentLimit.forPool(CLOUD_POOL, 2));
+        startBuild(201, cloud1);
+
+        AgentsFilterResult result = filter.filterAgents(createContext(101));
+
+        assertEquals(Arrays.asList(onPrem, cloud1, cloud2), result.getFilteredConnectedAgents());
+    }
+
+    @Test
+    public void shouldLimitAgentsMatchingNamePattern() {
+        resource.addAgentLimit(AgentLimit.forAgents("cloud-.*", 1));
+        startBuild(201, cloud2);
+
+        AgentsFilterResult result = filter.filterAgents(createContext(101));
+
+        assertEquals(Arrays.asList(onPrem), result.getFilteredConnectedAgents());
+    }
+
+    @Test
+    public void finishedBuildShouldFreeAgentLimit() {
+        resource.addAgentLimit(AgentLimit.forPool(CLOUD_POOL, 1));
+        SRunningBuild build = startBuild(201, cloud1);
+        precondition.buildFinished(build);
+
+        AgentsFilterResult result = filter.filterAgents(createContext(101));
+
+        assertEquals(3, result.getFilteredConnectedAgents().size());
+    }
+
+    @Test
+    public void buildsAllocatedToAgentsInCurrentCycleShouldCount() {
+        resource.addAgentLimit(AgentLimit.forPool(CLOUD_POOL, 1));
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        canBeStarted.put(createQueuedBuildInfo(102), cloud1);
+        precondition.canStart(createQueuedBuildInfo(101), canBeStarted, mock(BuildDistributorInput.class), false);
+
+        AgentsFilterResult result = filter.filterAgents(createContext(101, canBeStarted));
+
+        assertEquals(Arrays.asList(onPrem), result.getFilteredConnectedAgents());
+    }
+
+    @Test
+    public void buildsDistributedToAgentsShouldCountWithoutStartCheck() {
+        resource.addAgentLimit(AgentLimit.forPool(CLOUD_POOL, 1));
+        Map<QueuedBuildInfo, SBuildAgent> distributedBuilds = new HashMap<QueuedBuildInfo, SBuildAgent>();
+        distributedBuilds.put(createQueuedBuildInfo(102), cloud1);
+
+        AgentsFilterResult result = filter.filterAgents(createContext(101, distributedBuilds));
+
+        assertEquals(Arrays.asList(onPrem), result.getFilteredConnectedAgents());
+    }
+
+    @Test
+    public void shouldReuseWaitReason() {
+        resource.addAgentLimit(AgentLimit.forAgents(".*", 1));
+        startBuild(201, onPrem);
+
+        WaitReason waitReason = filter.filterAgents(createContext(101)).getWaitReason();
+
+        assertSame(waitReason, filter.filterAgents(createContext(102)).getWaitReason());
+    }
+
+    @Test
+    public void shouldReturnWaitReasonWhenNoAgentIsBelowItsLimit() {
+        resource.addAgentLimit(AgentLimit.forAgents(".*", 1));
+        startBuild(201, onPrem);
+
+        AgentsFilterResult result = filter.filterAgents(createContext(101));
+
+        assertTrue(result.getFilteredConnectedAgents().isEmpty());
+        assertNotNull(result.getWaitReason());
+    }
+
+    private SRunningBuild startBuild(long promotionId, SBuildAgent agent) {
+        BuildPromotion promotion = mock(BuildPromotion.class);
+        when(promotion.getId()).thenReturn(promotionId);
+        SRunningBuild build = mock(SRunningBuild.class);
+        when(build.getBuildPromotion()).thenReturn(promotion);
+        when(build.getBuildTypeId()).thenReturn(BUILD_TYPE_ID);
+        when(build.getAgent()).thenReturn(agent);
+        precondition.buildStarted(build);
+        return build;
+    }
+
+    private AgentsFilterContext createContext(long promotionId) {
+        return createContext(promotionId, new HashMap<QueuedBuildInfo, SBuildAgent>());
+    }
+
+    @SuppressWarnings("unchecked")
+    private AgentsFilterContext createContext(long promotionId, Map<QueuedBuildInfo, ? extends BuildAgent> distributedBuilds) {
+        AgentsFilterContext context = mock(AgentsFilterContext.class);
+        QueuedBuildInfo queuedBuildInfo = createQueuedBuildInfo(promotionId);
+        when(context.getStartingBuild()).thenReturn(queuedBuildInfo);
+        when(context.getAgentsForStartingBuild()).thenReturn(Arrays.asList(onPrem, cloud1, cloud2));
+        when(context.getDistributedBuilds()).thenReturn((Map<QueuedBuildInfo, SBuildAgent>) distributedBuilds);
+        return context;
+    }
+
+    private QueuedBuildInfo createQueuedBuildInfo(long promotionId) {
+        BuildConfigurationInfo buildConfiguration = mock(BuildConfigurationInfo.class);
+        when(buildConfiguration.getId()).thenReturn(BUILD_TYPE_ID);
+        BuildPromotionInfo promotionInfo = mock(BuildPromotionInfo.class);
+        when(promotionInfo.getId()).thenReturn(promotionId);
+        QueuedBuildInfo queuedBuildInfo = mock(QueuedBuildInfo.class);
+        when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfiguration);
+        when(queuedBuildInfo.getBuildPromotionInfo()).thenReturn(promotionInfo);
+        return queuedBuildInfo;
+    }
+
+    private static SBuildAgent createAgent(String name, int poolId) {
+        SBuildAgent agent = mock(SBuildAgent.class);
+        when(agent.getName()).thenReturn(name);
+        when(agent.getAgentPoolId()).thenReturn(poolId);
+        return agent;
+    }
+}
@@ -0,0 +1,75 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.BuildAgent;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ResourceBuildCountTest {
+
+    private static final int BUILDS = 2000;
+
+    private LeaseWheel wheel;
+    private ResourceBuildCount count;
+    private BuildAgent agent;
+    private AgentLimit agentLimit;
+
+    @Before
+    public void setup() {
+        wheel = new LeaseWheel(1000, 100);
+        count = new ResourceBuildCount(new AtomicLong(), wheel);
+        agent = mock(BuildAgent.class);
+        when(agent.getName()).thenReturn("agent1");
+        agentLimit = AgentLimit.forAgents("agent.*", 10);
+    }
+
+    @Test
+    public void releaseShouldReturnAgentUnitsAndCancelLease() {
+        count.allocate(1, 3, agent);
+        assertEquals(3, count.getAgentUnits(agentLimit));
+
+        assertTrue(count.release(1));
+
+        assertEquals(0, count.getAgentUnits(agentLimit));
+        assertFalse(count.renew(1, System.currentTimeMillis()));
+        assertTrue(wheel.expire(System.currentTimeMillis() + 5000).isEmpty());
+    }
+
+    @Test
+    public void allocatingTwiceShouldKeepFirstAllocation() {
+        assertTrue(count.allocate(1, 2, agent));
+        assertFalse(count.allocate(1, 5, agent));
+
+        assertEquals(2, count.getUnits());
+        assertEquals(2, count.getAgentUnits(agentLimit));
+    }
+
+    @Test
+    public void releaseRacingAllocateShouldNotLeakAgentUnitsOrLeases() throws Exception {
+        Thread releasing = new Thread() {
+            @Override
+            public void run() {
+                for (long id = 0; id < BUILDS; id++) {
+                    while (!count.release(id)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        releasing.start();
+        for (long id = 0; id < BUILDS; id++) {
+            count.allocate(id, 1, agent);
+        }
+        releasing.join();
+
+        assertEquals(0, count.size());
+        assertEquals(0, count.getUnits());
+        assertEquals(0, count.getAgentUnits(agentLimit));
+        assertTrue(wheel.expire(System.currentTimeMillis() + 5000).isEmpty());
+    }
+}
@@ -11,7 +11,9 @@ import jetbrains.buildServer.users.User;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -23,6 +25,7 @@ public class ResourceBuildLimitStartPreconditionTest {
     private static final long BUILD_ID_2 = 12346L;
     private static final boolean EMULATION_MODE_OFF = false;
     private static final boolean EMULATION_MODE_ON = true;
+    private static final long STEADY_STATE_ALLOCATION_ALLOWANCE = 1024;
 
     private Resource resource = new Resource(RESOURCE_ID, "test", "localhost", 1234);
 
@@ -58,6 +61,34 @@ public class ResourceBuildLimitStartPreconditionTest {
         verify(buildServer).addListener(same(precondition));
     }
 
+    @Test
+    public void shouldRegisterWithResourceManager() {
+        SBuildServer buildServer = mock(SBuildServer.class);
+        ResourceManager manager = mock(ResourceManager.class);
+        precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager);
+
+        verify(manager).addListener(same(precondition));
+    }
+
+    @Test
+    public void shouldKeepBuildCountWhenResourceIsReloaded() {
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_1);
+
+        Resource reloaded = new Resource(RESOURCE_ID, "test", "localhost", 1234, 2);
+        resourceManager.setResources(Collections.singletonList(reloaded));
+
+        assertEquals(1, precondition.getBuildCount(RESOURCE_ID));
+    }
+
+    @Test
+    public void shouldDiscardBuildCountWhenResourceIsRemoved() {
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_1);
+
+        resourceManager.removeResource(RESOURCE_ID);
+
+        assertEquals(0, precondition.getBuildCount(RESOURCE_ID));
+    }
+
     @Test
     public void shouldReturnNullWaitReasonWhenBuildIsNotLinkedToResource() {
         when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfigurationInfo);
@@ -245,53 +276,6 @@ public class ResourceBuildLimitStartPreconditionTest {
         verify(listener).resourceUsageChanged(same(resource), eq(0));
     }
 
-    @Test
-    public void allocatedBuildsReturnsZeroForEmptyCanStartMap() {
-        assertEquals(0, precondition.calculateAllocatedBuilds(RESOURCE_ID, agentMap));
-    }
-
-    @Test
-    public void shouldReturnCountOfBuildsAllocated() {
-        agentMap = new HashMap<QueuedBuildInfo, BuildAgent>();
-        when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfigurationInfo);
-        when(buildConfigurationInfo.getId()).thenReturn("bt124");
-        agentMap.put(queuedBuildInfo, null);
-
-        assertEquals(1, precondition.calculateAllocatedBuilds(RESOURCE_ID, agentMap));
-    }
-
-    @Test
-    public void shouldReturnCountWithMultipleBuildsAllocated() {
-        agentMap = new HashMap<QueuedBuildInfo, BuildAgent>();
-        when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfigurationInfo);
-        when(buildConfigurationInfo.getId()).thenReturn("bt123");
-        agentMap.put(queuedBuildInfo, null);
-
-        BuildConfigurationInfo buildInfo = mock(BuildConfigurationInfo.class);
-        when(buildInfo.getId()).thenReturn("bt124");
-        QueuedBuildInfo queuedBuildInfo2 = mock(QueuedBuildInfo.class);
-        when(queuedBuildInfo2.getBuildConfiguration()).thenReturn(buildInfo);
-        agentMap.put(queuedBuildInfo2, null);
-
-        assertEquals(2, precondition.calculateAllocatedBuilds(RESOURCE_ID, agentMap));
-    }
-
-    @Test
-    public void shouldReturnCountOfBuildsAllocatedToResource() {
-        agentMap = new HashMap<QueuedBuildInfo, BuildAgent>();
-        when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfigurationInfo);
-        when(buildConfigurationInfo.getId()).thenReturn("bt123");
-        agentMap.put(queuedBuildInfo, null);
-
-        BuildConfigurationInfo buildInfo = mock(BuildConfigurationInfo.class);
-        when(buildInfo.getId()).thenReturn("bt125");
-        QueuedBuildInfo queuedBuildInfo2 = mock(QueuedBuildInfo.class);
-        when(queuedBuildInfo2.getBuildConfiguration()).thenReturn(buildInfo);
-        agentMap.put(queuedBuildInfo2, null);
-
-        assertEquals(1, precondition.calculateAllocatedBuilds(RESOURCE_ID, agentMap));
-    }
-
     @Test
     public void registeringAgentWithRunningBuildUsingResourceIncreasesCount() {
         BuildPromotion buildPromotion = mock(BuildPromotion.class);
@@ -371,4 +355,509 @@ public class ResourceBuildLimitStartPreconditionTest {
 
         assertEquals(1, precondition.getBuildCount(RESOURCE_ID));
     }
+
+    @Test
+    public void shouldReturnWaitReasonWhenWeightedBuildExceedsResourceCapacity() {
+        resource.setBuildLimit(4);
+        resource.setBuildTypeWeight("bt124", 3);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_2, 2);
+        when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfigurationInfo);
+        when(buildConfigurationInfo.getId()).thenReturn("bt124");
+
+        WaitReason waitReason = precondition.canStart(queuedBuildInfo, agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertNotNull(waitReason);
+        assertTrue(waitReason.getDescription().contains("build weight 3"));
+    }
+
+    @Test
+    public void shouldReturnNullWaitReasonWhenWeightedBuildFitsResourceCapacity() {
+        resource.setBuildLimit(4);
+        resource.setBuildTypeWeight("bt124", 3);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_2);
+        when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfigurationInfo);
+        when(buildConfigurationInfo.getId()).thenReturn("bt124");
+
+        WaitReason waitReason = precondition.canStart(queuedBuildInfo, agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertNull(waitReason);
+    }
+
+    @Test
+    public void buildHeavierThanCapacityShouldStartWhenResourceIsIdle() {
+        resource.setBuildLimit(2);
+        resource.setBuildTypeWeight("bt124", 5);
+        when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfigurationInfo);
+        when(buildConfigurationInfo.getId()).thenReturn("bt124");
+
+        WaitReason waitReason = precondition.canStart(queuedBuildInfo, agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertNull(waitReason);
+    }
+
+    @Test
+    public void startedBuildShouldHoldItsWeight() {
+        resource.setBuildTypeWeight("bt123", 3);
+        BuildPromotion buildPromotion = mock(BuildPromotion.class);
+        when(buildPromotion.getId()).thenReturn(BUILD_ID_1);
+        when(build.getBuildPromotion()).thenReturn(buildPromotion);
+
+        precondition.buildStarted(build);
+        assertEquals(1, precondition.getBuildCount(RESOURCE_ID));
+        assertEquals(3, precondition.getBuildUnits(RESOURCE_ID));
+
+        precondition.buildFinished(build);
+        assertEquals(0, precondition.getBuildUnits(RESOURCE_ID));
+    }
+
+    @Test
+    public void freedSlotShouldGoToBuildWaitingLongest() {
+        resource.setBuildLimit(1);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_2);
+        QueuedBuildInfo waiting = createQueuedBuildInfo("bt123", 101);
+        QueuedBuildInfo later = createQueuedBuildInfo("bt124", 102);
+        assertNotNull(precondition.canStart(waiting, new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_OFF));
+        assertEquals(1, precondition.getTicketCount(RESOURCE_ID));
+
+        precondition.getResourceBuildCount(RESOURCE_ID).release(BUILD_ID_2);
+        Map<QueuedBuildInfo, BuildAgent> nextCycle = new HashMap<QueuedBuildInfo, BuildAgent>();
+        WaitReason waitReason = precondition.canStart(later, nextCycle, buildDistributorInput, EMULATION_MODE_OFF);
+        assertNotNull(waitReason);
+        assertTrue(waitReason.getDescription().contains("queued earlier"));
+
+        assertNull(precondition.canStart(waiting, nextCycle, buildDistributorInput, EMULATION_MODE_OFF));
+        assertEquals(1, precondition.getTicketCount(RESOURCE_ID));
+    }
+
+    @Test
+    public void buildShouldStartAlongsideWaitingBuildWhenThereIsRoomForBoth() {
+        resource.setBuildLimit(3);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_2, 3);
+        QueuedBuildInfo waiting = createQueuedBuildInfo("bt123", 101);
+        QueuedBuildInfo later = createQueuedBuildInfo("bt124", 102);
+        assertNotNull(precondition.canStart(waiting, new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_OFF));
+
+        precondition.getResourceBuildCount(RESOURCE_ID).release(BUILD_ID_2);
+
+        assertNull(precondition.canStart(later, new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    @Test
+    public void ticketOfBuildThatLeftTheQueueShouldExpire() {
+        resource.setBuildLimit(1);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_2);
+        QueuedBuildInfo removed = createQueuedBuildInfo("bt123", 101);
+        QueuedBuildInfo later = createQueuedBuildInfo("bt124", 102);
+        assertNotNull(precondition.canStart(removed, new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_OFF));
+        assertNotNull(precondition.canStart(later, new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_OFF));
+
+        precondition.getResourceBuildCount(RESOURCE_ID).release(BUILD_ID_2);
+        precondition.buildRemovedFromQueue(createQueuedBuild("bt123", 101), null, null);
+
+        assertEquals(1, precondition.getTicketCount(RESOURCE_ID));
+        assertNull(precondition.canStart(later, new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    @Test
+    public void emulationShouldNotDropTicketsOfWaitingBuilds() {
+        resource.setBuildLimit(1);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_2);
+        QueuedBuildInfo waiting = createQueuedBuildInfo("bt123", 101);
+        QueuedBuildInfo later = createQueuedBuildInfo("bt124", 102);
+        Map<QueuedBuildInfo, BuildAgent> cycle = new HashMap<QueuedBuildInfo, BuildAgent>();
+        assertNotNull(precondition.canStart(waiting, cycle, buildDistributorInput, EMULATION_MODE_OFF));
+
+        precondition.getResourceBuildCount(RESOURCE_ID).release(BUILD_ID_2);
+        precondition.canStart(later, new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_ON);
+        precondition.canStart(later, new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_ON);
+
+        assertNotNull(precondition.canStart(later, cycle, buildDistributorInput, EMULATION_MODE_OFF));
+        assertNull(precondition.canStart(waiting, cycle, buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    @Test
+    public void emulationShouldNotResetCountsOfCurrentCycle() {
+        resource.setBuildLimit(1);
+        Map<QueuedBuildInfo, BuildAgent> cycle = new HashMap<QueuedBuildInfo, BuildAgent>();
+        QueuedBuildInfo first = createQueuedBuildInfo("bt123", 101);
+        assertNull(precondition.canStart(first, cycle, buildDistributorInput, EMULATION_MODE_OFF));
+        cycle.put(first, null);
+
+        precondition.canStart(createQueuedBuildInfo("bt123", 103), new HashMap<QueuedBuildInfo, BuildAgent>(),
+                buildDistributorInput, EMULATION_MODE_ON);
+
+        assertNotNull(precondition.canStart(createQueuedBuildInfo("bt124", 102), cycle, buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    @Test
+    public void emulationShouldNotIssueTickets() {
+        resource.setBuildLimit(1);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_2);
+
+        precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_ON);
+
+        assertEquals(0, precondition.getTicketCount(RESOURCE_ID));
+    }
+
+    @Test
+    public void startRateShouldLimitBuildsStartedPerMinute() {
+        resource.setStartRate(2);
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        QueuedBuildInfo queued = createQueuedBuildInfo("bt123", 101);
+        assertNull(precondition.canStart(queued, canBeStarted, buildDistributorInput, EMULATION_MODE_OFF));
+        canBeStarted.put(queued, null);
+
+        // the bucket holds a single start, so the next build waits for the rate even after an idle period
+        WaitReason waitReason = precondition.canStart(createQueuedBuildInfo("bt124", 102), canBeStarted, buildDistributorInput, EMULATION_MODE_OFF);
+        assertNotNull(waitReason);
+        assertTrue(waitReason.getDescription().contains("2 per minute"));
+    }
+
+    @Test
+    public void emulationShouldNotConsumeStartRate() {
+        resource.setStartRate(1);
+
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_ON));
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    @Test
+    public void shouldLimitBuildsToRampLimitAfterRecovery() {
+        RecoveryRamp ramp = new RecoveryRamp(mock(ResourceMonitor.class));
+        precondition = new ResourceBuildLimitStartPrecondition(mock(SBuildServer.class), resourceManager, null, ramp);
+        resource.setBuildLimit(4);
+        resource.setRampUp(60);
+        ramp.resourceAvailable(resource);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(101);
+
+        WaitReason waitReason = precondition.canStart(createQueuedBuildInfo("bt123", 102), agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertNotNull(waitReason);
+        assertTrue(waitReason.getDescription().contains("limit of 1 while the resource ramps up"));
+
+        ramp.resourceUnavailable(resource);
+        Map<QueuedBuildInfo, BuildAgent> nextCycle = new HashMap<QueuedBuildInfo, BuildAgent>();
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt123", 102), nextCycle, buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    @Test
+    public void shouldTrackBuildsHeldBackAtLimit() {
+        WaitTimeTracker tracker = new WaitTimeTracker(mock(SBuildServer.class));
+        precondition = new ResourceBuildLimitStartPrecondition(mock(SBuildServer.class), resourceManager, null, null, null, tracker);
+        resource.setBuildLimit(1);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(101);
+
+        assertNotNull(precondition.canStart(createQueuedBuildInfo("bt123", 102), agentMap, buildDistributorInput, EMULATION_MODE_OFF));
+        assertNotNull(precondition.canStart(createQueuedBuildInfo("bt124", 103), agentMap, buildDistributorInput, EMULATION_MODE_ON));
+        assertEquals(1, tracker.getResourceWaitTimes(RESOURCE_ID).getBlockedAtLimit());
+        assertEquals(1, tracker.getBuildTypeWaitTimes("bt123").getBlocked());
+
+        precondition.getResourceBuildCount(RESOURCE_ID).release(101);
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt123", 102), agentMap, buildDistributorInput, EMULATION_MODE_OFF));
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getBlocked());
+        assertEquals(1, tracker.getResourceWaitTimes(RESOURCE_ID).getWaitCount());
+    }
+
+    @Test
+    public void waitReasonShouldEstimateWhenARunningBuildFinishes() {
+        resource.setBuildLimit(1);
+        precondition.getDurationModel().record("bt123", TimeUnit.MINUTES.toMillis(10));
+        BuildPromotion buildPromotion = mock(BuildPromotion.class);
+        when(buildPromotion.getId()).thenReturn(101L);
+        when(build.getBuildPromotion()).thenReturn(buildPromotion);
+        when(build.getStartDate()).thenReturn(new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(4)));
+        precondition.buildStarted(build);
+
+        WaitReason waitReason = precondition.canStart(createQueuedBuildInfo("bt124", 102), agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+
+        assertNotNull(waitReason);
+        assertTrue(waitReason.getDescription().contains("expected to finish in about 6 minutes"));
+        assertTrue(waitReason.getDescription().contains("position 1 of 1 in the queue"));
+    }
+
+    @Test
+    public void finishedBuildsShouldUpdateDurationEstimate() {
+        BuildPromotion buildPromotion = mock(BuildPromotion.class);
+        when(buildPromotion.getId()).thenReturn(101L);
+        when(build.getBuildPromotion()).thenReturn(buildPromotion);
+        when(build.getStartDate()).thenReturn(new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5)));
+        precondition.buildStarted(build);
+        precondition.buildFinished(build);
+
+        long estimate = precondition.getDurationModel().getEstimate("bt123");
+        assertTrue(estimate >= TimeUnit.MINUTES.toMillis(5));
+        assertTrue(estimate < TimeUnit.MINUTES.toMillis(6));
+        assertEquals(ResourceBuildCount.NOT_STARTED, precondition.getResourceBuildCount(RESOURCE_ID).getStartTime(101));
+    }
+
+    @Test
+    public void interruptedBuildsShouldNotUpdateDurationEstimate() {
+        BuildPromotion buildPromotion = mock(BuildPromotion.class);
+        when(buildPromotion.getId()).thenReturn(101L);
+        when(build.getBuildPromotion()).thenReturn(buildPromotion);
+        precondition.buildStarted(build);
+        precondition.buildInterrupted(build);
+
+        assertEquals(BuildDurationModel.UNKNOWN, precondition.getDurationModel().getEstimate("bt123"));
+    }
+
+    @Test
+    public void shouldReturnWaitReasonWhenResourceIsUnavailable() {
+        ResourceMonitor monitor = createMonitor(true, false);
+
+        WaitReason waitReason = precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertNotNull(waitReason);
+        assertTrue(waitReason.getDescription().contains(resource.getName()));
+        assertTrue(waitReason.getDescription().contains("available"));
+
+        when(monitor.isAvailable(resource)).thenReturn(true);
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    @Test
+    public void shouldReturnWaitReasonWhenResourceIsDisabled() {
+        ResourceMonitor monitor = createMonitor(false, false);
+
+        WaitReason waitReason = precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertNotNull(waitReason);
+        assertTrue(waitReason.getDescription().contains(resource.getName()));
+        assertTrue(waitReason.getDescription().contains("enabled"));
+
+        when(monitor.isEnabled(resource)).thenReturn(true);
+        when(monitor.isAvailable(resource)).thenReturn(true);
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    @Test
+    public void unavailableResourceShouldNotCountAgainstLimit() {
+        createMonitor(true, false);
+        resource.setBuildLimit(1);
+
+        assertNotNull(precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF));
+        assertEquals(0, precondition.getTicketCount(RESOURCE_ID));
+    }
+
+    @Test
+    public void shadowResourceShouldRecordBuildsItWouldHoldBack() {
+        resource.setBuildLimit(1);
+        resource.setShadow(true);
+        Map<QueuedBuildInfo, BuildAgent> allocatedBuilds = new HashMap<QueuedBuildInfo, BuildAgent>();
+        allocatedBuilds.put(createQueuedBuildInfo("bt123", 101), null);
+
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt124", 102), allocatedBuilds, buildDistributorInput, EMULATION_MODE_OFF));
+
+        ShadowLog shadowLog = precondition.getShadowLogs().get(RESOURCE_ID);
+        assertEquals(1, shadowLog.getWouldBlock(WaitTimes.Reason.AT_LIMIT));
+        assertEquals(1, shadowLog.getDecisions().size());
+        assertEquals(102, shadowLog.getDecisions().get(0).getBuildId());
+        assertEquals("bt124", shadowLog.getDecisions().get(0).getBuildTypeId());
+        assertEquals(0, precondition.getTicketCount(RESOURCE_ID));
+    }
+
+    @Test
+    public void shadowResourceShouldCountBuildCheckedRepeatedlyOnce() {
+        resource.setBuildLimit(1);
+        resource.setShadow(true);
+        Map<QueuedBuildInfo, BuildAgent> allocatedBuilds = new HashMap<QueuedBuildInfo, BuildAgent>();
+        allocatedBuilds.put(createQueuedBuildInfo("bt123", 101), null);
+        precondition.canStart(createQueuedBuildInfo("bt124", 102), allocatedBuilds, buildDistributorInput, EMULATION_MODE_OFF);
+        precondition.canStart(createQueuedBuildInfo("bt124", 102), allocatedBuilds, buildDistributorInput, EMULATION_MODE_OFF);
+
+        precondition.buildRemovedFromQueue(createQueuedBuild("bt124", 102), null, null);
+
+        ShadowLog shadowLog = precondition.getShadowLogs().get(RESOURCE_ID);
+        assertEquals(1, shadowLog.getChecked());
+        assertEquals(1, shadowLog.getWouldBlock());
+        long now = System.currentTimeMillis();
+        assertEquals(shadowLog.getBlockedTime(now), shadowLog.getBlockedTime(now + 60000));
+    }
+
+    @Test
+    public void shadowResourceShouldRecordStartRateHolds() {
+        resource.setShadow(true);
+        resource.setStartRate(1);
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        precondition.canStart(createQueuedBuildInfo("bt123", 101), canBeStarted, buildDistributorInput, EMULATION_MODE_OFF);
+        precondition.canStart(createQueuedBuildInfo("bt123", 102), canBeStarted, buildDistributorInput, EMULATION_MODE_OFF);
+
+        ShadowLog shadowLog = precondition.getShadowLogs().get(RESOURCE_ID);
+        assertEquals(1, shadowLog.getWouldBlock(WaitTimes.Reason.START_RATE));
+        assertEquals(0, shadowLog.getWouldBlock(WaitTimes.Reason.AT_LIMIT));
+    }
+
+    @Test
+    public void waitTimesShouldRecordStartRateHolds() {
+        SBuildServer buildServer = mock(SBuildServer.class);
+        WaitTimeTracker tracker = new WaitTimeTracker(buildServer);
+        precondition = new ResourceBuildLimitStartPrecondition(buildServer, resourceManager, null, null, null, tracker);
+        resource.setStartRate(1);
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt123", 101), canBeStarted, buildDistributorInput, EMULATION_MODE_OFF));
+        assertNotNull(precondition.canStart(createQueuedBuildInfo("bt123", 102), canBeStarted, buildDistributorInput, EMULATION_MODE_OFF));
+
+        WaitTimes waitTimes = tracker.getResourceWaitTimes(RESOURCE_ID);
+        assertEquals(1, waitTimes.getBlockedStartRate());
+        assertEquals(0, waitTimes.getBlockedAtLimit());
+    }
+
+    @Test
+    public void waitTimesShouldRecordBuildsQueuedBehindEarlierTickets() {
+        SBuildServer buildServer = mock(SBuildServer.class);
+        WaitTimeTracker tracker = new WaitTimeTracker(buildServer);
+        precondition = new ResourceBuildLimitStartPrecondition(buildServer, resourceManager, null, null, null, tracker);
+        resource.setBuildLimit(1);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(BUILD_ID_2);
+        assertNotNull(precondition.canStart(createQueuedBuildInfo("bt123", 101), new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_OFF));
+
+        precondition.getResourceBuildCount(RESOURCE_ID).release(BUILD_ID_2);
+        assertNotNull(precondition.canStart(createQueuedBuildInfo("bt124", 102), new HashMap<QueuedBuildInfo, BuildAgent>(), buildDistributorInput, EMULATION_MODE_OFF));
+
+        WaitTimes waitTimes = tracker.getResourceWaitTimes(RESOURCE_ID);
+        assertEquals(1, waitTimes.getBlockedAtLimit());
+        assertEquals(1, waitTimes.getBlockedQueued());
+    }
+
+    @Test
+    public void shadowResourceShouldNotHoldBackBuildsWhenUnavailable() {
+        createMonitor(true, false);
+        resource.setShadow(true);
+
+        assertNull(precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF));
+        assertEquals(1, precondition.getShadowLogs().get(RESOURCE_ID).getWouldBlock(WaitTimes.Reason.UNAVAILABLE));
+    }
+
+    @Test
+    public void buildsShouldShareWaitReasonOfResourceState() {
+        createMonitor(true, false);
+
+        WaitReason waitReason = precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertSame(waitReason, precondition.canStart(createQueuedBuildInfo("bt124", 102), agentMap, buildDistributorInput, EMULATION_MODE_OFF));
+
+        resource.setName("renamed");
+        waitReason = precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertTrue(waitReason.getDescription().contains("renamed"));
+    }
+
+    @Test
+    public void shouldTrackBuildsHeldBackByUnavailableResource() {
+        WaitTimeTracker tracker = new WaitTimeTracker(mock(SBuildServer.class));
+        ResourceMonitor monitor = mock(ResourceMonitor.class);
+        when(monitor.isEnabled(resource)).thenReturn(true);
+        precondition = new ResourceBuildLimitStartPrecondition(mock(SBuildServer.class), resourceManager, monitor, null, null, tracker);
+
+        precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertEquals(1, tracker.getResourceWaitTimes(RESOURCE_ID).getBlockedUnavailable());
+
+        when(monitor.isAvailable(resource)).thenReturn(true);
+        precondition.canStart(createQueuedBuildInfo("bt123", 101), agentMap, buildDistributorInput, EMULATION_MODE_OFF);
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getBlocked());
+        assertEquals(1, tracker.getResourceWaitTimes(RESOURCE_ID).getHistogram(WaitTimes.Reason.UNAVAILABLE).getCount());
+    }
+
+    @Test
+    public void canStartShouldNotAllocateInSteadyState() {
+        createSteadyStatePrecondition();
+        QueuedBuildInfo[] queue = {
+                new FakeQueuedBuildInfo("bt123", 101),
+                new FakeQueuedBuildInfo("bt124", 102),
+                new FakeQueuedBuildInfo("bt200", 103),
+                new FakeQueuedBuildInfo("bt999", 104)
+        };
+        List<Map<QueuedBuildInfo, BuildAgent>> cycles = new ArrayList<Map<QueuedBuildInfo, BuildAgent>>();
+        cycles.add(new HashMap<QueuedBuildInfo, BuildAgent>());
+        cycles.add(new HashMap<QueuedBuildInfo, BuildAgent>());
+
+        assertSteadyStateAllocation(queue, cycles);
+        assertTrue(precondition.canStart(queue[0], cycles.get(0), buildDistributorInput, EMULATION_MODE_OFF)
+                .getDescription().contains("position 1 of 2"));
+    }
+
+    @Test
+    public void canStartShouldNotAllocateInSteadyStateWithBuildsAllocatedToAgents() {
+        createSteadyStatePrecondition();
+        Resource spare = new Resource("3", "spare", "localhost", 1236, 10);
+        spare.addBuildType("bt300");
+        resourceManager.addResource(spare);
+        QueuedBuildInfo[] queue = {
+                new FakeQueuedBuildInfo("bt123", 101),
+                new FakeQueuedBuildInfo("bt200", 103),
+                new FakeQueuedBuildInfo("bt300", 105)
+        };
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        canBeStarted.put(new FakeQueuedBuildInfo("bt300", 201), mock(BuildAgent.class));
+        canBeStarted.put(new FakeQueuedBuildInfo("bt300", 202), mock(BuildAgent.class));
+        canBeStarted.put(new FakeQueuedBuildInfo("bt999", 203), mock(BuildAgent.class));
+        List<Map<QueuedBuildInfo, BuildAgent>> cycles = Collections.nCopies(2, canBeStarted);
+
+        assertSteadyStateAllocation(queue, cycles);
+        assertNull(precondition.canStart(queue[2], cycles.get(0), buildDistributorInput, EMULATION_MODE_OFF));
+    }
+
+    private void createSteadyStatePrecondition() {
+        SBuildServer buildServer = mock(SBuildServer.class);
+        ResourceMonitor monitor = new ResourceMonitor(buildServer, resourceManager, null);
+        Resource disabled = new Resource("2", "disabled", "localhost", 1235);
+        disabled.addBuildType("bt200");
+        resourceManager.addResource(disabled);
+        monitor.disableResource(disabled);
+        WaitTimeTracker tracker = new WaitTimeTracker(buildServer);
+        RecoveryRamp ramp = new RecoveryRamp(mock(ResourceMonitor.class));
+        precondition = new ResourceBuildLimitStartPrecondition(buildServer, resourceManager, monitor, null, ramp, tracker);
+        resource.setBuildLimit(1);
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(100);
+    }
+
+    /**
+     * Runs the cycles until the caches are warm and asserts that a further 10000 cycles allocate
+     * no more than a fixed allowance, which covers the allocations of the JVM itself while the
+     * test runs, such as compilation of the measured code.
+     */
+    private void assertSteadyStateAllocation(QueuedBuildInfo[] queue, List<Map<QueuedBuildInfo, BuildAgent>> cycles) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        runCycles(queue, cycles, 20000);
+        long baseline = threads.getThreadAllocatedBytes(threadId);
+        baseline = threads.getThreadAllocatedBytes(threadId) - baseline;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        runCycles(queue, cycles, 10000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - baseline;
+
+        assertTrue("canStart allocated " + allocated + " bytes in steady state", allocated <= STEADY_STATE_ALLOCATION_ALLOWANCE);
+    }
+
+    private int runCycles(QueuedBuildInfo[] queue, List<Map<QueuedBuildInfo, BuildAgent>> cycles, int count) {
+        int calls = 0;
+        for (int i = 0; i < count; i++) {
+            Map<QueuedBuildInfo, BuildAgent> canBeStarted = cycles.get(i & 1);
+            for (QueuedBuildInfo queuedBuildInfo : queue) {
+                precondition.canStart(queuedBuildInfo, canBeStarted, buildDistributorInput, EMULATION_MODE_OFF);
+                calls++;
+            }
+        }
+        return calls;
+    }
+
+    private ResourceMonitor createMonitor(boolean enabled, boolean available) {
+        ResourceMonitor monitor = mock(ResourceMonitor.class);
+        when(monitor.isEnabled(resource)).thenReturn(enabled);
+        when(monitor.isAvailable(resource)).thenReturn(available);
+        precondition = new ResourceBuildLimitStartPrecondition(mock(SBuildServer.class), resourceManager, monitor, null, null, null);
+        return monitor;
+    }
+
+    private QueuedBuildInfo createQueuedBuildInfo(String buildTypeId, long promotionId) {
+        BuildConfigurationInfo buildConfiguration = mock(BuildConfigurationInfo.class);
+        when(buildConfiguration.getId()).thenReturn(buildTypeId);
+        BuildPromotionInfo promotionInfo = mock(BuildPromotionInfo.class);
+        when(promotionInfo.getId()).thenReturn(promotionId);
+        QueuedBuildInfo info = mock(QueuedBuildInfo.class);
+        when(info.getBuildConfiguration()).thenReturn(buildConfiguration);
+        when(info.getBuildPromotionInfo()).thenReturn(promotionInfo);
+        return info;
+    }
+
+    private SQueuedBuild createQueuedBuild(String buildTypeId, long promotionId) {
+        BuildPromotion buildPromotion = mock(BuildPromotion.class);
+        when(buildPromotion.getId()).thenReturn(promotionId);
+        SQueuedBuild queuedBuild = mock(SQueuedBuild.class);
+        when(queuedBuild.getBuildTypeId()).thenReturn(buildTypeId);
+        when(queuedBuild.getBuildPromotion()).thenReturn(buildPromotion);
+        return queuedBuild;
+    }
 }
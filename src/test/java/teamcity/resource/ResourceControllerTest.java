@@ -7,6 +7,7 @@ import javax.servlet.http.HttpServletResponse;
 import jetbrains.buildServer.serverSide.SBuildServer;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 
@@ -94,7 +95,7 @@ public class ResourceControllerTest {
         ResourceController controller = new ResourceController(buildServer, null, manager, plugin, monitor);
         controller.doHandle(request, response);
 
-        verify(plugin).saveConfiguration();
+        verify(plugin).configurationChanged();
     }
 
     @Test
@@ -114,7 +115,7 @@ public class ResourceControllerTest {
         when(request.getParameter(RESOURCE_ID)).thenReturn("123");
 
         controller.doHandle(request, response);
-        verify(plugin).saveConfiguration();
+        verify(plugin).configurationChanged();
     }
 
     @Test
@@ -134,7 +135,7 @@ public class ResourceControllerTest {
         when(request.getParameter(RESOURCE_ID)).thenReturn("123");
 
         controller.doHandle(request, response);
-        verify(plugin).saveConfiguration();
+        verify(plugin).configurationChanged();
     }
 
     @Test
@@ -154,7 +155,7 @@ public class ResourceControllerTest {
         ResourceController controller = new ResourceController(buildServer, null, manager, plugin, monitor);
         controller.doHandle(request, response);
 
-        verify(plugin).saveConfiguration();
+        verify(plugin).configurationChanged();
     }
 
     @Test
@@ -174,7 +175,53 @@ public class ResourceControllerTest {
         ResourceController controller = new ResourceController(buildServer, null, manager, plugin, monitor);
         controller.doHandle(request, response);
 
-        verify(plugin).saveConfiguration();
+        verify(plugin).configurationChanged();
+    }
+
+    @Test
+    public void batchShouldCommitAllOperationsInOneTransaction() throws Exception {
+        when(request.getParameter(SUBMIT_ACTION)).thenReturn("batch");
+        when(request.getParameter(SUBMIT_ACTION + ".0")).thenReturn("linkBuildType");
+        when(request.getParameter(RESOURCE_ID + ".0")).thenReturn("123");
+        when(request.getParameter(BUILD_TYPE_ID + ".0")).thenReturn("bt123");
+        when(request.getParameter(SUBMIT_ACTION + ".1")).thenReturn("linkBuildType");
+        when(request.getParameter(RESOURCE_ID + ".1")).thenReturn("123");
+        when(request.getParameter(BUILD_TYPE_ID + ".1")).thenReturn("bt124");
+        manager = mock(ResourceManager.class);
+        ResourceController controller = new ResourceController(buildServer, null, manager, plugin, monitor);
+        controller.doHandle(request, response);
+
+        ArgumentCaptor<ResourceTransaction> transaction = ArgumentCaptor.forClass(ResourceTransaction.class);
+        verify(manager).commit(transaction.capture());
+        assertEquals(2, transaction.getValue().size());
+        verify(manager, never()).linkBuildToResource(anyString(), anyString());
+        verify(plugin, times(1)).configurationChanged();
+    }
+
+    @Test
+    public void batchWithInvalidOperationShouldNotSaveConfiguration() throws Exception {
+        when(request.getParameter(SUBMIT_ACTION)).thenReturn("batch");
+        when(request.getParameter(SUBMIT_ACTION + ".0")).thenReturn("invalidAction");
+        manager = mock(ResourceManager.class);
+        ResourceController controller = new ResourceController(buildServer, null, manager, plugin, monitor);
+        controller.doHandle(request, response);
+
+        assertThat(responseMessage.toString(), containsString("Invalid action"));
+        verifyZeroInteractions(manager, plugin);
+    }
+
+    @Test
+    public void batchShouldReturnErrorForInvalidName() throws Exception {
+        when(request.getParameter(SUBMIT_ACTION)).thenReturn("batch");
+        when(request.getParameter(SUBMIT_ACTION + ".0")).thenReturn("addResource");
+        when(request.getParameter(RESOURCE_NAME + ".0")).thenReturn("");
+        when(request.getParameter(RESOURCE_HOST + ".0")).thenReturn("localhost");
+        when(request.getParameter(RESOURCE_PORT + ".0")).thenReturn("4321");
+
+        controller.doHandle(request, response);
+
+        assertXpathEvaluatesTo("invalidName", "//response/errors/error/@id", responseMessage.toString());
+        verify(plugin, never()).configurationChanged();
     }
 
     @Test
@@ -7,7 +7,10 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import static junit.framework.Assert.*;
 import static org.mockito.Mockito.*;
@@ -131,6 +134,7 @@ public class ResourceManagerTest {
         manager.addResource(resource);
         manager.updateResource(ID, newName, newHost, "" + newPort);
 
+        resource = manager.getResourceById(ID);
         assertEquals(newName, resource.getName());
         assertEquals(newHost, resource.getHost());
         assertEquals(newPort, resource.getPort());
@@ -390,6 +394,59 @@ public class ResourceManagerTest {
         assertEquals(124, manager.nextId());
     }
 
+    @Test
+    public void shouldAllocateNextIdAfterRemovingHighestId() {
+        manager.addResource(new Resource("1", NAME + "1", HOST, PORT));
+        manager.addResource(new Resource("2", NAME + "2", HOST, PORT + 1));
+        manager.removeResource("2");
+        assertEquals(2, manager.nextId());
+    }
+
+    @Test
+    public void resourcesReturnedShouldNotChangeWhenResourceIsAdded() {
+        manager.addResource(new Resource(ID, NAME, HOST, PORT));
+        Collection<Resource> resources = manager.getResources();
+
+        manager.addResource(new Resource("2", NAME + "2", HOST, PORT + 1));
+        assertEquals(1, resources.size());
+        assertEquals(2, manager.getResources().size());
+    }
+
+    @Test
+    public void shouldReturnResourceForBuildTypeLinkedAfterAdding() {
+        SBuildType buildType = mock(SBuildType.class);
+        fakeProjectManager.addBuildType(BUILD_TYPE_ID, buildType);
+        manager.addResource(new Resource(ID, NAME, HOST, PORT));
+
+        manager.linkBuildToResource(ID, BUILD_TYPE_ID);
+        assertSame(manager.getResourceById(ID), manager.findResourceByBuildTypeId(BUILD_TYPE_ID));
+
+        manager.unlinkBuildFromResource(ID, BUILD_TYPE_ID);
+        assertNull(manager.findResourceByBuildTypeId(BUILD_TYPE_ID));
+    }
+
+    @Test
+    public void shouldReturnResourceForMatchedBuildType() {
+        Resource expectedResource = new Resource(ID, NAME, HOST, PORT);
+        expectedResource.addBuildTypeMatcher(".*test.*");
+        manager.addResource(expectedResource);
+
+        manager.buildTypeRegistered(new FakeBuildType("bt1", "Build type test"));
+        assertSame(manager.getResourceById(ID), manager.findResourceByBuildTypeId("bt1"));
+
+        manager.buildTypeUnregistered(new FakeBuildType("bt1", "Build type test"));
+        assertNull(manager.findResourceByBuildTypeId("bt1"));
+    }
+
+    @Test
+    public void shouldAllowPreviousHostAndPortAfterUpdate() {
+        manager.addResource(new Resource(ID, NAME, HOST, PORT));
+        manager.updateResource(ID, NAME, "newhost", "" + PORT);
+
+        manager.addResource(new Resource("2", NAME + "2", HOST, PORT));
+        assertEquals(2, manager.getResources().size());
+    }
+
     @Test
     public void replacedResourcesShouldBeAccessibleById() {
         Resource expectedResource = new Resource(ID, NAME, HOST, PORT);
@@ -417,6 +474,28 @@ public class ResourceManagerTest {
         assertEquals(BUILD_TYPE_ID, resource.getBuildTypes().get(0));
     }
 
+    @Test
+    public void settingResourcesShouldValidateBuildTypesWithOneSnapshot() {
+        ProjectManager projectManager = spy(fakeProjectManager);
+        manager = new ResourceManager(projectManager);
+        fakeProjectManager.addBuildType(BUILD_TYPE_ID, mock(SBuildType.class));
+        Collection<Resource> newResources = new ArrayList<Resource>();
+        for (int i = 1; i <= 3; i++) {
+            Resource resource = new Resource(Integer.toString(i), NAME + i, HOST, PORT + i);
+            resource.addBuildType(BUILD_TYPE_ID);
+            resource.addBuildType(INVALID_BUILD_TYPE_ID);
+            newResources.add(resource);
+        }
+
+        manager.setResources(newResources);
+
+        verify(projectManager, times(1)).getAllBuildTypeIds();
+        verify(projectManager, never()).findBuildTypeById(anyString());
+        for (Resource resource : manager.getResources()) {
+            assertEquals(1, resource.getBuildTypes().size());
+        }
+    }
+
     @Test
     public void shouldIgnoreResourceWithSameId() throws Exception {
         Collection<Resource> newResources = new ArrayList<Resource>();
@@ -465,6 +544,15 @@ public class ResourceManagerTest {
         manager.updateResource("2", NAME + "2", HOST, "" + PORT);
     }
 
+    @Test
+    public void shouldNotAllowUpdateToDuplicatePortWrittenWithLeadingZero() {
+        manager.addResource(new Resource(ID, NAME + "1", HOST, 80));
+        manager.addResource(new Resource("2", NAME + "2", HOST, 1235));
+
+        thrown.expect(IllegalArgumentException.class);
+        manager.updateResource("2", NAME + "2", HOST, "080");
+    }
+
     @Test
     public void shouldIgnoreResourceWithSameHostAndPort() throws Exception {
         Collection<Resource> newResources = new ArrayList<Resource>();
@@ -518,7 +606,27 @@ public class ResourceManagerTest {
         manager.addListener(listener);
 
         manager.updateResource(ID, "newname", "newhost", "4321");
-        verify(listener).resourceUpdated(resource);
+        verify(listener).resourceUpdated(same(manager.getResourceById(ID)));
+        assertEquals(NAME, resource.getName());
+    }
+
+    @Test
+    public void updatingResourceShouldNotChangeResourceSeenByReaders() {
+        fakeProjectManager.addBuildType(BUILD_TYPE_ID, mock(SBuildType.class));
+        Resource resource = new Resource(ID, NAME, HOST, PORT, 2);
+        manager.addResource(resource);
+
+        manager.updateResource(ID, "newname", "newhost", "4321", "3");
+        manager.linkBuildToResource(ID, BUILD_TYPE_ID);
+
+        assertEquals(NAME, resource.getName());
+        assertEquals(2, resource.getBuildLimit());
+        assertTrue(resource.getBuildTypes().isEmpty());
+        Resource updated = manager.getResourceById(ID);
+        assertNotSame(resource, updated);
+        assertEquals("newname", updated.getName());
+        assertEquals(3, updated.getBuildLimit());
+        assertEquals(Collections.singletonList(BUILD_TYPE_ID), updated.getBuildTypes());
     }
 
     @Test
@@ -533,44 +641,386 @@ public class ResourceManagerTest {
     }
 
     @Test
-    public void buildTypeRegisteredForwardedToResources() {
-        Resource resource1 = spy(new Resource(ID, NAME, HOST, PORT));
+    public void buildTypeRegisteredShouldBeMatchedByAllMatchingResources() {
+        Resource resource1 = new Resource(ID, NAME, HOST, PORT);
+        resource1.addBuildTypeMatcher("Build type.*");
         manager.addResource(resource1);
-        Resource resource2 = spy(new Resource("2", NAME + "2", HOST + "2", PORT));
+        Resource resource2 = new Resource("2", NAME + "2", HOST + "2", PORT);
+        resource2.addBuildTypeMatcher(".*name");
         manager.addResource(resource2);
+        Resource resource3 = new Resource("3", NAME + "3", HOST + "3", PORT);
+        resource3.addBuildTypeMatcher("Other.*");
+        manager.addResource(resource3);
 
-        BuildType buildType = new FakeBuildType("bt1", "Build type name");
-        manager.buildTypeRegistered(buildType);
+        manager.buildTypeRegistered(new FakeBuildType("bt1", "Build type name"));
 
-        verify(resource1).buildTypeRegistered(same(buildType));
-        verify(resource2).buildTypeRegistered(same(buildType));
+        assertEquals(1, manager.getResourceById(ID).getMatchedBuildTypes().size());
+        assertEquals(1, manager.getResourceById("2").getMatchedBuildTypes().size());
+        assertEquals(0, manager.getResourceById("3").getMatchedBuildTypes().size());
+        assertSame(manager.getResourceById(ID), manager.findResourceByBuildTypeId("bt1"));
     }
 
     @Test
-    public void buildTypeUnregisteredForwardedToResources() {
-        Resource resource1 = spy(new Resource(ID, NAME, HOST, PORT));
+    public void buildTypeUnregisteredShouldBeRemovedFromResources() {
+        Resource resource1 = new Resource(ID, NAME, HOST, PORT);
+        resource1.addBuildTypeMatcher("Build type.*");
         manager.addResource(resource1);
-        Resource resource2 = spy(new Resource("2", NAME + "2", HOST + "2", PORT));
-        manager.addResource(resource2);
-
         BuildType buildType = new FakeBuildType("bt1", "Build type name");
+        manager.buildTypeRegistered(buildType);
+
         manager.buildTypeUnregistered(buildType);
 
-        verify(resource1).buildTypeUnregistered(same(buildType));
-        verify(resource2).buildTypeUnregistered(same(buildType));
+        assertEquals(0, manager.getResourceById(ID).getMatchedBuildTypes().size());
+        assertNull(manager.findResourceByBuildTypeId("bt1"));
     }
 
     @Test
-    public void buildTypePersistedForwardedToResources() {
-        Resource resource1 = spy(new Resource(ID, NAME, HOST, PORT));
+    public void renamedBuildTypeShouldMoveToNewlyMatchingResource() {
+        Resource resource1 = new Resource(ID, NAME, HOST, PORT);
+        resource1.addBuildTypeMatcher("Build type.*");
         manager.addResource(resource1);
-        Resource resource2 = spy(new Resource("2", NAME + "2", HOST + "2", PORT));
+        Resource resource2 = new Resource("2", NAME + "2", HOST + "2", PORT);
+        resource2.addBuildTypeMatcher("Renamed.*");
         manager.addResource(resource2);
+        manager.buildTypeRegistered(new FakeBuildType("bt1", "Build type name"));
+
+        manager.buildTypePersisted(new FakeBuildType("bt1", "Renamed build type"));
 
+        assertEquals(0, manager.getResourceById(ID).getMatchedBuildTypes().size());
+        assertEquals(1, manager.getResourceById("2").getMatchedBuildTypes().size());
+        assertSame(manager.getResourceById("2"), manager.findResourceByBuildTypeId("bt1"));
+    }
+
+    @Test
+    public void persistingBuildTypeTwiceShouldNotDuplicateMatch() {
+        Resource resource1 = new Resource(ID, NAME, HOST, PORT);
+        resource1.addBuildTypeMatcher("Build type.*");
+        manager.addResource(resource1);
         BuildType buildType = new FakeBuildType("bt1", "Build type name");
+
         manager.buildTypePersisted(buildType);
+        manager.buildTypePersisted(buildType);
+
+        assertEquals(1, manager.getResourceById(ID).getMatchedBuildTypes().size());
+    }
+
+    @Test
+    public void commitShouldLinkManyBuildTypes() {
+        List<String> buildTypeIds = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            String buildTypeId = "bt" + i;
+            fakeProjectManager.addBuildType(buildTypeId, mock(SBuildType.class));
+            buildTypeIds.add(buildTypeId);
+        }
+        manager.addResource(new Resource(ID, NAME, HOST, PORT));
+
+        ResourceTransaction transaction = new ResourceTransaction();
+        for (String buildTypeId : buildTypeIds) {
+            transaction.linkBuildToResource(ID, buildTypeId);
+        }
+        manager.commit(transaction);
+
+        Resource resource = manager.getResourceById(ID);
+        assertEquals(buildTypeIds, resource.getBuildTypes());
+        assertSame(resource, manager.findResourceByBuildTypeId("bt199"));
+    }
+
+    @Test
+    public void commitShouldApplyAllOperationTypes() {
+        fakeProjectManager.addBuildType(BUILD_TYPE_ID, mock(SBuildType.class));
+        Resource resource1 = new Resource(ID, NAME + "1", HOST, PORT);
+        resource1.addBuildType(BUILD_TYPE_ID);
+        manager.addResource(resource1);
+        manager.addResource(new Resource("2", NAME + "2", HOST, PORT + 1));
+
+        ResourceTransaction transaction = new ResourceTransaction();
+        transaction.addResource(NAME + "3", HOST, "" + (PORT + 2), "2");
+        transaction.updateResource(ID, "new name", "newhost", "4321", "5");
+        transaction.removeResource("2");
+        transaction.unlinkBuildFromResource(ID, BUILD_TYPE_ID);
+        transaction.linkBuildToResource("3", BUILD_TYPE_ID);
+        ResourceChanges changes = manager.commit(transaction);
+
+        assertEquals(2, manager.getResources().size());
+        Resource updated = manager.getResourceById(ID);
+        assertEquals("new name", updated.getName());
+        assertEquals(5, updated.getBuildLimit());
+        assertEquals(0, updated.getBuildTypes().size());
+        assertNull(manager.getResourceById("2"));
+        Resource resource3 = manager.getResourceById("3");
+        assertEquals(NAME + "3", resource3.getName());
+        assertSame(resource3, manager.findResourceByBuildTypeId(BUILD_TYPE_ID));
+
+        assertEquals(1, changes.getAdded().size());
+        assertEquals(1, changes.getUpdated().size());
+        assertEquals(1, changes.getRemoved().size());
+    }
+
+    @Test
+    public void commitShouldNotChangeResourceSeenByReaders() {
+        fakeProjectManager.addBuildType(BUILD_TYPE_ID, mock(SBuildType.class));
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        manager.addResource(resource);
+        Resource published = manager.getResourceById(ID);
+
+        ResourceTransaction transaction = new ResourceTransaction();
+        transaction.updateResource(ID, "new name", HOST, "" + PORT, "3");
+        transaction.linkBuildToResource(ID, BUILD_TYPE_ID);
+        manager.commit(transaction);
+
+        assertEquals(NAME, published.getName());
+        assertEquals(0, published.getBuildLimit());
+        assertEquals(0, published.getBuildTypes().size());
+        Resource updated = manager.getResourceById(ID);
+        assertNotSame(published, updated);
+        assertEquals("new name", updated.getName());
+        assertSame(updated, manager.findResourceByBuildTypeId(BUILD_TYPE_ID));
+    }
+
+    @Test
+    public void commitWithoutChangesShouldKeepExistingResource() {
+        manager.addResource(new Resource(ID, NAME, HOST, PORT));
+        Resource published = manager.getResourceById(ID);
+
+        ResourceTransaction transaction = new ResourceTransaction();
+        transaction.updateResource(ID, NAME, HOST, "" + PORT, "0");
+        ResourceChanges changes = manager.commit(transaction);
+
+        assertSame(published, manager.getResourceById(ID));
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void failedCommitShouldNotChangeResources() {
+        fakeProjectManager.addBuildType(BUILD_TYPE_ID, mock(SBuildType.class));
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        manager.addResource(resource);
+
+        ResourceTransaction transaction = new ResourceTransaction();
+        transaction.updateResource(ID, "new name", HOST, "" + PORT, "1");
+        transaction.linkBuildToResource(ID, BUILD_TYPE_ID);
+        transaction.linkBuildToResource(ID, INVALID_BUILD_TYPE_ID);
+        try {
+            manager.commit(transaction);
+            fail("commit should fail for invalid build type");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(NAME, resource.getName());
+        assertEquals(0, resource.getBuildLimit());
+        assertEquals(0, resource.getBuildTypes().size());
+        assertNull(manager.findResourceByBuildTypeId(BUILD_TYPE_ID));
+    }
+
+    @Test
+    public void commitShouldRejectDuplicateNamesWithinTransaction() {
+        ResourceTransaction transaction = new ResourceTransaction();
+        transaction.addResource(NAME, HOST, "" + PORT, "0");
+        transaction.addResource(NAME, HOST, "" + (PORT + 1), "0");
+
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("resource with name " + NAME + " already exists");
+        manager.commit(transaction);
+    }
+
+    @Test
+    public void commitShouldRejectInvalidPort() {
+        ResourceTransaction transaction = new ResourceTransaction();
+        transaction.addResource(NAME, HOST, "invalid", "0");
+
+        thrown.expect(InvalidPortException.class);
+        manager.commit(transaction);
+    }
+
+    @Test
+    public void commitShouldNotifyListenersOnce() {
+        ResourceManagerListener listener = mock(ResourceManagerListener.class);
+        manager.addListener(listener);
+
+        ResourceTransaction transaction = new ResourceTransaction();
+        transaction.addResource(NAME + "1", HOST, "" + PORT, "0");
+        transaction.addResource(NAME + "2", HOST, "" + (PORT + 1), "0");
+        manager.commit(transaction);
+
+        verify(listener, times(1)).resourcesChanged(any(ResourceChanges.class));
+        verify(listener, never()).resourceAdded(any(Resource.class));
+    }
+
+    @Test
+    public void emptyCommitShouldNotNotifyListeners() {
+        ResourceManagerListener listener = mock(ResourceManagerListener.class);
+        manager.addListener(listener);
+
+        manager.commit(new ResourceTransaction());
+
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void reloadingUnchangedResourceShouldKeepExistingResource() {
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        resource.addBuildTypeMatcher(".*test.*");
+        manager.addResource(resource);
+        BuildType buildType = new FakeBuildType("bt1", "Build type test");
+        fakeProjectManager.addBuildType("bt1", buildType);
+        manager.buildTypeRegistered(buildType);
+        Resource registered = manager.getResourceById(ID);
+        ResourceManagerListener listener = mock(ResourceManagerListener.class);
+        manager.addListener(listener);
+
+        Resource reloaded = new Resource(ID, NAME, HOST, PORT);
+        reloaded.addBuildTypeMatcher(".*test.*");
+        Collection<Resource> newResources = new ArrayList<Resource>();
+        newResources.add(reloaded);
+        manager.setResources(newResources);
+
+        assertSame(registered, manager.getResourceById(ID));
+        assertEquals(1, registered.getMatchedBuildTypes().size());
+        assertSame(registered, manager.findResourceByBuildTypeId("bt1"));
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void reloadingChangedResourceShouldPublishUpdatedCopy() {
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        manager.addResource(resource);
+        ResourceManagerListener listener = mock(ResourceManagerListener.class);
+        manager.addListener(listener);
+
+        Collection<Resource> newResources = new ArrayList<Resource>();
+        newResources.add(new Resource(ID, "new name", HOST, PORT, 3));
+        manager.setResources(newResources);
+
+        Resource updated = manager.getResourceById(ID);
+        assertEquals("new name", updated.getName());
+        assertEquals(3, updated.getBuildLimit());
+        assertEquals(NAME, resource.getName());
+        assertEquals(0, resource.getBuildLimit());
+        verify(listener).resourceUpdated(same(updated));
+        verify(listener, never()).resourceAdded(any(Resource.class));
+        verify(listener, never()).resourceRemoved(any(Resource.class));
+    }
+
+    @Test
+    public void reloadingChangedBuildTypeWeightShouldPublishUpdatedCopy() {
+        fakeProjectManager.addBuildType("bt1", new FakeBuildType("bt1", "Build type"));
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        resource.addBuildType("bt1");
+        manager.addResource(resource);
+        ResourceManagerListener listener = mock(ResourceManagerListener.class);
+        manager.addListener(listener);
+
+        Resource reloaded = new Resource(ID, NAME, HOST, PORT);
+        reloaded.addBuildType("bt1");
+        reloaded.setBuildTypeWeight("bt1", 5);
+        Collection<Resource> newResources = new ArrayList<Resource>();
+        newResources.add(reloaded);
+        manager.setResources(newResources);
+
+        Resource updated = manager.getResourceById(ID);
+        assertEquals(5, updated.getBuildTypeWeight("bt1"));
+        assertEquals(Resource.DEFAULT_WEIGHT, resource.getBuildTypeWeight("bt1"));
+        verify(listener).resourceUpdated(same(updated));
+    }
+
+    @Test
+    public void reloadingShouldMatchExistingBuildTypesMissedByEvents() {
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        resource.addBuildTypeMatcher(".*test.*");
+        manager.addResource(resource);
+        fakeProjectManager.addBuildType("bt1", new FakeBuildType("bt1", "Build type test"));
+
+        Resource reloaded = new Resource(ID, NAME, HOST, PORT);
+        reloaded.addBuildTypeMatcher(".*test.*");
+        manager.setResources(Collections.singletonList(reloaded));
+
+        assertEquals(1, manager.getResourceById(ID).getMatchedBuildTypes().size());
+        assertSame(manager.getResourceById(ID), manager.findResourceByBuildTypeId("bt1"));
+    }
+
+    @Test
+    public void matchAllBuildTypesShouldMatchCatalogueAfterMatcherChange() {
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        resource.addBuildTypeMatcher("Build.*");
+        manager.addResource(resource);
+        fakeProjectManager.addBuildType("bt1", new FakeBuildType("bt1", "Build type one"));
+        fakeProjectManager.addBuildType("bt2", new FakeBuildType("bt2", "Deploy two"));
+        manager.matchAllBuildTypes();
+        assertEquals(Arrays.asList("bt1"), manager.getResourceById(ID).getMatchedBuildTypes());
+
+        Resource reloaded = new Resource(ID, NAME, HOST, PORT);
+        reloaded.addBuildTypeMatcher("Deploy.*");
+        manager.setResources(Collections.singletonList(reloaded));
+
+        assertEquals(Arrays.asList("bt2"), manager.getResourceById(ID).getMatchedBuildTypes());
+        assertNull(manager.findResourceByBuildTypeId("bt1"));
+        assertSame(manager.getResourceById(ID), manager.findResourceByBuildTypeId("bt2"));
+    }
+
+    @Test
+    public void reloadingShouldNotifyAddedAndRemovedResources() {
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        manager.addResource(resource);
+        ResourceManagerListener listener = mock(ResourceManagerListener.class);
+        manager.addListener(listener);
+
+        Resource newResource = new Resource("2", NAME + "2", HOST, PORT + 1);
+        Collection<Resource> newResources = new ArrayList<Resource>();
+        newResources.add(newResource);
+        manager.setResources(newResources);
+
+        verify(listener).resourceAdded(same(newResource));
+        verify(listener).resourceRemoved(same(resource));
+        assertNull(manager.getResourceById(ID));
+    }
+
+    @Test
+    public void reloadingChangedMatchersShouldRematchBuildTypes() {
+        fakeProjectManager.addBuildType("bt1", new FakeBuildType("bt1", "Build type test"));
+        fakeProjectManager.addBuildType("bt2", new FakeBuildType("bt2", "Build type other"));
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        resource.addBuildTypeMatcher(".*test.*");
+        manager.addResource(resource);
+        manager.buildTypeRegistered(new FakeBuildType("bt1", "Build type test"));
+
+        Resource reloaded = new Resource(ID, NAME, HOST, PORT);
+        reloaded.addBuildTypeMatcher(".*other.*");
+        Collection<Resource> newResources = new ArrayList<Resource>();
+        newResources.add(reloaded);
+        manager.setResources(newResources);
+
+        resource = manager.getResourceById(ID);
+        assertEquals(1, resource.getMatchedBuildTypes().size());
+        assertEquals("bt2", resource.getMatchedBuildTypes().get(0));
+        assertNull(manager.findResourceByBuildTypeId("bt1"));
+        assertSame(resource, manager.findResourceByBuildTypeId("bt2"));
+    }
+
+    @Test
+    public void buildTypeRegisteredInSubprojectShouldMatchProjectMatcher() {
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        resource.addProjectMatcher("project1");
+        manager.addResource(resource);
+
+        manager.buildTypeRegistered(new FakeBuildType("bt1", "Build", Arrays.asList("_Root", "project1", "project2")));
+
+        assertSame(manager.getResourceById(ID), manager.findResourceByBuildTypeId("bt1"));
+    }
+
+    @Test
+    public void reloadingChangedProjectMatcherShouldUpdateExistingResource() {
+        Resource resource = new Resource(ID, NAME, HOST, PORT);
+        resource.addProjectMatcher("project1");
+        manager.addResource(resource);
+        fakeProjectManager.addBuildType("bt1", new FakeBuildType("bt1", "Build", Arrays.asList("_Root", "project2")));
+
+        Resource reloaded = new Resource(ID, NAME, HOST, PORT);
+        reloaded.addProjectMatcher("project2");
+        manager.setResources(Collections.singletonList(reloaded));
 
-        verify(resource1).buildTypePersisted(same(buildType));
-        verify(resource2).buildTypePersisted(same(buildType));
+        resource = manager.getResourceById(ID);
+        assertEquals(Collections.singletonList("project2"), resource.getProjectMatchers());
+        assertSame(resource, manager.findResourceByBuildTypeId("bt1"));
     }
 }
@@ -1,14 +1,24 @@
 package teamcity.resource;
 
 import jetbrains.buildServer.serverSide.SBuildType;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
 import static org.mockito.Mockito.mock;
 
@@ -152,4 +162,352 @@ public class ResourceMonitorConfigProcessorTest {
         assertEquals(1, resource.getMatchers().size());
         assertEquals("build type pattern", resource.getMatchers().get(0).pattern());
     }
+
+    @Test
+    public void shouldWriteOutPoolMembers() throws Exception {
+        Resource resource = new Resource("1", "Resource1", "localhost", 1000);
+        resource.addMember(new PoolMember("host1", 1001, 2));
+        resource.addMember(new PoolMember("host2", 1002, 0));
+        manager.addResource(resource);
+
+        StringWriter writer = new StringWriter();
+        configProcessor.writeTo(writer);
+
+        assertXpathEvaluatesTo("2", "count(//resource/member)", writer.toString());
+        assertXpathEvaluatesTo("host1", "//resource/member[1]/@host", writer.toString());
+        assertXpathEvaluatesTo("1001", "//resource/member[1]/@port", writer.toString());
+        assertXpathEvaluatesTo("2", "//resource/member[1]/@build-limit", writer.toString());
+    }
+
+    @Test
+    public void shouldReadResourceWithPoolMembers() throws Exception {
+        String config = "<monitored-resources check-interval=\"25\">" +
+                "    <resource id=\"123\" name=\"Resource\" host=\"localhost\" port=\"1234\">" +
+                "        <member host=\"host1\" port=\"1001\" build-limit=\"2\"/>" +
+                "        <member host=\"host2\" port=\"1002\"/>" +
+                "    </resource>" +
+                "</monitored-resources>";
+        Reader reader = new StringReader(config);
+        configProcessor.readFrom(reader);
+
+        Resource resource = manager.getResourceById("123");
+        assertTrue(resource.isPool());
+        assertEquals(2, resource.getMembers().size());
+        assertEquals(new PoolMember("host1", 1001, 2), resource.getMembers().get(0));
+        assertEquals(new PoolMember("host2", 1002, 0), resource.getMembers().get(1));
+    }
+
+    @Test
+    public void shouldWriteOutBuildTypeWeight() throws Exception {
+        Resource resource = new Resource("1", "Resource1", "localhost", 1000);
+        resource.addBuildType("bt1");
+        resource.addBuildType("bt2");
+        resource.setBuildTypeWeight("bt2", 3);
+        manager.addResource(resource);
+
+        StringWriter writer = new StringWriter();
+        configProcessor.writeTo(writer);
+
+        assertXpathEvaluatesTo("", "//resource/build-type[1]/@weight", writer.toString());
+        assertXpathEvaluatesTo("3", "//resource/build-type[2]/@weight", writer.toString());
+    }
+
+    @Test
+    public void shouldReadBuildTypeWeight() throws Exception {
+        String config = "<monitored-resources check-interval=\"25\">" +
+                "    <resource id=\"123\" name=\"Resource\" host=\"localhost\" port=\"1234\" build-limit=\"10\">" +
+                "        <build-type id=\"bt1\" weight=\"4\"/>" +
+                "        <build-type id=\"bt2\" weight=\"invalid\"/>" +
+                "    </resource>" +
+                "</monitored-resources>";
+        Reader reader = new StringReader(config);
+        configProcessor.readFrom(reader);
+
+        Resource resource = manager.getResourceById("123");
+        assertEquals(4, resource.getBuildTypeWeight("bt1"));
+        assertEquals(1, resource.getBuildTypeWeight("bt2"));
+    }
+
+    @Test
+    public void shouldWriteOutAndReadStartRate() throws Exception {
+        Resource resource = new Resource("1", "Resource1", "localhost", 1000);
+        resource.setStartRate(20);
+        manager.addResource(resource);
+        manager.addResource(new Resource("2", "Resource2", "localhost", 1001));
+
+        StringWriter writer = new StringWriter();
+        configProcessor.writeTo(writer);
+
+        assertXpathEvaluatesTo("20", "//resource[@id='1']/@start-rate", writer.toString());
+        assertXpathEvaluatesTo("", "//resource[@id='2']/@start-rate", writer.toString());
+
+        resource.setStartRate(0);
+        configProcessor.readFrom(new StringReader(writer.toString()));
+        assertEquals(20, manager.getResourceById("1").getStartRate());
+    }
+
+    @Test
+    public void shouldWriteOutAndReadRampUp() throws Exception {
+        Resource resource = new Resource("1", "Resource1", "localhost", 1000, 4);
+        resource.setRampUp(120);
+        manager.addResource(resource);
+        manager.addResource(new Resource("2", "Resource2", "localhost", 1001));
+
+        StringWriter writer = new StringWriter();
+        configProcessor.writeTo(writer);
+
+        assertXpathEvaluatesTo("120", "//resource[@id='1']/@ramp-up", writer.toString());
+        assertXpathEvaluatesTo("", "//resource[@id='2']/@ramp-up", writer.toString());
+
+        resource.setRampUp(0);
+        configProcessor.readFrom(new StringReader(writer.toString()));
+        assertEquals(120, manager.getResourceById("1").getRampUp());
+    }
+
+    @Test
+    public void shouldWriteOutAndReadShadow() throws Exception {
+        Resource resource = new Resource("1", "Resource1", "localhost", 1000, 4);
+        resource.setShadow(true);
+        manager.addResource(resource);
+        manager.addResource(new Resource("2", "Resource2", "localhost", 1001));
+
+        StringWriter writer = new StringWriter();
+        configProcessor.writeTo(writer);
+
+        assertXpathEvaluatesTo("true", "//resource[@id='1']/@shadow", writer.toString());
+        assertXpathEvaluatesTo("", "//resource[@id='2']/@shadow", writer.toString());
+
+        resource.setShadow(false);
+        configProcessor.readFrom(new StringReader(writer.toString()));
+        assertTrue(manager.getResourceById("1").isShadow());
+        assertFalse(manager.getResourceById("2").isShadow());
+    }
+
+    @Test
+    public void shouldWriteOutAgentLimits() throws Exception {
+        Resource resource = new Resource("1", "Resource1", "localhost", 1000, 6);
+        resource.addAgentLimit(AgentLimit.forPool(2, 2));
+        resource.addAgentLimit(AgentLimit.forAgents("cloud-.*", 3));
+        manager.addResource(resource);
+
+        StringWriter writer = new StringWriter();
+        configProcessor.writeTo(writer);
+
+        assertXpathEvaluatesTo("2", "//resource/agent-limit[1]/@pool", writer.toString());
+        assertXpathEvaluatesTo("2", "//resource/agent-limit[1]/@build-limit", writer.toString());
+        assertXpathEvaluatesTo("cloud-.*", "//resource/agent-limit[2]/@agent", writer.toString());
+        assertXpathEvaluatesTo("3", "//resource/agent-limit[2]/@build-limit", writer.toString());
+    }
+
+    @Test
+    public void shouldReadAgentLimitsAndSkipInvalidOnes() throws Exception {
+        String config = "<monitored-resources check-interval=\"25\">" +
+                "    <resource id=\"123\" name=\"Resource\" host=\"localhost\" port=\"1234\" build-limit=\"6\">" +
+                "        <agent-limit pool=\"2\" build-limit=\"2\"/>" +
+                "        <agent-limit agent=\"cloud-.*\" build-limit=\"3\"/>" +
+                "        <agent-limit pool=\"invalid\" build-limit=\"1\"/>" +
+                "        <agent-limit build-limit=\"1\"/>" +
+                "    </resource>" +
+                "</monitored-resources>";
+        ResourceConfigReport report = configProcessor.readFrom(new StringReader(config));
+
+        Resource resource = manager.getResourceById("123");
+        assertEquals(Arrays.asList(AgentLimit.forPool(2, 2), AgentLimit.forAgents("cloud-.*", 3)), resource.getAgentLimits());
+        assertEquals(2, report.getErrors().size());
+        assertTrue(report.getErrors().get(1), report.getErrors().get(1).contains("agent limit needs a pool or an agent"));
+    }
+
+    @Test
+    public void shouldWriteOutBuildTypePriority() throws Exception {
+        Resource resource = new Resource("1", "Resource1", "localhost", 1000);
+        resource.addBuildType("bt1");
+        resource.addBuildType("bt2");
+        resource.setBuildTypePriority("bt2", 5);
+        manager.addResource(resource);
+
+        StringWriter writer = new StringWriter();
+        configProcessor.writeTo(writer);
+
+        assertXpathEvaluatesTo("", "//resource/build-type[1]/@priority", writer.toString());
+        assertXpathEvaluatesTo("5", "//resource/build-type[2]/@priority", writer.toString());
+    }
+
+    @Test
+    public void shouldReadBuildTypePriority() throws Exception {
+        String config = "<monitored-resources check-interval=\"25\">" +
+                "    <resource id=\"123\" name=\"Resource\" host=\"localhost\" port=\"1234\" build-limit=\"10\">" +
+                "        <build-type id=\"bt1\" priority=\"2\"/>" +
+                "        <build-type id=\"bt2\" priority=\"0\"/>" +
+                "    </resource>" +
+                "</monitored-resources>";
+        Reader reader = new StringReader(config);
+        configProcessor.readFrom(reader);
+
+        Resource resource = manager.getResourceById("123");
+        assertEquals(2, resource.getBuildTypePriority("bt1"));
+        assertEquals(1, resource.getBuildTypePriority("bt2"));
+    }
+
+    @Test
+    public void shouldWriteOutProjectAndParameterMatchers() throws Exception {
+        Resource resource = new Resource("1", "Resource1", "localhost", 1000);
+        resource.addProjectMatcher("project1");
+        resource.addParameterMatcher("env.DB", "oracle");
+        manager.addResource(resource);
+
+        StringWriter writer = new StringWriter();
+        configProcessor.writeTo(writer);
+
+        assertXpathEvaluatesTo("project1", "//resource/matcher[1]/@project", writer.toString());
+        assertXpathEvaluatesTo("env.DB", "//resource/matcher[2]/@parameter", writer.toString());
+        assertXpathEvaluatesTo("oracle", "//resource/matcher[2]/@value", writer.toString());
+    }
+
+    @Test
+    public void shouldReadProjectAndParameterMatchers() throws Exception {
+        String config = "<monitored-resources check-interval=\"25\">" +
+                "    <resource id=\"123\" name=\"Resource\" host=\"localhost\" port=\"1234\">" +
+                "        <matcher project=\"project1\"/>" +
+                "        <matcher parameter=\"env.DB\" value=\"oracle\"/>" +
+                "    </resource>" +
+                "</monitored-resources>";
+        Reader reader = new StringReader(config);
+        configProcessor.readFrom(reader);
+
+        Resource resource = manager.getResourceById("123");
+        assertEquals(1, resource.getProjectMatchers().size());
+        assertEquals("project1", resource.getProjectMatchers().get(0));
+        assertEquals(new ParameterMatcher("env.DB", "oracle"), resource.getParameterMatchers().get(0));
+    }
+
+    @Test
+    public void shouldSkipInvalidResourcesAndReportThem() throws Exception {
+        String config = "<monitored-resources check-interval=\"25\">\n" +
+                "    <resource id=\"1\" name=\"Resource1\" host=\"localhost\" port=\"1001\"/>\n" +
+                "    <resource id=\"2\" name=\"Resource2\" host=\"localhost\" port=\"port\">\n" +
+                "        <build-type id=\"bt2\"/>\n" +
+                "    </resource>\n" +
+                "    <resource id=\"3\" host=\"localhost\" port=\"1003\"/>\n" +
+                "    <resource id=\"1\" name=\"Resource4\" host=\"localhost\" port=\"1004\"/>\n" +
+                "    <resource id=\"5\" name=\"Resource5\" host=\"localhost\" port=\"1005\"/>\n" +
+                "</monitored-resources>";
+
+        ResourceConfigReport report = configProcessor.readFrom(new StringReader(config));
+
+        assertEquals(2, manager.getResources().size());
+        assertEquals("Resource1", manager.getResourceById("1").getName());
+        assertEquals("Resource5", manager.getResourceById("5").getName());
+        assertEquals(3, report.getErrors().size());
+        assertTrue(report.getErrors().get(0), report.getErrors().get(0).startsWith("line 3: Skipped resource Resource2"));
+        assertTrue(report.getErrors().get(1), report.getErrors().get(1).startsWith("line 6: Skipped resource 3"));
+        assertTrue(report.getErrors().get(2), report.getErrors().get(2).contains("duplicate id 1"));
+    }
+
+    @Test
+    public void shouldSkipInvalidEntriesOfResource() throws Exception {
+        String config = "<monitored-resources check-interval=\"25\">" +
+                "    <resource id=\"123\" name=\"Resource\" host=\"localhost\" port=\"1234\" start-rate=\"fast\">" +
+                "        <build-type id=\"" + BUILD_TYPE_ID + "\" weight=\"0\"/>" +
+                "        <build-type/>" +
+                "        <matcher name=\"[unclosed\"/>" +
+                "        <matcher/>" +
+                "        <member host=\"host1\" port=\"1001\" build-limit=\"2\"/>" +
+                "        <member host=\"host2\" port=\"0\"/>" +
+                "        <agent-limit pool=\"pool\" build-limit=\"1\"/>" +
+                "    </resource>" +
+                "</monitored-resources>";
+
+        ResourceConfigReport report = configProcessor.readFrom(new StringReader(config));
+
+        Resource resource = manager.getResourceById("123");
+        assertEquals(0, resource.getStartRate());
+        assertEquals(Arrays.asList(BUILD_TYPE_ID), resource.getBuildTypes());
+        assertEquals(Resource.DEFAULT_WEIGHT, resource.getBuildTypeWeight(BUILD_TYPE_ID));
+        assertEquals(0, resource.getMatchers().size());
+        assertEquals(1, resource.getMembers().size());
+        assertEquals(0, resource.getAgentLimits().size());
+        assertEquals(7, report.getErrors().size());
+    }
+
+    @Test
+    public void shouldKeepResourcesWhenConfigIsMalformed() throws Exception {
+        manager.addResource(new Resource("1", "Resource1", "localhost", 1000));
+        String config = "<monitored-resources check-interval=\"25\">" +
+                "    <resource id=\"2\" name=\"Resource2\" host=\"localhost\" port=\"1001\"/>" +
+                "    <resource id=\"3\"";
+
+        try {
+            configProcessor.readFrom(new StringReader(config));
+            fail("expected a malformed config to fail");
+        }
+        catch (XMLStreamException expected) {
+        }
+
+        assertEquals(1, manager.getResources().size());
+        assertEquals("Resource1", manager.getResourceById("1").getName());
+        assertEquals(30, manager.getInterval());
+    }
+
+    @Test
+    public void reading5000ResourcesWith50000BuildTypesShouldAllocateLessThanJdom() throws Exception {
+        StringBuilder config = new StringBuilder("<monitored-resources check-interval=\"25\">\n");
+        for (int i = 0; i < 5000; i++) {
+            config.append("  <resource id=\"").append(i).append("\" name=\"Resource").append(i)
+                    .append("\" host=\"host").append(i).append("\" port=\"1234\" build-limit=\"4\">\n");
+            for (int j = 0; j < 10; j++) {
+                config.append("    <build-type id=\"bt").append(i).append('_').append(j).append("\" weight=\"2\"/>\n");
+            }
+            config.append("  </resource>\n");
+        }
+        config.append("</monitored-resources>\n");
+        FakeProjectManager projectManager = new FakeProjectManager();
+        SBuildType buildType = mock(SBuildType.class);
+        for (int i = 0; i < 5000; i++) {
+            for (int j = 0; j < 10; j++) {
+                projectManager.addBuildType("bt" + i + "_" + j, buildType);
+            }
+        }
+
+        // warm up both readers so the measured runs do not include class loading and compilation,
+        // the bytes allocated by each reader are compared rather than their running times
+        readWithJdom(config.toString(), new ResourceManager(projectManager));
+        new ResourceMonitorConfigProcessor(new ResourceManager(projectManager)).readFrom(new StringReader(config.toString()));
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long jdomAllocated = threads.getThreadAllocatedBytes(threadId);
+        ResourceManager jdomManager = new ResourceManager(projectManager);
+        readWithJdom(config.toString(), jdomManager);
+        jdomAllocated = threads.getThreadAllocatedBytes(threadId) - jdomAllocated;
+
+        long streamingAllocated = threads.getThreadAllocatedBytes(threadId);
+        ResourceManager streamingManager = new ResourceManager(projectManager);
+        new ResourceMonitorConfigProcessor(streamingManager).readFrom(new StringReader(config.toString()));
+        streamingAllocated = threads.getThreadAllocatedBytes(threadId) - streamingAllocated;
+
+        assertEquals(5000, streamingManager.getResources().size());
+        assertEquals(jdomManager.getResources().size(), streamingManager.getResources().size());
+        assertEquals(10, streamingManager.getResourceById("4999").getBuildTypes().size());
+        assertTrue("streaming allocated " + streamingAllocated + " bytes, JDOM " + jdomAllocated + " bytes",
+                streamingAllocated < jdomAllocated);
+    }
+
+    private void readWithJdom(String config, ResourceManager manager) throws Exception {
+        Element root = new SAXBuilder().build(new StringReader(config)).getRootElement();
+        manager.setInterval(Integer.valueOf(root.getAttributeValue("check-interval")));
+        List<Resource> resources = new ArrayList<Resource>();
+        for (Object o : root.getChildren("resource")) {
+            Element element = (Element) o;
+            Resource resource = new Resource(element.getAttributeValue("id"), element.getAttributeValue("name"),
+                    element.getAttributeValue("host"), Integer.valueOf(element.getAttributeValue("port")));
+            resource.setBuildLimit(Integer.valueOf(element.getAttributeValue("build-limit")));
+            for (Object child : element.getChildren("build-type")) {
+                String buildTypeId = ((Element) child).getAttributeValue("id");
+                resource.addBuildType(buildTypeId);
+                resource.setBuildTypeWeight(buildTypeId, Integer.valueOf(((Element) child).getAttributeValue("weight")));
+            }
+            resources.add(resource);
+        }
+        manager.setResources(resources);
+    }
 }
@@ -9,6 +9,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 public class ResourceMonitorTest {
@@ -180,4 +181,84 @@ public class ResourceMonitorTest {
         verify(executorService).scheduleAtFixedRate(same(monitor), eq(initialDelay), eq((long) newCheckInterval), eq(TimeUnit.SECONDS));
         verify(future).cancel(eq(false));
     }
+
+    @Test
+    public void shouldKeepScheduleWhenIntervalIsUnchanged() {
+        manager.setInterval(123);
+
+        ScheduledExecutorService executorService = mock(ScheduledExecutorService.class);
+        when(server.getExecutor()).thenReturn(executorService);
+        ScheduledFuture future = mock(ScheduledFuture.class);
+        when(executorService.scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class))).thenReturn(future);
+
+        ResourceMonitor monitor = new ResourceMonitor(server, manager, null);
+        monitor.scheduleMonitor();
+        monitor.scheduleMonitor();
+
+        verify(executorService, times(1)).scheduleAtFixedRate(same(monitor), anyLong(), anyLong(), any(TimeUnit.class));
+        verify(future, never()).cancel(anyBoolean());
+    }
+
+    @Test
+    public void monitorShouldCheckEachPoolMember() {
+        PoolMember member1 = new PoolMember("host1", 1234, 0);
+        PoolMember member2 = new PoolMember("host2", 1234, 0);
+        resource.addMember(member1);
+        resource.addMember(member2);
+        AvailabilityChecker checker = mock(AvailabilityChecker.class);
+        when(checker.isAvailable(member1)).thenReturn(UNAVAILABLE);
+        when(checker.isAvailable(member2)).thenReturn(AVAILABLE);
+
+        ResourceMonitor monitor = new ResourceMonitor(server, manager, checker);
+        PoolMemberListener memberListener = mock(PoolMemberListener.class);
+        ResourceMonitorListener listener = mock(ResourceMonitorListener.class);
+        monitor.addPoolMemberListener(memberListener);
+        monitor.addListener(listener);
+        monitor.run();
+
+        verify(checker, never()).isAvailable(resource);
+        verify(memberListener).memberUnavailable(resource, member1);
+        verify(listener, never()).resourceUnavailable(resource);
+        assertFalse(monitor.isAvailable(resource, member1));
+        assertTrue(monitor.isAvailable(resource, member2));
+    }
+
+    @Test
+    public void poolShouldBeUnavailableWhenAllMembersAreUnavailable() {
+        PoolMember member = new PoolMember("host1", 1234, 0);
+        resource.addMember(member);
+        AvailabilityChecker checker = mock(AvailabilityChecker.class);
+        when(checker.isAvailable(member)).thenReturn(UNAVAILABLE, AVAILABLE);
+
+        ResourceMonitor monitor = new ResourceMonitor(server, manager, checker);
+        PoolMemberListener memberListener = mock(PoolMemberListener.class);
+        ResourceMonitorListener listener = mock(ResourceMonitorListener.class);
+        monitor.addPoolMemberListener(memberListener);
+        monitor.addListener(listener);
+        monitor.run();
+        monitor.run();
+
+        verify(listener).resourceUnavailable(resource);
+        verify(listener).resourceAvailable(resource);
+        verify(memberListener).memberAvailable(resource, member);
+    }
+
+    @Test
+    public void removingResourceShouldForgetItsState() {
+        PoolMember member = new PoolMember("host1", 1234, 0);
+        resource.addMember(member);
+        AvailabilityChecker checker = mock(AvailabilityChecker.class);
+        when(checker.isAvailable(member)).thenReturn(UNAVAILABLE);
+
+        ResourceMonitor monitor = new ResourceMonitor(server, manager, checker);
+        monitor.run();
+        monitor.disableResource(resource);
+        ResourceTransaction transaction = new ResourceTransaction();
+        transaction.removeResource(resource.getId());
+        manager.commit(transaction);
+
+        assertTrue(monitor.isAvailable(resource));
+        assertTrue(monitor.isAvailable(resource, member));
+        assertTrue(monitor.isEnabled(resource));
+    }
 }
@@ -0,0 +1,288 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.BuildAgent;
+import jetbrains.buildServer.parameters.ParametersProvider;
+import jetbrains.buildServer.serverSide.*;
+import jetbrains.buildServer.serverSide.buildDistribution.BuildConfigurationInfo;
+import jetbrains.buildServer.serverSide.buildDistribution.BuildDistributorInput;
+import jetbrains.buildServer.serverSide.buildDistribution.BuildPromotionInfo;
+import jetbrains.buildServer.serverSide.buildDistribution.QueuedBuildInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ResourcePoolAllocatorTest {
+
+    private static final String BUILD_TYPE_ID = "bt1";
+
+    private SBuildServer buildServer;
+    private ResourceManager manager;
+    private ResourceMonitor monitor;
+    private ResourcePoolAllocator allocator;
+
+    private Resource resource;
+    private PoolMember member1;
+    private PoolMember member2;
+
+    @Before
+    public void setup() {
+        buildServer = mock(SBuildServer.class);
+        manager = new ResourceManager(null);
+        monitor = mock(ResourceMonitor.class);
+        allocator = new ResourcePoolAllocator(buildServer, manager, monitor);
+
+        member1 = new PoolMember("host1", 1234, 1);
+        member2 = new PoolMember("host2", 1234, 1);
+        resource = new Resource("1", "pool", "localhost", 1234);
+        resource.addMember(member1);
+        resource.addMember(member2);
+        resource.addBuildType(BUILD_TYPE_ID);
+        manager.addResource(resource);
+    }
+
+    @Test
+    public void shouldRegisterAsListenerAndExtension() {
+        verify(buildServer).addListener(allocator);
+        verify(buildServer).registerExtension(BuildStartContextProcessor.class, ResourcePoolAllocator.class.getName(), allocator);
+        verify(monitor).addPoolMemberListener(allocator);
+    }
+
+    @Test
+    public void shouldPassAllocatedMemberToBuild() {
+        BuildStartContext context = createContext(101);
+
+        allocator.updateParameters(context);
+
+        verify(context).addSharedParameter(ResourcePoolAllocator.HOST_PARAMETER, "host1");
+        verify(context).addSharedParameter(ResourcePoolAllocator.PORT_PARAMETER, "1234");
+        assertEquals(member1, allocator.getMember(resource, 101));
+    }
+
+    @Test
+    public void shouldAllocateLeastLoadedMember() {
+        allocator.updateParameters(createContext(101));
+        BuildStartContext context = createContext(102);
+
+        allocator.updateParameters(context);
+
+        verify(context).addSharedParameter(ResourcePoolAllocator.HOST_PARAMETER, "host2");
+    }
+
+    @Test
+    public void shouldNotPassParametersForResourceWithoutMembers() {
+        Resource other = new Resource("2", "other", "otherhost", 1234);
+        other.addBuildType("bt2");
+        manager.addResource(other);
+        BuildStartContext context = createContext("bt2", 101);
+
+        allocator.updateParameters(context);
+
+        verify(context, never()).addSharedParameter(anyString(), anyString());
+    }
+
+    @Test
+    public void finishedBuildShouldReleaseMember() {
+        BuildStartContext context = createContext(101);
+        allocator.updateParameters(context);
+
+        allocator.buildFinished(context.getBuild());
+
+        assertEquals(0, allocator.getBuildCount(resource, member1));
+        assertNull(allocator.getMember(resource, 101));
+    }
+
+    @Test
+    public void interruptedBuildShouldReleaseMember() {
+        BuildStartContext context = createContext(101);
+        allocator.updateParameters(context);
+
+        allocator.buildInterrupted(context.getBuild());
+
+        assertEquals(0, allocator.getBuildCount(resource, member1));
+    }
+
+    @Test
+    public void unavailableMemberShouldReduceCapacity() {
+        allocator.memberUnavailable(resource, member1);
+
+        assertEquals(1, allocator.getCapacity(resource));
+    }
+
+    @Test
+    public void updatedResourceShouldKeepMemberCounts() {
+        allocator.updateParameters(createContext(101));
+        PoolMember member3 = new PoolMember("host3", 1234, 1);
+        resource.addMember(member3);
+
+        manager.updateResource("1", "pool", "localhost", "1234", "0");
+
+        assertEquals(3, allocator.getCapacity(resource));
+        assertEquals(1, allocator.getBuildCount(resource, member1));
+    }
+
+    @Test
+    public void limitPreconditionShouldWaitWhenPoolIsAtCapacity() {
+        ResourceBuildLimitStartPrecondition precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager, allocator);
+        allocator.updateParameters(createContext(101));
+        allocator.updateParameters(createContext(102));
+
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        assertNotNull(precondition.canStart(createQueuedBuildInfo(103), canBeStarted, mock(BuildDistributorInput.class), false));
+    }
+
+    @Test
+    public void limitPreconditionShouldReserveMemberOfAdmittedBuild() {
+        ResourceBuildLimitStartPrecondition precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager, allocator);
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        BuildDistributorInput input = mock(BuildDistributorInput.class);
+
+        assertNull(precondition.canStart(createQueuedBuildInfo(101), canBeStarted, input, false));
+        assertNull(precondition.canStart(createQueuedBuildInfo(102), canBeStarted, input, false));
+        assertNotNull(precondition.canStart(createQueuedBuildInfo(103), canBeStarted, input, false));
+
+        BuildStartContext context = createContext(102);
+        allocator.updateParameters(context);
+        verify(context).addSharedParameter(ResourcePoolAllocator.HOST_PARAMETER, "host2");
+    }
+
+    @Test
+    public void limitPreconditionShouldCheckFreeUnitsOfEachMember() {
+        Resource heavy = new Resource("2", "heavy", "otherhost", 1234);
+        heavy.addMember(new PoolMember("host3", 1234, 1));
+        heavy.addMember(new PoolMember("host4", 1234, 1));
+        heavy.addBuildType("bt2");
+        heavy.setBuildTypeWeight("bt2", 2);
+        manager.addResource(heavy);
+        ResourceBuildLimitStartPrecondition precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager, allocator);
+
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        assertNotNull(precondition.canStart(createQueuedBuildInfo("bt2", 101), canBeStarted, mock(BuildDistributorInput.class), false));
+    }
+
+    @Test
+    public void emulatedCheckShouldNotReserveMember() {
+        ResourceBuildLimitStartPrecondition precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager, allocator);
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+
+        assertNull(precondition.canStart(createQueuedBuildInfo(101), canBeStarted, mock(BuildDistributorInput.class), true));
+
+        assertNull(allocator.getMember(resource, 101));
+    }
+
+    @Test
+    public void shadowPoolShouldHoldBuildWhenNoMemberHasRoom() {
+        resource.setShadow(true);
+        ResourceBuildLimitStartPrecondition precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager, allocator);
+        allocator.updateParameters(createContext(101));
+        allocator.updateParameters(createContext(102));
+
+        Map<QueuedBuildInfo, BuildAgent> canBeStarted = new HashMap<QueuedBuildInfo, BuildAgent>();
+        assertNotNull(precondition.canStart(createQueuedBuildInfo(103), canBeStarted, mock(BuildDistributorInput.class), false));
+        assertNull(allocator.getMember(resource, 103));
+    }
+
+    @Test
+    public void allocationsDuringPoolUpdatesShouldNotBeLost() throws Exception {
+        Resource unlimited = new Resource("2", "unlimited", "otherhost", 1234);
+        unlimited.addMember(new PoolMember("host3", 1234, 0));
+        unlimited.addMember(new PoolMember("host4", 1234, 0));
+        unlimited.addBuildType("bt2");
+        manager.addResource(unlimited);
+        final Resource pool = manager.getResourceById("2");
+        final int builds = 2000;
+        Thread reserving = new Thread() {
+            public void run() {
+                for (int id = 0; id < builds; id++) {
+                    allocator.reserve(pool, id, 1);
+                }
+            }
+        };
+
+        reserving.start();
+        while (reserving.isAlive()) {
+            allocator.resourceUpdated(pool);
+        }
+        reserving.join();
+
+        for (int id = 0; id < builds; id++) {
+            assertNotNull("build " + id, allocator.getMember(pool, id));
+        }
+        PoolMember host3 = pool.getMembers().get(0);
+        PoolMember host4 = pool.getMembers().get(1);
+        assertEquals(builds, allocator.getBuildCount(pool, host3) + allocator.getBuildCount(pool, host4));
+    }
+
+    @Test
+    public void registeredAgentShouldRestoreMemberOfRunningBuild() {
+        SRunningBuild build = createContext(101).getBuild();
+        ParametersProvider parameters = mock(ParametersProvider.class);
+        when(parameters.get(ResourcePoolAllocator.HOST_PARAMETER)).thenReturn("host2");
+        when(parameters.get(ResourcePoolAllocator.PORT_PARAMETER)).thenReturn("1234");
+        when(build.getParametersProvider()).thenReturn(parameters);
+        SBuildAgent agent = mock(SBuildAgent.class);
+        when(agent.getRunningBuild()).thenReturn(build);
+
+        allocator.agentRegistered(agent, 101);
+
+        assertEquals(member2, allocator.getMember(resource, 101));
+        assertEquals(1, allocator.getBuildCount(resource, member2));
+    }
+
+    @Test
+    public void restoreShouldMatchPortWrittenWithLeadingZero() {
+        SRunningBuild build = createContext(101).getBuild();
+        ParametersProvider parameters = mock(ParametersProvider.class);
+        when(parameters.get(ResourcePoolAllocator.HOST_PARAMETER)).thenReturn("host2");
+        when(parameters.get(ResourcePoolAllocator.PORT_PARAMETER)).thenReturn("01234");
+        when(build.getParametersProvider()).thenReturn(parameters);
+
+        assertTrue(allocator.restore(build));
+        assertEquals(member2, allocator.getMember(resource, 101));
+    }
+
+    @Test
+    public void restoreShouldIgnoreInvalidPort() {
+        SRunningBuild build = createContext(101).getBuild();
+        ParametersProvider parameters = mock(ParametersProvider.class);
+        when(parameters.get(ResourcePoolAllocator.HOST_PARAMETER)).thenReturn("host2");
+        when(parameters.get(ResourcePoolAllocator.PORT_PARAMETER)).thenReturn("port");
+        when(build.getParametersProvider()).thenReturn(parameters);
+
+        assertFalse(allocator.restore(build));
+    }
+
+    private QueuedBuildInfo createQueuedBuildInfo(long buildPromotionId) {
+        return createQueuedBuildInfo(BUILD_TYPE_ID, buildPromotionId);
+    }
+
+    private QueuedBuildInfo createQueuedBuildInfo(String buildTypeId, long buildPromotionId) {
+        QueuedBuildInfo queuedBuildInfo = mock(QueuedBuildInfo.class);
+        BuildConfigurationInfo buildConfigurationInfo = mock(BuildConfigurationInfo.class);
+        when(buildConfigurationInfo.getId()).thenReturn(buildTypeId);
+        when(queuedBuildInfo.getBuildConfiguration()).thenReturn(buildConfigurationInfo);
+        BuildPromotionInfo buildPromotionInfo = mock(BuildPromotionInfo.class);
+        when(buildPromotionInfo.getId()).thenReturn(buildPromotionId);
+        when(queuedBuildInfo.getBuildPromotionInfo()).thenReturn(buildPromotionInfo);
+        return queuedBuildInfo;
+    }
+
+    private BuildStartContext createContext(long buildPromotionId) {
+        return createContext(BUILD_TYPE_ID, buildPromotionId);
+    }
+
+    private BuildStartContext createContext(String buildTypeId, long buildPromotionId) {
+        BuildPromotion buildPromotion = mock(BuildPromotion.class);
+        when(buildPromotion.getId()).thenReturn(buildPromotionId);
+        SRunningBuild build = mock(SRunningBuild.class);
+        when(build.getBuildTypeId()).thenReturn(buildTypeId);
+        when(build.getBuildPromotion()).thenReturn(buildPromotion);
+        BuildStartContext context = mock(BuildStartContext.class);
+        when(context.getBuild()).thenReturn(build);
+        return context;
+    }
+}
@@ -0,0 +1,174 @@
+package teamcity.resource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ResourcePoolTest {
+
+    private PoolMember member1;
+    private PoolMember member2;
+
+    private ResourcePool pool;
+
+    @Before
+    public void setup() {
+        member1 = new PoolMember("host1", 1234, 2);
+        member2 = new PoolMember("host2", 1234, 1);
+        pool = new ResourcePool(Arrays.asList(member1, member2));
+    }
+
+    @Test
+    public void capacityShouldBeSumOfMemberLimits() {
+        assertEquals(3, pool.getCapacity());
+    }
+
+    @Test
+    public void capacityShouldBeUnlimitedIfAnyMemberIsUnlimited() {
+        pool = new ResourcePool(Arrays.asList(member1, new PoolMember("host3", 1234, 0)));
+
+        assertEquals(ResourcePool.UNLIMITED, pool.getCapacity());
+    }
+
+    @Test
+    public void shouldAcquireLeastLoadedMember() {
+        assertEquals(member1, pool.acquire(1));
+        assertEquals(member2, pool.acquire(2));
+        assertEquals(member1, pool.acquire(3));
+        assertEquals(2, pool.getBuildCount(member1));
+        assertEquals(1, pool.getBuildCount(member2));
+    }
+
+    @Test
+    public void shouldNotAcquireMemberWhenAllMembersAreAtLimit() {
+        pool.acquire(1);
+        pool.acquire(2);
+        pool.acquire(3);
+
+        assertNull(pool.acquire(4));
+    }
+
+    @Test
+    public void acquiringTheSameBuildTwiceShouldReturnTheSameMember() {
+        PoolMember member = pool.acquire(1);
+
+        assertEquals(member, pool.acquire(1));
+        assertEquals(1, pool.getBuildCount(member));
+    }
+
+    @Test
+    public void releasingBuildShouldFreeMember() {
+        pool.acquire(1);
+        pool.acquire(2);
+        pool.acquire(3);
+
+        assertEquals(member2, pool.release(2));
+        assertEquals(0, pool.getBuildCount(member2));
+        assertEquals(member2, pool.acquire(4));
+    }
+
+    @Test
+    public void releasingUnknownBuildShouldReturnNull() {
+        assertNull(pool.release(1));
+    }
+
+    @Test
+    public void unavailableMemberShouldNotBeAcquired() {
+        pool.setAvailable(member1, false);
+
+        assertEquals(1, pool.getCapacity());
+        assertEquals(member2, pool.acquire(1));
+        assertNull(pool.acquire(2));
+    }
+
+    @Test
+    public void memberShouldBeAcquiredWhenAvailableAgain() {
+        pool.setAvailable(member1, false);
+        pool.setAvailable(member1, true);
+
+        assertTrue(pool.isAvailable(member1));
+        assertEquals(3, pool.getCapacity());
+        assertEquals(member1, pool.acquire(1));
+    }
+
+    @Test
+    public void rebuiltPoolShouldKeepBuildsOfRetainedMembers() {
+        pool.acquire(1);
+        pool.acquire(2);
+        pool.acquire(3);
+        pool.setAvailable(member2, false);
+
+        PoolMember member3 = new PoolMember("host3", 1234, 1);
+        ResourcePool rebuilt = new ResourcePool(Arrays.asList(member2, member3), pool);
+
+        assertEquals(1, rebuilt.getBuildCount(member2));
+        assertFalse(rebuilt.isAvailable(member2));
+        assertEquals(member2, rebuilt.getMember(2));
+        assertNull(rebuilt.getMember(1));
+        assertEquals(member3, rebuilt.acquire(4));
+    }
+
+    @Test
+    public void memberShouldBeChosenByFreeUnits() {
+        assertEquals(member1, pool.acquire(1, 2));
+
+        assertEquals(2, pool.getUnits(member1));
+        assertEquals(member2, pool.acquire(2));
+        assertNull(pool.acquire(3));
+    }
+
+    @Test
+    public void heavyBuildShouldNotFitMemberWithFewerFreeUnits() {
+        pool.acquire(1);
+
+        assertFalse(pool.hasRoom(2, 2, 0));
+        assertNull(pool.acquire(2, 2));
+        assertTrue(pool.hasRoom(2, 1, 0));
+    }
+
+    @Test
+    public void reservedMemberShouldBeAcquiredWhenBuildStarts() {
+        assertEquals(member1, pool.reserve(1, 1, 0));
+        assertEquals(member2, pool.reserve(2, 1, 0));
+        assertEquals(member1, pool.reserve(3, 1, 0));
+
+        assertFalse(pool.hasRoom(4, 1, 0));
+        assertEquals(member2, pool.acquire(2));
+        assertEquals(1, pool.getBuildCount(member2));
+    }
+
+    @Test
+    public void reservationOfBuildThatNeverStartsShouldExpire() {
+        pool.reserve(1, 1, 0);
+        pool.reserve(2, 1, 0);
+        pool.reserve(3, 1, 0);
+
+        assertTrue(pool.hasRoom(4, 1, ResourcePool.RESERVATION_TTL));
+        assertNull(pool.getMember(1));
+        assertEquals(0, pool.getBuildCount(member1));
+    }
+
+    @Test
+    public void startedBuildShouldNotExpireWithReservations() {
+        pool.reserve(1, 1, 0);
+        pool.acquire(1);
+
+        pool.hasRoom(2, 1, ResourcePool.RESERVATION_TTL);
+
+        assertEquals(member1, pool.getMember(1));
+    }
+
+    @Test
+    public void restoredBuildShouldCountAgainstItsMember() {
+        assertTrue(pool.restore(1, member2.getHostAndPort(), 1));
+
+        assertEquals(member2, pool.getMember(1));
+        assertEquals(member1, pool.acquire(2));
+        assertEquals(member1, pool.acquire(3));
+        assertNull(pool.acquire(4));
+        assertFalse(pool.restore(5, "unknown:1234", 1));
+    }
+}
@@ -0,0 +1,107 @@
+package teamcity.resource;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ResourceRegistryTest {
+
+    @Test
+    public void emptyRegistryAllocatesFirstId() {
+        assertEquals(1, ResourceRegistry.EMPTY.nextId());
+        assertEquals(0, ResourceRegistry.EMPTY.getResources().size());
+    }
+
+    @Test
+    public void shouldIndexResourcesByIdNameAndHostAndPort() {
+        Resource resource = new Resource("1", "test", "localhost", 1234);
+        ResourceRegistry registry = ResourceRegistry.EMPTY.withResource(resource);
+
+        assertSame(resource, registry.getResourceById("1"));
+        assertTrue(registry.containsId("1"));
+        assertTrue(registry.containsName("test"));
+        assertTrue(registry.containsHostAndPort("localhost:1234"));
+        assertFalse(registry.containsHostAndPort("localhost:1235"));
+    }
+
+    @Test
+    public void shouldIndexLinkedAndMatchedBuildTypes() {
+        Resource resource = new Resource("1", "test", "localhost", 1234);
+        resource.addBuildType("bt1");
+        resource.addBuildTypeMatcher(".*test.*");
+        resource.addMatchedBuildType("bt2");
+
+        ResourceRegistry registry = ResourceRegistry.EMPTY.withResource(resource);
+
+        assertSame(resource, registry.findResourceByBuildTypeId("bt1"));
+        assertSame(resource, registry.findResourceByBuildTypeId("bt2"));
+        assertNull(registry.findResourceByBuildTypeId("bt3"));
+    }
+
+    @Test
+    public void shouldAllocateIdAfterHighestId() {
+        List<Resource> resources = new ArrayList<Resource>();
+        resources.add(new Resource("7", "test1", "localhost", 1234));
+        resources.add(new Resource("3", "test2", "localhost", 1235));
+
+        ResourceRegistry registry = new ResourceRegistry(resources);
+        assertEquals(8, registry.nextId());
+    }
+
+    @Test
+    public void modifyingRegistryShouldNotChangePreviousSnapshot() {
+        Resource resource1 = new Resource("1", "test1", "localhost", 1234);
+        Resource resource2 = new Resource("2", "test2", "localhost", 1235);
+        ResourceRegistry registry1 = ResourceRegistry.EMPTY.withResource(resource1);
+        ResourceRegistry registry2 = registry1.withResource(resource2);
+        ResourceRegistry registry3 = registry2.withoutResource(resource1);
+
+        assertEquals(1, registry1.getResources().size());
+        assertEquals(2, registry2.getResources().size());
+        assertEquals(1, registry3.getResources().size());
+        assertNull(registry3.getResourceById("1"));
+        assertSame(resource1, registry2.getResourceById("1"));
+    }
+
+    @Test
+    public void replacingResourceShouldNotChangePreviousSnapshot() {
+        Resource resource = new Resource("1", "test", "localhost", 1234);
+        ResourceRegistry registry = ResourceRegistry.EMPTY.withResource(resource);
+        Resource copy = resource.copy();
+        copy.setName("renamed");
+        copy.addBuildType("bt1");
+
+        ResourceRegistry replaced = registry.withResources(Collections.singletonList(copy));
+        assertEquals("test", resource.getName());
+        assertTrue(resource.getBuildTypes().isEmpty());
+        assertFalse(registry.containsName("renamed"));
+        assertNull(registry.findResourceByBuildTypeId("bt1"));
+        assertTrue(replaced.containsName("renamed"));
+        assertFalse(replaced.containsName("test"));
+        assertSame(copy, replaced.findResourceByBuildTypeId("bt1"));
+    }
+
+    @Test
+    public void replacingResourceShouldKeepMatcherWithUnchangedMatchers() {
+        Resource resource = new Resource("1", "test", "localhost", 1234);
+        resource.addBuildTypeMatcher("Project :: .*");
+        ResourceRegistry registry = ResourceRegistry.EMPTY.withResource(resource);
+        Resource copy = resource.copy();
+        copy.setBuildLimit(2);
+
+        ResourceRegistry replaced = registry.withResources(Collections.singletonList(copy));
+        assertEquals(Collections.singletonList(copy), replaced.getMatcher().findMatchingResources("Project :: Build"));
+        assertEquals(Collections.singletonList(resource), registry.getMatcher().findMatchingResources("Project :: Build"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void resourcesShouldNotBeModifiable() {
+        Collection<Resource> resources = ResourceRegistry.EMPTY.getResources();
+        resources.add(new Resource("1", "test", "localhost", 1234));
+    }
+}
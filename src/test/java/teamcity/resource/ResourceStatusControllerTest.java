@@ -127,6 +127,20 @@ public class ResourceStatusControllerTest {
         assertXpathEvaluatesTo("false", "//resource[2]/@available", responseMessage.toString());
     }
 
+    @Test
+    public void shouldNotReturnRemovedResource() throws Exception {
+        controller.resourceAvailable(resource1);
+        controller.resourceUnavailable(resource2);
+        ResourceChanges changes = new ResourceChanges();
+        changes.resourceRemoved(resource2);
+        controller.resourcesChanged(changes);
+
+        controller.doHandle(request, response);
+
+        assertXpathEvaluatesTo("1", "count(//resource)", responseMessage.toString());
+        assertXpathEvaluatesTo("123", "//resource/@id", responseMessage.toString());
+    }
+
     @Test
     public void shouldReturnResponseWithOneResourceAfterAvailabilityChange() throws Exception {
         controller.resourceAvailable(resource1);
@@ -172,4 +186,22 @@ public class ResourceStatusControllerTest {
         assertXpathEvaluatesTo("123", "//resource/@id", responseMessage.toString());
         assertXpathEvaluatesTo("3", "//resource/@count", responseMessage.toString());
     }
+
+    @Test
+    public void shouldReturnWaitTimesOfResourcesAndBuildTypes() throws Exception {
+        WaitTimeTracker tracker = new WaitTimeTracker(mock(SBuildServer.class));
+        ResourceStatusController controller = new ResourceStatusController(controllerManager, monitor, precondition, tracker);
+        tracker.blocked(101, "123", "bt1", WaitTimes.Reason.AT_LIMIT, 0);
+        tracker.blocked(102, "123", "bt1", WaitTimes.Reason.AT_LIMIT, 0);
+        tracker.released(101, 45000);
+
+        controller.doHandle(request, response);
+
+        String xml = responseMessage.toString();
+        assertXpathEvaluatesTo("1", "//waits/resource-wait[@id='123']/@blocked", xml);
+        assertXpathEvaluatesTo("1", "//waits/resource-wait[@id='123']/reason[@name='at-limit']/@count", xml);
+        assertXpathEvaluatesTo("45", "//waits/resource-wait[@id='123']/reason[@name='at-limit']/@average", xml);
+        assertXpathEvaluatesTo("1", "//waits/resource-wait[@id='123']/reason[@name='at-limit']/bucket[@le='60']/@count", xml);
+        assertXpathEvaluatesTo("1", "//waits/build-type-wait[@id='bt1']/@blocked", xml);
+    }
 }
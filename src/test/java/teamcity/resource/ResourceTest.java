@@ -4,7 +4,13 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class ResourceTest {
 
@@ -190,97 +196,106 @@ public class ResourceTest {
     }
 
     @Test
-    public void registeredBuildTypeMatched() {
+    public void matchedBuildsExcludedDuplicateLinkedBuilds() {
         Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
+        resource.addBuildType("bt1");
         resource.addBuildTypeMatcher(".*test.*");
+        resource.addMatchedBuildType("bt1");
 
-        BuildType buildType = new FakeBuildType("bt1", "Build type test");
-
-        resource.buildTypeRegistered(buildType);
-        assertEquals(1, resource.getMatchedBuildTypes().size());
-        assertEquals("bt1", resource.getMatchedBuildTypes().get(0));
+        assertEquals(1, resource.getBuildTypes().size());
+        assertEquals(0, resource.getMatchedBuildTypes().size());
+        assertEquals(1, resource.getAllBuildTypes().size());
     }
 
     @Test
-    public void registeredBuildTypeNotMatched() {
+    public void unlinkedBuildRemainsLinkedByMatchingName() {
         Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
+        resource.addBuildType("bt1");
         resource.addBuildTypeMatcher(".*test.*");
+        resource.addMatchedBuildType("bt1");
 
-        BuildType buildType = new FakeBuildType("bt1", "Build type");
-
-        resource.buildTypeRegistered(buildType);
         assertEquals(0, resource.getMatchedBuildTypes().size());
+
+        resource.removeBuildType("bt1");
+        assertEquals(0, resource.getBuildTypes().size());
+        assertEquals(1, resource.getMatchedBuildTypes().size());
+        assertEquals(1, resource.getAllBuildTypes().size());
     }
 
     @Test
-    public void unregisteredBuildTypeMatched() {
+    public void buildTypeWeightDefaultsToOne() {
         Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
-        resource.addBuildTypeMatcher(".*test.*");
+        resource.addBuildType("bt1");
 
-        BuildType buildType = new FakeBuildType("bt1", "Build type test");
-        resource.buildTypeRegistered(buildType);
+        assertEquals(1, resource.getBuildTypeWeight("bt1"));
+    }
 
-        resource.buildTypeUnregistered(buildType);
-        assertEquals(0, resource.getMatchedBuildTypes().size());
+    @Test
+    public void buildTypeWeightCannotBeLessThanOne() {
+        Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
+
+        thrown.expect(InvalidWeightException.class);
+        thrown.expectMessage("invalid weight");
+        resource.setBuildTypeWeight("bt1", 0);
     }
 
     @Test
-    public void persistedBuildTypeMatched() {
+    public void removingBuildTypeRemovesItsWeight() {
         Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
-        resource.addBuildTypeMatcher(".*test.*");
+        resource.addBuildType("bt1");
+        resource.setBuildTypeWeight("bt1", 3);
 
-        BuildType buildType = new FakeBuildType("bt1", "Build type test");
+        resource.removeBuildType("bt1");
 
-        resource.buildTypePersisted(buildType);
-        assertEquals(1, resource.getMatchedBuildTypes().size());
-        assertEquals("bt1", resource.getMatchedBuildTypes().get(0));
+        assertEquals(1, resource.getBuildTypeWeight("bt1"));
+        assertTrue(resource.getBuildTypeWeights().isEmpty());
     }
 
     @Test
-    public void persistedBuildTypeNotMatched() {
+    public void buildTypePriorityCannotBeLessThanOne() {
         Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
-        resource.addBuildTypeMatcher(".*test.*");
-
-        BuildType buildType = new FakeBuildType("bt1", "Build type");
 
-        resource.buildTypePersisted(buildType);
-        assertEquals(0, resource.getMatchedBuildTypes().size());
+        thrown.expect(InvalidPriorityException.class);
+        thrown.expectMessage("invalid priority");
+        resource.setBuildTypePriority("bt1", 0);
     }
 
     @Test
-    public void persistedBuildTypeNoLongerMatches() {
+    public void persistingMatchedBuildTypeTwiceShouldNotDuplicateIt() {
         Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
         resource.addBuildTypeMatcher(".*test.*");
+        resource.addMatchedBuildType("bt1");
+        resource.addMatchedBuildType("bt1");
 
-        resource.buildTypePersisted(new FakeBuildType("bt1", "Build type test"));
-        resource.buildTypePersisted(new FakeBuildType("bt1", "Build type"));
-        assertEquals(0, resource.getMatchedBuildTypes().size());
+        assertEquals(1, resource.getMatchedBuildTypes().size());
+        assertEquals(1, resource.getAllBuildTypes().size());
     }
 
     @Test
-    public void matchedBuildsExcludedDuplicateLinkedBuilds() {
+    public void linkingBuildTypeTwiceShouldNotDuplicateIt() {
         Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
         resource.addBuildType("bt1");
-        resource.addBuildTypeMatcher(".*test.*");
-        resource.buildTypePersisted(new FakeBuildType("bt1", "Build type test"));
+        resource.addBuildType("bt1");
 
         assertEquals(1, resource.getBuildTypes().size());
-        assertEquals(0, resource.getMatchedBuildTypes().size());
-        assertEquals(1, resource.getAllBuildTypes().size());
     }
 
     @Test
-    public void unlinkedBuildRemainsLinkedByMatchingName() {
+    public void buildTypeViewsShouldBeCachedUntilModified() {
         Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
         resource.addBuildType("bt1");
-        resource.addBuildTypeMatcher(".*test.*");
-        resource.buildTypePersisted(new FakeBuildType("bt1", "Build type test"));
+        List<String> allBuildTypes = resource.getAllBuildTypes();
 
-        assertEquals(0, resource.getMatchedBuildTypes().size());
+        assertSame(allBuildTypes, resource.getAllBuildTypes());
 
-        resource.removeBuildType("bt1");
-        assertEquals(0, resource.getBuildTypes().size());
-        assertEquals(1, resource.getMatchedBuildTypes().size());
-        assertEquals(1, resource.getAllBuildTypes().size());
+        resource.addBuildType("bt2");
+        assertNotSame(allBuildTypes, resource.getAllBuildTypes());
+        assertEquals(Arrays.asList("bt1", "bt2"), resource.getAllBuildTypes());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void buildTypeViewsShouldBeImmutable() {
+        Resource resource = new Resource(VALID_ID, VALID_NAME, VALID_HOST, VALID_PORT);
+        resource.getAllBuildTypes().add("bt1");
     }
 }
@@ -0,0 +1,153 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.parameters.ParametersProvider;
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class RunningBuildReconcilerTest {
+
+    private static final String RESOURCE_ID = "1";
+    private static final String BUILD_TYPE_ID = "bt1";
+
+    private SBuildServer buildServer;
+    private ResourceManager manager;
+    private ResourceBuildLimitStartPrecondition precondition;
+    private RunningBuildReconciler reconciler;
+
+    private List<SRunningBuild> runningBuilds = new ArrayList<SRunningBuild>();
+
+    @Before
+    public void setup() {
+        buildServer = mock(SBuildServer.class);
+        when(buildServer.getRunningBuilds()).thenReturn(runningBuilds);
+        manager = new ResourceManager(null);
+        Resource resource = new Resource(RESOURCE_ID, "resource", "localhost", 1234);
+        resource.addBuildType(BUILD_TYPE_ID);
+        manager.addResource(resource);
+        precondition = new ResourceBuildLimitStartPrecondition(buildServer, manager);
+        reconciler = new RunningBuildReconciler(buildServer, manager, precondition);
+    }
+
+    @Test
+    public void shouldRegisterAsListener() {
+        verify(buildServer).addListener(reconciler);
+    }
+
+    @Test
+    public void startupShouldCountRunningBuildsAndScheduleReconciliation() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(buildServer.getExecutor()).thenReturn(executor);
+        runningBuilds.add(createBuild(BUILD_TYPE_ID, 101));
+        runningBuilds.add(createBuild(BUILD_TYPE_ID, 102));
+        runningBuilds.add(createBuild("bt2", 103));
+
+        reconciler.serverStartup();
+
+        ResourceBuildCount count = precondition.getResourceBuildCount(RESOURCE_ID);
+        assertEquals(2, count.size());
+        assertTrue(count.contains(101));
+        assertTrue(count.contains(102));
+        assertEquals(2, reconciler.getMissedBuilds());
+        verify(executor).scheduleAtFixedRate(reconciler, RunningBuildReconciler.RECONCILE_INTERVAL,
+                RunningBuildReconciler.RECONCILE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void shouldReleaseBuildsThatAreNoLongerRunning() {
+        ResourceBuildCount count = precondition.getResourceBuildCount(RESOURCE_ID);
+        count.allocate(101);
+        count.allocate(102);
+        runningBuilds.add(createBuild(BUILD_TYPE_ID, 102));
+
+        reconciler.run();
+
+        assertFalse(count.contains(101));
+        assertTrue(count.contains(102));
+        assertEquals(1, reconciler.getReclaimedBuilds());
+        assertEquals(0, reconciler.getMissedBuilds());
+    }
+
+    @Test
+    public void shouldAllocateMissedBuildsWithTheirWeight() {
+        manager.getResourceById(RESOURCE_ID).setBuildTypeWeight(BUILD_TYPE_ID, 3);
+        runningBuilds.add(createBuild(BUILD_TYPE_ID, 101));
+
+        reconciler.run();
+
+        assertEquals(3, precondition.getBuildUnits(RESOURCE_ID));
+        assertEquals(1, reconciler.getMissedBuilds());
+    }
+
+    @Test
+    public void reconciledCountsShouldNotDriftFurther() {
+        precondition.getResourceBuildCount(RESOURCE_ID).allocate(101);
+        runningBuilds.add(createBuild(BUILD_TYPE_ID, 102));
+
+        reconciler.run();
+        reconciler.run();
+
+        assertEquals(1, precondition.getBuildCount(RESOURCE_ID));
+        assertEquals(1, reconciler.getReclaimedBuilds());
+        assertEquals(1, reconciler.getMissedBuilds());
+    }
+
+    @Test
+    public void shouldRestoreAndReleaseMembersOfPoolBuilds() {
+        Resource pool = new Resource("2", "pool", "otherhost", 1234);
+        PoolMember member = new PoolMember("host1", 1234, 1);
+        pool.addMember(member);
+        pool.addBuildType("bt2");
+        manager.addResource(pool);
+        ResourcePoolAllocator allocator = new ResourcePoolAllocator(buildServer, manager, mock(ResourceMonitor.class));
+        reconciler = new RunningBuildReconciler(buildServer, manager, precondition, allocator);
+        SRunningBuild build = createBuild("bt2", 101);
+        ParametersProvider parameters = mock(ParametersProvider.class);
+        when(parameters.get(ResourcePoolAllocator.HOST_PARAMETER)).thenReturn("host1");
+        when(parameters.get(ResourcePoolAllocator.PORT_PARAMETER)).thenReturn("1234");
+        when(build.getParametersProvider()).thenReturn(parameters);
+        runningBuilds.add(build);
+
+        reconciler.run();
+        assertEquals(member, allocator.getMember(pool, 101));
+
+        runningBuilds.clear();
+        reconciler.run();
+        assertNull(allocator.getMember(pool, 101));
+        assertEquals(0, allocator.getBuildCount(pool, member));
+    }
+
+    @Test
+    public void shutdownShouldCancelReconciliation() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        ScheduledFuture future = mock(ScheduledFuture.class);
+        when(buildServer.getExecutor()).thenReturn(executor);
+        when(executor.scheduleAtFixedRate(reconciler, RunningBuildReconciler.RECONCILE_INTERVAL,
+                RunningBuildReconciler.RECONCILE_INTERVAL, TimeUnit.SECONDS)).thenReturn(future);
+
+        reconciler.serverStartup();
+        reconciler.serverShutdown();
+
+        verify(future).cancel(false);
+    }
+
+    private SRunningBuild createBuild(String buildTypeId, long promotionId) {
+        SRunningBuild build = mock(SRunningBuild.class);
+        BuildPromotion promotion = mock(BuildPromotion.class);
+        when(promotion.getId()).thenReturn(promotionId);
+        when(build.getBuildPromotion()).thenReturn(promotion);
+        when(build.getBuildTypeId()).thenReturn(buildTypeId);
+        return build;
+    }
+}
@@ -0,0 +1,87 @@
+package teamcity.resource;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShadowLogTest {
+
+    private ShadowLog shadowLog = new ShadowLog();
+
+    @Test
+    public void shouldCountDecisionsByReason() {
+        shadowLog.admitted(100, 0);
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 1000);
+        shadowLog.wouldBlock(102, "bt1", WaitTimes.Reason.UNAVAILABLE, "unavailable", 2000);
+        shadowLog.wouldBlock(103, "bt2", WaitTimes.Reason.START_RATE, "rate", 3000);
+
+        assertEquals(4, shadowLog.getChecked());
+        assertEquals(3, shadowLog.getWouldBlock());
+        assertEquals(1, shadowLog.getWouldBlock(WaitTimes.Reason.AT_LIMIT));
+        assertEquals(1, shadowLog.getWouldBlock(WaitTimes.Reason.UNAVAILABLE));
+        assertEquals(1, shadowLog.getWouldBlock(WaitTimes.Reason.START_RATE));
+        assertEquals(0, shadowLog.getWouldBlock(WaitTimes.Reason.DISABLED));
+    }
+
+    @Test
+    public void shouldCountBuildCheckedRepeatedlyOnce() {
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 1000);
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 2000);
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.QUEUED, "queued", 3000);
+        shadowLog.admitted(101, 4000);
+
+        assertEquals(1, shadowLog.getChecked());
+        assertEquals(1, shadowLog.getWouldBlock());
+        assertEquals(2, shadowLog.getDecisions().size());
+        assertEquals(WaitTimes.Reason.QUEUED, shadowLog.getDecisions().get(1).getReason());
+    }
+
+    @Test
+    public void shouldMeasureTimeOfEachBuildUntilItIsAdmitted() {
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 1000);
+        shadowLog.wouldBlock(102, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 4000);
+        assertEquals(7000, shadowLog.getBlockedTime(6000));
+
+        shadowLog.admitted(101, 11000);
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 20000);
+
+        assertEquals(10000 + 26000 + 10000, shadowLog.getBlockedTime(30000));
+        assertEquals(26000, shadowLog.getLongestBlock(30000));
+    }
+
+    @Test
+    public void shouldEndBlockWhenBuildLeavesQueue() {
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 1000);
+        shadowLog.removed(101, 3000);
+        shadowLog.removed(102, 3000);
+
+        assertEquals(2000, shadowLog.getBlockedTime(10000));
+        assertEquals(2000, shadowLog.getLongestBlock(10000));
+    }
+
+    @Test
+    public void buildsNotCheckedWithinTtlShouldBeForgotten() {
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 0);
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", 1000);
+
+        long later = WaitTimeTracker.WAIT_TTL + 2000;
+        shadowLog.wouldBlock(102, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", later);
+
+        assertEquals(1000, shadowLog.getBlockedTime(later));
+    }
+
+    @Test
+    public void shouldKeepMostRecentDecisionsOldestFirst() {
+        for (int i = 0; i < ShadowLog.CAPACITY + 5; i++) {
+            shadowLog.wouldBlock(i, "bt1", WaitTimes.Reason.AT_LIMIT, "limit", i);
+        }
+
+        List<ShadowLog.Decision> decisions = shadowLog.getDecisions();
+        assertEquals(ShadowLog.CAPACITY, decisions.size());
+        assertEquals(5, decisions.get(0).getBuildId());
+        assertEquals(ShadowLog.CAPACITY + 4, decisions.get(ShadowLog.CAPACITY - 1).getBuildId());
+        assertEquals(ShadowLog.CAPACITY + 5, shadowLog.getWouldBlock());
+    }
+}
@@ -0,0 +1,82 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.web.openapi.WebControllerManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
+import static org.mockito.Mockito.*;
+
+public class ShadowReportControllerTest {
+
+    private WebControllerManager controllerManager;
+    private ResourceManager manager;
+    private ResourceBuildLimitStartPrecondition precondition;
+    private ShadowReportController controller;
+
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private StringBuilder responseMessage;
+
+    @Before
+    public void setup() throws IOException {
+        controllerManager = mock(WebControllerManager.class);
+        manager = new ResourceManager(null);
+        precondition = new ResourceBuildLimitStartPrecondition(mock(SBuildServer.class), manager);
+        controller = new ShadowReportController(controllerManager, manager, precondition);
+
+        request = mock(HttpServletRequest.class);
+        response = mock(HttpServletResponse.class);
+        responseMessage = new StringBuilder();
+        ServletOutputStream servletOutputStream = new ServletOutputStream() {
+            @Override
+            public void write(int i) throws IOException {
+                responseMessage.append((char) i);
+            }
+        };
+        when(response.getOutputStream()).thenReturn(servletOutputStream);
+    }
+
+    @Test
+    public void shouldRegisterWithWebControllerManager() {
+        verify(controllerManager).registerController(eq("/resourceShadow.html"), eq(controller));
+    }
+
+    @Test
+    public void shouldReturnEmptyReportWithoutShadowResources() throws Exception {
+        controller.doHandle(request, response);
+
+        assertXpathEvaluatesTo("0", "count(//shadow/resource-shadow)", responseMessage.toString());
+    }
+
+    @Test
+    public void shouldReportDecisionsOfShadowResource() throws Exception {
+        Resource resource = new Resource("123", "Test resource", "localhost", 1234, 1);
+        resource.setShadow(true);
+        manager.addResource(resource);
+        ShadowLog shadowLog = precondition.getShadowLog("123");
+        shadowLog.admitted(100, 0);
+        shadowLog.wouldBlock(101, "bt1", WaitTimes.Reason.AT_LIMIT, "Build limit reached", 0);
+
+        controller.doHandle(request, response);
+
+        String xml = responseMessage.toString();
+        assertXpathEvaluatesTo("Test resource", "//resource-shadow[@id='123']/@name", xml);
+        assertXpathEvaluatesTo("2", "//resource-shadow[@id='123']/@checked", xml);
+        assertXpathEvaluatesTo("1", "//resource-shadow[@id='123']/@would-block", xml);
+        assertXpathEvaluatesTo("1", "//resource-shadow[@id='123']/@at-limit", xml);
+        assertXpathEvaluatesTo("0", "//resource-shadow[@id='123']/@unavailable", xml);
+        assertXpathEvaluatesTo("0", "//resource-shadow[@id='123']/@start-rate", xml);
+        assertXpathEvaluatesTo("101", "//resource-shadow[@id='123']/decision/@build-id", xml);
+        assertXpathEvaluatesTo("bt1", "//resource-shadow[@id='123']/decision/@build-type", xml);
+        assertXpathEvaluatesTo("at-limit", "//resource-shadow[@id='123']/decision/@reason", xml);
+        assertXpathEvaluatesTo("Build limit reached", "//resource-shadow[@id='123']/decision", xml);
+    }
+}
@@ -4,8 +4,12 @@ import jetbrains.buildServer.serverSide.SBuildType;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class TeamCity7BuildTypeAdapterTest {
 
@@ -35,4 +39,11 @@ public class TeamCity7BuildTypeAdapterTest {
         adapter.getExternalId();
         verify(buildType).getBuildTypeId();
     }
+
+    @Test
+    public void projectPathShouldBeTheBuildTypeProject() {
+        when(buildType.getProjectId()).thenReturn("project1");
+
+        assertEquals(Collections.singletonList("project1"), adapter.getProjectPath());
+    }
 }
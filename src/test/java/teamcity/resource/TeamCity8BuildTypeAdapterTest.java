@@ -1,12 +1,21 @@
 package teamcity.resource;
 
 import jetbrains.buildServer.serverSide.SBuildType;
+import jetbrains.buildServer.serverSide.SProject;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class TeamCity8BuildTypeAdapterTest {
 
@@ -41,4 +50,39 @@ public class TeamCity8BuildTypeAdapterTest {
         @NotNull
         String getExternalId();
     }
+
+    @Test
+    public void projectPathShouldIncludeParentProjects() {
+        SProject root = mock(SProject.class);
+        when(root.getProjectId()).thenReturn("_Root");
+        SProject parent = mock(SProject.class);
+        when(parent.getProjectId()).thenReturn("project1");
+        when(parent.getParentProject()).thenReturn(root);
+        SProject project = mock(SProject.class);
+        when(project.getProjectId()).thenReturn("project2");
+        when(project.getParentProject()).thenReturn(parent);
+        when(buildType.getProject()).thenReturn(project);
+
+        assertEquals(Arrays.asList("_Root", "project1", "project2"), adapter.getProjectPath());
+    }
+
+    @Test
+    public void shouldDelegateGettingParameterValue() {
+        Map<String, String> parameters = new HashMap<String, String>();
+        parameters.put("env.DB", "oracle");
+        when(buildType.getParameters()).thenReturn(parameters);
+
+        assertEquals("oracle", adapter.getParameterValue("env.DB"));
+        assertNull(adapter.getParameterValue("env.OTHER"));
+    }
+
+    @Test
+    public void shouldFetchParametersOnce() {
+        when(buildType.getParameters()).thenReturn(new HashMap<String, String>());
+
+        adapter.getParameterValue("env.DB");
+        adapter.getParameterValue("env.OTHER");
+
+        verify(buildType, times(1)).getParameters();
+    }
 }
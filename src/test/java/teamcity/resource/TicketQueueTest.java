@@ -0,0 +1,120 @@
+package teamcity.resource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TicketQueueTest {
+
+    private TicketQueue tickets;
+
+    @Before
+    public void setup() {
+        tickets = new TicketQueue();
+    }
+
+    @Test
+    public void ticketsShouldBeServedInTheOrderIssued() {
+        tickets.issue(3, 1, 1, 0);
+        tickets.issue(1, 1, 1, 0);
+        tickets.issue(2, 1, 1, 0);
+
+        assertEquals(3, tickets.head(0).getBuildId());
+        tickets.grant(3);
+        assertEquals(1, tickets.head(0).getBuildId());
+        tickets.grant(1);
+        assertEquals(2, tickets.head(0).getBuildId());
+    }
+
+    @Test
+    public void reissuingShouldKeepPlace() {
+        tickets.issue(1, 1, 1, 0);
+        tickets.issue(2, 1, 1, 0);
+        tickets.issue(1, 1, 1, 1);
+
+        assertEquals(1, tickets.head(0).getBuildId());
+        assertEquals(2, tickets.size());
+    }
+
+    @Test
+    public void higherPriorityShouldMoveAheadOfTicketsIssuedAtTheSameTime() {
+        tickets.issue(1, 1, 1, 0);
+        tickets.issue(2, 1, 2, 0);
+
+        assertEquals(2, tickets.head(0).getBuildId());
+    }
+
+    @Test
+    public void higherPriorityShouldNotOvertakeTicketsIssuedAStrideEarlier() {
+        tickets.issue(1, 1, 1, 0);
+        tickets.grant(1);
+        tickets.issue(2, 1, 1, 0);
+        tickets.issue(3, 1, 1, 0);
+        tickets.grant(2);
+        tickets.issue(4, 1, 100, 0);
+
+        assertEquals(3, tickets.head(0).getBuildId());
+    }
+
+    @Test
+    public void ticketsNotSeenSinceOldestTimeShouldBeDropped() {
+        tickets.issue(1, 1, 1, 1);
+        tickets.issue(2, 2, 1, 2);
+
+        TicketQueue.Ticket head = tickets.head(2);
+
+        assertEquals(2, head.getBuildId());
+        assertEquals(2, head.getUnits());
+        assertEquals(1, tickets.size());
+    }
+
+    @Test
+    public void removeShouldDiscardTicket() {
+        tickets.issue(1, 1, 1, 0);
+
+        assertTrue(tickets.remove(1));
+        assertFalse(tickets.grant(1));
+        assertNull(tickets.head(0));
+    }
+
+    @Test
+    public void positionShouldCountTicketsAhead() {
+        tickets.issue(1, 1, 1, 0);
+        tickets.issue(2, 1, 1, 0);
+        tickets.issue(3, 1, 1, 0);
+
+        assertEquals(1, tickets.position(1));
+        assertEquals(3, tickets.position(3));
+        assertEquals(0, tickets.position(4));
+
+        tickets.grant(1);
+
+        assertEquals(2, tickets.position(3));
+    }
+
+    @Test
+    public void snapshotShouldKeepQueueAsOfLastChange() {
+        TicketQueue.Ticket first = tickets.issue(1, 1, 1, 0);
+        TicketQueue.Ticket second = tickets.issue(2, 1, 1, 0);
+        TicketQueue.Ticket[] snapshot = tickets.getSnapshot();
+
+        tickets.grant(1);
+
+        assertEquals(2, snapshot.length);
+        assertEquals(2, TicketQueue.position(snapshot, second));
+        assertEquals(0, TicketQueue.position(tickets.getSnapshot(), first));
+        assertEquals(1, TicketQueue.position(tickets.getSnapshot(), second));
+    }
+
+    @Test
+    public void droppingTicketsShouldPublishSnapshot() {
+        tickets.issue(1, 1, 1, 0);
+        tickets.issue(2, 1, 1, 5);
+
+        tickets.head(1);
+
+        assertEquals(1, tickets.getSnapshot().length);
+        assertEquals(1, tickets.position(2));
+    }
+}
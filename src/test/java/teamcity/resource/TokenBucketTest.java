@@ -0,0 +1,79 @@
+package teamcity.resource;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void shouldAllowOneStartAfterIdleByDefault() {
+        TokenBucket bucket = new TokenBucket(3, 0);
+
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+        assertFalse(bucket.isAvailable(0));
+        assertEquals(1, bucket.getAvailableTokens(600 * SECOND));
+    }
+
+    @Test
+    public void shouldAllowConfiguredBurstAfterIdle() {
+        TokenBucket bucket = new TokenBucket(3, 3, 0);
+
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+    }
+
+    @Test
+    public void defaultBurstShouldSpaceStartsByRate() {
+        TokenBucket bucket = new TokenBucket(6, 0);
+        bucket.tryAcquire(0);
+
+        assertFalse(bucket.tryAcquire(9 * SECOND));
+        assertTrue(bucket.tryAcquire(10 * SECOND));
+        assertFalse(bucket.tryAcquire(15 * SECOND));
+        assertTrue(bucket.tryAcquire(20 * SECOND));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectBurstBelowOne() {
+        new TokenBucket(6, 0, 0);
+    }
+
+    @Test
+    public void shouldRefillOneTokenPerIntervalOfRate() {
+        TokenBucket bucket = new TokenBucket(6, 6, 0);
+        for (int i = 0; i < 6; i++) {
+            bucket.tryAcquire(0);
+        }
+
+        assertFalse(bucket.isAvailable(9 * SECOND));
+        assertTrue(bucket.isAvailable(10 * SECOND));
+        assertEquals(2, bucket.getAvailableTokens(25 * SECOND));
+    }
+
+    @Test
+    public void partialIntervalsShouldCarryOver() {
+        TokenBucket bucket = new TokenBucket(6, 6, 0);
+        for (int i = 0; i < 6; i++) {
+            bucket.tryAcquire(0);
+        }
+
+        assertTrue(bucket.tryAcquire(15 * SECOND));
+        assertTrue(bucket.tryAcquire(20 * SECOND));
+        assertFalse(bucket.tryAcquire(25 * SECOND));
+    }
+
+    @Test
+    public void tokensShouldNotExceedBurst() {
+        TokenBucket bucket = new TokenBucket(6, 2, 0);
+
+        assertEquals(2, bucket.getAvailableTokens(600 * SECOND));
+    }
+}
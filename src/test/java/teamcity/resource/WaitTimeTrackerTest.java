@@ -0,0 +1,145 @@
+package teamcity.resource;
+
+import jetbrains.buildServer.serverSide.BuildPromotion;
+import jetbrains.buildServer.serverSide.SBuildServer;
+import jetbrains.buildServer.serverSide.SQueuedBuild;
+import jetbrains.buildServer.serverSide.SRunningBuild;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import static teamcity.resource.WaitTimes.Reason.*;
+
+public class WaitTimeTrackerTest {
+
+    private static final String RESOURCE_ID = "1";
+    private static final String BUILD_TYPE_ID = "bt1";
+
+    private SBuildServer buildServer;
+    private WaitTimeTracker tracker;
+
+    @Before
+    public void setup() {
+        buildServer = mock(SBuildServer.class);
+        tracker = new WaitTimeTracker(buildServer);
+    }
+
+    @Test
+    public void shouldRegisterAsListener() {
+        verify(buildServer).addListener(tracker);
+    }
+
+    @Test
+    public void shouldCountBlockedBuildsByReason() {
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, UNAVAILABLE, 0);
+        tracker.blocked(102, RESOURCE_ID, "bt2", AT_LIMIT, 0);
+        tracker.blocked(102, RESOURCE_ID, "bt2", AT_LIMIT, 1000);
+
+        WaitTimes waitTimes = tracker.getResourceWaitTimes(RESOURCE_ID);
+        assertEquals(2, waitTimes.getBlocked());
+        assertEquals(1, waitTimes.getBlocked(UNAVAILABLE));
+        assertEquals(1, waitTimes.getBlocked(AT_LIMIT));
+        assertEquals(1, tracker.getBuildTypeWaitTimes(BUILD_TYPE_ID).getBlocked());
+    }
+
+    @Test
+    public void shouldRecordWaitFromFirstBlockWhenReleased() {
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, 1000);
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, 5000);
+        tracker.released(101, 21000);
+
+        WaitTimeHistogram histogram = tracker.getResourceWaitTimes(RESOURCE_ID).getHistogram(AT_LIMIT);
+        assertEquals(1, histogram.getCount());
+        assertEquals(20, histogram.getAverageSeconds());
+        assertEquals(1, histogram.getBuckets()[1]);
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getBlocked());
+        assertEquals(1, tracker.getBuildTypeWaitTimes(BUILD_TYPE_ID).getWaitCount());
+    }
+
+    @Test
+    public void releaseShouldRecordWaitUnderLastReason() {
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, DISABLED, 0);
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, 500);
+        tracker.released(101, 1000);
+
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getBlocked());
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getHistogram(DISABLED).getCount());
+        assertEquals(1, tracker.getResourceWaitTimes(RESOURCE_ID).getHistogram(AT_LIMIT).getCount());
+    }
+
+    @Test
+    public void shouldMoveBlockedBuildToNewReason() {
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, UNAVAILABLE, 0);
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, DISABLED, 1000);
+
+        WaitTimes waitTimes = tracker.getResourceWaitTimes(RESOURCE_ID);
+        assertEquals(0, waitTimes.getBlocked(UNAVAILABLE));
+        assertEquals(1, waitTimes.getBlocked(DISABLED));
+    }
+
+    @Test
+    public void startedBuildShouldEndItsWait() {
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, 0);
+
+        SRunningBuild build = mock(SRunningBuild.class);
+        BuildPromotion promotion = mock(BuildPromotion.class);
+        when(promotion.getId()).thenReturn(101L);
+        when(build.getBuildPromotion()).thenReturn(promotion);
+        tracker.buildStarted(build);
+
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getBlocked());
+        assertEquals(1, tracker.getResourceWaitTimes(RESOURCE_ID).getWaitCount());
+    }
+
+    @Test
+    public void removedBuildShouldNotRecordWait() {
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, 0);
+
+        SQueuedBuild queued = mock(SQueuedBuild.class);
+        BuildPromotion promotion = mock(BuildPromotion.class);
+        when(promotion.getId()).thenReturn(101L);
+        when(queued.getBuildPromotion()).thenReturn(promotion);
+        tracker.buildRemovedFromQueue(queued, null, null);
+
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getBlocked());
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getWaitCount());
+    }
+
+    @Test
+    public void waitsOfBuildsNotCheckedWithinTtlShouldExpire() {
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, 0);
+        tracker.blocked(102, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, 0);
+        tracker.blocked(102, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, WaitTimeTracker.WAIT_TTL);
+
+        tracker.blocked(103, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, WaitTimeTracker.WAIT_TTL + 1);
+
+        assertEquals(2, tracker.getWaitingBuilds());
+        assertEquals(2, tracker.getResourceWaitTimes(RESOURCE_ID).getBlocked());
+        assertEquals(0, tracker.getResourceWaitTimes(RESOURCE_ID).getWaitCount());
+    }
+
+    @Test
+    public void expiredBuildCheckedAgainShouldStartNewWait() {
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, 0);
+        tracker.expireWaits(WaitTimeTracker.WAIT_TTL + 1);
+
+        tracker.blocked(101, RESOURCE_ID, BUILD_TYPE_ID, AT_LIMIT, WaitTimeTracker.WAIT_TTL + 1);
+        tracker.released(101, WaitTimeTracker.WAIT_TTL + 1001);
+
+        WaitTimeHistogram histogram = tracker.getResourceWaitTimes(RESOURCE_ID).getHistogram(AT_LIMIT);
+        assertEquals(1, histogram.getCount());
+        assertEquals(1000, histogram.getTotal());
+        assertEquals(0, tracker.getWaitingBuilds());
+    }
+
+    @Test
+    public void longWaitsShouldGoInLastBucket() {
+        WaitTimeHistogram histogram = new WaitTimeHistogram();
+        histogram.record(2 * 3600 * 1000L);
+
+        long[] buckets = histogram.getBuckets();
+        assertEquals(WaitTimeHistogram.BOUNDS.length + 1, buckets.length);
+        assertEquals(1, buckets[buckets.length - 1]);
+    }
+}